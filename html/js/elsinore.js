@@ -272,6 +272,67 @@ function requestData() {
     );
 }
 
+// Merge a delta from /status/stream into the last full status
+function mergeStatus(status, delta) {
+    $.each(delta, function (key, value) {
+        if (key == "vessels") {
+            $.each(value, function (index, vessel) {
+                $.each(status.vessels, function (i, oldVessel) {
+                    if (oldVessel.name == vessel.name) {
+                        status.vessels[i] = vessel;
+                    }
+                });
+            });
+        }
+        else if ($.isPlainObject(value) && $.isPlainObject(status[key])
+            && (key == "switches" || key == "timers" || key == "triggers" || key == "phSensors")) {
+            $.extend(status[key], value);
+        }
+        else {
+            status[key] = value;
+        }
+    });
+    return status;
+}
+
+function pollData() {
+    if (window.pollTimer == null) {
+        window.pollTimer = setInterval("requestData()", 10000);
+    }
+}
+
+function streamData() {
+    if (!window.EventSource) {
+        requestData();
+        pollData();
+        return;
+    }
+    var source = new EventSource('/status/stream');
+    source.addEventListener('status', function (e) {
+        window.currentStatus = JSON.parse(e.data);
+        parseData(window.currentStatus);
+    });
+    source.addEventListener('delta', function (e) {
+        if (window.currentStatus == null) {
+            return;
+        }
+        parseData(mergeStatus(window.currentStatus, JSON.parse(e.data)));
+    });
+    source.onopen = function () {
+        if (window.pollTimer != null) {
+            clearInterval(window.pollTimer);
+            window.pollTimer = null;
+        }
+    };
+    source.onerror = function () {
+        // The browser will reconnect, poll until it does
+        if (source.readyState == EventSource.CLOSED) {
+            requestData();
+        }
+        pollData();
+    };
+}
+
 function addProbeCard(vesselProbe, position) {
     var div = "<div id='" + vesselProbe
         + "' class='col-sm-12 col-md-6 col-lg-5 col-xl-4 card card-block text-xs-center m-x'>"
@@ -751,7 +812,7 @@ $(document).ready(function () {
             });
         }
     });
-    requestData();
+    streamData();
     // When the Analog box is shown grab the analog data and render it
     var anaModel = $('#analog-modal');
     anaModel.on('show.bs.modal', function (event) {
@@ -765,7 +826,6 @@ $(document).ready(function () {
             }
         })
     });
-    setInterval("requestData()", 10000);
 });
 
 
@@ -2,9 +2,10 @@ package com.sb.elsinore;
 
 import ca.strangebrew.recipe.Recipe;
 import com.sb.elsinore.NanoHTTPD.Response.Status;
-import com.sb.elsinore.annotations.Parameter;
 import com.sb.elsinore.annotations.UrlEndpoint;
-import org.json.simple.JSONArray;
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
 import org.json.simple.JSONObject;
 
 import java.io.File;
@@ -31,7 +32,18 @@ public class BrewServer extends NanoHTTPD {
     public static String SHA = "";
     public static String SHA_DATE = "";
     private static Recipe currentRecipe;
-    private final TreeMap<String, java.lang.reflect.Method> m_endpoints = new TreeMap<>();
+    /**
+     * The endpoints compiled at startup, lower case URL -> handler.
+     */
+    private Map<String, EndpointHandler> m_endpoints = Collections.emptyMap();
+    /**
+     * The /help JSON, built once from the endpoints.
+     */
+    private String m_helpJSON = "{}";
+    /**
+     * The index of the static files under the root directory.
+     */
+    private StaticFileIndex staticFiles;
     /**
      * The Root Directory of the files to be served.
      */
@@ -42,6 +54,37 @@ public class BrewServer extends NanoHTTPD {
      */
     public static final Logger LOG = Logger.getLogger("com.sb.manager.Server");
 
+    /**
+     * Time taken to answer each request, by endpoint. Static files and
+     * unknown URLs are grouped so the labels stay few.
+     */
+    private static final Histogram REQUEST_TIME = Metrics.histogram(
+            "elsinore_http_request_seconds",
+            "Time taken to answer a request.", Histogram.LATENCY, "endpoint");
+    /**
+     * Requests answered with an error status, by endpoint.
+     */
+    private static final Counter REQUEST_ERRORS = Metrics.counter(
+            "elsinore_http_request_errors_total",
+            "Requests answered with a 4xx or 5xx status.", "endpoint");
+
+    /**
+     * The System property for the number of HTTP worker threads.
+     */
+    public static final String HTTP_THREADS = "http_threads";
+    /**
+     * The System property for the request read timeout in milliseconds.
+     */
+    public static final String HTTP_TIMEOUT = "http_timeout";
+    /**
+     * The System property for the keep-alive idle timeout in milliseconds.
+     */
+    public static final String HTTP_KEEP_ALIVE = "http_keepalive";
+    /**
+     * Default number of HTTP worker threads, small enough for a Pi.
+     */
+    public static final int DEFAULT_HTTP_THREADS = 16;
+
     /**
      * Hashtable mapping (String)FILENAME_EXTENSION -> (String)MIME_TYPE.
      */
@@ -109,6 +152,8 @@ public class BrewServer extends NanoHTTPD {
         BrewServer.LOG.info("Enabled logging at level:" + logLevel.toString());
         BrewServer.LOG.setLevel(logLevel);
 
+        setupWorkers();
+
         this.rootDir = new File(BrewServer.class.getProtectionDomain()
                 .getCodeSource().getLocation().getPath()).getParentFile();
 
@@ -124,18 +169,51 @@ public class BrewServer extends NanoHTTPD {
             LOG.info("Root directory: " + rootDir.toString());
         }
 
-        // Load the ANnotations
-        for (java.lang.reflect.Method m
-                : UrlEndpoints.class.getDeclaredMethods()) {
-            UrlEndpoint urlMethod = m.getAnnotation(UrlEndpoint.class);
-            if (urlMethod != null) {
-                m_endpoints.put(urlMethod.url().toLowerCase(), m);
+        // Compile the annotated endpoints into the dispatch table
+        m_endpoints = EndpointHandler.compile(UrlEndpoints.class);
+        JSONObject helpJSON = new JSONObject();
+        for (EndpointHandler handler: m_endpoints.values())
+        {
+            UrlEndpoint urlEndpoint = handler.getUrlEndpoint();
+            helpJSON.put(urlEndpoint.url(), urlEndpoint.help());
+        }
+        m_helpJSON = helpJSON.toJSONString();
+
+        staticFiles = new StaticFileIndex(rootDir);
+        StaticAssetCache.preload(rootDir);
+    }
+
+    /**
+     * Use a bounded pool of workers instead of a thread per connection.
+     * Status streams are sent from their own threads, so they don't take
+     * workers from normal requests.
+     */
+    private void setupWorkers() {
+        int threads = DEFAULT_HTTP_THREADS;
+        try {
+            if (System.getProperty(HTTP_THREADS) != null) {
+                threads = Math.max(2,
+                        Integer.parseInt(System.getProperty(HTTP_THREADS)));
             }
+            if (System.getProperty(HTTP_TIMEOUT) != null) {
+                setSocketReadTimeout(
+                        Integer.parseInt(System.getProperty(HTTP_TIMEOUT)));
+            }
+            if (System.getProperty(HTTP_KEEP_ALIVE) != null) {
+                setKeepAliveTimeout(
+                        Integer.parseInt(System.getProperty(HTTP_KEEP_ALIVE)));
+            }
+        } catch (NumberFormatException e) {
+            LOG.warning("Couldn't parse the HTTP worker settings: "
+                    + e.getMessage());
         }
+        LOG.info("Using " + threads + " HTTP worker threads");
+        setAsyncRunner(new BoundedAsyncRunner(threads, threads));
     }
 
     public static void setRecipeList(ArrayList<String> recipeList) {
         BrewServer.recipeList = recipeList;
+        StatusSnapshot.publish();
     }
 
     public static ArrayList<String> getRecipeList() {
@@ -144,6 +222,7 @@ public class BrewServer extends NanoHTTPD {
 
     public static void setCurrentRecipe(Recipe recipe) {
         BrewServer.currentRecipe = recipe;
+        StatusSnapshot.publish();
     }
 
     public static Recipe getCurrentRecipe() {
@@ -183,8 +262,51 @@ public class BrewServer extends NanoHTTPD {
      * @param session The HTTP Session object.
      * @return A NanoHTTPD Response Object
      */
-    @SuppressWarnings("unchecked")
     public final Response serve(IHTTPSession session) {
+        String endpoint = getEndpointLabel(session.getUri());
+        long start = System.nanoTime();
+        Response response = null;
+        try {
+            response = route(session);
+            return response;
+        } finally {
+            REQUEST_TIME.labels(endpoint).observeSince(start);
+            if (response == null || response.getStatus() == null
+                    || response.getStatus().getRequestStatus() >= 400) {
+                REQUEST_ERRORS.labels(endpoint).inc();
+            }
+        }
+    }
+
+    /**
+     * @param uri The requested URI.
+     * @return The endpoint to record the request against.
+     */
+    private String getEndpointLabel(final String uri) {
+        String endpointName = uri;
+        if (uri.endsWith("/help")) {
+            endpointName = uri.substring(0, uri.indexOf("/help"));
+        }
+        endpointName = endpointName.toLowerCase();
+        if (m_endpoints.containsKey(endpointName)) {
+            return endpointName;
+        }
+        if (uri.equals("/") || uri.startsWith("/nls/")
+                || uri.equalsIgnoreCase("/favicon.ico")
+                || staticFiles.exists(uri)) {
+            return "static";
+        }
+        return "other";
+    }
+
+    /**
+     * Find what a request is for and answer it.
+     *
+     * @param session The HTTP Session object.
+     * @return A NanoHTTPD Response Object
+     */
+    @SuppressWarnings("unchecked")
+    private Response route(IHTTPSession session) {
         String uri = session.getUri();
         Method method = session.getMethod();
         Map<String, String> header = session.getHeaders();
@@ -207,14 +329,14 @@ public class BrewServer extends NanoHTTPD {
             // Check to see if there's a theme set.
             if (LaunchControl.theme != null
                     && !LaunchControl.theme.equals("")) {
-                if (new File(rootDir,
-                        "/logos/" + LaunchControl.theme + ".ico").exists()) {
+                if (staticFiles.exists(
+                        "/logos/" + LaunchControl.theme + ".ico")) {
                     return serveFile("/logos/" + LaunchControl.theme + ".ico",
                             header, rootDir);
                 }
             }
 
-            if (new File(rootDir, uri).exists()) {
+            if (staticFiles.exists(uri)) {
                 return serveFile(uri, header, rootDir);
             }
 
@@ -231,14 +353,7 @@ public class BrewServer extends NanoHTTPD {
         }
 
         if (uri.equals("/help")) {
-            JSONObject helpJSON = new JSONObject();
-            for (Map.Entry<String, java.lang.reflect.Method> entry: m_endpoints.entrySet())
-            {
-                UrlEndpoint urlEndpoint = entry.getValue().getAnnotation(UrlEndpoint.class);
-                helpJSON.put(urlEndpoint.url(), urlEndpoint.help());
-            }
-
-            return new Response(Status.OK, MIME_TYPES.get("json"), helpJSON.toJSONString());
+            return new Response(Status.OK, MIME_TYPES.get("json"), m_helpJSON);
         }
 
 
@@ -249,8 +364,8 @@ public class BrewServer extends NanoHTTPD {
             endpointName = uri.substring(0, uri.indexOf("/help"));
             help = true;
         }
-        java.lang.reflect.Method urlMethod = m_endpoints.get(endpointName.toLowerCase());
-        if (urlMethod != null)
+        EndpointHandler handler = m_endpoints.get(endpointName.toLowerCase());
+        if (handler != null)
         {
             if (!help)
             {
@@ -260,33 +375,19 @@ public class BrewServer extends NanoHTTPD {
                     urlEndpoints.files = files;
                     urlEndpoints.header = header;
                     urlEndpoints.rootDir = rootDir;
-                    return (Response) urlMethod.invoke(urlEndpoints);
+                    Response response = handler.handle(urlEndpoints);
+                    // Anything but a read could have changed the status.
+                    if (method != Method.GET) {
+                        StatusSnapshot.publish();
+                    }
+                    return response;
                 } catch (Exception e) {
                     LOG.warning("Couldn't access URL: " + uri);
                     e.printStackTrace();
                 }
             }
 
-            UrlEndpoint urlEndpoint= urlMethod.getAnnotation(UrlEndpoint.class);
-            JSONObject helpJSON = new JSONObject();
-
-            helpJSON.put(urlEndpoint.url(), urlEndpoint.help());
-            JSONArray paramsJSON = new JSONArray();
-
-            for (Parameter parameter: urlEndpoint.parameters())
-            {
-                JSONObject paramObj = new JSONObject();
-                paramObj.put(parameter.name(), parameter.value());
-                paramsJSON.add(paramObj);
-            }
-            Collections.sort(paramsJSON, new Comparator() {
-                @Override
-                public int compare(Object o, Object t1) {
-                    return o.toString().compareTo(t1.toString());
-                }
-            });
-            helpJSON.put("parameters", paramsJSON);
-            return new Response(Status.BAD_REQUEST, MIME_TYPES.get("json"), helpJSON.toJSONString());
+            return new Response(Status.BAD_REQUEST, MIME_TYPES.get("json"), handler.getHelpJSON());
         }
 
         if (uri.equals("/"))
@@ -294,7 +395,7 @@ public class BrewServer extends NanoHTTPD {
             return serveFile("html/index.html", header, rootDir);
         }
 
-        if (!uri.equals("") && new File(rootDir, uri).exists()) {
+        if (!uri.equals("") && staticFiles.exists(uri)) {
             return serveFile(uri, header, rootDir);
         }
 
@@ -363,6 +464,15 @@ public class BrewServer extends NanoHTTPD {
             }
         }
 
+        // Static files come out of memory, already compressed
+        if (res == null) {
+            res = StaticAssetCache.serve(homeDir, uri, header);
+            if (res != null) {
+                res.addHeader("Accept-Ranges", "bytes");
+                return res;
+            }
+        }
+
         File f = new File(homeDir, uri);
         if (res == null && !f.exists()) {
             res = new Response(Response.Status.NOT_FOUND,
@@ -391,16 +501,17 @@ public class BrewServer extends NanoHTTPD {
                     // No index file, list the directory if it is readable
                 } else if (f.canRead()) {
                     String[] files = f.list();
-                    String msg = "<html><body><h1>Directory " + uri
-                            + "</h1><br/>";
+                    StringBuilder msg = new StringBuilder(
+                            "<html><body><h1>Directory ").append(uri)
+                            .append("</h1><br/>");
 
                     if (uri.length() > 1) {
                         String u = uri.substring(0, uri.length() - 1);
                         int slash = u.lastIndexOf('/');
                         if (slash >= 0 && slash < u.length()) {
-                            msg += "<b><a href=\""
-                                    + uri.substring(0, slash + 1)
-                                    + "\">..</a></b><br/>";
+                            msg.append("<b><a href=\"")
+                                    .append(uri.substring(0, slash + 1))
+                                    .append("\">..</a></b><br/>");
                         }
                     }
 
@@ -409,36 +520,41 @@ public class BrewServer extends NanoHTTPD {
                             File curFile = new File(f, files[i]);
                             boolean dir = curFile.isDirectory();
                             if (dir) {
-                                msg += "<b>";
+                                msg.append("<b>");
                                 files[i] += "/";
                             }
 
-                            msg += "<a href=\"" + encodeUri(uri + files[i])
-                                    + "\">" + files[i] + "</a>";
+                            msg.append("<a href=\"")
+                                    .append(encodeUri(uri + files[i]))
+                                    .append("\">").append(files[i])
+                                    .append("</a>");
 
                             // Show file size
                             if (curFile.isFile()) {
                                 long len = curFile.length();
-                                msg += " &nbsp;<font size=2>(";
+                                msg.append(" &nbsp;<font size=2>(");
                                 if (len < 1024) {
-                                    msg += len + " bytes";
+                                    msg.append(len).append(" bytes");
                                 } else if (len < 1024 * 1024) {
-                                    msg += len / 1024 + "."
-                                            + (len % 1024 / 10 % 100) + " KB";
+                                    msg.append(len / 1024).append(".")
+                                            .append(len % 1024 / 10 % 100)
+                                            .append(" KB");
                                 } else {
-                                    msg += len / (1024 * 1024) + "." + len
-                                            % (1024 * 1024) / 10 % 100 + " MB";
+                                    msg.append(len / (1024 * 1024))
+                                            .append(".")
+                                            .append(len % (1024 * 1024) / 10 % 100)
+                                            .append(" MB");
                                 }
-                                msg += ")</font>";
+                                msg.append(")</font>");
                             }
-                            msg += "<br/>";
+                            msg.append("<br/>");
                             if (dir) {
-                                msg += "</b>";
+                                msg.append("</b>");
                             }
                         }
                     }
-                    msg += "</body></html>";
-                    res = new Response(msg);
+                    msg.append("</body></html>");
+                    res = new Response(msg.toString());
                 } else {
                     res = new Response(Response.Status.FORBIDDEN,
                             NanoHTTPD.MIME_PLAINTEXT,
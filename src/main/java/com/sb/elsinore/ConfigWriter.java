@@ -0,0 +1,313 @@
+package com.sb.elsinore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the configuration file in the background.
+ *
+ * Edits mark the configuration as dirty and the file is written once they've
+ * stopped for a moment, so a burst of edits from the UI is a single
+ * write. A steady stream of edits still gets written every so often. The
+ * file is written to a temporary file that's renamed over the old one, so
+ * a crash part way through a write leaves the old file in place, and the
+ * last few versions are kept as numbered backups. A write that fails is
+ * tried again, backing off up to a minute between tries.
+ */
+public final class ConfigWriter {
+
+    /**
+     * The default time to wait for more edits in milliseconds.
+     */
+    public static final long DEFAULT_DELAY = 2000;
+    /**
+     * The default longest time to leave an edit unwritten in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY = 10000;
+    /**
+     * The default number of old versions to keep.
+     */
+    public static final int DEFAULT_BACKUPS = 3;
+    /**
+     * The time to wait before trying a failed write again in milliseconds,
+     * doubled after each failure.
+     */
+    public static final long RETRY_DELAY = 1000;
+    /**
+     * The longest time to wait between tries of a failed write in
+     * milliseconds.
+     */
+    public static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * Where the configuration comes from.
+     */
+    public interface Source {
+        /**
+         * @return The configuration file.
+         */
+        File getFile();
+
+        /**
+         * @return False if the configuration can't be written yet, it's
+         * kept dirty until it can.
+         */
+        boolean isReady();
+
+        /**
+         * Write the whole configuration. Only called from one thread at a
+         * time.
+         * @param out Where to write it.
+         * @throws Exception If it couldn't be written.
+         */
+        void write(OutputStream out) throws Exception;
+    }
+
+    private final Source source;
+    private final long delay;
+    private final long maxDelay;
+    private final int backups;
+    private final Object writeLock = new Object();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private boolean dirty = false;
+    private long firstDirty = -1;
+    private long retryDelay = 0;
+    private ScheduledExecutorService executor = null;
+    private ScheduledFuture<?> pending = null;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Write with the default delays and backups.
+     * @param source The configuration to write.
+     */
+    public ConfigWriter(final Source source) {
+        this(source, DEFAULT_DELAY, DEFAULT_MAX_DELAY, DEFAULT_BACKUPS);
+    }
+
+    /**
+     * @param source The configuration to write.
+     * @param delay The time to wait for more edits in milliseconds.
+     * @param maxDelay The longest time to leave an edit unwritten in
+     *                 milliseconds.
+     * @param backups The number of old versions to keep.
+     */
+    public ConfigWriter(final Source source, final long delay,
+            final long maxDelay, final int backups) {
+        this.source = source;
+        this.delay = delay;
+        this.maxDelay = Math.max(delay, maxDelay);
+        this.backups = backups;
+    }
+
+    /**
+     * Mark the configuration as changed, it's written after the delay.
+     */
+    public synchronized void markDirty() {
+        requests.incrementAndGet();
+        dirty = true;
+        long now = now();
+        if (firstDirty < 0) {
+            firstDirty = now;
+        }
+        long due = Math.min(now + delay, firstDirty + maxDelay);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = getExecutor().schedule(flushTask, Math.max(0, due - now),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the configuration now if it's changed.
+     * @return True if the file was written.
+     */
+    public boolean flush() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!dirty || !source.isReady()) {
+                    return false;
+                }
+                dirty = false;
+                firstDirty = -1;
+                if (pending != null) {
+                    pending.cancel(false);
+                    pending = null;
+                }
+            }
+            try {
+                write();
+                writes.incrementAndGet();
+                synchronized (this) {
+                    retryDelay = 0;
+                }
+                return true;
+            } catch (Exception e) {
+                synchronized (this) {
+                    dirty = true;
+                    retryDelay = retryDelay == 0 ? RETRY_DELAY
+                            : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                    BrewServer.LOG.warning("Couldn't write the configuration, "
+                            + "trying again in " + retryDelay + "ms: "
+                            + e.getMessage());
+                    if (pending == null) {
+                        pending = getExecutor().schedule(flushTask,
+                                retryDelay, TimeUnit.MILLISECONDS);
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Write anything outstanding and stop the background thread.
+     */
+    public void stop() {
+        flush();
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * @return True if there are changes waiting to be written.
+     */
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * @return The number of times a save has been asked for.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of times the file has been written.
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @param file The configuration file.
+     * @param number The backup number, 1 is the newest.
+     * @return The backup file.
+     */
+    public static File getBackup(final File file, final int number) {
+        return new File(file.getPath() + "." + number);
+    }
+
+    private void write() throws Exception {
+        File file = source.getFile().getAbsoluteFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                OutputStream buffered = new BufferedOutputStream(out);
+                source.write(buffered);
+                buffered.flush();
+                out.getFD().sync();
+            }
+            backup(file);
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        syncDirectory(file);
+        LaunchControl.setFileOwner(file);
+    }
+
+    /**
+     * Shift the backups along and keep the current file as the newest.
+     * The file is linked rather than copied where possible, the rename
+     * then leaves the link pointing at the old version.
+     */
+    private void backup(final File file) throws IOException {
+        if (backups <= 0 || !file.exists()) {
+            return;
+        }
+        for (int i = backups - 1; i > 0; i--) {
+            File older = getBackup(file, i);
+            if (older.exists()) {
+                Files.move(older.toPath(), getBackup(file, i + 1).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Path newest = getBackup(file, 1).toPath();
+        Files.deleteIfExists(newest);
+        try {
+            Files.createLink(newest, file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(file.toPath(), newest,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Make sure the rename itself is on disk, not just the new contents.
+     */
+    private static void syncDirectory(final File file) {
+        File directory = file.getParentFile();
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "Config-Writer");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,541 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs the sampling, control and output tasks of every device from one
+ * clock.
+ *
+ * Every tick the due tasks run phase by phase: the due samples are
+ * started, each on its own sampler thread, then the control loops run,
+ * then the outputs are driven. The tick only waits half a tick for the
+ * samples, so the control loops run on the latest readings that are in.
+ * A slow read, like a 750ms DS18B20 conversion, finishes in the
+ * background and its reading is used from the next tick on. It isn't
+ * started again until it's done, which is counted as an overrun if the
+ * sample comes due in the meantime.
+ *
+ * Each task has its own period, rounded up to a whole number of ticks.
+ * A tick that runs longer than the tick, or a task that takes longer than
+ * its period, is counted as an overrun and logged.
+ */
+public final class ControlScheduler {
+
+    /**
+     * The default time between ticks in milliseconds.
+     */
+    public static final long DEFAULT_TICK = 100;
+    /**
+     * The default limit on the number of threads reading samples.
+     */
+    public static final int DEFAULT_MAX_SAMPLERS = 16;
+    /**
+     * The minimum time between overrun warnings in milliseconds.
+     */
+    private static final long WARNING_INTERVAL = 60 * 1000;
+    /**
+     * Time taken by each tick, overruns are the ones over the tick.
+     */
+    private static final Histogram TICK_TIME = Metrics.histogram(
+            "elsinore_scheduler_tick_seconds",
+            "Time taken to run the due tasks of a control tick.",
+            Histogram.LATENCY);
+
+    /**
+     * The phases of a tick, run in this order.
+     */
+    public enum Phase {
+        /**
+         * Read the inputs.
+         */
+        SAMPLE,
+        /**
+         * Work out the new outputs from the inputs.
+         */
+        CONTROL,
+        /**
+         * Drive the outputs.
+         */
+        ACTUATE
+    }
+
+    /**
+     * A periodic piece of work.
+     */
+    public interface Task {
+        /**
+         * @param now The start of the current tick in milliseconds.
+         * @return False to stop running this task.
+         * @throws Exception If the task failed, it stays scheduled.
+         */
+        boolean run(long now) throws Exception;
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Registration {
+        private final String name;
+        private final Phase phase;
+        private final long period;
+        private final Task task;
+        private volatile boolean cancelled = false;
+        private long nextRun = 0;
+        private Future<?> pending = null;
+        private final AtomicLong overruns = new AtomicLong();
+
+        private Registration(final String name, final Phase phase,
+                final long period, final Task task) {
+            this.name = name;
+            this.phase = phase;
+            this.period = period;
+            this.task = task;
+        }
+
+        /**
+         * Stop running the task, it won't be started again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return True if the task has been cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return The name of the task.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The phase the task runs in.
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return The time between runs in milliseconds.
+         */
+        public long getPeriod() {
+            return period;
+        }
+
+        /**
+         * @return The number of times the task missed its period.
+         */
+        public long getOverruns() {
+            return overruns.get();
+        }
+    }
+
+    private final long tick;
+    private volatile int maxSamplers;
+    private final Map<Phase, List<Registration>> tasks =
+            new EnumMap<>(Phase.class);
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong tickOverruns = new AtomicLong();
+    private final AtomicLong taskOverruns = new AtomicLong();
+    private long lastWarning = 0;
+    private long lastTickStart = 0;
+    private ScheduledExecutorService clock = null;
+    private final Object samplerLock = new Object();
+    private ThreadPoolExecutor sampleExecutor = null;
+
+    public ControlScheduler() {
+        this(DEFAULT_TICK, DEFAULT_MAX_SAMPLERS);
+    }
+
+    /**
+     * @param tick The time between ticks in milliseconds.
+     * @param maxSamplers The most threads to read samples with, there's
+     *                    one per sample task up to this.
+     */
+    public ControlScheduler(final long tick, final int maxSamplers) {
+        if (tick <= 0 || maxSamplers <= 0) {
+            throw new IllegalArgumentException(
+                    "The tick and number of samplers must be positive");
+        }
+        this.tick = tick;
+        this.maxSamplers = maxSamplers;
+        for (Phase phase : Phase.values()) {
+            tasks.put(phase, new CopyOnWriteArrayList<Registration>());
+        }
+    }
+
+    /**
+     * Schedule a task, starting the clock if needed.
+     * The task first runs on the next tick.
+     * @param name The name used when reporting the task.
+     * @param phase The phase to run it in.
+     * @param period The time between runs in milliseconds, rounded up
+     *               to a whole number of ticks.
+     * @param task The task.
+     * @return The registration, used to cancel the task.
+     */
+    public Registration schedule(final String name, final Phase phase,
+            final long period, final Task task) {
+        Registration registration = add(name, phase, period, task);
+        start();
+        return registration;
+    }
+
+    /**
+     * Add a task without starting the clock.
+     * @see #schedule(String, Phase, long, Task)
+     */
+    Registration add(final String name, final Phase phase,
+            final long period, final Task task) {
+        long ticksPerRun = Math.max(1, (period + tick - 1) / tick);
+        Registration registration = new Registration(name, phase,
+                ticksPerRun * tick, task);
+        tasks.get(phase).add(registration);
+        if (phase == Phase.SAMPLE) {
+            resizeSamplers();
+        }
+        return registration;
+    }
+
+    /**
+     * Set the most threads to read samples with.
+     * @param newMax The limit, at least one.
+     */
+    public void setMaxSamplers(final int newMax) {
+        if (newMax <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of samplers must be positive");
+        }
+        maxSamplers = newMax;
+        resizeSamplers();
+    }
+
+    /**
+     * @return The number of threads samples are read with, one per sample
+     * task up to the limit.
+     */
+    public int getSamplers() {
+        return Math.max(1,
+                Math.min(tasks.get(Phase.SAMPLE).size(), maxSamplers));
+    }
+
+    /**
+     * @return The pool samples are read on, made when it's first needed.
+     */
+    private ExecutorService samplers() {
+        synchronized (samplerLock) {
+            if (sampleExecutor == null) {
+                int size = getSamplers();
+                sampleExecutor = new ThreadPoolExecutor(size, size,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new NamedThreadFactory("Sampler"));
+                sampleExecutor.allowCoreThreadTimeOut(true);
+            }
+            return sampleExecutor;
+        }
+    }
+
+    /**
+     * Give every sample task its own thread, up to the limit, so a slow
+     * probe never holds up the others.
+     */
+    private void resizeSamplers() {
+        synchronized (samplerLock) {
+            if (sampleExecutor == null) {
+                return;
+            }
+            int size = getSamplers();
+            if (size > sampleExecutor.getMaximumPoolSize()) {
+                sampleExecutor.setMaximumPoolSize(size);
+                sampleExecutor.setCorePoolSize(size);
+            } else {
+                sampleExecutor.setCorePoolSize(size);
+                sampleExecutor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * Start the clock.
+     */
+    public synchronized void start() {
+        if (clock != null) {
+            return;
+        }
+        clock = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("Control-Scheduler"));
+        clock.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // Never let an exception cancel the clock
+                    BrewServer.LOG.log(Level.SEVERE,
+                            "Control tick failed", e);
+                }
+            }
+        }, 0, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the clock, waiting for the current tick to finish, and
+     * interrupt any samples still running.
+     * The scheduled tasks are kept.
+     */
+    public synchronized void stop() {
+        if (clock != null) {
+            clock.shutdown();
+            try {
+                clock.awaitTermination(tick * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            clock = null;
+        }
+        synchronized (samplerLock) {
+            if (sampleExecutor != null) {
+                sampleExecutor.shutdownNow();
+                sampleExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Run the due tasks of every phase.
+     * @param now The start of the tick in milliseconds.
+     */
+    void tick(final long now) {
+        ticks.incrementAndGet();
+        if (lastTickStart > 0 && now - lastTickStart > tick * 2) {
+            overrun(null, "the clock was late by "
+                    + (now - lastTickStart - tick) + "ms");
+        }
+        lastTickStart = now;
+
+        runSamples(now);
+        runPhase(Phase.CONTROL, now);
+        runPhase(Phase.ACTUATE, now);
+
+        long elapsed = System.currentTimeMillis() - now;
+        TICK_TIME.observe(elapsed / 1000.0);
+        if (elapsed > tick) {
+            overrun(null, "the tick took " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Start the due samples and wait for them, up to half a tick so the
+     * rest of the tick still runs on time. The control loops then run on
+     * whichever readings are in.
+     * A sample that's still running is left to finish in the background,
+     * for the next tick's control loops, and isn't started again until it
+     * does.
+     */
+    private void runSamples(final long now) {
+        List<Registration> started = new ArrayList<>();
+        for (final Registration registration : tasks.get(Phase.SAMPLE)) {
+            if (!isDue(registration, now)) {
+                continue;
+            }
+            if (registration.pending != null
+                    && !registration.pending.isDone()) {
+                overrun(registration, "the last sample is still running");
+                continue;
+            }
+            registration.pending = samplers().submit(new Runnable() {
+                @Override
+                public void run() {
+                    runTask(registration, now);
+                }
+            });
+            started.add(registration);
+        }
+
+        long deadline = now + tick / 2;
+        for (Registration registration : started) {
+            long wait = Math.max(0, deadline - System.currentTimeMillis());
+            try {
+                registration.pending.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Carry on with the readings we have
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                BrewServer.LOG.log(Level.WARNING,
+                        registration.name + " failed", e.getCause());
+            }
+        }
+    }
+
+    private void runPhase(final Phase phase, final long now) {
+        for (Registration registration : tasks.get(phase)) {
+            if (isDue(registration, now)) {
+                runTask(registration, now);
+            }
+        }
+    }
+
+    /**
+     * Check if a task is due, and if so when it'll next be due.
+     */
+    private boolean isDue(final Registration registration, final long now) {
+        if (registration.cancelled) {
+            tasks.get(registration.phase).remove(registration);
+            if (registration.phase == Phase.SAMPLE) {
+                resizeSamplers();
+            }
+            return false;
+        }
+        if (registration.nextRun == 0) {
+            registration.nextRun = now;
+        }
+        if (registration.nextRun > now) {
+            return false;
+        }
+        registration.nextRun += registration.period;
+        if (registration.nextRun <= now) {
+            // A whole period was missed, start again from now
+            registration.nextRun = now + registration.period;
+        }
+        return true;
+    }
+
+    private void runTask(final Registration registration, final long now) {
+        if (registration.cancelled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            if (!registration.task.run(now)) {
+                registration.cancel();
+            }
+        } catch (InterruptedException e) {
+            // Stopping
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            BrewServer.LOG.log(Level.WARNING,
+                    registration.name + " failed", e);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (elapsed > registration.period) {
+            overrun(registration, "it took " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Count an overrun and log it, at most once a minute.
+     * @param registration The task that overran, null for the whole tick.
+     * @param reason Why it's an overrun.
+     */
+    private void overrun(final Registration registration,
+            final String reason) {
+        String name;
+        if (registration == null) {
+            tickOverruns.incrementAndGet();
+            name = "Control tick";
+        } else {
+            registration.overruns.incrementAndGet();
+            taskOverruns.incrementAndGet();
+            name = registration.name;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - lastWarning < WARNING_INTERVAL) {
+                return;
+            }
+            lastWarning = now;
+        }
+        BrewServer.LOG.warning(name + " overran, " + reason + " ("
+                + tickOverruns.get() + " tick and " + taskOverruns.get()
+                + " task overruns in " + ticks.get() + " ticks)");
+    }
+
+    /**
+     * @return The time between ticks in milliseconds.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return The number of ticks run.
+     */
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    /**
+     * @return The number of ticks that ran late or long.
+     */
+    public long getTickOverruns() {
+        return tickOverruns.get();
+    }
+
+    /**
+     * @return The number of times any task missed its period.
+     */
+    public long getTaskOverruns() {
+        return taskOverruns.get();
+    }
+
+    /**
+     * @return The scheduled tasks, in the order they run.
+     */
+    public List<Registration> getRegistrations() {
+        List<Registration> all = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            all.addAll(tasks.get(phase));
+        }
+        return all;
+    }
+
+    /**
+     * Names the threads and makes them daemons, so they don't hold up
+     * the shutdown.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
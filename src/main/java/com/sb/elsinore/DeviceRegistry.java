@@ -0,0 +1,209 @@
+package com.sb.elsinore;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A list of devices with an index from each of their keys (name, probe
+ * address and so on) to the device.
+ *
+ * Iterating gives a snapshot in list order, like a CopyOnWriteArrayList, so
+ * the status and recorder threads never see a half made change. Lookups go
+ * through the index instead of comparing every device. Keys are matched
+ * ignoring case, and when two devices share a key the first one in the list
+ * wins, the same as searching the list would.
+ *
+ * Adding to the end only adds the new keys. Anything else, including a
+ * rename, rebuilds the index, so call {@link #reindex()} after changing a
+ * key of a device that's in the list.
+ *
+ * @param <T> The type of device.
+ */
+public final class DeviceRegistry<T> extends AbstractList<T>
+        implements RandomAccess {
+
+    /**
+     * Gives the keys a device can be found by.
+     *
+     * @param <T> The type of device.
+     */
+    public interface Keys<T> {
+        /**
+         * @param device The device.
+         * @return The keys for the device, nulls are skipped.
+         */
+        Collection<String> keysOf(T device);
+    }
+
+    private final Keys<T> keys;
+    private volatile CopyOnWriteArrayList<T> devices = new CopyOnWriteArrayList<>();
+    private volatile Map<String, T> index = new ConcurrentHashMap<>();
+
+    /**
+     * @param keys Gives the keys to index each device by.
+     */
+    public DeviceRegistry(final Keys<T> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Find a device by any of its keys.
+     *
+     * @param key The key to look for, case doesn't matter.
+     * @return The device, or null if there isn't one.
+     */
+    public T find(final String key) {
+        if (key == null) {
+            return null;
+        }
+        return index.get(normalise(key));
+    }
+
+    /**
+     * @param key The key to look for, case doesn't matter.
+     * @return True if a device has the key.
+     */
+    public boolean containsKey(final String key) {
+        return find(key) != null;
+    }
+
+    /**
+     * @return A copy of the devices in their current order.
+     */
+    public List<T> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(devices));
+    }
+
+    /**
+     * Rebuild the index from the current keys of every device.
+     */
+    public synchronized void reindex() {
+        Map<String, T> newIndex = new ConcurrentHashMap<>();
+        for (T device : devices) {
+            addKeys(newIndex, device);
+        }
+        index = newIndex;
+    }
+
+    /**
+     * Sort the devices, keeping the index in step.
+     *
+     * @param comparator The order to use, or null for the natural order.
+     */
+    public synchronized void sort(final Comparator<? super T> comparator) {
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) devices.toArray();
+        Arrays.sort(sorted, comparator);
+        // Swap in the sorted list whole so nobody iterates a partial one
+        devices = new CopyOnWriteArrayList<>(Arrays.asList(sorted));
+        reindex();
+    }
+
+    @Override
+    public T get(final int i) {
+        return devices.get(i);
+    }
+
+    @Override
+    public int size() {
+        return devices.size();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return devices.iterator();
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return devices.contains(o);
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        return devices.indexOf(o);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return devices.toArray();
+    }
+
+    @Override
+    public synchronized boolean add(final T device) {
+        devices.add(device);
+        // The first device with a key wins, so appending can't move any
+        Map<String, T> current = index;
+        addKeys(current, device);
+        return true;
+    }
+
+    @Override
+    public synchronized void add(final int i, final T device) {
+        devices.add(i, device);
+        reindex();
+    }
+
+    @Override
+    public synchronized boolean addAll(final Collection<? extends T> added) {
+        boolean changed = devices.addAll(added);
+        reindex();
+        return changed;
+    }
+
+    @Override
+    public synchronized T set(final int i, final T device) {
+        T old = devices.set(i, device);
+        reindex();
+        return old;
+    }
+
+    @Override
+    public synchronized T remove(final int i) {
+        T old = devices.remove(i);
+        reindex();
+        return old;
+    }
+
+    @Override
+    public synchronized boolean remove(final Object device) {
+        boolean removed = devices.remove(device);
+        if (removed) {
+            reindex();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void clear() {
+        devices.clear();
+        index = new ConcurrentHashMap<>();
+    }
+
+    private void addKeys(final Map<String, T> target, final T device) {
+        Collection<String> deviceKeys = keys.keysOf(device);
+        if (deviceKeys == null) {
+            return;
+        }
+        for (String key : deviceKeys) {
+            if (key != null && !target.containsKey(normalise(key))) {
+                target.put(normalise(key), device);
+            }
+        }
+    }
+
+    private static String normalise(final String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+}
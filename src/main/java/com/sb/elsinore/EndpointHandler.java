@@ -0,0 +1,107 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.NanoHTTPD.Response;
+import com.sb.elsinore.annotations.Parameter;
+import com.sb.elsinore.annotations.UrlEndpoint;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A URL endpoint compiled once at startup.
+ * The {@link UrlEndpoints} method is looked up and checked once, and the
+ * help text is built once rather than on every /help request.
+ */
+public final class EndpointHandler {
+
+    private final UrlEndpoint urlEndpoint;
+    private final Method method;
+    private final String helpJSON;
+
+    private EndpointHandler(final UrlEndpoint urlEndpoint,
+            final Method method) {
+        this.urlEndpoint = urlEndpoint;
+        this.method = method;
+        this.helpJSON = buildHelp(urlEndpoint);
+    }
+
+    /**
+     * Build the dispatch table for all the {@link UrlEndpoint} methods.
+     * @param endpointClass The class to scan for annotated methods.
+     * @return A sorted map of lower case URL -> handler.
+     */
+    public static Map<String, EndpointHandler> compile(
+            final Class<UrlEndpoints> endpointClass) {
+        Map<String, EndpointHandler> handlers = new TreeMap<>();
+        for (Method m : endpointClass.getDeclaredMethods()) {
+            UrlEndpoint urlMethod = m.getAnnotation(UrlEndpoint.class);
+            if (urlMethod == null) {
+                continue;
+            }
+            if (!Response.class.isAssignableFrom(m.getReturnType())
+                    || m.getParameterTypes().length != 0) {
+                BrewServer.LOG.warning("Ignoring endpoint " + urlMethod.url()
+                        + ", it must take no parameters and return a Response");
+                continue;
+            }
+            handlers.put(urlMethod.url().toLowerCase(),
+                    new EndpointHandler(urlMethod, m));
+        }
+        return Collections.unmodifiableMap(handlers);
+    }
+
+    /**
+     * Call the endpoint.
+     * @param urlEndpoints The endpoint instance holding the request details.
+     * @return The response from the endpoint.
+     * @throws IllegalAccessException If the endpoint isn't accessible.
+     * @throws InvocationTargetException If the endpoint throws.
+     */
+    public Response handle(final UrlEndpoints urlEndpoints)
+            throws IllegalAccessException, InvocationTargetException {
+        return (Response) method.invoke(urlEndpoints);
+    }
+
+    /**
+     * @return The annotation this handler was built from.
+     */
+    public UrlEndpoint getUrlEndpoint() {
+        return urlEndpoint;
+    }
+
+    /**
+     * @return The help JSON for this endpoint.
+     */
+    public String getHelpJSON() {
+        return helpJSON;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String buildHelp(final UrlEndpoint urlEndpoint) {
+        JSONObject helpJSON = new JSONObject();
+
+        helpJSON.put(urlEndpoint.url(), urlEndpoint.help());
+        JSONArray paramsJSON = new JSONArray();
+
+        for (Parameter parameter: urlEndpoint.parameters())
+        {
+            JSONObject paramObj = new JSONObject();
+            paramObj.put(parameter.name(), parameter.value());
+            paramsJSON.add(paramObj);
+        }
+        Collections.sort(paramsJSON, new Comparator() {
+            @Override
+            public int compare(Object o, Object t1) {
+                return o.toString().compareTo(t1.toString());
+            }
+        });
+        helpJSON.put("parameters", paramsJSON);
+        return helpJSON.toJSONString();
+    }
+}
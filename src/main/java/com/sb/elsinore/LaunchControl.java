@@ -2,32 +2,36 @@ package com.sb.elsinore;
 
 import Cosm.*;
 import com.sb.common.CollectionsUtil;
+import com.sb.elsinore.config.Config;
+import com.sb.elsinore.config.ConfigXmlReader;
+import com.sb.elsinore.config.ConfigXmlWriter;
+import com.sb.elsinore.config.DeviceConfig;
+import com.sb.elsinore.config.GeneralConfig;
+import com.sb.elsinore.config.I2CConfig;
+import com.sb.elsinore.config.OutputConfig;
+import com.sb.elsinore.config.PhSensorConfig;
+import com.sb.elsinore.config.PidConfig;
+import com.sb.elsinore.config.SwitchConfig;
+import com.sb.elsinore.config.TimerConfig;
+import com.sb.elsinore.config.VolumeConfig;
+import com.sb.elsinore.devices.ADS1015;
+import com.sb.elsinore.devices.I2CBus;
 import com.sb.elsinore.devices.I2CDevice;
+import com.sb.elsinore.devices.OutputScheduler;
+import com.sb.elsinore.inputs.AnalogFilter;
 import com.sb.elsinore.inputs.PhSensor;
+import com.sb.elsinore.metrics.Metrics;
 import com.sb.elsinore.notificiations.Notifications;
+import com.sb.util.MathUtil;
 import jGPIO.GPIO;
 import jGPIO.InvalidGPIOException;
 import org.apache.commons.cli.*;
-import org.ini4j.ConfigParser;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.owfs.jowfsclient.Enums.OwPersistence;
 import org.owfs.jowfsclient.OwfsConnection;
-import org.owfs.jowfsclient.OwfsConnectionConfig;
-import org.owfs.jowfsclient.OwfsConnectionFactory;
 import org.owfs.jowfsclient.OwfsException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.*;
+
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
 import java.math.BigDecimal;
 import java.net.InetAddress;
@@ -41,7 +45,6 @@ import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
@@ -57,11 +60,11 @@ import java.util.regex.Pattern;
  */
 @SuppressWarnings("unused")
 public class LaunchControl {
-    private static final String BREWERY_NAME = "brewery_name";
-    private static final String PAGE_LOCK = "pagelock";
+    public static final String BREWERY_NAME = "brewery_name";
+    public static final String PAGE_LOCK = "pagelock";
     public static final String SCALE = "scale";
-    private static final String COSM_API_KEY = "cosm";
-    private static final String COSM_FEED_ID = "cosm_feed";
+    public static final String COSM_API_KEY = "cosm";
+    public static final String COSM_FEED_ID = "cosm_feed";
     private static final String PACHUBE = "pachube";
     private static final String PACHUBE_FEED_ID = "pachube_feed";
     public static final String OWFS_SERVER = "owfs_server";
@@ -81,6 +84,10 @@ public class LaunchControl {
     public static final int DEFAULT_PORT = 8080;
     public static final Object timerLock = new Object();
     public int server_port = 8080;
+    /**
+     * True if a configuration file was read.
+     */
+    private boolean configRead = false;
     /**
      * The Minimum number of volume data points.
      */
@@ -89,21 +96,61 @@ public class LaunchControl {
     public static String baseUser = null;
 
     /**
-     * List of PIDs.
+     * A 1-Wire address in either the sysfs (28-0000012345ab) or OWFS
+     * (28.AB4523010000) form.
      */
-    public static final List<PID> pidList = new CopyOnWriteArrayList<>();
+    private static final Pattern ADDRESS =
+            Pattern.compile("[0-9A-Fa-f]{2}[.-][0-9A-Fa-f]{12}");
     /**
-     * List of Temperature probes.
+     * List of PIDs, found by name or probe address.
      */
-    public static final List<Temp> tempList = new CopyOnWriteArrayList<>();
+    public static final DeviceRegistry<PID> pidList = new DeviceRegistry<>(
+            new DeviceRegistry.Keys<PID>() {
+                @Override
+                public Collection<String> keysOf(final PID pid) {
+                    return Arrays.asList(pid.getName(),
+                            pid.getTempProbe().getProbe());
+                }
+            });
+    /**
+     * List of Temperature probes, found by name or either form of the
+     * probe address.
+     */
+    public static final DeviceRegistry<Temp> tempList = new DeviceRegistry<>(
+            new DeviceRegistry.Keys<Temp>() {
+                @Override
+                public Collection<String> keysOf(final Temp temp) {
+                    String probe = temp.getProbe();
+                    String other = null;
+                    if (probe != null && ADDRESS.matcher(probe).matches()) {
+                        other = convertAddress(probe);
+                    }
+                    return Arrays.asList(temp.getName(), probe, other);
+                }
+            });
     /**
-     * List of Switches.
+     * List of Switches, found by name or node name.
      */
-    public static final List<Switch> switchList = new CopyOnWriteArrayList<>();
+    public static final DeviceRegistry<Switch> switchList = new DeviceRegistry<>(
+            new DeviceRegistry.Keys<Switch>() {
+                @Override
+                public Collection<String> keysOf(final Switch tSwitch) {
+                    return Arrays.asList(tSwitch.getName(),
+                            tSwitch.getNodeName());
+                }
+            });
     /**
-     * List of Timers.
+     * List of Timers, found by name with spaces or underscores.
      */
-    public static List<Timer> timerList = new CopyOnWriteArrayList<>();
+    public static final DeviceRegistry<Timer> timerList = new DeviceRegistry<>(
+            new DeviceRegistry.Keys<Timer>() {
+                @Override
+                public Collection<String> keysOf(final Timer timer) {
+                    String name = timer.getName();
+                    return Arrays.asList(name,
+                            name == null ? null : name.replace(" ", "_"));
+                }
+            });
     /**
      * List of MashControl profiles.
      */
@@ -111,29 +158,76 @@ public class LaunchControl {
     /**
      * List of pH Sensors.
      */
-    public static final CopyOnWriteArrayList<PhSensor> phSensorList = new CopyOnWriteArrayList<>();
+    public static final DeviceRegistry<PhSensor> phSensorList = new DeviceRegistry<>(
+            new DeviceRegistry.Keys<PhSensor>() {
+                @Override
+                public Collection<String> keysOf(final PhSensor sensor) {
+                    return Collections.singletonList(sensor.getName());
+                }
+            });
     public static final HashMap<String, I2CDevice> i2cDeviceList = new HashMap<>();
     /**
-     * Temperature Thread list.
+     * Runs the probes, PIDs and outputs.
+     */
+    public static final ControlScheduler scheduler = new ControlScheduler();
+    /**
+     * Switches the time proportioned outputs.
      */
-    public static List<Thread> tempThreads = new ArrayList<>();
+    public static final OutputScheduler outputScheduler =
+            new OutputScheduler();
     /**
-     * PID Thread List.
+     * Bulk reads the kernel 1-Wire buses.
      */
-    public static List<Thread> pidThreads = new ArrayList<>();
+    public static final OneWireBusManager oneWire =
+            new OneWireBusManager(scheduler);
     /**
-     * Mash Threads list.
+     * Writes the configuration file in the background.
      */
-    public static List<Thread> triggerThreads = new ArrayList<>();
+    public static final ConfigWriter configWriter =
+            new ConfigWriter(new ConfigWriter.Source() {
+                @Override
+                public File getFile() {
+                    return new File(configFileName);
+                }
 
+                @Override
+                public boolean isReady() {
+                    return loadCompleted;
+                }
+
+                @Override
+                public void write(final OutputStream out)
+                        throws XMLStreamException {
+                    ConfigXmlWriter.write(config, out);
+                }
+            });
+    /**
+     * The last saved configuration, replaced whole on every save.
+     */
+    private static volatile Config config = Config.EMPTY;
+    /**
+     * Guards replacing the configuration snapshot.
+     */
+    private static final Object configLock = new Object();
+    /**
+     * Times startup and brings the devices up.
+     */
+    private static volatile Startup startup = null;
+    /**
+     * Guards reading the trigger steps, which can happen after a slow
+     * device comes up.
+     */
+    private static final Object triggerLock = new Object();
     /**
-     * ConfigParser, legacy for the older users that haven't converted.
+     * True once the trigger steps of the started devices have been read.
      */
-    public static ConfigParser configCfg = null;
+    private static boolean triggersRead = false;
     /**
-     * Config Document, for the XML data.
+     * Used when a PID doesn't have one side of its output.
      */
-    public static Document configDoc = null;
+    private static final OutputConfig NO_OUTPUT = new OutputConfig(null,
+            BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO,
+            BigDecimal.ZERO, BigDecimal.ZERO, false);
 
     /**
      * Default config filename. Can be overridden with -c <filename>
@@ -160,6 +254,14 @@ public class LaunchControl {
      * The list of available datastreams from COSM.
      */
     public static Datastream[] cosmStreams = null;
+    /**
+     * The Cosm API key, null if Cosm isn't set up.
+     */
+    private static String cosmApiKey = null;
+    /**
+     * The Cosm feed ID, null if Cosm isn't set up.
+     */
+    private static Integer cosmFeedId = null;
 
     /**
      * The Default scale to be used.
@@ -167,9 +269,13 @@ public class LaunchControl {
     public static String scale = "F";
 
     /**
-     * One Wire File System Connection.
+     * One Wire File System reader, null if OWFS isn't set up.
+     */
+    public static volatile OwfsReader owfs = null;
+    /**
+     * The scheduled batch read of the OWFS paths.
      */
-    public static OwfsConnection owfsConnection = null;
+    private static ControlScheduler.Registration owfsTask = null;
     /**
      * Flag whether the user has selected OWFS.
      */
@@ -192,21 +298,9 @@ public class LaunchControl {
      */
     public static CommandLine startupCommand = null;
 
-    /**
-     * Xpath factory. This'll not change.
-     */
-    public static XPathFactory xPathfactory = XPathFactory.newInstance();
-
-    /**
-     * XPath static for the helper.
-     */
-    public static XPath xpath = xPathfactory.newXPath();
-    /**
-     * Xpath Expression static for the helpers.
-     */
-    public static XPathExpression expr = null;
     public static String message = "";
     public static double recorderDiff = .15d;
+    public static long recorderSync = StatusRecorder.SYNC_INTERVAL;
     public static boolean recorderEnabled = false;
     public static String recorderDirectory = StatusRecorder.defaultDirectory;
     public static String breweryName = null;
@@ -274,6 +368,38 @@ public class LaunchControl {
                     System.setProperty("debug", "INFO");
                 }
 
+                if (startupCommand.hasOption("httpthreads")) {
+                    System.setProperty(BrewServer.HTTP_THREADS,
+                            startupCommand.getOptionValue("httpthreads"));
+                }
+
+                if (startupCommand.hasOption("httptimeout")) {
+                    System.setProperty(BrewServer.HTTP_TIMEOUT,
+                            startupCommand.getOptionValue("httptimeout"));
+                }
+
+                if (startupCommand.hasOption("httpkeepalive")) {
+                    System.setProperty(BrewServer.HTTP_KEEP_ALIVE,
+                            startupCommand.getOptionValue("httpkeepalive"));
+                }
+
+                if (startupCommand.hasOption("samplethreads")) {
+                    try {
+                        scheduler.setMaxSamplers(Integer.parseInt(
+                                startupCommand.getOptionValue("samplethreads")));
+                    } catch (IllegalArgumentException e) {
+                        BrewServer.LOG.warning(
+                                "Couldn't use the sample threads value: "
+                                + startupCommand.getOptionValue("samplethreads"));
+                        System.exit(-1);
+                    }
+                }
+
+                if (startupCommand.hasOption("devicetimeout")) {
+                    System.setProperty(Startup.DEVICE_TIMEOUT,
+                            startupCommand.getOptionValue("devicetimeout"));
+                }
+
                 if (startupCommand.hasOption("root")) {
                     rootDir = startupCommand.getOptionValue("root");
                 }
@@ -283,6 +409,11 @@ public class LaunchControl {
                             .getOptionValue("rthreshold"));
                 }
 
+                if (startupCommand.hasOption("rsync")) {
+                    recorderSync = Long.parseLong(startupCommand
+                            .getOptionValue("rsync"));
+                }
+
                 if (startupCommand.hasOption("baseUser")) {
                     baseUser = startupCommand.getOptionValue("baseUser");
                 }
@@ -352,12 +483,31 @@ public class LaunchControl {
         startupOptions.addOption("rthreshold", true,
                 "specify the amount for a reading to change before "
                         + "recording the value in history");
+        startupOptions.addOption("rsync", true,
+                "specify how often in milliseconds the history is synced "
+                        + "to disk, default: "
+                        + StatusRecorder.SYNC_INTERVAL);
         startupOptions.addOption("root", true,
                 "specify the root directory for elsinore.  This is the location "
                         + "configuration and html files should live.");
         startupOptions.addOption("baseUser", true,
                 "Specify the user who should own all the files created");
         startupOptions.addOption("t", "theme", true, "Specify the theme name");
+        startupOptions.addOption("httpthreads", true,
+                "The maximum number of HTTP connections handled at once, default: "
+                        + BrewServer.DEFAULT_HTTP_THREADS);
+        startupOptions.addOption("httptimeout", true,
+                "Give up on a slow HTTP request after this many milliseconds, default: "
+                        + NanoHTTPD.SOCKET_READ_TIMEOUT);
+        startupOptions.addOption("httpkeepalive", true,
+                "Close idle keep-alive HTTP connections after this many milliseconds, default: "
+                        + NanoHTTPD.KEEP_ALIVE_TIMEOUT);
+        startupOptions.addOption("samplethreads", true,
+                "The most probes read at once, default: "
+                        + ControlScheduler.DEFAULT_MAX_SAMPLERS);
+        startupOptions.addOption("devicetimeout", true,
+                "Stop waiting for a device to start after this many milliseconds, default: "
+                        + Startup.DEFAULT_TIMEOUT);
         startupOptions.addOption("r", StatusRecorder.RECORDER_ENABLED, true,
                 "Enable or disable the status recorder. Default enabled.");
         startupOptions.addOption("rdirectory",
@@ -394,22 +544,24 @@ public class LaunchControl {
             //System.exit(-1);
         }
 
+        startup = new Startup(Startup.getConfiguredTimeout());
+        Metrics.register(ServerMetrics.NAME, new ServerMetrics());
         // See if we have an active configuration file
-        readConfig();
+        startup.run("config", new Runnable() {
+            @Override
+            public void run() {
+                readConfig();
+            }
+        });
 
-        // Load the System probe if it's not configured
-        Temp systemProbe = findTemp("System");
-        if (systemProbe == null)
-        {
-            addSystemTemp();
-        }
-        // Debug info before launching the BrewServer itself
-        LaunchControl.loadCompleted = true;
-        BrewServer.LOG.log(Level.INFO, "CONFIG READ COMPLETED***********");
+        // Serve the UI as a starting status while the devices come up
         sRunner = new ServerRunner(BrewServer.class, this.server_port);
         Thread sRunnerThread = new Thread(sRunner);
-        sRunnerThread.run();
         sRunnerThread.setDaemon(false);
+        sRunnerThread.start();
+
+        startDevices();
+        BrewServer.LOG.log(Level.INFO, "CONFIG READ COMPLETED***********");
         try {
             sRunnerThread.join();
         } catch (InterruptedException ie) {
@@ -524,11 +676,89 @@ public class LaunchControl {
     /******
      * Get the JSON Output String. This is the current Status of the PIDs,
      * Temps, Switches, etc...
+     * The String is shared between callers until something changes,
+     * see {@link StatusSnapshot}.
      *
      * @return The JSON String of the current status.
      */
-    @SuppressWarnings("unchecked")
     public static String getJSONStatus() {
+        return StatusSnapshot.current().getJson();
+    }
+
+    /**
+     * Build the status of one vessel, its probe, volume and PID.
+     *
+     * @param t
+     *            The probe of the vessel.
+     * @return The JSON String for the vessel.
+     */
+    @SuppressWarnings("unchecked")
+    private static String buildVesselJSON(final Temp t) {
+        /* Check for a PID */
+        PID tPid = findPID(t.getName());
+        JSONObject tJSON = new JSONObject();
+
+        // Add the temp to the JSON Map
+        JSONObject tJSONTemp = new JSONObject();
+        tJSONTemp.putAll(t.getMapStatus());
+        tJSON.put("name", t.getName().replaceAll(" ", "_"));
+        tJSON.put("deviceaddr", t.getProbe().replaceAll("\\.", "_"));
+        tJSON.put("tempprobe", tJSONTemp);
+
+        if (t.hasVolume()) {
+            JSONObject volumeJSON = new JSONObject();
+            volumeJSON.put("volume", t.getVolume());
+            volumeJSON.put("units", t.getVolumeUnit());
+            if (!t.getVolumeAIN().equals("")) {
+                volumeJSON.put("ain", t.getVolumeAIN());
+            } else {
+                volumeJSON.put("address", t.getVolumeAddress());
+                volumeJSON.put("offset", t.getVolumeOffset());
+            }
+            volumeJSON.put("gravity", t.getGravity());
+            volumeJSON.put("noise", MathUtil.toBigDecimal(
+                    t.getVolumeFilter().getNoise()));
+
+            tJSON.put("volume", volumeJSON);
+        }
+
+        if (tPid != null) {
+            JSONObject tJSONPID = new JSONObject();
+            tJSONPID.putAll(tPid.getMapStatus());
+            tJSON.put("pidstatus", tJSONPID);
+        }
+
+        // update COSM
+        if (cosmFeed != null) {
+            Datastream tData = findDatastream(t.getName());
+            if (tData != null) {
+                tData.setCurrentValue(t.getTemp().toString());
+                Unit tUnit = new Unit();
+                tUnit.setType("temp");
+                tUnit.setSymbol(t.getScale());
+                tUnit.setLabel("temperature");
+                tData.setUnit(tUnit);
+                try {
+                    cosm.updateDatastream(cosmFeed.getId(), t.getName(),
+                            tData);
+                } catch (CosmException e) {
+                    BrewServer.LOG.info("Failed to update datastream: "
+                            + e.getMessage());
+                }
+            }
+
+        }
+        return tJSON.toJSONString();
+    }
+
+    /******
+     * Build the JSON Output String from the current device lists.
+     * Use {@link #getJSONStatus()} unless you need a fresh copy.
+     *
+     * @return The JSON String of the current status.
+     */
+    @SuppressWarnings("unchecked")
+    static String buildJSONStatus() {
 
         // get each setting add it to the JSON
         JSONObject rObj = new JSONObject();
@@ -536,67 +766,23 @@ public class LaunchControl {
         JSONObject triggerJSON = new JSONObject();
         rObj.put("locked", LaunchControl.pageLock);
         rObj.put("breweryName", LaunchControl.getName());
+        if (!loadCompleted) {
+            // Devices show up as they're started
+            rObj.put("starting", true);
+        }
 
         // iterate the thread lists
         // use the temp list to determine if we have a PID to go with
         JSONArray vesselJSON = new JSONArray();
-        for (Temp t : tempList) {
-
-            /* Check for a PID */
-            PID tPid = findPID(t.getName());
-            tJSON = new JSONObject();
-
-            // Add the temp to the JSON Map
-            JSONObject tJSONTemp = new JSONObject();
-            tJSONTemp.putAll(t.getMapStatus());
-            tJSON.put("name", t.getName().replaceAll(" ", "_"));
-            tJSON.put("deviceaddr", t.getProbe().replaceAll("\\.", "_"));
-            tJSON.put("tempprobe", tJSONTemp);
-
-            if (t.hasVolume()) {
-                JSONObject volumeJSON = new JSONObject();
-                volumeJSON.put("volume", t.getVolume());
-                volumeJSON.put("units", t.getVolumeUnit());
-                if (!t.getVolumeAIN().equals("")) {
-                    volumeJSON.put("ain", t.getVolumeAIN());
-                } else {
-                    volumeJSON.put("address", t.getVolumeAddress());
-                    volumeJSON.put("offset", t.getVolumeOffset());
-                }
-                volumeJSON.put("gravity", t.getGravity());
-
-                tJSON.put("volume", volumeJSON);
-            }
-
-            if (tPid != null) {
-                JSONObject tJSONPID = new JSONObject();
-                tJSONPID.putAll(tPid.getMapStatus());
-                tJSON.put("pidstatus", tJSONPID);
-            }
-
-            // Add the JSON object with the PID Name
-            vesselJSON.add(tJSON);
-
-            // update COSM
-            if (cosmFeed != null) {
-                Datastream tData = findDatastream(t.getName());
-                if (tData != null) {
-                    tData.setCurrentValue(t.getTemp().toString());
-                    Unit tUnit = new Unit();
-                    tUnit.setType("temp");
-                    tUnit.setSymbol(t.getScale());
-                    tUnit.setLabel("temperature");
-                    tData.setUnit(tUnit);
-                    try {
-                        cosm.updateDatastream(cosmFeed.getId(), t.getName(),
-                                tData);
-                    } catch (CosmException e) {
-                        BrewServer.LOG.info("Failed to update datastream: "
-                                + e.getMessage());
-                    }
-                }
-
-            }
+        for (final Temp t : tempList) {
+            // Only the vessels that changed are serialized again
+            vesselJSON.add(t.getStatusFragment().get(
+                    new StatusSnapshot.Builder() {
+                        @Override
+                        public String build() {
+                            return buildVesselJSON(t);
+                        }
+                    }));
 
             if (t.getTriggerControl() != null
                     && t.getTriggerControl().triggerCount() > 0) {
@@ -674,277 +860,460 @@ public class LaunchControl {
         retVal.put("OWFS", LaunchControl.useOWFS);
         retVal.put(LaunchControl.OWFS_SERVER, LaunchControl.owfsServer);
         retVal.put(LaunchControl.OWFS_PORT, LaunchControl.owfsPort);
+        if (startup != null) {
+            retVal.put("startup", startup.toJSON());
+        }
         return retVal.toJSONString();
     }
 
     /**
-     * Read the configuration file.
+     * Read the configuration file and apply the general settings. The
+     * devices are started afterwards by {@link #startDevices()}.
      */
     public void readConfig() {
 
         LaunchControl.loadCompleted = false;
-        // read the config file from the rpibrew.cfg file
-        if (configCfg == null) {
-            initializeConfig();
-        }
-
-        if (configCfg == null) {
-            BrewServer.LOG.info("CFG IS NULL");
-        }
-        if (configDoc == null) {
-            BrewServer.LOG.info("DOC IS NULL");
-        }
-
-        if (configDoc == null && configCfg == null) {
-            createConfig();
-            // Startup the brewery with the basic temp list
+        File configFile = new File(configFileName);
+        if (!configFile.exists()) {
+            BrewServer.LOG.info("Config file at: " + configFileName
+                    + " doesn't exist");
             return;
         }
 
-        if (configDoc != null) {
-            parseXMLSections();
-        } else {
+        Config loaded = null;
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(configFile))) {
+            loaded = ConfigXmlReader.read(in);
+        } catch (IOException | XMLStreamException e) {
+            BrewServer.LOG.warning("Couldn't read " + configFileName + ": "
+                    + e.getMessage());
             BrewServer.LOG.info("Couldn't get a configuration file!");
             System.exit(1);
         }
-
-        if (tempList.size() == 0) {
-            // get user input
-            createConfig();
+        synchronized (configLock) {
+            config = loaded;
         }
-        updateDeviceList();
-        LaunchControl.loadCompleted = true;
+        this.configRead = true;
+        applyGeneral(loaded.general);
+        startTimers(loaded.timers);
     }
 
     /**
-     * Parse the general section of the XML Configuration.
-     *
-     * @param config
-     *            The General element to be parsed.
+     * Start everything in the configuration, then look for any probes that
+     * haven't been set up yet. The devices are started in parallel and show
+     * up in the status as each one is ready.
      */
-    public void parseGeneral(final Element config) {
-        if (config == null) {
-            return;
-        }
-
-        try {
+    public void startDevices() {
+        final Config loaded = config;
 
-            breweryName = getTextForElement(config, LaunchControl.BREWERY_NAME, null);
-            pageLock = Boolean.parseBoolean(getTextForElement(config, LaunchControl.PAGE_LOCK, "false"));
-
-            scale = getTextForElement(config, LaunchControl.SCALE, "F");
-
-            if (Boolean.parseBoolean(getTextForElement(config, StatusRecorder.RECORDER, "false"))) {
-                LaunchControl.enableRecorder();
-            } else {
-                LaunchControl.disableRecorder();
+        startup.run("owfs", new Runnable() {
+            @Override
+            public void run() {
+                if (owfsServer != null) {
+                    BrewServer.LOG.log(Level.INFO, "Setup OWFS at "
+                            + owfsServer + ":" + owfsPort);
+                    setupOWFS();
+                }
             }
+        });
 
-            StatusRecorder.THRESHOLD = Double.parseDouble(getTextForElement(config, StatusRecorder.RECORDER_DIFF, "0.15"));
-            StatusRecorder.SLEEP = Long.parseLong(getTextForElement(config, StatusRecorder.RECORDER_TIME, "5000"));
-
-            String cosmAPIKey;
-            Integer cosmFeedID;
-
-            // Check for the COSM Feed details
-            cosmAPIKey = getTextForElement(config, LaunchControl.COSM_API_KEY, null);
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        for (final DeviceConfig device : loaded.devices) {
+            tasks.put("device/" + device.name, new Runnable() {
+                @Override
+                public void run() {
+                    startDevice(device);
+                    StatusSnapshot.publish();
+                }
+            });
+        }
+        for (final SwitchConfig switchConfig : loaded.switches) {
+            tasks.put("switch/" + switchConfig.name, new Runnable() {
+                @Override
+                public void run() {
+                    startSwitch(switchConfig);
+                    StatusSnapshot.publish();
+                }
+            });
+        }
+        for (final PhSensorConfig sensor : loaded.phSensors) {
+            tasks.put("phsensor/" + sensor.name, new Runnable() {
+                @Override
+                public void run() {
+                    startPhSensor(sensor);
+                    StatusSnapshot.publish();
+                }
+            });
+        }
+        if (cosmApiKey != null && cosmFeedId != null) {
+            tasks.put("cosm", new Runnable() {
+                @Override
+                public void run() {
+                    startCosm(cosmApiKey, cosmFeedId);
+                }
+            });
+        }
+        startup.runInParallel("devices", tasks);
+        sortDevices();
 
-            cosmFeedID = Integer.parseInt(getTextForElement(config, LaunchControl.COSM_FEED_ID, "0"));
-            
-            // Try PACHube if the Cosm fields don't exist
-            if (cosmAPIKey == null)
-            {
-                cosmAPIKey = getTextForElement(config, LaunchControl.PACHUBE, null);
+        // Steps can refer to other devices, so they're read once all the
+        // devices that could be started are up
+        startup.run("triggers", new Runnable() {
+            @Override
+            public void run() {
+                synchronized (triggerLock) {
+                    triggersRead = true;
+                    for (DeviceConfig device : loaded.devices) {
+                        Temp temp = findTemp(device.name);
+                        if (temp != null) {
+                            readTriggers(temp, device);
+                        }
+                    }
+                }
             }
+        });
 
-            if (cosmFeedID == 0) {
-                try {
-                    cosmFeedID = Integer.parseInt(getTextForElement(config, LaunchControl.PACHUBE_FEED_ID, "0"));
-                } catch (NumberFormatException | NullPointerException e) {
-                    cosmFeedID = null;
+        startup.run("scan", new Runnable() {
+            @Override
+            public void run() {
+                if (!configRead || tempList.size() == 0) {
+                    // get user input
+                    createConfig();
+                } else {
+                    updateDeviceList();
+                }
+                // Load the System probe if it's not configured
+                if (findTemp("System") == null) {
+                    addSystemTemp();
                 }
-
             }
+        });
 
-            if (cosmAPIKey != null && cosmFeedID != null) {
-                startCosm(cosmAPIKey, cosmFeedID);
-            }
+        captureConfig();
+        LaunchControl.loadCompleted = true;
+        startup.complete();
+        StatusSnapshot.publish();
+        if (configWriter.isDirty()) {
+            // Edits made while starting up
+            configWriter.markDirty();
+        }
+    }
 
-            // Check for an OWFS configuration
-            try {
-                owfsServer = getTextForElement(config, LaunchControl.OWFS_SERVER, null);
-                owfsPort = Integer.parseInt(getTextForElement(config, LaunchControl.OWFS_PORT, null));
-                useOWFS = Boolean.parseBoolean(getTextForElement(config, "use_owfs", "false"));
-            } catch (NullPointerException | NumberFormatException e) {
-                owfsServer = null;
-                owfsPort = null;
-            }
+    /**
+     * @return The startup phases and their timings, null before startup.
+     */
+    public static Startup getStartup() {
+        return startup;
+    }
 
-            if (owfsServer != null) {
-                BrewServer.LOG.log(Level.INFO, "Setup OWFS at " + owfsServer
-                        + ":" + owfsPort);
+    /**
+     * Apply the general settings.
+     *
+     * @param general
+     *            The general settings.
+     */
+    public void applyGeneral(final GeneralConfig general) {
+        breweryName = general.breweryName;
+        pageLock = general.pageLock;
+        scale = general.scale;
 
-                setupOWFS();
-            }
+        if (general.recorder) {
+            LaunchControl.enableRecorder();
+        } else {
+            LaunchControl.disableRecorder();
+        }
 
-            // Check for a system temperature
-            if (getFirstElement(config, "System") != null) {
-                addSystemTemp();
-            }
+        StatusRecorder.THRESHOLD = general.recorderDiff;
+        StatusRecorder.SLEEP = general.recorderTime;
+
+        // Cosm and OWFS are connected to with the devices
+        cosmApiKey = general.cosmApiKey;
+        cosmFeedId = general.cosmFeedId;
+        owfsServer = general.owfsServer;
+        owfsPort = general.owfsPort;
+        useOWFS = general.useOwfs;
 
-            m_restore = Boolean.parseBoolean(getTextForElement(config, LaunchControl.RESTORE, "false"));
-        } catch (NumberFormatException nfe) {
-            System.out.print("Number format problem!");
-            nfe.printStackTrace();
+        m_restore = general.restore;
+    }
+
+    /**
+     * Add the saved timers.
+     *
+     * @param timers
+     *            The saved timers.
+     */
+    public void startTimers(final List<TimerConfig> timers) {
+        List<Timer> newTimers = new ArrayList<>();
+        for (TimerConfig timerConfig : timers) {
+            Timer timer = new Timer(timerConfig.name);
+            timer.setPosition(timerConfig.position);
+            timer.setTarget(Integer.toString(timerConfig.target));
+            newTimers.add(timer);
         }
+        timerList.clear();
+        timerList.addAll(newTimers);
     }
 
     /**
-     * Parse the switches in the specified element.
+     * Start a saved switch.
      *
-     * @param config
-     *            The element that contains the switches information
+     * @param switchConfig
+     *            The saved switch.
      */
-    public void parseSwitches(final Element config) {
-        if (config == null) {
+    public void startSwitch(final SwitchConfig switchConfig) {
+        Switch tSwitch;
+        try {
+            tSwitch = new Switch(switchConfig.name, switchConfig.gpio);
+        } catch (InvalidGPIOException e) {
+            BrewServer.LOG.severe("Invalid GPIO (" + switchConfig.gpio
+                    + ") detected for switch " + switchConfig.name
+                    + ", please fix the config file");
             return;
         }
+        tSwitch.setPosition(switchConfig.position);
+        tSwitch.setInverted(switchConfig.invert);
+        switchList.add(tSwitch);
+    }
+
+    /**
+     * Start a saved pH sensor.
+     *
+     * @param sensor
+     *            The saved sensor.
+     */
+    public void startPhSensor(final PhSensorConfig sensor) {
+        PhSensor temp = new PhSensor();
+        temp.setName(sensor.name);
+        temp.setDsAddress(sensor.dsAddress);
+        temp.setDsOffset(sensor.dsOffset);
+        temp.setAinPin(sensor.ain);
+        temp.setOffset(sensor.offset);
+        temp.setModel(sensor.model);
+        temp.setFilter(AnalogFilter.parse(Integer.toString(sensor.samples),
+                sensor.filter));
+
+        if (sensor.i2c != null)
+        {
+            temp.i2cDevice = getI2CDevice(sensor.i2c);
+            temp.i2cChannel = sensor.i2c.channel;
+        }
 
-        NodeList switches = config.getChildNodes();
+        phSensorList.add(temp);
+    }
 
-        for (int i = 0; i < switches.getLength(); i++) {
-            Element curSwitch = (Element) switches.item(i);
-            String switchName = curSwitch.getAttribute("name").replace("_", " ").trim();
-            String gpio;
-            if (curSwitch.hasAttribute(Switch.GPIO)) {
-                gpio = curSwitch.getAttribute(Switch.GPIO);
-            } else {
-                gpio = curSwitch.getTextContent();
+    /**
+     * Start a saved temperature probe, with its PID and volume input.
+     *
+     * @param device
+     *            The saved device.
+     */
+    public void startDevice(final DeviceConfig device) {
+        PidConfig pid = device.pid;
+        OutputConfig heat = NO_OUTPUT;
+        OutputConfig cool = NO_OUTPUT;
+        if (pid != null) {
+            if (pid.heat != null) {
+                heat = pid.heat;
+            }
+            if (pid.cool != null) {
+                cool = pid.cool;
             }
-            int position = -1;
+        }
+
+        BrewServer.LOG.info("Starting device: " + device.name);
+        Temp newTemp = startDevice(device.name, device.probe, heat.gpio,
+                cool.gpio);
 
-            String tempString = curSwitch.getAttribute(Switch.POSITION);
-            if (tempString != null) {
+        if (newTemp == null) {
+            BrewServer.LOG.severe("Problems starting device " + device.name
+                    + ", please fix the config file");
+            return;
+        }
+        newTemp.setPosition(device.position);
+        try {
+            if (pid != null
+                    && ((heat.gpio != null && !heat.gpio.equals("")
+                            && GPIO.getPinNumber(heat.gpio) >= 0)
+                    || (cool.gpio != null && !cool.gpio.equals("")
+                            && GPIO.getPinNumber(cool.gpio) >= 0))) {
+                PID tPID = LaunchControl.findPID(newTemp.getName());
                 try {
-                    position = Integer.parseInt(tempString);
+                    tPID.setHysteria(pid.min, pid.max, pid.time);
                 } catch (NumberFormatException nfe) {
-                    BrewServer.LOG.warning("Couldn't parse switch: " + switchName
-                            + " position: " + tempString);
+                    System.out
+                        .println("Invalid options when setting up Hysteria: "
+                                + nfe.getMessage());
+                }
+
+                String mode = m_restore ? pid.mode : "off";
+                tPID.updateValues(mode, pid.dutyCycle, heat.cycleTime,
+                        pid.setPoint, heat.proportional, heat.integral,
+                        heat.derivative);
+                tPID.setHeatDelay(heat.delay);
+                tPID.setCoolDelay(cool.delay);
+                tPID.setCoolCycle(cool.cycleTime);
+                tPID.setCoolP(cool.proportional);
+                tPID.setCoolI(cool.integral);
+                tPID.setCoolD(cool.derivative);
+                tPID.setCoolGPIO(cool.gpio);
+                tPID.setCoolInverted(cool.invert);
+                tPID.setHeatInverted(heat.invert);
+                tPID.setManualTime(pid.dutyTime);
+                tPID.setManualDuty(pid.dutyCycle);
+                if (pid.auxGpio != null && !pid.auxGpio.equals("")) {
+                    tPID.setAux(pid.auxGpio, pid.auxInvert);
                 }
             }
+        } catch (InvalidGPIOException e) {
+            BrewServer.LOG.info("Invalid GPIO provided");
+            e.printStackTrace();
+        }
+
+        if (device.cutoff != null) {
+            newTemp.setCutoffTemp(device.cutoff);
+        }
+        newTemp.cutoffEnabled = device.cutoffEnabled;
+
+        newTemp.setSize(device.size);
+
+        if (device.volume != null) {
+            startVolume(newTemp, device.volume);
+        }
+
+        newTemp.setCalibration(device.calibration);
+        if (device.hidden) {
+            newTemp.hide();
+        }
+
+        // A device that took too long missed the trigger phase
+        synchronized (triggerLock) {
+            if (triggersRead) {
+                readTriggers(newTemp, device);
+            }
+        }
+    }
 
-            Switch tSwitch = null;
+    /**
+     * Set up the volume input of a probe.
+     *
+     * @param temp
+     *            The probe.
+     * @param volume
+     *            The saved volume input.
+     */
+    private static void startVolume(final Temp temp,
+            final VolumeConfig volume) {
+        int analoguePin = -1;
+        if (volume.ain != null && !volume.ain.equals("")) {
             try {
-                tSwitch = new Switch(switchName, gpio);
-                tSwitch.setPosition(position);
-                switchList.add(tSwitch);
-            } catch (InvalidGPIOException e) {
-                BrewServer.LOG.warning("Invalid GPIO (" + gpio
-                        + ") detected for switch " + switchName);
-                BrewServer.LOG.warning(
-                        "Please fix the config file before running");
-                System.exit(-1);
+                analoguePin = Integer.parseInt(volume.ain.trim());
+            } catch (NumberFormatException nfe) {
+                BrewServer.LOG.warning("Couldn't parse the volume input "
+                        + volume.ain + " for " + temp.getName());
             }
+        }
 
-            Element invert = getFirstElement(curSwitch, "invert");
-            if (invert != null) {
-                tSwitch.setInverted(
-                        Boolean.parseBoolean(invert.getTextContent()));
+        if (analoguePin != -1) {
+            try {
+                temp.setupVolumes(analoguePin, volume.unit);
+            } catch (InvalidGPIOException e) {
+                e.printStackTrace();
             }
+        } else if (volume.address != null && volume.offset != null) {
+            temp.setupVolumes(volume.address, volume.offset, volume.unit);
+        }
+
+        if (volume.i2c != null)
+        {
+            temp.setupVolumeI2C(getI2CDevice(volume.i2c),
+                    Integer.toString(volume.i2c.channel), volume.unit);
         }
 
+        temp.setVolumeSpline(volume.spline);
+        temp.setVolumeFilter(AnalogFilter.parse(
+                Integer.toString(volume.samples), volume.filter));
+
+        if (volume.unit == null) {
+            BrewServer.LOG.warning("Couldn't find a volume unit for "
+                    + temp.getName());
+        } else if (volume.points.size() < MIN_VOLUME_SIZE) {
+            BrewServer.LOG.info("Not enough volume data points, "
+                    + volume.points.size() + " found");
+        } else {
+            for (Entry<BigDecimal, BigDecimal> entry
+                    : volume.points.entrySet()) {
+                temp.addVolumeMeasurement(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     /**
-     * Parse the list of timers in an XML Element.
+     * Add the saved trigger steps of a device.
      *
-     * @param config
-     *            the Element containing the timers
+     * @param temp
+     *            The started probe.
+     * @param device
+     *            The saved device.
      */
-    public void parseTimers(final Element config) {
-        if (config == null) {
-            return;
+    private static void readTriggers(final Temp temp,
+            final DeviceConfig device) {
+        if (!device.triggers.isEmpty()) {
+            temp.getTriggerControl().readTriggers(device.triggers);
         }
-        NodeList timers = config.getChildNodes();
-        timerList = new ArrayList<>();
+    }
 
-        for (int i = 0; i < timers.getLength(); i++) {
-            Element tElement = (Element) timers.item(i);
-            Timer temp = new Timer(tElement.getAttribute(Timer.ID));
-            if (tElement.getAttribute(Timer.POSITION) != null) {
+    /**
+     * Get the shared I2C device for saved settings, setting its mode and
+     * ready pin.
+     *
+     * @param i2c
+     *            The saved settings.
+     * @return The device, null if the type isn't known.
+     */
+    public static I2CDevice getI2CDevice(final I2CConfig i2c) {
+        I2CDevice i2CDevice = getI2CDevice(Integer.toString(i2c.number),
+                Integer.toString(i2c.address), i2c.type);
+        if (i2CDevice instanceof ADS1015)
+        {
+            ADS1015 ads = (ADS1015) i2CDevice;
+            if (i2c.mode != null)
+            {
                 try {
-                    temp.setPosition(Integer.parseInt(tElement
-                            .getAttribute(Timer.POSITION)));
-                } catch (NumberFormatException nfe) {
-                    // Couldn't parse. Move on.
+                    ads.setMode(ADS1015.Mode.valueOf(i2c.mode.toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    BrewServer.LOG.warning("Unknown I2C mode " + i2c.mode);
                 }
             }
-            String target = tElement.getAttribute(Timer.TARGET);
-            if (target != null && !target.equals("")) {
+            if (i2c.alertPin != null && i2c.alertPin.length() > 0)
+            {
                 try {
-                    temp.setTarget(target);
-                } catch (NumberFormatException nfe) {
-                    nfe.printStackTrace();
+                    ads.setAlertPin(i2c.alertPin);
+                } catch (InvalidGPIOException e) {
+                    BrewServer.LOG.warning("Invalid ALERT/RDY GPIO " + i2c.alertPin);
                 }
             }
-            timerList.add(temp);
         }
+        return i2CDevice;
     }
 
-    /**
-     * Parse the list of phSensors in an XML Element.
-     *
-     * @param config
-     *            the Element containing the ph Sensors
-     */
-    public void parsePhSensors(final Element config) {
-        if (config == null) {
-            return;
-        }
-        NodeList sensors = config.getChildNodes();
-
-        for (int i = 0; i < sensors.getLength(); i++) {
-            Element tElement = (Element) sensors.item(i);
-            PhSensor temp = new PhSensor();
-            temp.setName(tElement.getNodeName().replace("_", " "));
-            temp.setDsAddress(tElement.getAttribute(PhSensor.DS_ADDRESS));
-            temp.setDsOffset(tElement.getAttribute(PhSensor.DS_OFFSET));
-            temp.setAinPin(tElement.getAttribute(PhSensor.AIN_PIN));
-            temp.setOffset(tElement.getAttribute(PhSensor.OFFSET));
-            temp.setModel(tElement.getAttribute(PhSensor.MODEL));
-
-            BrewServer.LOG.info("Checking for an I2CDevice");
-            Element i2cElement = getFirstElement(tElement, I2CDevice.I2C_NODE);
-            if (i2cElement != null)
+    public static I2CDevice getI2CDevice(String devNumber, String devAddress, String devType)
+    {
+        String devKey = String.format("%s_%s", devNumber, devAddress);
+        synchronized (i2cDeviceList) {
+            // Share one device per chip, so its channels are read in turn
+            I2CDevice i2CDevice = i2cDeviceList.get(devKey);
+            if (i2CDevice == null)
             {
-                temp.i2cDevice = getI2CDevice(i2cElement);
-                String channel = getTextForElement(tElement, I2CDevice.DEV_CHANNEL, null);
-                temp.i2cChannel = Integer.parseInt(channel);
+                i2CDevice = I2CDevice.create(devNumber, devAddress, devType);
+                if (i2CDevice != null)
+                {
+                    i2cDeviceList.put(devKey, i2CDevice);
+                }
             }
-
-            phSensorList.add(temp);
+            return i2CDevice;
         }
     }
 
-    public static I2CDevice getI2CDevice(Element i2cElement) {
-        String devNumber = getTextForElement(i2cElement, I2CDevice.DEV_NUMBER, null);
-        String devAddress = getTextForElement(i2cElement, I2CDevice.DEV_ADDRESS, null);
-        String devType = getTextForElement(i2cElement, I2CDevice.DEV_TYPE, null);
-        return getI2CDevice(devNumber, devAddress, devType);
-    }
-
-    public static I2CDevice getI2CDevice(String devNumber, String devAddress, String devType)
-    {
-        String devKey = String.format("%s_%s", devNumber, devAddress);
-        I2CDevice i2CDevice = i2cDeviceList.get(devKey);
-        if (i2CDevice == null)
-        {
-            i2CDevice = I2CDevice.create(devNumber, devAddress, devType);
-        }
-
-        return  i2CDevice;
-    }
-
     /**
      * Add a new switch to the server.
      *
@@ -989,11 +1358,35 @@ public class LaunchControl {
         BrewServer.LOG.info("Adding " + tTemp.getName());
         // setup the scale for each temp probe
         tTemp.setScale(scale);
-        // setup the threads
-        Thread tThread = new Thread(tTemp);
-        tThread.setName("Temp_system");
-        tempThreads.add(tThread);
-        tThread.start();
+        startTemp(tTemp);
+    }
+
+    /**
+     * Start reading a probe on the scheduler.
+     *
+     * @param temp
+     *            The probe to read.
+     */
+    public static void startTemp(final Temp temp) {
+        String name = "Temp_" + temp.getName();
+        for (ControlScheduler.Registration registration
+                : scheduler.getRegistrations()) {
+            if (registration.getName().equals(name)
+                    && !registration.isCancelled()) {
+                // Already being read
+                return;
+            }
+        }
+        // Sets the probe to be read by its bus if it can be, the probe
+        // still reads its volume
+        oneWire.register(temp);
+        scheduler.schedule(name, ControlScheduler.Phase.SAMPLE, Temp.PERIOD,
+                new ControlScheduler.Task() {
+                    @Override
+                    public boolean run(final long now) {
+                        return temp.sample();
+                    }
+                });
     }
 
     public static void delSystemTemp() {
@@ -1013,12 +1406,8 @@ public class LaunchControl {
      * @return True if the switch exists.
      */
     public static boolean switchExists(final String name) {
-        for (Switch p : switchList) {
-            if (p.getName().equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        Switch tSwitch = findSwitch(name);
+        return tSwitch != null && tSwitch.getName().equals(name);
     }
 
     /**
@@ -1084,21 +1473,14 @@ public class LaunchControl {
         // setup the scale for each temp probe
         tTemp.setScale(scale);
 
-        // setup the threads
-        Thread tThread = new Thread(tTemp);
-        tThread.setName("Temp_" + tTemp.getName());
-        tempThreads.add(tThread);
-        tThread.start();
+        startTemp(tTemp);
 
         if ((heatgpio != null && !heatgpio.equals("")) || (coolgpio != null && !coolgpio.equals(""))) {
 
             PID tPID = new PID(tTemp, input, heatgpio);
             tPID.setCoolGPIO(coolgpio);
             pidList.add(tPID);
-            Thread pThread = new Thread(tPID);
-            pThread.setName("PID_" + tTemp.getName());
-            pidThreads.add(pThread);
-            pThread.start();
+            tPID.start(scheduler);
         }
 
         return tTemp;
@@ -1159,17 +1541,7 @@ public class LaunchControl {
      * @return The Temp object
      */
     public static Temp findTemp(final String name) {
-        // search based on the input name
-        Iterator<Temp> iterator = tempList.iterator();
-        Temp tTemp;
-        while (iterator.hasNext()) {
-            tTemp = iterator.next();
-            if (tTemp.getName().equalsIgnoreCase(name)
-                    || tTemp.getProbe().equalsIgnoreCase(name)) {
-                return tTemp;
-            }
-        }
-        return null;
+        return tempList.find(name);
     }
 
     /******
@@ -1180,16 +1552,7 @@ public class LaunchControl {
      * @return The PID object
      */
     public static PID findPID(final String name) {
-        // search based on the input name
-        Iterator<PID> iterator = pidList.iterator();
-        PID tPid;
-        while (iterator.hasNext()) {
-            tPid = iterator.next();
-            if (tPid.getName().equalsIgnoreCase(name) || tPid.getTempProbe().getProbe().equalsIgnoreCase(name)) {
-                return tPid;
-            }
-        }
-        return null;
+        return pidList.find(name);
     }
 
     /**
@@ -1205,9 +1568,7 @@ public class LaunchControl {
             return;
         }
         pidList.add(newPID);
-        Thread pThread = new Thread(newPID);
-        pThread.start();
-        pidThreads.add(pThread);
+        newPID.start(scheduler);
     }
 
     /**************
@@ -1218,17 +1579,7 @@ public class LaunchControl {
      * @return return the Switch object
      */
     public static Switch findSwitch(final String name) {
-        // search based on the input name
-        Iterator<Switch> iterator = switchList.iterator();
-        Switch tSwitch;
-        while (iterator.hasNext()) {
-            tSwitch = iterator.next();
-            if (tSwitch.getName().equalsIgnoreCase(name)
-                    || tSwitch.getNodeName().equalsIgnoreCase(name)) {
-                return tSwitch;
-            }
-        }
-        return null;
+        return switchList.find(name);
     }
 
     /**
@@ -1251,17 +1602,7 @@ public class LaunchControl {
      * @return return the Timer object
      */
     public static Timer findTimer(final String name) {
-        // search based on the input name
-        Iterator<Timer> iterator = timerList.iterator();
-        Timer tTimer;
-        while (iterator.hasNext()) {
-            tTimer = iterator.next();
-            if (tTimer.getName().equalsIgnoreCase(name)
-                    || tTimer.getName().equalsIgnoreCase(name.replace("_", " "))) {
-                return tTimer;
-            }
-        }
-        return null;
+        return timerList.find(name);
     }
 
     /**************
@@ -1312,11 +1653,7 @@ public class LaunchControl {
                 tempList.add(currentTemp);
                 // setup the scale for each temp probe
                 currentTemp.setScale(scale);
-                // setup the threads
-                Thread tThread = new Thread(currentTemp);
-                tThread.setName("Temp_" + currentTemp.getName());
-                tempThreads.add(tThread);
-                tThread.start();
+                startTemp(currentTemp);
             }
         }
     }
@@ -1327,7 +1664,7 @@ public class LaunchControl {
      */
     public static void listOWFSTemps()
     {
-        if (owfsConnection == null)
+        if (owfs == null)
         {
             return;
         }
@@ -1351,11 +1688,7 @@ public class LaunchControl {
             tempList.add(currentTemp);
             // setup the scale for each temp probe
             currentTemp.setScale(scale);
-            // setup the threads
-            Thread tThread = new Thread(currentTemp);
-            tThread.setName("Temp_" + currentTemp.getName());
-            tempThreads.add(tThread);
-            tThread.start();
+            startTemp(currentTemp);
         }
     }
 
@@ -1379,7 +1712,7 @@ public class LaunchControl {
             String fixedAddress = devFamily + sep
                     + devAddress.toLowerCase();
 
-            BrewServer.LOG.info("Converted address: " + fixedAddress);
+            BrewServer.LOG.fine("Converted address: " + fixedAddress);
 
             return fixedAddress;
         }
@@ -1411,10 +1744,6 @@ public class LaunchControl {
             BrewServer.LOG.warning("http://dougedey.github.io/2014/11/24/Why_Cant_I_Use_Elsinore_Without_Temperature_Probes/");
         }
 
-        if (configDoc == null) {
-            initializeConfig();
-        }
-
         displaySensors();
         InetAddress addr;
         try {
@@ -1430,173 +1759,135 @@ public class LaunchControl {
 
     /**
      * Save the configuration file to the default config filename as xml.
+     * It's written in the background once the edits stop.
      */
     public static void saveConfigFile() {
-        if (!LaunchControl.loadCompleted) {
-            return;
-        }
-        File configOut = new File(configFileName);
-        LaunchControl.setFileOwner(configOut);
-
-        Element generalElement = getFirstElement(null, "general");
-        if (generalElement == null) {
-            generalElement = addNewElement(null, "general");
-        }
-
-        Element tempElement;
-
-        tempElement = getFirstElement(generalElement, "pagelock");
-
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, "pagelock");
+        synchronized (configLock) {
+            config = config.withGeneral(captureGeneral());
         }
+        configWriter.markDirty();
+    }
 
-        tempElement.setTextContent(Boolean.toString(pageLock));
-
-        tempElement = getFirstElement(generalElement, LaunchControl.SCALE);
-
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, LaunchControl.SCALE);
-        }
-
-        tempElement.setTextContent(scale);
-
-        tempElement = getFirstElement(generalElement, StatusRecorder.RECORDER);
+    /**
+     * @return The configuration as it was last saved.
+     */
+    public static Config getConfig() {
+        return config;
+    }
 
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, StatusRecorder.RECORDER);
+    /**
+     * Snapshot everything without writing it, so the first save of one
+     * section doesn't write the others out empty.
+     */
+    private static void captureConfig() {
+        synchronized (configLock) {
+            config = captureDevices(config.withGeneral(captureGeneral()));
         }
+    }
 
-        tempElement.setTextContent(Boolean.toString(LaunchControl.recorder != null));
-
-        tempElement = getFirstElement(generalElement, StatusRecorder.RECORDER_DIFF);
+    /**
+     * @return The current general settings.
+     */
+    private static GeneralConfig captureGeneral() {
+        return new GeneralConfig(breweryName, pageLock, scale,
+                recorder != null, StatusRecorder.THRESHOLD,
+                StatusRecorder.SLEEP, owfsServer, owfsPort, useOWFS,
+                m_restore, cosmApiKey, cosmFeedId);
+    }
 
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, StatusRecorder.RECORDER_DIFF);
+    /**
+     * @param base The configuration to update.
+     * @return The configuration with the current devices, timers, switches
+     *         and pH sensors.
+     */
+    private static Config captureDevices(final Config base) {
+        List<DeviceConfig> devices = new ArrayList<>();
+        for (Temp t : tempList) {
+            devices.add(DeviceConfig.of(t, findPID(t.getName())));
         }
-
-        tempElement.setTextContent(Double.toString(StatusRecorder.THRESHOLD));
-
-        tempElement = getFirstElement(generalElement, StatusRecorder.RECORDER_TIME);
-
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, StatusRecorder.RECORDER_TIME);
+        List<TimerConfig> timers = new ArrayList<>();
+        for (Timer t : timerList) {
+            timers.add(TimerConfig.of(t));
         }
-
-        tempElement.setTextContent(Long.toString(StatusRecorder.SLEEP));
-
-        if (breweryName != null && !breweryName.equals("")) {
-            tempElement = getFirstElement(generalElement, LaunchControl.BREWERY_NAME);
-
-            if (tempElement == null) {
-                tempElement = addNewElement(generalElement, LaunchControl.BREWERY_NAME);
-            }
-
-            tempElement.setTextContent(breweryName);
+        List<SwitchConfig> switches = new ArrayList<>();
+        for (Switch s : switchList) {
+            switches.add(SwitchConfig.of(s));
         }
-
-
-        if (owfsServer != null) {
-            tempElement = getFirstElement(generalElement, LaunchControl.OWFS_SERVER);
-
-            if (tempElement == null) {
-                tempElement = addNewElement(generalElement, LaunchControl.OWFS_SERVER);
-            }
-
-            tempElement.setTextContent(owfsServer);
+        List<PhSensorConfig> sensors = new ArrayList<>();
+        for (PhSensor p : phSensorList) {
+            sensors.add(PhSensorConfig.of(p));
         }
 
-        if (owfsPort != null) {
-            tempElement = getFirstElement(generalElement, LaunchControl.OWFS_PORT);
-
-            if (tempElement == null) {
-                tempElement = addNewElement(generalElement, LaunchControl.OWFS_PORT);
+        // Keep anything that's still starting up as it was loaded
+        Startup current = startup;
+        if (current != null && !current.isComplete()) {
+            for (DeviceConfig device : base.devices) {
+                if (current.isPending("device/" + device.name)) {
+                    devices.add(device);
+                }
             }
-
-            tempElement.setTextContent(Integer.toString(owfsPort));
-        }
-
-        if (useOWFS)
-        {
-            tempElement = getFirstElement(generalElement, "use_owfs");
-
-            if (tempElement == null) {
-                tempElement = addNewElement(generalElement, "use_owfs");
+            for (SwitchConfig switchConfig : base.switches) {
+                if (current.isPending("switch/" + switchConfig.name)) {
+                    switches.add(switchConfig);
+                }
             }
-
-            tempElement.setTextContent(Boolean.toString(useOWFS));
-        }
-
-        tempElement = getFirstElement(generalElement, LaunchControl.RESTORE);
-
-        if (tempElement == null) {
-            tempElement = addNewElement(generalElement, LaunchControl.RESTORE);
-        }
-
-        tempElement.setTextContent(Boolean.toString(LaunchControl.m_restore));
-
-        try {
-            TransformerFactory transformerFactory = TransformerFactory
-                    .newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(
-                    "{http://xml.apache.org/xslt}indent-amount", "2");
-            DOMSource source = new DOMSource(configDoc);
-
-            XPath xp = XPathFactory.newInstance().newXPath();
-            NodeList nl = (NodeList) xp.evaluate(
-                    "//text()[normalize-space(.)='']", configDoc,
-                    XPathConstants.NODESET);
-
-            for (int i = 0; i < nl.getLength(); ++i) {
-                Node node = nl.item(i);
-                node.getParentNode().removeChild(node);
+            for (PhSensorConfig sensor : base.phSensors) {
+                if (current.isPending("phsensor/" + sensor.name)) {
+                    sensors.add(sensor);
+                }
             }
-
-            StreamResult configResult = new StreamResult(configOut);
-            transformer.transform(source, configResult);
-
-        } catch (TransformerConfigurationException e) {
-            BrewServer.LOG.warning("Could not transform config file");
-            e.printStackTrace();
-        } catch (TransformerException e) {
-            BrewServer.LOG.warning("Could not transformer file");
-            e.printStackTrace();
-        } catch (XPathExpressionException e) {
-            e.printStackTrace();
         }
+        return base.withDevices(devices).withTimers(timers)
+                .withSwitches(switches).withPhSensors(sensors);
     }
 
     /**
      * Create the OWFSConnection configuration in a thread safe manner.
      */
-    public static void setupOWFS() {
-        if (owfsConnection != null) {
-            try {
-                owfsConnection.disconnect();
-                owfsConnection = null;
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public static synchronized void setupOWFS() {
+        if (owfs != null) {
+            owfs.close();
+            owfs = null;
         }
 
-        if (!useOWFS)
+        if (!useOWFS || owfsServer == null || owfsPort == null)
         {
             return;
         }
-        // Use the thread safe mechanism
         BrewServer.LOG.info("Connecting to " + owfsServer + ":" + owfsPort);
-        try {
-            OwfsConnectionConfig owConfig = new OwfsConnectionConfig(owfsServer,
-                    owfsPort);
-            owConfig.setPersistence(OwPersistence.ON);
-            owfsConnection = OwfsConnectionFactory
-                    .newOwfsClientThreadSafe(owConfig);
-            useOWFS = true;
-        } catch (NullPointerException npe) {
+        OwfsReader reader = new OwfsReader(owfsServer, owfsPort);
+        if (!reader.connect()) {
             BrewServer.LOG.warning("OWFS is not able to be setup. You may need to rerun setup.");
         }
+        owfs = reader;
+
+        if (owfsTask == null) {
+            owfsTask = scheduler.schedule("OWFS",
+                    ControlScheduler.Phase.SAMPLE, OwfsReader.PERIOD,
+                    new ControlScheduler.Task() {
+                        @Override
+                        public boolean run(final long now) {
+                            OwfsReader current = owfs;
+                            if (current != null) {
+                                current.readAll();
+                            }
+                            return true;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Ask the OWFS reader to reconnect after a failed read. Repeated
+     * requests are coalesced and backed off, so every reader can call this.
+     */
+    public static void reconnectOWFS() {
+        OwfsReader reader = owfs;
+        if (reader == null) {
+            setupOWFS();
+        } else {
+            reader.requestReconnect();
+        }
     }
 
     /**
@@ -1625,23 +1916,7 @@ public class LaunchControl {
             }
         }
 
-        if (configDoc == null) {
-            initializeConfig();
-        }
-
-        Element generalElement = getFirstElement(null, "general");
-        if (generalElement == null) {
-            generalElement = addNewElement(null, "general");
-        }
-
-        Element tempElement = addNewElement(generalElement, "use_owfs");
-        tempElement.setTextContent(Boolean.toString(useOWFS));
-
-        tempElement = addNewElement(generalElement, LaunchControl.OWFS_SERVER);
-        tempElement.setTextContent(owfsServer);
-
-        tempElement = addNewElement(generalElement, LaunchControl.OWFS_PORT);
-        tempElement.setTextContent(Integer.toString(owfsPort));
+        saveConfigFile();
 
         // Create the connection
         setupOWFS();
@@ -1655,13 +1930,8 @@ public class LaunchControl {
      * @return true if the probe is setup.
      */
     public static boolean probeExists(final String address) {
-        String owfsAddress = convertAddress(address);
-        for (Temp t : tempList) {
-            if (t.getProbe().equals(address) || t.getProbe().equals(owfsAddress)) {
-                return true;
-            }
-        }
-        return false;
+        // Both forms of each probe's address are indexed
+        return tempList.containsKey(address);
     }
 
     /***********
@@ -1677,26 +1947,25 @@ public class LaunchControl {
      */
     public static String readOWFSPath(final String path) throws OwfsException,
             IOException {
-        String result = "";
-        if (owfsConnection == null) {
+        OwfsReader reader = owfs;
+        if (reader == null) {
             setupOWFS();
-            if (owfsConnection == null) {
+            reader = owfs;
+            if (reader == null) {
                 BrewServer.LOG.info("no OWFS connection");
                 return "";
             }
         }
-        try {
-            if (owfsConnection.exists(path)) {
-                result = owfsConnection.read(path);
-            }
-        } catch (OwfsException e) {
-            // Error -1 is file not found, exists should bloody catch this
-            if (!e.getMessage().equals("Error -1")) {
-                throw e;
-            }
-        }
+        return reader.read(path);
+    }
 
-        return result.trim();
+    /**
+     * @param path A path read by {@link #readOWFSPath(String)}.
+     * @return When its value was read from owserver, 0 if it isn't known.
+     */
+    public static long getOWFSReadTime(final String path) {
+        OwfsReader reader = owfs;
+        return reader == null ? 0 : reader.getReadTime(path);
     }
 
     /*******
@@ -1724,10 +1993,10 @@ public class LaunchControl {
         for (Temp tTemp : tempList) {
             // launch all the PIDs first,
             // since they will launch the temp theads too
-            BigDecimal currentTemp = tTemp.updateTemp();
+            double currentTemp = tTemp.updateTemp();
 
             System.out.print(i.toString() + ") " + tTemp.getName());
-            if (currentTemp.equals(Temp.ERROR_TEMP)) {
+            if (currentTemp == Temp.ERROR_TEMP) {
                 BrewServer.LOG.warning(" doesn't have a valid temperature");
             } else {
                 BrewServer.LOG.info(" " + currentTemp);
@@ -1738,217 +2007,33 @@ public class LaunchControl {
 
     /*****
      * Save the configuration to the Config.
+     * It's written in the background once the edits stop.
      */
     public static void saveSettings() {
-        if (configDoc == null) {
-            setupConfigDoc();
-        }
-
-        // Delete the existing PIDs and Temps.
-        NodeList devList = getElementsByXpath(null, "/elsinore/device");
-        if (devList != null) {
-            Set<Element> delElements = new HashSet<>();
-            // Can't delete directly from the nodelist, concurrency issues.
-            for (int i = 0; i < devList.getLength(); i++) {
-                delElements.add((Element) devList.item(i));
-            }
-            // now we can delete them.
-            for (Element e : delElements) {
-                e.getParentNode().removeChild(e);
-            }
-        }
-
-        // go through the list of Temps and save each one
-        for (Temp fTemp : tempList) {
-
-            PID n = LaunchControl.findPID(fTemp.getName());
-            if (n == null || n.getName().equals("")) {
-                // Delete the info
-                deletePIDConfig(fTemp.getName());
-            } else if (!n.getName().equals(fTemp.getProbe())) {
-                BrewServer.LOG.info("Saving PID " + n.getName());
-                savePID(n);
-            }
-            fTemp.save();
-
-            if (fTemp.getVolumeBase() != null) {
-                if (!fTemp.getVolumeAIN().equals("")) {
-                    saveVolume(fTemp.getName(), fTemp.getVolumeAIN(),
-                            fTemp.getVolumeUnit(), fTemp.getVolumeBase());
-                } else if (fTemp.getVolumeAddress() != null
-                        && fTemp.getVolumeOffset() != null) {
-                    saveVolume(fTemp.getName(), fTemp.getVolumeAddress(),
-                            fTemp.getVolumeOffset(), fTemp.getVolumeUnit(),
-                            fTemp.getVolumeBase());
-                } else {
-                    BrewServer.LOG.info("No valid volume probe found");
-                }
-            } else {
-                BrewServer.LOG.info("No Volume base set");
-            }
-        }
-
-        // Save the timers
-        if (timerList.size() > 0) {
-
-            Element timersElement = getFirstElement(null, "timers");
-
-            if (timersElement == null) {
-                timersElement = addNewElement(null, "timers");
-            }
-
-            Node childTimer = timersElement.getFirstChild();
-            while (childTimer != null) {
-                timersElement.removeChild(childTimer);
-                childTimer = timersElement.getFirstChild();
-            }
-
-            for (Timer t : timerList) {
-                BrewServer.LOG.warning("Saving Timer: " + t.getName());
-                Element timerElement = getFirstElementByXpath(null,
-                        "/elsinore/timers/timer[@id='" + t + "']");
-                if (timerElement == null) {
-                    // No timer by this name
-                    Element newTimer =
-                            addNewElement(timersElement, "timer");
-                    newTimer.setAttribute("id", t.getName());
-                    newTimer.setAttribute("position", "" + t.getPosition());
-                    newTimer.setAttribute("target", "" + t.getTarget());
-                }
-            }
-        }
-
-        // Delete all the switches first
-        Element switchElement = getFirstElement(null, "switches");
-
-        if (switchElement == null) {
-            switchElement = addNewElement(null, "switches");
-        }
-
-        Node childSwitches = switchElement.getFirstChild();
-        while (childSwitches != null) {
-            switchElement.removeChild(childSwitches);
-            childSwitches = switchElement.getFirstChild();
-        }
-
-        // Save the switches
-        if (switchList.size() > 0) {
-
-            for (Switch tSwitch : switchList) {
-
-                Element newSwitch = getFirstElementByXpath(null,
-                        "/elsinore/switches/" + tSwitch.getNodeName());
-
-                if (newSwitch == null) {
-                    // No timer by this name
-                    newSwitch = addNewElement(switchElement,
-                            "switch");
-                    newSwitch.setAttribute("name", tSwitch.getNodeName());
-                }
-                newSwitch.setAttribute("gpio", tSwitch.getGPIO());
-                newSwitch.setAttribute("position", "" + tSwitch.getPosition());
-                Element invertElement = addNewElement(newSwitch, "invert");
-                invertElement.setTextContent(
-                        Boolean.toString(tSwitch.getInverted()));
-                newSwitch.appendChild(invertElement);
-            }
-        }
-
-        // Delete all the ph Sensors first
-        Element phSensorsElement = getFirstElement(null, "phSensors");
-
-        if (phSensorsElement == null) {
-            phSensorsElement = addNewElement(null, "phSensors");
-        }
-
-        Node childSensor = phSensorsElement.getFirstChild();
-        while (childSensor != null) {
-            phSensorsElement.removeChild(childSensor);
-            childSensor = phSensorsElement.getFirstChild();
-        }
-
-        // Save the PH Sensors
-        if (phSensorList.size() > 0) {
-
-            for (PhSensor tSensor : phSensorList) {
-
-                Element newSensor = getFirstElementByXpath(null,
-                        "/elsinore/phSensors/" + tSensor.getName());
-
-                if (newSensor == null) {
-                    // No timer by this name
-                    newSensor = addNewElement(phSensorsElement,
-                            tSensor.getName());
-                }
-                newSensor.setAttribute(PhSensor.MODEL, tSensor.getModel());
-                newSensor.setAttribute(PhSensor.AIN_PIN, tSensor.getAIN());
-                newSensor.setAttribute(PhSensor.DS_ADDRESS, tSensor.getDsAddress());
-                newSensor.setAttribute(PhSensor.DS_OFFSET, tSensor.getDsOffset());
-                newSensor.setAttribute(PhSensor.OFFSET, tSensor.getOffset().toString());
-                if (tSensor.i2cDevice != null)
-                {
-                    Element i2cDevice = addNewElement(newSensor, I2CDevice.I2C_NODE);
-                    addNewElement(i2cDevice, I2CDevice.DEV_ADDRESS).setTextContent(Integer.toString(tSensor.i2cDevice.getAddress()));
-                    addNewElement(i2cDevice, I2CDevice.DEV_NUMBER).setTextContent(Integer.toString(tSensor.i2cDevice.getDevNumber()));
-                    addNewElement(i2cDevice, I2CDevice.DEV_TYPE).setTextContent(tSensor.i2cDevice.getDevName());
-                    addNewElement(i2cDevice, I2CDevice.DEV_CHANNEL).setTextContent(Integer.toString(tSensor.i2cChannel));
-                }
-            }
-        }
-
-        // Delete all the triggers first
-        Element triggerControlsElement = getFirstElement(null, TriggerControl.NAME);
-
-        if (triggerControlsElement != null) {
-            childSwitches = triggerControlsElement.getFirstChild();
-            while (childSwitches != null) {
-                triggerControlsElement.removeChild(childSwitches);
-                childSwitches = triggerControlsElement.getFirstChild();
-            }
-        }
-
-        for (Temp temp: tempList)
-        {
-            TriggerControl triggerControl = temp.getTriggerControl();
-            if (triggerControl == null || triggerControl.getTriggersSize() == 0)
-            {
-                continue;
-            }
-            Element triggerElement = getFirstElementByXpath(null,
-                    "/elsinore/" + TriggerControl.NAME + "[@name='" + temp.getName() + "']");
-            if (triggerElement == null) {
-                triggerElement = addNewElement(null, TriggerControl.NAME);
-                triggerElement.setAttribute("name", temp.getName());
-            }
-            triggerControl.saveTriggers(triggerElement);
+        synchronized (configLock) {
+            config = captureDevices(config);
         }
-
-        saveConfigFile();
+        configWriter.markDirty();
     }
 
-    public static void deletePIDConfig(String name) {
-        if (configDoc == null) {
-            return;
-        }
-
-        // save any changes
-        Element device = getFirstElementByXpath(null, "/elsinore/device[@id='"
-                + name + "']");
-        if (device == null) {
-            return;
+    /******
+     * Save a single probe, its PID and its triggers to the config.
+     * It's written in the background once the edits stop.
+     *
+     * @param temp
+     *            The probe to save
+     */
+    public static void saveTemp(final Temp temp) {
+        synchronized (configLock) {
+            config = config.withDevice(
+                    DeviceConfig.of(temp, findPID(temp.getName())));
         }
-
-        // Save the config to the configuration file
-        BrewServer.LOG.info("Deleting the PID information for " + name);
-
-        BrewServer.LOG.info("Using base node " + device.getNodeName()
-                + " with ID " + device.getAttribute("id"));
-
-        device.getParentNode().removeChild(device);
+        configWriter.markDirty();
     }
 
     /******
-     * Save the PID to the config doc.
+     * Save the PID to the config.
+     * It's written in the background once the edits stop.
      *
      * @param pid
      *            The PID to save
@@ -1960,610 +2045,12 @@ public class LaunchControl {
             return;
         }
 
-        if (configDoc == null) {
-            setupConfigDoc();
-        }
-
-        // Save the config to the configuration file
-        BrewServer.LOG.info("Saving the information for " + pid.getName());
-
-        // save any changes
-        Element device = getFirstElementByXpath(null, "/elsinore/device[@id='"
-                + pid.getName() + "']");
-
-        if (device == null) {
-            BrewServer.LOG.info("Creating new Element");
-            device = addNewElement(null, "device");
-            device.setAttribute(PID.ID, pid.getName());
-        }
-
-        BrewServer.LOG.info("Using base node " + device.getNodeName()
-                + " with ID " + device.getAttribute(PID.ID));
-
-        setElementText(device, PID.DUTY_CYCLE, pid.getManualCycle().toString());
-        setElementText(device, PID.DUTY_TIME, pid.getManualTime().toString());
-        setElementText(device, PID.SET_POINT, pid.getSetPoint().toString());
-        setElementText(device, PID.MODE, pid.getMode());
-
-        if (pid.getHeatSetting() != null) {
-
-            Element heatElement = getFirstElement(device, PID.HEAT);
-            if (heatElement == null)
-            {
-                heatElement = addNewElement(device, PID.HEAT);
-            }
-            setElementText(heatElement, PID.CYCLE_TIME, pid.getHeatCycle().toString());
-            setElementText(heatElement, PID.PROPORTIONAL, pid.getHeatP().toString());
-            setElementText(heatElement, PID.INTEGRAL, pid.getHeatI().toString());
-            setElementText(heatElement, PID.DERIVATIVE, pid.getHeatD().toString());
-            setElementText(heatElement, PID.GPIO, pid.getHeatGPIO());
-            setElementText(heatElement, PID.DELAY, pid.getHeatDelay().toString());
-            setElementText(heatElement, PID.INVERT, Boolean.toString(pid.getHeatInverted()));
-
-        }
-
-        if (pid.getCoolSetting() != null) {
-            Element coolElement = getFirstElement(device, PID.COOL);
-            if (coolElement == null)
-            {
-                coolElement = addNewElement(device, PID.COOL);
-            }
-
-            setElementText(coolElement, PID.CYCLE_TIME, pid.getCoolCycle().toString());
-            setElementText(coolElement, PID.DELAY, pid.getCoolDelay().toString());
-            setElementText(coolElement, PID.PROPORTIONAL, pid.getCoolP().toString());
-            setElementText(coolElement, PID.INTEGRAL, pid.getCoolI().toString());
-            setElementText(coolElement, PID.DERIVATIVE, pid.getCoolD().toString());
-            setElementText(coolElement, PID.GPIO, pid.getCoolGPIO());
-            setElementText(coolElement, PID.INVERT, Boolean.toString(pid.getCoolInverted()));
-        }
-        
-        if( pid.getTemp() != null && pid.getTemp().getProbe() != null) {
-            setElementText(device, Temp.PROBE_ELEMENT, pid.getTemp().getProbe() );
-        }
-        
-        setElementText(device, PID.MIN, pid.getMin().toString());
-        setElementText(device, PID.MAX, pid.getMax().toString());
-        setElementText(device, PID.TIME, pid.getTime().toString());
-
-        if (pid.getAuxGPIO() != null) {
-            setElementText(device, PID.AUX, pid.getAuxGPIO());
-            getFirstElement(device, PID.AUX).setAttribute("invert", Boolean.toString(pid.isAuxInverted()));
-        }
-
-        saveConfigFile();
-    }
-
-    /*******
-     * Add a temperature device to the configuration file.
-     *
-     * @param temp
-     *            The temp probe to save.
-     * @return The newly created Document Element
-     */
-    public static Element addTempToConfig(Temp temp) {
-
+        Temp temp = findTemp(pid.getName());
         if (temp == null) {
-            return null;
-        }
-
-        String probe = temp.getProbe();
-        String name = temp.getName();
-        String cutoff = temp.getCutoff();
-
-        /**
-         * Some people want to watch the world burn and don't name their probes!
-        if (probe.equalsIgnoreCase(name)) {
-            BrewServer.LOG.info("Probe: " + probe + " is not setup, not saving");
-            return null;
-        }
-        **/
-        // save any changes
-        BrewServer.LOG.info("Saving " + name + " with probe " + probe);
-        // save any changes
-        Element device = getFirstElementByXpath(null, "/elsinore/device[@id='"
-                + name + "']");
-        if (device == null) {
-            // no idea why there wouldn't be this section
-            device = addNewElement(null, "device");
-            device.setAttribute("id", name);
-        }
-        setElementText(device, Temp.PROBE_ELEMENT, probe);
-        setElementText(device, Temp.POSITION, "" + temp.getPosition());
-        setElementText(device, PID.CUTOFF, cutoff);
-        setElementText(device, PID.CUTOFF_ENABLED, Boolean.toString(temp.cutoffEnabled));
-        setElementText(device, PID.CALIBRATION, temp.getCalibration());
-        setElementText(device, PID.HIDDEN, Boolean.toString(temp.isHidden()));
-        addNewElement(device, Temp.PROBE_SIZE).setTextContent(Integer.toString(temp.getSize()));
-
-        BrewServer.LOG.info("Checking for volume");
-        if (temp.hasVolume()) {
-            System.out.println("Saving volume");
-            setElementText(device, VolumeUnits.VOLUME_UNITS, temp.getVolumeUnit());
-            if (!temp.getVolumeAIN().equals("")) {
-                setElementText(device, VolumeUnits.VOLUME_PIN, temp.getVolumeAIN());
-            } else {
-                setElementText(device, VolumeUnits.VOLUME_ADDRESS, temp.getVolumeAddress());
-                setElementText(device, VolumeUnits.VOLUME_OFFSET, temp.getVolumeOffset());
-            }
-
-            if (temp.i2cDevice != null)
-            {
-                Element i2cDevice = addNewElement(device, I2CDevice.I2C_NODE);
-                addNewElement(i2cDevice, I2CDevice.DEV_ADDRESS).setTextContent(Integer.toString(temp.i2cDevice.getAddress()));
-                addNewElement(i2cDevice, I2CDevice.DEV_NUMBER).setTextContent(Integer.toString(temp.i2cDevice.getDevNumber()));
-                addNewElement(i2cDevice, I2CDevice.DEV_TYPE).setTextContent(temp.i2cDevice.getDevName());
-                addNewElement(i2cDevice, I2CDevice.DEV_CHANNEL).setTextContent(Integer.toString(temp.i2cChannel));
-            }
-
-            ConcurrentHashMap<BigDecimal, BigDecimal> volumeBase = temp
-                    .getVolumeBase();
-            // Iterate over the entries
-
-            if (volumeBase != null) {
-                for (Entry<BigDecimal, BigDecimal> e : volumeBase.entrySet()) {
-                    System.out.println("Saving volume point " + e.getKey()
-                            + " value " + e.getValue());
-                    Element volEntry = getFirstElementByXpath(null,
-                            "/elsinore/device[@id='" + name + "']"
-                            + "/volume[@vol='" + e.getKey().toString()
-                            + "']");
-                    if (volEntry == null) {
-                        volEntry = addNewElement(device, "volume");
-                        volEntry.setAttribute("vol", e.getKey().toString());
-                    }
-
-                    volEntry.setAttribute("vol", e.getKey().toString());
-                    volEntry.setTextContent(e.getValue().toString());
-                    device.appendChild(volEntry);
-                }
-            }
-        }
-        return device;
-    }
-
-    /*******
-     * Save the volume details to the config.
-     *
-     * @param name
-     *            name of the device to add the information to
-     * @param address
-     *            the the one Wire ADC converter
-     * @param offset
-     *            The 1wire input (A/B/C/D)
-     * @param volumeUnit
-     *            The units for the volume (free text string)
-     * @param concurrentHashMap
-     *            Hashmap of the volume ranges and readings
-     */
-    public static void saveVolume(final String name, final String address,
-            final String offset, final String volumeUnit,
-            final ConcurrentHashMap<BigDecimal, BigDecimal> concurrentHashMap) {
-
-        BrewServer.LOG.info("Saving volume for " + name);
-
-        Element device = saveVolumeMeasurements(name, concurrentHashMap,
-                volumeUnit);
-
-        // Units for the Volume OneWire Address
-        Element tElement = getFirstElement(device, "volume-address");
-        if (tElement == null) {
-            tElement = addNewElement(device, "volume-address");
-        }
-
-        tElement.setTextContent(address);
-
-        // Units for the Volume OneWire Offset
-        tElement = getFirstElement(device, "volume-offset");
-        if (tElement == null) {
-            tElement = addNewElement(device, "volume-offset");
-        }
-
-        tElement.setTextContent(offset);
-    }
-
-    /******
-     * Save the volume information for an onboard Analogue Input.
-     *
-     * @param name
-     *            Device name
-     * @param volumeAIN
-     *            Analogue input pin
-     * @param volumeUnit
-     *            The units for the volume (free text string)
-     * @param concurrentHashMap
-     *            Hashmap of the volume ranges and readings
-     */
-    public static void saveVolume(final String name, final String volumeAIN,
-            final String volumeUnit,
-            final ConcurrentHashMap<BigDecimal, BigDecimal> concurrentHashMap) {
-
-        BrewServer.LOG.info("Saving volume for " + name);
-
-        // save any changes
-        Element device = saveVolumeMeasurements(name, concurrentHashMap,
-                volumeUnit);
-
-        Element tElement = getFirstElement(device, "volume-pin");
-        if (tElement == null) {
-            tElement = addNewElement(device, "volume-pin");
-        }
-
-        tElement.setTextContent(volumeAIN);
-
-    }
-
-    /**
-     * Save the volume measurements for a device.
-     *
-     * @param name
-     *            The name of the Device to save the volume measurements to
-     * @param volumeBase
-     *            The Calibration array of analog values and volume value
-     * @param volumeUnit
-     *            The units for the volume.
-     * @return The element that was created
-     */
-    public static Element saveVolumeMeasurements(final String name,
-            final ConcurrentHashMap<BigDecimal, BigDecimal> volumeBase,
-            final String volumeUnit) {
-        Element device = getFirstElementByXpath(null, "/elsinore/device[@id='"
-                + name + "']");
-
-        if (device == null) {
-            // no idea why there wouldn't be this section
-            device = addNewElement(null, "device");
-            device.setAttribute("id", name);
-        }
-
-        Element tElement = getFirstElement(device, "volume-unit");
-        if (tElement == null) {
-            tElement = addNewElement(device, "volume-unit");
-        }
-        tElement.setTextContent(volumeUnit);
-
-        for (Entry<BigDecimal, BigDecimal> entry : volumeBase.entrySet()) {
-            System.out.println("Looking for volume entry: "
-                    + entry.getKey().toString());
-
-            tElement = getFirstElementByXpath(null, "/elsinore/device[@id='"
-                    + name + "']/volume[@vol='" + entry.getKey().toString()
-                    + "']");
-            if (tElement == null) {
-                tElement = addNewElement(device, "volume");
-                tElement.setAttribute("vol", entry.getKey().toString());
-            }
-
-            tElement.setTextContent(entry.getValue().toString());
-        }
-        return device;
-    }
-
-    /******
-     * Helper method to initialize the configuration.
-     */
-    public static void initializeConfig() {
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = null;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e1) {
-            e1.printStackTrace();
-        }
-        File existingConfig = new File(configFileName);
-        if (!existingConfig.exists()) {
-            return;
-        }
-
-        try {
-            assert dBuilder != null;
-            configDoc = dBuilder.parse(existingConfig);
-            XPath xp = XPathFactory.newInstance().newXPath();
-            NodeList nl = (NodeList) xp.evaluate(
-                    "//text()[normalize-space(.)='']", configDoc,
-                    XPathConstants.NODESET);
-
-            for (int i = 0; i < nl.getLength(); ++i) {
-                Node node = nl.item(i);
-                node.getParentNode().removeChild(node);
-            }
-            return;
-        } catch (Exception e) {
-            BrewServer.LOG.info(configFileName
-                    + " isn't an XML File, trying configparser");
-        }
-
-        try {
-            configCfg = new ConfigParser();
-
-            BrewServer.LOG.info("Backing up config to " + configFileName
-                    + ".original");
-            File originalFile = new File(configFileName + ".original");
-            File sourceFile = new File(configFileName);
-            copyFile(sourceFile, originalFile);
-
-            LaunchControl.setFileOwner(originalFile);
-            LaunchControl.setFileOwner(sourceFile);
-
-            configCfg.read(configFileName);
-            BrewServer.LOG.info("Created configCfg");
-        } catch (IOException e) {
-            BrewServer.LOG.info("Config file at: " + configFileName
-                    + " doesn't exist");
-            configCfg = null;
-        }
-    }
-
-    /**
-     * Parse the config using the XML Parser.
-     */
-    public void parseXMLSections() {
-        NodeList configSections = configDoc.getDocumentElement()
-                .getChildNodes();
-
-        if (configSections.getLength() == 0) {
-            return;
-        }
-        // setup general first
-        parseGeneral(getFirstElement(null, "general"));
-        parseSwitches(getFirstElement(null, "switches"));
-        parsePhSensors(getFirstElement(null, "phSensors"));
-
-        for (int i = 0; i < configSections.getLength(); i++) {
-            Node temp = configSections.item(i);
-            if (temp.getNodeType() == Node.ELEMENT_NODE) {
-                Element e = (Element) temp;
-                BrewServer.LOG.info("Checking section " + e.getNodeName());
-                // Parsed general first
-                if (e.getNodeName().equalsIgnoreCase("timers")) {
-                    parseTimers(e);
-                } else if (e.getNodeName().equalsIgnoreCase("device")) {
-                    parseDevice(e);
-                }
-            }
-        }
-    }
-
-    /**
-     * Parse a configuration section, such as a specific device.
-     *
-     * @param config
-     *            The configuration element to parse.
-     */
-    public void parseDevice(final Element config) {
-        String probe = null;
-        String heatGPIO = null;
-        String coolGPIO = null;
-        String volumeUnits = "Litres";
-        String dsAddress = null, dsOffset = null;
-        String auxPin = null, cutoffTemp = null, calibration = null;
-        String mode = "off";
-        int probeSize = Temp.SIZE_LARGE;
-        ConcurrentHashMap<BigDecimal, BigDecimal> volumeArray =
-                new ConcurrentHashMap<>();
-        BigDecimal duty = new BigDecimal(0), heatCycle = new BigDecimal(0.0),
-                setpoint = new BigDecimal(0.0), heatP = new BigDecimal(0.0),
-                heatI = new BigDecimal(0.0), heatD = new BigDecimal(0.0),
-                heatDelay = new BigDecimal(0),
-                min = new BigDecimal(0.0), max = new BigDecimal(0.0),
-                time = new BigDecimal(0.0), coolP = new BigDecimal(0.0),
-                coolI = new BigDecimal(0.0), coolD = new BigDecimal(0.0),
-                coolCycle = new BigDecimal(0.0), cycle = new BigDecimal(0.0),
-                coolDelay = new BigDecimal(0.0);
-        boolean coolInvert = false, heatInvert = false, hidden = false, cutoffEnabled = false, auxInvert = false;
-        int analoguePin = -1, position = -1;
-        Element i2cElement = null;
-
-        String deviceName = config.getAttribute("id");
-
-        BrewServer.LOG.info("Parsing XML Device: " + deviceName);
-        try {
-            probe = getTextForElement(config, Temp.PROBE_ELEMENT, null);
-            position = Integer.parseInt(getTextForElement(config, Temp.POSITION, "-1"));
-            duty = new BigDecimal(getTextForElement(config, PID.DUTY_CYCLE, "0.0"));
-            cycle = new BigDecimal(getTextForElement(config, PID.DUTY_TIME, "0.0"));
-            setpoint = new BigDecimal(getTextForElement(config, PID.SET_POINT, "0.0"));
-
-            Element heatElement = getFirstElement(config, "heat");
-
-            if (heatElement == null) {
-                heatElement = config;
-            }
-
-            if (m_restore) {
-                mode = getTextForElement(config, PID.MODE, "off");
-            }
-
-            heatGPIO = getTextForElement(heatElement, PID.GPIO, null);
-
-
-            heatCycle = new BigDecimal(getTextForElement(heatElement, PID.CYCLE_TIME, "0.0"));
-            heatP = new BigDecimal(getTextForElement(heatElement, PID.PROPORTIONAL, "0.0"));
-            heatI = new BigDecimal(getTextForElement(heatElement, PID.INTEGRAL, "0.0"));
-            heatD = new BigDecimal(getTextForElement(heatElement, PID.DERIVATIVE, "0.0"));
-            heatDelay = new BigDecimal(getTextForElement(heatElement, PID.DELAY, "0.0"));
-            heatInvert = Boolean.parseBoolean(getTextForElement(heatElement, PID.INVERT, "false"));
-
-            Element coolElement = getFirstElement(config, "cool");
-
-            if (coolElement != null)
-            {
-                coolCycle = new BigDecimal(getTextForElement(coolElement, PID.CYCLE_TIME, "0.0"));
-                coolP = new BigDecimal(getTextForElement(coolElement, PID.PROPORTIONAL, "0.0"));
-                coolI = new BigDecimal(getTextForElement(coolElement, PID.INTEGRAL, "0.0"));
-                coolD = new BigDecimal(getTextForElement(coolElement, PID.DERIVATIVE, "0.0"));
-                coolDelay = new BigDecimal(getTextForElement(coolElement, PID.DELAY, "0.0"));
-                coolInvert = Boolean.parseBoolean(getTextForElement(coolElement, PID.INVERT, "false"));
-                coolGPIO = getTextForElement(coolElement, PID.GPIO, null);
-            }
-
-
-            min = new BigDecimal(getTextForElement(config, PID.MIN, "0.0"));
-            max = new BigDecimal(getTextForElement(config, PID.MAX, "0.0"));
-            time = new BigDecimal(getTextForElement(config, PID.TIME, "0.0"));
-            cutoffTemp = getTextForElement(config, PID.CUTOFF, "0.0");
-            cutoffEnabled = Boolean.parseBoolean(getTextForElement(config, PID.CUTOFF_ENABLED, "false"));
-            calibration = getTextForElement(config, PID.CALIBRATION, "0.0");
-            auxPin = getTextForElement(config, PID.AUX, null);
-            if (auxPin != null) {
-                auxInvert = Boolean.parseBoolean(getFirstElement(config, PID.AUX).getAttribute("invert"));
-            }
-
-            hidden = Boolean.parseBoolean(getTextForElement(config, PID.HIDDEN, "false"));
-
-            NodeList tList = config.getElementsByTagName("volume");
-
-            if (tList.getLength() >= 1) {
-                for (int j = 0; j < tList.getLength(); j++) {
-                    Element curOption = (Element) tList.item(j);
-
-                    // Append the volume to the array
-                    try {
-                        BigDecimal volValue = new BigDecimal(curOption.getAttribute("vol"));
-                        BigDecimal volReading = new BigDecimal(curOption.getTextContent());
-
-                        volumeArray.put(volValue, volReading);
-                        // we can parse this as an integer
-                    } catch (NumberFormatException e) {
-                        BrewServer.LOG.warning("Could not parse "
-                                + curOption.getNodeName() + " as an integer");
-                    }
-                }
-            }
-
-            volumeUnits = getTextForElement(config, VolumeUnits.VOLUME_UNITS, null);
-            analoguePin = Integer.parseInt(getTextForElement(config, VolumeUnits.VOLUME_PIN, "-1"));
-            dsAddress = getTextForElement(config, VolumeUnits.VOLUME_ADDRESS, null);
-            dsOffset = getTextForElement(config, VolumeUnits.VOLUME_OFFSET, null);
-
-            probeSize = Integer.parseInt(getTextForElement(config, Temp.PROBE_SIZE, Integer.toString(Temp.SIZE_LARGE)));
-
-            i2cElement = getFirstElement(config, I2CDevice.I2C_NODE);
-
-            if (volumeUnits == null) {
-                BrewServer.LOG.warning("Couldn't find a volume unit for "
-                        + deviceName);
-                volumeArray = null;
-            }
-
-            if (volumeArray != null && volumeArray.size() < MIN_VOLUME_SIZE) {
-                BrewServer.LOG.info("Not enough volume data points, "
-                        + volumeArray.size() + " found");
-                volumeArray = null;
-            } else if (volumeArray == null) {
-                // we don't have a basic level
-                // not implemented yet, math is hard
-                System.out
-                    .println("No Volume Presets, check your config or rerun the setup!");
-                // otherwise we are OK
-            }
-
-        } catch (NumberFormatException nfe) {
-            System.out.print("NumberFormatException when reading from: "
-                    + deviceName);
-            nfe.printStackTrace();
-        } catch (Exception e) {
-            BrewServer.LOG.info(e.getMessage() + " Occurred when reading "
-                    + deviceName);
-            e.printStackTrace();
-        }
-        Temp newTemp = startDevice(deviceName, probe, heatGPIO, coolGPIO);
-
-        if (newTemp == null) {
-            System.out.println("Problems parsing device " + deviceName);
-            System.exit(-1);
-        }
-        newTemp.setPosition(position);
-        try {
-            if ((heatGPIO != null && !heatGPIO.equals("") && GPIO.getPinNumber(heatGPIO) >= 0)
-            || (coolGPIO != null && !coolGPIO.equals("") && GPIO.getPinNumber(coolGPIO) >= 0)) {
-                PID tPID = LaunchControl.findPID(newTemp.getName());
-                try {
-                    tPID.setHysteria(min, max, time);
-                } catch (NumberFormatException nfe) {
-                    System.out
-                        .println("Invalid options when setting up Hysteria: "
-                                + nfe.getMessage());
-                }
-
-                tPID.updateValues(mode, duty, heatCycle, setpoint, heatP,
-                        heatI, heatD);
-                tPID.setHeatDelay(heatDelay);
-                tPID.setCoolDelay(coolDelay);
-                tPID.setCoolCycle(coolCycle);
-                tPID.setCoolP(coolP);
-                tPID.setCoolI(coolI);
-                tPID.setCoolD(coolD);
-                tPID.setCoolGPIO(coolGPIO);
-                tPID.setCoolInverted(coolInvert);
-                tPID.setHeatInverted(heatInvert);
-                tPID.setManualTime(cycle);
-                tPID.setManualDuty(duty);
-                if (auxPin != null && !auxPin.equals("")) {
-                    tPID.setAux(auxPin, auxInvert);
-                }
-            }
-        } catch (InvalidGPIOException e) {
-            BrewServer.LOG.info("Invalid GPIO provided");
-            e.printStackTrace();
-        }
-
-        if (cutoffTemp != null) {
-            newTemp.setCutoffTemp(cutoffTemp);
-        }
-        newTemp.cutoffEnabled = cutoffEnabled;
-
-        newTemp.setSize(probeSize);
-
-        if (analoguePin != -1) {
-            try {
-                newTemp.setupVolumes(analoguePin, volumeUnits);
-            } catch (InvalidGPIOException e) {
-                e.printStackTrace();
-            }
-        } else if (dsAddress != null && dsOffset != null) {
-            newTemp.setupVolumes(dsAddress, dsOffset, volumeUnits);
-        }
-
-        if (i2cElement != null)
-        {
-            String channel = getTextForElement(i2cElement, I2CDevice.DEV_CHANNEL, null);
-            newTemp.setupVolumeI2C(getI2CDevice(i2cElement), channel, volumeUnits);
-        }
-
-        if (volumeArray != null && volumeArray.size() >= MIN_VOLUME_SIZE) {
-
-            for (Entry<BigDecimal, BigDecimal> entry : volumeArray
-                    .entrySet()) {
-                newTemp.addVolumeMeasurement(entry.getKey(), entry.getValue());
-            }
-        }
-
-        if (newTemp != null) {
-            newTemp.setCalibration(calibration);
-            if (hidden) {
-                newTemp.hide();
-            }
-            Element triggerElement = getFirstElementByXpath(null,
-                    "/elsinore/" + TriggerControl.NAME + "[@name='" + newTemp.getName() + "']");
-            if (triggerElement != null) {
-                TriggerControl triggerControl = newTemp.getTriggerControl();
-                if (triggerControl == null)
-                {
-                    triggerControl = new TriggerControl();
-                }
-                triggerControl.readTriggers(triggerElement);
-            }
-        }
-    }
-
-
-    public static String getTextForElement(Element config, String name, String defaultValue) {
-        Element tElement = getFirstElement(config, name);
-        if (tElement != null) {
-            return tElement.getTextContent();
+            saveSettings();
+        } else {
+            saveTemp(temp);
         }
-        return defaultValue;
     }
 
     /**
@@ -2605,118 +2092,6 @@ public class LaunchControl {
         }
     }
 
-    /**
-     * Sets up the base configuration Document.
-     */
-    public static void setupConfigDoc() {
-
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-            configDoc = dBuilder.newDocument();
-            configDoc.appendChild(configDoc.createElement("elsinore"));
-        } catch (ParserConfigurationException e1) {
-            BrewServer.LOG.info("Error creating the new document: "
-                    + e1.getMessage());
-            e1.printStackTrace();
-        }
-    }
-
-    /**
-     * Get a list of all the nodes that match the nodeName. If no baseNode is
-     * provided (null) then it checks from the document root.
-     *
-     * @param baseNode
-     *            The root element to check from, null for the base element
-     * @param nodeName
-     *            The node name to match
-     * @return A NodeList of matching node names
-     */
-    public static NodeList getAllNodes(final Element baseNode,
-            final String nodeName) {
-
-        Element trueBase = baseNode;
-        if (baseNode == null) {
-            if (configDoc == null) {
-                setupConfigDoc();
-            }
-
-            trueBase = configDoc.getDocumentElement();
-        }
-
-        return trueBase.getElementsByTagName(nodeName);
-    }
-
-    /**
-     * Get the first element matching nodeName from the baseNode. If baseNode is
-     * null, use the document root
-     *
-     * @param baseNode
-     *            The base element to search, null matches from the root
-     * @param nodeName
-     *            The nodeName to find.
-     * @return The First matching element.
-     */
-    public static Element getFirstElement(final Element baseNode,
-            final String nodeName) {
-
-        NodeList nodeList = getAllNodes(baseNode, nodeName);
-
-        Element eFound = null;
-        if (nodeList != null && nodeList.getLength() > 0) {
-            eFound = (Element) nodeList.item(0);
-        }
-
-        return eFound;
-    }
-
-    /**
-     * Add a new element to the specified baseNode.
-     *
-     * @param baseNode
-     *            The baseNode to append to, if null, use the document root
-     * @param nodeName
-     *            The new node name to add.
-     * @return The newly created element.
-     */
-    public static Element addNewElement(Element baseNode,
-            String nodeName) {
-
-        if (configDoc == null) {
-            setupConfigDoc();
-        }
-
-//        // See if this element exists.
-//        if (baseNode != null) {
-//            NodeList nl = baseNode.getChildNodes();
-//
-//            if (nl.getLength() > 0) {
-//                for (int i = 0; i < nl.getLength(); i++) {
-//                    Node item = nl.item(i);
-//                    if (item != null && item.getNodeName().equals(nodeName)) {
-//                        return (Element) item;
-//                    }
-//                }
-//            }
-//        }
-
-        Element newElement = configDoc.createElement(nodeName);
-        Element trueBase = baseNode;
-        BrewServer.LOG.info("Creating element of " + nodeName);
-
-        if (trueBase == null) {
-            BrewServer.LOG.info("Creating on configDoc base");
-            trueBase = configDoc.getDocumentElement();
-        } else {
-            BrewServer.LOG.info("on " + trueBase.getNodeName());
-        }
-
-        newElement = (Element) trueBase.appendChild(newElement);
-
-        return newElement;
-    }
-
     /**
      * Returns all the elements using an Xpath Search.
      *
@@ -2727,104 +2102,6 @@ public class LaunchControl {
      * @return The first matching element
      */
     @SuppressWarnings("unused")
-    public static NodeList getElementsByXpath(final Element baseNode,
-            final String xpathIn) {
-
-        NodeList tList = null;
-
-        if (configDoc == null) {
-            return null;
-        }
-
-        try {
-            expr = xpath.compile(xpathIn);
-            tList = (NodeList) expr.evaluate(configDoc, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            BrewServer.LOG.warning("Bad XPATH: " + xpathIn);
-            e.printStackTrace();
-            System.exit(-1);
-
-        }
-
-        return tList;
-    }
-
-    /**
-     * Returns the first element using an Xpath Search.
-     *
-     * @param baseNode
-     *            The base node to search on. if null, use the document root.
-     * @param xpathIn
-     *            The Xpath to search.
-     * @return The first matching element
-     */
-    public static Element getFirstElementByXpath(final Element baseNode,
-            final String xpathIn) {
-
-        Element tElement = null;
-
-        NodeList tList = getElementsByXpath(baseNode, xpathIn);
-
-        if (tList != null && tList.getLength() > 0) {
-            tElement = (Element) tList.item(0);
-        }
-
-        return tElement;
-
-    }
-
-    /**
-     * Sets the first found named element text.
-     *
-     * @param baseNode
-     *            The baseNode to use, if null, use the root.
-     * @param elementName
-     *            The element name to look for.
-     * @param textContent
-     *            The new text content
-     */
-    public static void setElementText(final Element baseNode,
-            final String elementName, final String textContent) {
-
-        Element trueBase = baseNode;
-        if (baseNode == null) {
-            trueBase = configDoc.getDocumentElement();
-        }
-
-        Element tElement = getFirstElement(trueBase, elementName);
-
-        if (tElement == null) {
-            tElement = addNewElement(trueBase, elementName);
-        }
-
-        tElement.setTextContent(textContent);
-
-        trueBase.appendChild(tElement);
-    }
-
-    /**
-     * Delete the named element from the baseNode.
-     *
-     * @param baseNode
-     *            The Node to delete a child from
-     * @param elementName
-     *            The child element name to delete
-     */
-    public static void deleteElement(Element baseNode, String elementName) {
-        Element trueBase = baseNode;
-        if (baseNode == null) {
-            trueBase = configDoc.getDocumentElement();
-        }
-
-        Element tElement = getFirstElement(trueBase, elementName);
-        if (tElement == null) {
-            return;
-        }
-
-        trueBase.removeChild(tElement);
-
-    }
-
     /**
      * Add a MashControl object to the master mash control list.
      *
@@ -2842,17 +2119,18 @@ public class LaunchControl {
     }
 
     /**
-     * Start the mashControl thread associated with the PID.
+     * Start checking the triggers associated with the PID on the scheduler.
      *
      * @param pid
-     *            The PID to find the mash control thread for.
+     *            The PID to find the mash control for.
      */
     public static void startMashControl(final String pid) {
         TriggerControl mControl = findTriggerControl(pid);
-        Thread mThread = new Thread(mControl);
-        mThread.setName("Mash-Thread[" + pid + "]");
-        triggerThreads.add(mThread);
-        mThread.start();
+        if (mControl == null) {
+            BrewServer.LOG.warning("No triggers found for " + pid);
+            return;
+        }
+        mControl.start(scheduler);
     }
 
     /**
@@ -2877,7 +2155,11 @@ public class LaunchControl {
      * @return The current OWFS Connection object
      */
     public static OwfsConnection getOWFS() {
-        return owfsConnection;
+        OwfsReader reader = owfs;
+        if (reader == null) {
+            return null;
+        }
+        return reader.getConnectionIfOpen();
     }
 
     /**
@@ -3114,6 +2396,7 @@ public class LaunchControl {
      */
     public static void setMessage(final String newMessage) {
         LaunchControl.message = newMessage;
+        StatusSnapshot.publish();
     }
 
     /**
@@ -3122,6 +2405,7 @@ public class LaunchControl {
      */
     public static void addMessage(final String newMessage) {
         LaunchControl.message += "\n" + newMessage;
+        StatusSnapshot.publish();
     }
 
     /**
@@ -3164,6 +2448,7 @@ public class LaunchControl {
     }
 
     public static void deleteTemp(Temp tTemp) {
+        oneWire.unregister(tTemp);
         tTemp.shutdown();
         tempList.remove(tTemp);
     }
@@ -3257,6 +2542,7 @@ public class LaunchControl {
         LaunchControl.recorderEnabled = true;
         LaunchControl.recorder = new StatusRecorder(recorderDirectory);
         LaunchControl.recorder.setThreshold(recorderDiff);
+        LaunchControl.recorder.setSyncInterval(recorderSync);
         LaunchControl.recorder.start();
     }
 
@@ -3275,13 +2561,14 @@ public class LaunchControl {
     public static List<String> getOneWireDevices(String prefix) {
         List<String> devices;
         devices = new ArrayList<>();
-        if (owfsConnection == null) {
+        OwfsReader reader = owfs;
+        if (reader == null) {
             LaunchControl.setMessage("OWFS is not setup,"
                     + " please delete your configuration file and start again");
             return devices;
         }
         try {
-            List<String> owfsDirs = owfsConnection.listDirectory("/");
+            List<String> owfsDirs = reader.listDirectory("/");
             if (owfsDirs.size() > 0) {
                 BrewServer.LOG.info("Listing OWFS devices on " + owfsServer
                         + ":" + owfsPort);
@@ -3302,17 +2589,8 @@ public class LaunchControl {
         return devices;
     }
 
-    public static PhSensor findPhSensor(String string) {
-        string = string.replace(" ", "_");
-        Iterator<PhSensor> iterator = phSensorList.iterator();
-        PhSensor tPh;
-        while (iterator.hasNext()) {
-            tPh = iterator.next();
-            if (tPh.getName().equalsIgnoreCase(string)) {
-                return tPh;
-            }
-        }
-        return null;
+    public static PhSensor findPhSensor(final String string) {
+        return phSensorList.find(string.replace(" ", "_"));
     }
 
     /**
@@ -3331,34 +2609,31 @@ public class LaunchControl {
     }
 
     public static void sortTimers() {
-        Collections.sort(LaunchControl.timerList);
+        LaunchControl.timerList.sort(null);
     }
 
     public static void sortDevices() {
-        Collections.sort(LaunchControl.tempList);
+        LaunchControl.tempList.sort(null);
     }
 
     public static void saveEverything() {
         BrewServer.LOG.warning("Shutting down. Saving configuration");
+        // The temperature probes are saved with the rest of the devices
         saveSettings();
-        BrewServer.LOG.warning("Configuration saved.");
-
-        BrewServer.LOG.warning("Shutting down temperature probe threads.");
-        for (Temp t : tempList) {
-            if (t != null) {
-                t.save();
-            }
-        }
 
         BrewServer.LOG.warning("Shutting down PID threads.");
+        // Stop the control loop first so nothing turns the outputs back on
+        scheduler.stop();
+        I2CBus.closeAll();
         for (PID n : pidList) {
             if (n != null) {
                 n.shutdown();
             }
         }
+        outputScheduler.stop();
 
         if (triggerControlList.size() > 0) {
-            BrewServer.LOG.warning("Shutting down MashControl threads.");
+            BrewServer.LOG.warning("Shutting down MashControls.");
             for (TriggerControl m : triggerControlList) {
                 m.setShutdownFlag(true);
             }
@@ -3374,6 +2649,10 @@ public class LaunchControl {
             BrewServer.LOG.warning("Shutting down recorder threads.");
             recorder.stop();
         }
+
+        // Write anything saved on the way down straight away
+        configWriter.stop();
+        BrewServer.LOG.warning("Configuration saved.");
         ServerRunner.running = false;
         BrewServer.LOG.warning("Goodbye!");
     }
@@ -27,8 +27,8 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -36,6 +36,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple, tiny, nicely embeddable HTTP server in Java
@@ -88,6 +95,12 @@ public abstract class NanoHTTPD {
      * block the socket reading thread forever (or as long the browser is open).
      */
     public static final int SOCKET_READ_TIMEOUT = 5000;
+    /**
+     * Maximum time a keep-alive connection waits for its next request (in
+     * milliseconds).  Kept short so an idle browser connection hands its
+     * worker back quickly; the browser just opens a new connection.
+     */
+    public static final int KEEP_ALIVE_TIMEOUT = 1000;
     /**
      * Common mime type for dynamic content: plain text
      */
@@ -103,7 +116,16 @@ public abstract class NanoHTTPD {
     private final String hostname;
     private final int myPort;
     private ServerSocket myServerSocket;
-    private Set<Socket> openConnections = new HashSet<Socket>();
+    private Set<Socket> openConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    /**
+     * Time to wait on a read while a request is coming in (in milliseconds).
+     */
+    private int socketReadTimeout = SOCKET_READ_TIMEOUT;
+    /**
+     * Idle time before a keep-alive connection is closed (in milliseconds).
+     */
+    private int keepAliveTimeout = KEEP_ALIVE_TIMEOUT;
     private Thread myThread;
     /**
      * Pluggable strategy for asynchronously executing requests.
@@ -174,37 +196,61 @@ public abstract class NanoHTTPD {
                     try {
                         final Socket finalAccept = myServerSocket.accept();
                         registerConnection(finalAccept);
-                        finalAccept.setSoTimeout(SOCKET_READ_TIMEOUT);
+                        finalAccept.setSoTimeout(socketReadTimeout);
                         final InputStream inputStream = finalAccept.getInputStream();
                         if (inputStream == null) {
                             safeClose(finalAccept);
                             unRegisterConnection(finalAccept);
                         } else {
-                            asyncRunner.exec(new Runnable() {
-                                @Override
-                                public void run() {
-                                    OutputStream outputStream = null;
-                                    try {
-                                        outputStream = finalAccept.getOutputStream();
-                                        TempFileManager tempFileManager = tempFileManagerFactory.create();
-                                        HTTPSession session = new HTTPSession(tempFileManager, inputStream, outputStream, finalAccept.getInetAddress());
-                                        while (!finalAccept.isClosed()) {
-                                            session.execute();
-                                        }
-                                    } catch (Exception e) {
-                                        // When the socket is closed by the client, we throw our own SocketException
-                                        // to break the  "keep alive" loop above.
-                                        if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage()))) {
-                                            e.printStackTrace();
+                            try {
+                                asyncRunner.exec(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        OutputStream outputStream = null;
+                                        boolean handedOff = false;
+                                        try {
+                                            outputStream = finalAccept.getOutputStream();
+                                            TempFileManager tempFileManager = tempFileManagerFactory.create();
+                                            HTTPSession session = new HTTPSession(tempFileManager, inputStream, outputStream, finalAccept.getInetAddress());
+                                            session.setSocket(finalAccept);
+                                            while (!finalAccept.isClosed()) {
+                                                session.execute();
+                                                Response stream = session.takeStream();
+                                                if (stream != null) {
+                                                    // Streams run on their own thread so they don't hold a worker
+                                                    sendStream(finalAccept, inputStream, outputStream, stream);
+                                                    handedOff = true;
+                                                    return;
+                                                }
+                                                if (isBusy()) {
+                                                    // Others are waiting for a worker, don't sit on this one
+                                                    return;
+                                                }
+                                                // Wait a short time for the next request on this connection
+                                                finalAccept.setSoTimeout(keepAliveTimeout);
+                                            }
+                                        } catch (Exception e) {
+                                            // When the socket is closed by the client, we throw our own SocketException
+                                            // to break the  "keep alive" loop above.
+                                            // An idle keep-alive connection times out the same way.
+                                            if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage()))
+                                                    && !(e instanceof SocketTimeoutException)) {
+                                                e.printStackTrace();
+                                            }
+                                        } finally {
+                                            if (!handedOff) {
+                                                safeClose(outputStream);
+                                                safeClose(inputStream);
+                                                safeClose(finalAccept);
+                                                unRegisterConnection(finalAccept);
+                                            }
                                         }
-                                    } finally {
-                                        safeClose(outputStream);
-                                        safeClose(inputStream);
-                                        safeClose(finalAccept);
-                                        unRegisterConnection(finalAccept);
                                     }
-                                }
-                            });
+                                });
+                            } catch (RejectedExecutionException e) {
+                                // Every worker is busy, tell the client to come back later
+                                rejectConnection(finalAccept);
+                            }
                         }
                     } catch (IOException e) {
                     }
@@ -224,18 +270,86 @@ public abstract class NanoHTTPD {
             safeClose(myServerSocket);
             closeAllConnections();
             myThread.join();
+            if (asyncRunner instanceof BoundedAsyncRunner) {
+                ((BoundedAsyncRunner) asyncRunner).shutdown();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return True if connections are queued waiting for a worker.
+     */
+    private boolean isBusy() {
+        return asyncRunner instanceof BoundedAsyncRunner
+                && ((BoundedAsyncRunner) asyncRunner).getQueuedCount() > 0;
+    }
+
+    /**
+     * Send a streaming response from its own thread and close the
+     * connection when the stream ends, so the worker can go back to the pool.
+     *
+     * @param socket
+     *            the {@link Socket} for the connection.
+     * @param inputStream
+     *            the input stream of the socket.
+     * @param outputStream
+     *            the output stream of the socket.
+     * @param response
+     *            the response to stream.
+     */
+    private void sendStream(final Socket socket, final InputStream inputStream,
+            final OutputStream outputStream, final Response response) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.send(outputStream);
+                } finally {
+                    safeClose(outputStream);
+                    safeClose(inputStream);
+                    safeClose(socket);
+                    unRegisterConnection(socket);
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.setName("NanoHttpd Stream (" + socket.getInetAddress().getHostAddress() + ")");
+        t.start();
+    }
+
+    /**
+     * Send a 503 to a connection that couldn't be handed to a worker and close it.
+     *
+     * @param socket
+     *            the {@link Socket} for the connection.
+     */
+    private void rejectConnection(Socket socket) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = socket.getOutputStream();
+            Response r = new Response(Response.Status.SERVICE_UNAVAILABLE, MIME_PLAINTEXT,
+                    "SERVICE UNAVAILABLE: Server is busy, try again.");
+            r.addHeader("Retry-After", "1");
+            r.addHeader("Connection", "close");
+            r.send(outputStream);
+        } catch (IOException e) {
+            // The client went away already.
+        } finally {
+            safeClose(outputStream);
+            safeClose(socket);
+            unRegisterConnection(socket);
+        }
+    }
+
     /**
      * Registers that a new connection has been set up.
      *
      * @param socket
      *            the {@link Socket} for the connection.
      */
-    public synchronized void registerConnection(Socket socket) {
+    public void registerConnection(Socket socket) {
         openConnections.add(socket);
     }
 
@@ -245,14 +359,41 @@ public abstract class NanoHTTPD {
      * @param socket
      *            the {@link Socket} for the connection.
      */
-    public synchronized void unRegisterConnection(Socket socket) {
+    public void unRegisterConnection(Socket socket) {
         openConnections.remove(socket);
     }
 
+    /**
+     * @return The number of connections that are currently open.
+     */
+    public int getOpenConnectionCount() {
+        return openConnections.size();
+    }
+
+    /**
+     * Set how long a read can block while a request is coming in.
+     * Only applies to connections accepted after the call.
+     *
+     * @param timeout The read timeout in milliseconds.
+     */
+    public void setSocketReadTimeout(int timeout) {
+        this.socketReadTimeout = timeout;
+    }
+
+    /**
+     * Set how long a keep-alive connection can sit idle waiting for its
+     * next request before it's closed.
+     *
+     * @param timeout The idle timeout in milliseconds.
+     */
+    public void setKeepAliveTimeout(int timeout) {
+        this.keepAliveTimeout = timeout;
+    }
+
     /**
      * Forcibly closes all connections that are open.
      */
-    public synchronized void closeAllConnections() {
+    public void closeAllConnections() {
         for (Socket socket : openConnections) {
             safeClose(socket);
         }
@@ -478,6 +619,76 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Strategy that runs connections on a bounded pool of daemon threads.
+     * <p/>
+     * <p>Idle threads are reused for the next connection and die off after
+     * a minute.  Once every thread is busy and the queue is full,
+     * {@link #exec(Runnable)} throws a {@link RejectedExecutionException}
+     * and the server answers with a 503.</p>
+     */
+    public static class BoundedAsyncRunner implements AsyncRunner {
+        private final ThreadPoolExecutor executor;
+        private final int maxThreads;
+
+        /**
+         * @param maxThreads The maximum number of connections handled at once.
+         * @param queueSize The number of connections that can wait for a thread.
+         */
+        public BoundedAsyncRunner(int maxThreads, int queueSize) {
+            this.maxThreads = maxThreads;
+            final AtomicLong requestCount = new AtomicLong();
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r);
+                            t.setDaemon(true);
+                            t.setName("NanoHttpd Request Processor (#"
+                                    + requestCount.incrementAndGet() + ")");
+                            return t;
+                        }
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void exec(Runnable code) {
+            executor.execute(code);
+        }
+
+        /**
+         * @return The maximum number of connections handled at once.
+         */
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * @return The number of threads currently handling a connection.
+         */
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        /**
+         * @return The number of connections waiting for a thread.
+         */
+        public int getQueuedCount() {
+            return executor.getQueue().size();
+        }
+
+        /**
+         * Stop accepting work, running connections are left to finish.
+         */
+        public void shutdown() {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Default strategy for creating and cleaning up temporary files.
      * <p/>
@@ -575,6 +786,10 @@ public abstract class NanoHTTPD {
          * Use chunkedTransfer
          */
         private boolean chunkedTransfer;
+        /**
+         * The data is a long lived stream, send it off the worker thread
+         */
+        private boolean streaming;
 
         /**
          * Default constructor: response = HTTP_OK, mime = MIME_HTML and your supplied message
@@ -651,7 +866,9 @@ public abstract class NanoHTTPD {
                     }
                 }
 
-                pw.print("Connection: keep-alive\r\n");
+                if (header == null || header.get("Connection") == null) {
+                    pw.print("Connection: keep-alive\r\n");
+                }
 
                 if (requestMethod != Method.HEAD && chunkedTransfer) {
                     sendAsChunked(outputStream, pw);
@@ -659,9 +876,10 @@ public abstract class NanoHTTPD {
                     sendAsFixedLength(outputStream, pw);
                 }
                 outputStream.flush();
-                safeClose(data);
             } catch (IOException ioe) {
                 // Couldn't write? No can do.
+            } finally {
+                safeClose(data);
             }
         }
 
@@ -677,6 +895,8 @@ public abstract class NanoHTTPD {
                 outputStream.write(String.format("%x\r\n", read).getBytes());
                 outputStream.write(buff, 0, read);
                 outputStream.write(CRLF);
+                // Streaming responses need each chunk on the wire now
+                outputStream.flush();
             }
             outputStream.write(String.format("0\r\n\r\n").getBytes());
         }
@@ -739,6 +959,19 @@ public abstract class NanoHTTPD {
             this.chunkedTransfer = chunkedTransfer;
         }
 
+        public boolean isStreaming() {
+            return streaming;
+        }
+
+        /**
+         * Mark this as a long lived stream, such as Server-Sent Events.
+         * It's sent from its own thread and the connection is closed when
+         * it ends, so it doesn't hold an HTTP worker.
+         */
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
         /**
          * Some HTTP response status codes
          */
@@ -746,7 +979,8 @@ public abstract class NanoHTTPD {
             OK(200, "OK"), CREATED(201, "Created"), ACCEPTED(202, "Accepted"), NO_CONTENT(204, "No Content"), PARTIAL_CONTENT(206, "Partial Content"), REDIRECT(301,
                 "Moved Permanently"), NOT_MODIFIED(304, "Not Modified"), BAD_REQUEST(400, "Bad Request"), UNAUTHORIZED(401,
                 "Unauthorized"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404, "Not Found"), METHOD_NOT_ALLOWED(405, "Method Not Allowed"), RANGE_NOT_SATISFIABLE(416,
-                "Requested Range Not Satisfiable"), INTERNAL_ERROR(500, "Internal Server Error");
+                "Requested Range Not Satisfiable"), INTERNAL_ERROR(500, "Internal Server Error"), SERVICE_UNAVAILABLE(503,
+                "Service Unavailable");
             private final int requestStatus;
             private final String description;
 
@@ -837,6 +1071,8 @@ public abstract class NanoHTTPD {
         private Map<String, String> headers;
         private CookieHandler cookies;
         private String queryParameterString;
+        private Socket socket;
+        private Response stream;
 
         public HTTPSession(TempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream) {
             this.tempFileManager = tempFileManager;
@@ -880,6 +1116,10 @@ public abstract class NanoHTTPD {
                         safeClose(outputStream);
                         throw new SocketException("NanoHttpd Shutdown");
                     }
+                    if (socket != null) {
+                        // A request has started, it gets the full read timeout
+                        socket.setSoTimeout(socketReadTimeout);
+                    }
                     while (read > 0) {
                         rlen += read;
                         splitbyte = findHeaderEnd(buf, rlen);
@@ -923,7 +1163,23 @@ public abstract class NanoHTTPD {
                 } else {
                     cookies.unloadQueue(r);
                     r.setRequestMethod(method);
+                    boolean close = "close".equalsIgnoreCase(headers.get("connection"));
+                    if (r.isStreaming() && method != Method.HEAD && socket != null) {
+                        // Sent by the server once this session hands back the worker
+                        r.addHeader("Connection", "close");
+                        stream = r;
+                        return;
+                    }
+                    if (close) {
+                        r.addHeader("Connection", "close");
+                    }
                     r.send(outputStream);
+                    if (close) {
+                        // The client doesn't want to reuse the connection
+                        safeClose(inputStream);
+                        safeClose(outputStream);
+                        throw new SocketException("NanoHttpd Shutdown");
+                    }
                 }
             } catch (SocketException e) {
                 // throw it out to close socket object (finalAccept)
@@ -943,6 +1199,22 @@ public abstract class NanoHTTPD {
             }
         }
 
+        /**
+         * @param socket The socket, so the read timeout can be set per request.
+         */
+        void setSocket(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * @return The streaming response the last request returned, once.
+         */
+        Response takeStream() {
+            Response taken = stream;
+            stream = null;
+            return taken;
+        }
+
         @Override
         public void parseBody(Map<String, String> files) throws IOException, ResponseException {
             RandomAccessFile randomAccessFile = null;
@@ -0,0 +1,326 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Reads every probe on a kernel 1-Wire bus with one bulk conversion.
+ *
+ * Reading a probe's w1_slave file starts a conversion for just that probe,
+ * which takes up to 750ms, so a bus with many probes can't be read every
+ * loop. Newer kernels have a therm_bulk_read file on each bus master:
+ * writing "trigger" starts a conversion on every probe at once, it reads
+ * -1 until they're done, then each probe's temperature file returns its
+ * converted reading without starting another one.
+ *
+ * Each bus that supports this is read by one task on the
+ * {@link ControlScheduler}, so separate buses are read in parallel.
+ * Probes on other buses, or read through OWFS, read themselves as before.
+ */
+public final class OneWireBusManager {
+
+    /**
+     * The kernel 1-Wire devices directory.
+     */
+    public static final String DEVICES = "/sys/bus/w1/devices";
+    /**
+     * The time between bulk reads in milliseconds, a 12 bit conversion
+     * takes up to 750ms.
+     */
+    public static final long PERIOD = 1000;
+    /**
+     * The longest to wait for a bulk conversion in milliseconds.
+     */
+    static final long CONVERSION_TIMEOUT = 1500;
+    /**
+     * The time between checks for a finished conversion in milliseconds.
+     */
+    private static final long POLL_INTERVAL = 25;
+
+    private static final String MASTER_PREFIX = "w1_bus_master";
+    private static final String SLAVES = "w1_master_slaves";
+    private static final String BULK_READ = "therm_bulk_read";
+    private static final String TEMPERATURE = "temperature";
+
+    /**
+     * Time taken by each bulk conversion, by bus master.
+     */
+    private static final Histogram CONVERSION_TIME = Metrics.histogram(
+            "elsinore_onewire_conversion_seconds",
+            "Time taken by a bulk conversion of a 1-Wire bus.",
+            Histogram.LATENCY, "bus");
+
+    private final File devices;
+    private final ControlScheduler scheduler;
+    /**
+     * The buses that support bulk reads, by the ID of each of their probes.
+     */
+    private final Map<String, Bus> busForDevice = new ConcurrentHashMap<>();
+    /**
+     * The temperature file readers, by probe ID.
+     */
+    private final Map<String, SensorFileReader> readers =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A bus master and the probes it reads.
+     */
+    private final class Bus {
+        private final File master;
+        private final List<Temp> temps = new CopyOnWriteArrayList<>();
+        private ControlScheduler.Registration task = null;
+        private boolean warned = false;
+
+        Bus(final File master) {
+            this.master = master;
+        }
+
+        /**
+         * Start a conversion on every probe, wait for it, then read them.
+         * If the bulk read fails each probe is read separately instead.
+         */
+        void read() {
+            if (temps.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                convert();
+                CONVERSION_TIME.labels(master.getName()).observeSince(start);
+                warned = false;
+            } catch (IOException e) {
+                if (!warned) {
+                    BrewServer.LOG.warning("Bulk read failed on "
+                            + master.getName() + ", reading each probe: "
+                            + e.getMessage());
+                    warned = true;
+                }
+                for (Temp temp : temps) {
+                    temp.updateTemp();
+                }
+                return;
+            }
+
+            for (Temp temp : temps) {
+                SensorFileReader reader = getReader(temp.getW1Id());
+                long readStart = System.nanoTime();
+                try {
+                    long milliDegrees = reader.read();
+                    temp.getReadTimeMetric().observeSince(readStart);
+                    if (milliDegrees == SensorFileReader.BAD_CRC) {
+                        temp.getCrcFailuresMetric().inc();
+                        temp.updateTemp(Temp.ERROR_TEMP,
+                                "No reading from " + reader.getPath());
+                    } else {
+                        temp.updateTemp(milliDegrees / 1000.0, null);
+                    }
+                } catch (IOException e) {
+                    temp.updateTemp(Temp.ERROR_TEMP,
+                            "Couldn't read the device under: "
+                            + reader.getPath());
+                } catch (NumberFormatException e) {
+                    temp.updateTemp(Temp.ERROR_TEMP, "Couldn't parse "
+                            + reader.getText() + " as a double");
+                }
+            }
+        }
+
+        /**
+         * Trigger a bulk conversion and wait for it to finish.
+         * @throws IOException If the conversion couldn't be started or
+         * didn't finish in time.
+         */
+        private void convert() throws IOException {
+            File bulkRead = new File(master, BULK_READ);
+            try (OutputStream out = new FileOutputStream(bulkRead)) {
+                out.write("trigger\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            long deadline = System.currentTimeMillis() + CONVERSION_TIMEOUT;
+            while ("-1".equals(trim(readLine(bulkRead)))) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Conversion timed out");
+                }
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    public OneWireBusManager(final ControlScheduler scheduler) {
+        this(new File(DEVICES), scheduler);
+    }
+
+    /**
+     * @param devices The 1-Wire devices directory.
+     * @param scheduler The scheduler to read the buses on,
+     *                  null to only read them with {@link #readAll()}.
+     */
+    public OneWireBusManager(final File devices,
+            final ControlScheduler scheduler) {
+        this.devices = devices;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Find the bus masters that support bulk reads and their probes.
+     */
+    public synchronized void discover() {
+        File[] masters = devices.listFiles();
+        if (masters == null) {
+            return;
+        }
+        for (File master : masters) {
+            if (!master.getName().startsWith(MASTER_PREFIX)
+                    || !new File(master, BULK_READ).exists()) {
+                continue;
+            }
+            List<String> slaves;
+            try {
+                slaves = readLines(new File(master, SLAVES));
+            } catch (IOException e) {
+                BrewServer.LOG.warning("Couldn't list the devices on "
+                        + master.getName() + ": " + e.getMessage());
+                continue;
+            }
+            Bus bus = null;
+            for (Bus existing : busForDevice.values()) {
+                if (existing.master.equals(master)) {
+                    bus = existing;
+                }
+            }
+            if (bus == null) {
+                bus = new Bus(master);
+            }
+            for (String slave : slaves) {
+                if (!busForDevice.containsKey(slave)) {
+                    busForDevice.put(slave, bus);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a probe with the bulk reads of its bus, if it can be.
+     * @param temp The probe.
+     * @return True if the bus reads the probe, false if the probe has to
+     * read itself.
+     */
+    public synchronized boolean register(final Temp temp) {
+        String id = temp.getW1Id();
+        if (id == null) {
+            return false;
+        }
+        if (!busForDevice.containsKey(id)) {
+            // It may have been plugged in since the last look
+            discover();
+        }
+        final Bus bus = busForDevice.get(id);
+        if (bus == null
+                || !new File(new File(devices, id), TEMPERATURE).exists()) {
+            return false;
+        }
+        if (!bus.temps.contains(temp)) {
+            bus.temps.add(temp);
+        }
+        temp.setReadByBus(true);
+        if (bus.task == null && scheduler != null) {
+            bus.task = scheduler.schedule("OneWire_" + bus.master.getName(),
+                    ControlScheduler.Phase.SAMPLE, PERIOD,
+                    new ControlScheduler.Task() {
+                        @Override
+                        public boolean run(final long now) {
+                            bus.read();
+                            return true;
+                        }
+                    });
+        }
+        BrewServer.LOG.info(temp.getName() + " is read by a bulk read of "
+                + bus.master.getName());
+        return true;
+    }
+
+    /**
+     * Stop reading a probe.
+     * @param temp The probe.
+     */
+    public synchronized void unregister(final Temp temp) {
+        String id = temp.getW1Id();
+        if (id == null) {
+            return;
+        }
+        Bus bus = busForDevice.get(id);
+        if (bus != null && bus.temps.remove(temp)) {
+            temp.setReadByBus(false);
+        }
+        SensorFileReader reader = readers.remove(id);
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private SensorFileReader getReader(final String id) {
+        SensorFileReader reader = readers.get(id);
+        if (reader == null) {
+            reader = new SensorFileReader(
+                    new File(new File(devices, id), TEMPERATURE).getPath());
+            readers.put(id, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Bulk read every bus now, one after the other.
+     */
+    public void readAll() {
+        List<Bus> buses = new ArrayList<>();
+        for (Bus bus : busForDevice.values()) {
+            if (!buses.contains(bus)) {
+                buses.add(bus);
+                bus.read();
+            }
+        }
+    }
+
+    private static String trim(final String value) {
+        return value == null ? null : value.trim();
+    }
+
+    private static String readLine(final File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            return br.readLine();
+        }
+    }
+
+    private static List<String> readLines(final File file)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                // An empty bus lists "not found."
+                if (!line.isEmpty() && !line.startsWith("not found")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
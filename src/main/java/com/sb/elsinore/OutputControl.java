@@ -1,33 +1,52 @@
 package com.sb.elsinore;
 import com.sb.elsinore.devices.CompressorDevice;
 import com.sb.elsinore.devices.OutputDevice;
+import com.sb.elsinore.devices.OutputScheduler;
+import com.sb.util.MathUtil;
 
 import java.math.BigDecimal;
+import java.util.logging.Level;
 
-import jGPIO.InvalidGPIOException;
 
 /**
  * OutputControl controls multiple output GPIOs.
  * Heat_SSR is a GPIO pin that represents a heating output.
  * Cool_SSR is a GPIO pin that represents a cooling output.
+ * The outputs are switched by an {@link OutputScheduler}, this hands them
+ * their duty.
  * @author Doug Edey
  *
  */
-public final class OutputControl implements Runnable {
+public final class OutputControl {
 
-    public boolean shuttingDown = false;
     private OutputDevice cooler = null;
     private OutputDevice heater = null;
 
     /**
      * The Duty cycle.
      * Initialized to ZERO to prevent use of duty before it is set.
+     * Volatile as the output thread reads it without the lock.
      */
-    private BigDecimal fDuty = BigDecimal.ZERO;
+    private volatile double fDuty = 0;
 
     private String status = "off";
 
+    private final OutputScheduler outputScheduler;
+
+    /**
+     * The vessel in the status that shows this output, if there is one.
+     */
+    private volatile StatusSnapshot.Fragment statusFragment = null;
+
     public OutputControl() {
+        this(LaunchControl.outputScheduler);
+    }
+
+    /**
+     * @param scheduler The scheduler to switch the outputs on.
+     */
+    public OutputControl(final OutputScheduler scheduler) {
+        this.outputScheduler = scheduler;
     }
 
     /**
@@ -37,9 +56,10 @@ public final class OutputControl implements Runnable {
      * @param cycleTime the duty time for the heating output.
      */
    public OutputControl(final String aName, final String fGPIO,
-           final BigDecimal cycleTime) {
+           final double cycleTime) {
+        this();
            // just for heating
-        heater = new OutputDevice(aName, fGPIO, cycleTime);
+        setHeater(new OutputDevice(aName, fGPIO, cycleTime));
         //cooler = new OutputDevice(aName, null, cycle_time);
 
    }
@@ -50,12 +70,12 @@ public final class OutputControl implements Runnable {
     * @param cycle_time The cycle time for the cooling output
     * @param delay The delay between cooling start/stop calls.
     */
-   public void setCool(final String gpio, final BigDecimal cycle_time,
-           final BigDecimal delay) {
+   public void setCool(final String gpio, final double cycle_time,
+           final double delay) {
 
         //If there is a cooling delay between cycles,
         //then assume this is a compressor device
-        if (BigDecimal.ZERO.compareTo(delay) == -1) {
+        if (delay > 0) {
             CompressorDevice coolDevice =
                     new CompressorDevice("cooler", gpio, cycle_time);
             coolDevice.setDelay(delay);
@@ -69,80 +89,67 @@ public final class OutputControl implements Runnable {
 
 
    /**
-    * The main loop that checks and activates the outputs.
-    * Based on the duty cycle and time.
+    * Hand the outputs the current duty, called every control tick.
+    * Switching between heating, cooling and off turns the outputs off
+    * straight away, duty changes are picked up at the next cycle.
+    * @param now The current time in milliseconds.
+    * @return False if the outputs couldn't be driven, they're turned off.
     */
-   @Override
-   public void run() {
-        try {
-             while (true) {
-
-                 try {
-                     BrewServer.LOG.info("Fduty: " + this.fDuty);
-                     if (fDuty.compareTo(BigDecimal.ZERO) == 0) {
-                         status = "off";
-                         if (getHeater() != null) {
-                             getHeater().turnOff();
-                         }
-                         if (getCooler() != null) {
-                             getCooler().turnOff();
-                         }
-                         //Need to sleep because we're not running a cycle
-                         Thread.sleep(1000);
-                     } else if (fDuty.compareTo(BigDecimal.ZERO) < 0) {
-                         status = "cooling";
-                         if (getHeater() != null) {
-                             getHeater().turnOff();
-                         }
-                         if (getCooler() != null) {
-                             getCooler().runCycle(fDuty.abs());
-                         }
-                     } else {
-                         status = "heating";
-                         if (getCooler() != null) {
-                             getCooler().turnOff();
-                         }
-                         if (getHeater() != null) {
-                             getHeater().runCycle(fDuty);
-                         }
-                     }
-                 } catch (InterruptedException e) {
-                     // Sleep interrupted, why did we wakeup
-                     if (this.shuttingDown) {
-                         return;
-                     }
-                 }
-             } // end the while loop
-
-         } catch (RuntimeException e) {
-             BrewServer.LOG.warning(
-                 "Could not control the GPIO Pin during loop."
-                 + " Did you start as root?");
-             e.printStackTrace();
-        } catch (InvalidGPIOException e1) {
-             BrewServer.LOG.warning(e1.getMessage());
-             e1.printStackTrace();
-         } finally {
-             BrewServer.LOG.warning("Output Control turning off outputs");
-             if (getHeater() != null) {
-                 getHeater().turnOff();
-             }
-             if (getCooler() != null) {
-                 getCooler().turnOff();
-             }
+   public boolean actuate(final long now) {
+        if ((getHeater() != null && getHeater().isFailed())
+                || (getCooler() != null && getCooler().isFailed())) {
+            BrewServer.LOG.warning(
+                "Could not control the GPIO Pin during loop."
+                + " Did you start as root?");
+            BrewServer.LOG.warning("Output Control turning off outputs");
+            if (getHeater() != null) {
+                getHeater().turnOff();
+            }
+            if (getCooler() != null) {
+                getCooler().turnOff();
+            }
+            return false;
         }
+        double duty = this.fDuty;
+        if (duty == 0) {
+            if (setStatus("off")) {
+                if (getHeater() != null) {
+                    getHeater().turnOff();
+                }
+                if (getCooler() != null) {
+                    getCooler().turnOff();
+                }
+            }
+        } else if (duty < 0) {
+            if (setStatus("cooling") && getHeater() != null) {
+                getHeater().turnOff();
+            }
+            if (getCooler() != null) {
+                getCooler().setDuty(Math.abs(duty));
+            }
+        } else {
+            if (setStatus("heating") && getCooler() != null) {
+                getCooler().turnOff();
+            }
+            if (getHeater() != null) {
+                getHeater().setDuty(duty);
+            }
+        }
+        return true;
     }
 
     /**
-     * Shutdown the thread.
+     * Turn off and release the outputs.
      */
     public void shutdown() {
         BrewServer.LOG.info("Shutting down OC");
         if (getHeater() != null) {
+            outputScheduler.remove(getHeater());
             getHeater().turnOff();
             getHeater().disable();
         }
         if (getCooler() != null) {
+            outputScheduler.remove(getCooler());
             getCooler().turnOff();
             getCooler().disable();
         }
@@ -155,30 +162,84 @@ public final class OutputControl implements Runnable {
         return status;
    }
 
+   /**
+    * @param newStatus The new status, publishes the change if it's different.
+    * @return True if the status changed.
+    */
+   private boolean setStatus(final String newStatus) {
+        if (!status.equals(newStatus)) {
+            status = newStatus;
+            statusChanged();
+            return true;
+        }
+        return false;
+   }
+
    /**
     * @param duty The duty to set this control with.
+    * @return True if the duty changed.
     */
-    public synchronized boolean setDuty(BigDecimal duty) {
+    public synchronized boolean setDuty(double duty) {
         // Fix Defect #28: Cap the duty as positive or negative.
-        if (this.cooler == null && duty.compareTo(BigDecimal.ZERO) < 0) {
-            duty = BigDecimal.ZERO;
+        if (this.cooler == null && duty < 0) {
+            duty = 0;
         }
 
-        if (this.heater == null && duty.compareTo(BigDecimal.ZERO) > 0) {
-            duty = BigDecimal.ZERO;
+        if (this.heater == null && duty > 0) {
+            duty = 0;
         }
-        if (fDuty.compareTo(duty) == 0) {
+        if (fDuty == duty) {
             return false;
         }
         this.fDuty = duty;
-        BrewServer.LOG.info("IN: " + duty + " OUT: " + fDuty);
+        if (BrewServer.LOG.isLoggable(Level.INFO)) {
+            BrewServer.LOG.info("IN: " + duty + " OUT: " + fDuty);
+        }
+        statusChanged();
         return true;
     }
 
+    /**
+     * @param fragment The vessel in the status that shows this output.
+     */
+    public void setStatusFragment(final StatusSnapshot.Fragment fragment) {
+        this.statusFragment = fragment;
+    }
+
+    private void statusChanged() {
+        StatusSnapshot.Fragment fragment = statusFragment;
+        if (fragment != null) {
+            fragment.changed();
+        } else {
+            StatusSnapshot.publish();
+        }
+    }
+
     /**
      * @return The current duty cycle
      */
-    public synchronized BigDecimal getDuty() {
+    public BigDecimal getDuty() {
+        return MathUtil.toBigDecimal(fDuty);
+    }
+
+    /**
+     * @return The duty the outputs actually ran at over their last cycle,
+     * negative for cooling.
+     */
+    public double getAchievedDuty() {
+        if (fDuty < 0 && cooler != null) {
+            return -cooler.getAchievedDuty();
+        }
+        if (heater != null) {
+            return heater.getAchievedDuty();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The current duty cycle for the control loop.
+     */
+    public double getDutyValue() {
         return fDuty;
     }
 
@@ -193,7 +254,9 @@ public final class OutputControl implements Runnable {
      * @param cooler the cooler to set
      */
     public void setCooler(OutputDevice cooler) {
+        outputScheduler.remove(this.cooler);
         this.cooler = cooler;
+        outputScheduler.add(cooler);
     }
 
     /**
@@ -207,7 +270,9 @@ public final class OutputControl implements Runnable {
      * @param heater the heater to set
      */
     public void setHeater(OutputDevice heater) {
+        outputScheduler.remove(this.heater);
         this.heater = heater;
+        outputScheduler.add(heater);
     }
 }
 
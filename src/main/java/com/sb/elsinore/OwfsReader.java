@@ -0,0 +1,407 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
+import org.owfs.jowfsclient.Enums.OwPersistence;
+import org.owfs.jowfsclient.OwfsConnection;
+import org.owfs.jowfsclient.OwfsConnectionConfig;
+import org.owfs.jowfsclient.OwfsConnectionFactory;
+import org.owfs.jowfsclient.OwfsException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Reads the OWFS paths in use from owserver in one pass per tick, and owns
+ * the connection to it.
+ *
+ * Every path read through {@link #read(String)} is remembered and read
+ * again by {@link #readAll()} on the scheduler, so probes, volume and pH
+ * sensors get the latest value without a round trip of their own. Whether
+ * a path exists is only checked the first time it's read, and again after
+ * it goes missing.
+ *
+ * When the connection fails it's dropped once, however many readers see
+ * the failure, and reconnected with an exponential backoff.
+ */
+public final class OwfsReader {
+
+    /**
+     * The time between batch reads in milliseconds.
+     */
+    public static final long PERIOD = 1000;
+    /**
+     * The first reconnect delay in milliseconds, doubled each failure.
+     */
+    public static final long BASE_BACKOFF = 1000;
+    /**
+     * The longest reconnect delay in milliseconds.
+     */
+    public static final long MAX_BACKOFF = 60 * 1000;
+    /**
+     * A path that isn't read for this long, in milliseconds, is dropped
+     * from the batch.
+     */
+    static final long EXPIRY = 30 * 1000;
+    /**
+     * The time between checks for a missing path in milliseconds.
+     */
+    static final long MISSING_RECHECK = 30 * 1000;
+
+    /**
+     * Time taken by each round trip to owserver.
+     */
+    private static final Histogram READ_TIME = Metrics.histogram(
+            "elsinore_owfs_read_seconds",
+            "Time taken to read a path from owserver.", Histogram.LATENCY);
+    /**
+     * Reads by how they were answered: cached, read, missing or error.
+     */
+    private static final Counter READS = Metrics.counter(
+            "elsinore_owfs_reads_total",
+            "OWFS reads, by how they were answered.", "result");
+
+    /**
+     * Opens connections to owserver.
+     */
+    public interface ConnectionFactory {
+        /**
+         * @return A new connection.
+         * @throws IOException If owserver can't be reached.
+         */
+        OwfsConnection connect() throws IOException;
+    }
+
+    /**
+     * The latest value of a path.
+     */
+    private static final class Reading {
+        private volatile String value = null;
+        private volatile long readTime = 0;
+        private volatile long lastRequested = 0;
+        /**
+         * Null until checked, then whether the path exists.
+         */
+        private volatile Boolean exists = null;
+        private volatile long existsChecked = 0;
+    }
+
+    private final ConnectionFactory factory;
+    private final long baseBackoff;
+    private final long maxBackoff;
+    private final ConcurrentHashMap<String, Reading> readings =
+            new ConcurrentHashMap<>();
+
+    private volatile OwfsConnection connection = null;
+    private int failures = 0;
+    private long nextAttempt = 0;
+    private boolean closed = false;
+
+    /**
+     * @param host The owserver host.
+     * @param port The owserver port.
+     */
+    public OwfsReader(final String host, final int port) {
+        this(new ConnectionFactory() {
+            @Override
+            public OwfsConnection connect() throws IOException {
+                try {
+                    OwfsConnectionConfig config =
+                            new OwfsConnectionConfig(host, port);
+                    config.setPersistence(OwPersistence.ON);
+                    return OwfsConnectionFactory.newOwfsClientThreadSafe(
+                            config);
+                } catch (NullPointerException e) {
+                    throw new IOException("OWFS is not able to be setup."
+                            + " You may need to rerun setup.");
+                }
+            }
+        }, BASE_BACKOFF, MAX_BACKOFF);
+    }
+
+    /**
+     * @param factory Opens the connections.
+     * @param baseBackoff The first reconnect delay in milliseconds.
+     * @param maxBackoff The longest reconnect delay in milliseconds.
+     */
+    public OwfsReader(final ConnectionFactory factory, final long baseBackoff,
+            final long maxBackoff) {
+        this.factory = factory;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Read a path, and keep reading it in the batch.
+     * @param path The path to read.
+     * @param maxAge The oldest batched value to accept in milliseconds,
+     *               0 to always read it now.
+     * @return The value, or an empty string if the path doesn't exist.
+     * @throws IOException If owserver can't be reached.
+     * @throws OwfsException If owserver returns an error.
+     */
+    public String read(final String path, final long maxAge)
+            throws IOException, OwfsException {
+        long now = System.currentTimeMillis();
+        Reading reading = readings.get(path);
+        if (reading == null) {
+            reading = new Reading();
+            Reading existing = readings.putIfAbsent(path, reading);
+            if (existing != null) {
+                reading = existing;
+            }
+        }
+        reading.lastRequested = now;
+        if (maxAge > 0 && reading.value != null
+                && now - reading.readTime <= maxAge) {
+            READS.labels("cached").inc();
+            return reading.value;
+        }
+        return readPath(path, reading, getConnection(false));
+    }
+
+    /**
+     * Read a path, and keep reading it in the batch.
+     * Accepts a batched value up to two batches old.
+     * @param path The path to read.
+     * @return The value, or an empty string if the path doesn't exist.
+     * @throws IOException If owserver can't be reached.
+     * @throws OwfsException If owserver returns an error.
+     */
+    public String read(final String path) throws IOException, OwfsException {
+        return read(path, PERIOD * 2);
+    }
+
+    /**
+     * @param path A path that's been read.
+     * @return When the value {@link #read(String)} last returned for the
+     * path was read from owserver, 0 if it hasn't been read.
+     */
+    public long getReadTime(final String path) {
+        Reading reading = readings.get(path);
+        return reading == null ? 0 : reading.readTime;
+    }
+
+    /**
+     * Read every path in use, one after the other on the same connection.
+     * Paths that haven't been asked for in a while are dropped.
+     */
+    public void readAll() {
+        if (readings.isEmpty()) {
+            return;
+        }
+        OwfsConnection conn;
+        try {
+            conn = getConnection(false);
+        } catch (IOException e) {
+            // Waiting to reconnect
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Reading> entry : readings.entrySet()) {
+            Reading reading = entry.getValue();
+            if (now - reading.lastRequested > EXPIRY) {
+                readings.remove(entry.getKey());
+                continue;
+            }
+            try {
+                readPath(entry.getKey(), reading, conn);
+            } catch (IOException | OwfsException e) {
+                // The connection has been dropped, try again next time
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read a path, checking it exists if that isn't known.
+     */
+    private String readPath(final String path, final Reading reading,
+            final OwfsConnection conn) throws IOException, OwfsException {
+        long now = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            if (reading.exists == null || (!reading.exists
+                    && now - reading.existsChecked > MISSING_RECHECK)) {
+                reading.exists = conn.exists(path);
+                reading.existsChecked = now;
+            }
+            String value = "";
+            if (reading.exists) {
+                value = conn.read(path).trim();
+            }
+            reading.value = value;
+            reading.readTime = now;
+            READ_TIME.observeSince(start);
+            READS.labels(reading.exists ? "read" : "missing").inc();
+            return value;
+        } catch (OwfsException e) {
+            // Error -1 is file not found, exists should bloody catch this
+            if ("Error -1".equals(e.getMessage())) {
+                reading.exists = false;
+                reading.existsChecked = now;
+                reading.value = "";
+                reading.readTime = now;
+                READS.labels("missing").inc();
+                return "";
+            }
+            READS.labels("error").inc();
+            connectionFailed(conn, e);
+            throw e;
+        } catch (IOException e) {
+            READS.labels("error").inc();
+            connectionFailed(conn, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param force True to connect now, ignoring the backoff.
+     * @return The connection, connecting if needed.
+     * @throws IOException If there's no connection and it's not time to
+     * try again, or the connection fails.
+     */
+    private OwfsConnection getConnection(final boolean force)
+            throws IOException {
+        OwfsConnection conn = connection;
+        if (conn != null) {
+            return conn;
+        }
+        synchronized (this) {
+            if (connection != null) {
+                return connection;
+            }
+            if (closed) {
+                throw new IOException("No OWFS connection");
+            }
+            long now = System.currentTimeMillis();
+            if (!force && now < nextAttempt) {
+                throw new IOException("Reconnecting to OWFS in "
+                        + (nextAttempt - now) + "ms");
+            }
+            try {
+                connection = factory.connect();
+            } catch (IOException e) {
+                backoff(now, e);
+                throw e;
+            }
+            if (failures > 0) {
+                BrewServer.LOG.warning("Reconnected to OWFS after "
+                        + failures + " failures");
+            }
+            failures = 0;
+            return connection;
+        }
+    }
+
+    /**
+     * Drop a failed connection, unless it's already been replaced.
+     * @param failed The connection that failed.
+     * @param cause Why it failed.
+     */
+    private synchronized void connectionFailed(final OwfsConnection failed,
+            final Exception cause) {
+        if (failed != connection) {
+            return;
+        }
+        connection = null;
+        try {
+            failed.disconnect();
+        } catch (IOException e) {
+            BrewServer.LOG.fine("Couldn't disconnect OWFS: " + e.getMessage());
+        }
+        backoff(System.currentTimeMillis(), cause);
+    }
+
+    private void backoff(final long now, final Exception cause) {
+        long delay = Math.min(maxBackoff,
+                baseBackoff << Math.min(failures, 16));
+        failures++;
+        nextAttempt = now + delay;
+        // Keep the log quiet while it's down
+        Level level = failures == 1 ? Level.WARNING : Level.FINE;
+        BrewServer.LOG.log(level, "OWFS connection failed ("
+                + cause.getMessage() + "), retrying in " + delay + "ms");
+    }
+
+    /**
+     * Drop the connection and reconnect on the next read, respecting the
+     * backoff. Readers that see a problem call this rather than setting up
+     * a new connection themselves.
+     */
+    public synchronized void requestReconnect() {
+        OwfsConnection conn = connection;
+        if (conn != null) {
+            connectionFailed(conn, new IOException("Reconnect requested"));
+        }
+        for (Reading reading : readings.values()) {
+            reading.exists = null;
+        }
+    }
+
+    /**
+     * List a directory on owserver.
+     * @param path The directory.
+     * @return The entries in it.
+     * @throws IOException If owserver can't be reached.
+     * @throws OwfsException If owserver returns an error.
+     */
+    public List<String> listDirectory(final String path)
+            throws IOException, OwfsException {
+        OwfsConnection conn = getConnection(true);
+        try {
+            return conn.listDirectory(path);
+        } catch (IOException | OwfsException e) {
+            connectionFailed(conn, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The current connection, null if there isn't one.
+     */
+    public OwfsConnection getConnectionIfOpen() {
+        return connection;
+    }
+
+    /**
+     * @return True if there is a connection.
+     */
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * Try to connect now.
+     * @return True if connected.
+     */
+    public boolean connect() {
+        try {
+            getConnection(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Disconnect and stop connecting.
+     */
+    public synchronized void close() {
+        closed = true;
+        OwfsConnection conn = connection;
+        connection = null;
+        if (conn != null) {
+            try {
+                conn.disconnect();
+            } catch (IOException e) {
+                BrewServer.LOG.fine("Couldn't disconnect OWFS: "
+                        + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,13 +1,13 @@
 package com.sb.elsinore;
+import com.sb.elsinore.devices.GpioPin;
 import com.sb.elsinore.devices.OutputDevice;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
 import com.sb.util.MathUtil;
 import jGPIO.InvalidGPIOException;
-import jGPIO.OutPin;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
@@ -18,7 +18,7 @@ import java.util.regex.Pattern;
  * @author Doug Edey
  *
  */
-public final class PID implements Runnable {
+public final class PID {
 
     public static final String DUTY_CYCLE = "duty_cycle";
     public static final String DUTY_TIME = "duty_time";
@@ -40,35 +40,53 @@ public final class PID implements Runnable {
     public static final String AUX = "aux";
     public static final String HIDDEN = "hidden";
     public static final String ID = "id";
+
+    /**
+     * Time taken to calculate each new duty, by PID.
+     */
+    private static final Histogram CALCULATE_TIME = Metrics.histogram(
+            "elsinore_pid_calculate_seconds",
+            "Time taken to calculate a new duty.", Histogram.LATENCY, "pid");
     public static final String HEAT = "heat";
     public static final String COOL = "cool";
 
     /**
-     * Thousand BigDecimal multiplier.
+     * Time to average the temperature over in milliseconds, the five one
+     * second samples the control loop used to keep.
+     */
+    public static final long AVERAGE_WINDOW = 5000;
+    /**
+     * Time between control loop runs in milliseconds.
      */
-    private BigDecimal THOUSAND = new BigDecimal(1000);
+    public static final long CONTROL_PERIOD = 1000;
 
     /**
-     * The Output control thread.
+     * The scheduled control loop and output tasks.
      */
-    private Thread outputThread = null;
+    private ControlScheduler.Registration controlTask = null;
+    private ControlScheduler.Registration outputTask = null;
     private boolean invertAux = false;
-    private BigDecimal duty_cycle = new BigDecimal(0);
-    private BigDecimal calculatedDuty = new BigDecimal(0);
-    private BigDecimal set_point = new BigDecimal(0);
-    private BigDecimal manual_duty = new BigDecimal(0);
-    private BigDecimal manual_time = new BigDecimal(0);
+    /*
+     * The control loop works in doubles so a tick doesn't allocate,
+     * the getters and setters convert to BigDecimal for the JSON and config.
+     */
+    private double duty_cycle = 0;
+    private double calculatedDuty = 0;
+    private double set_point = 0;
+    private double manual_duty = 0;
+    private double manual_time = 0;
     
     /* Hysteria Settings */
-    private BigDecimal max = new BigDecimal(0);
-    private BigDecimal min = new BigDecimal(0);
-    private BigDecimal minTime = new BigDecimal(0);
+    private double max = 0;
+    private double min = 0;
+    private double minTime = 0;
 
     private boolean running = true;
-    private BigDecimal heatDelay;
 
     public void setHeatDelay(BigDecimal heatDelay) {
-        this.heatSetting.delay = heatDelay;
+        if (heatDelay != null) {
+            this.heatSetting.delay = heatDelay.doubleValue();
+        }
     }
 
     /**
@@ -80,20 +98,18 @@ public final class PID implements Runnable {
         /**
          * values to hold the settings.
          */
-        public BigDecimal
-            cycle_time = new BigDecimal(0),
-            proportional = new BigDecimal(0),
-            integral = new BigDecimal(0),
-            derivative = new BigDecimal(0),
-            delay = new BigDecimal(0);
+        public double
+            cycle_time = 0,
+            proportional = 0,
+            integral = 0,
+            derivative = 0,
+            delay = 0;
         boolean inverted = false;
 
         /**
          * Default constructor.
          */
         public Settings() {
-            cycle_time = proportional =
-                    integral = derivative = new BigDecimal(0.0);
         }
     }
 
@@ -108,6 +124,7 @@ public final class PID implements Runnable {
     public PID(final Temp aTemp, final String aName, final String gpio) {
         this.fName = aName;
         this.fTemp = aTemp;
+        this.calculateTime = CALCULATE_TIME.labels(aName);
 
         this.heatGPIO = detectGPIO(gpio);
         this.mode = "off";
@@ -122,6 +139,17 @@ public final class PID implements Runnable {
     public PID(final Temp aTemp, final String aName) {
         this.fName = aName;
         this.fTemp = aTemp;
+        this.calculateTime = CALCULATE_TIME.labels(aName);
+    }
+
+    /**
+     * Follow a rename of the probe, exporting the metrics under the new
+     * name.
+     */
+    void renamed() {
+        CALCULATE_TIME.remove(fName);
+        fName = getName();
+        calculateTime = CALCULATE_TIME.labels(fName);
     }
 
     /**
@@ -193,25 +221,25 @@ public final class PID implements Runnable {
             final BigDecimal cycle, final BigDecimal setpoint, final BigDecimal p,
             final BigDecimal i, final BigDecimal d) {
         this.mode = m;
-        if (this.mode.equals("manual")) {
-            this.duty_cycle = duty;
+        if (this.mode.equals("manual") && duty != null) {
+            this.duty_cycle = duty.doubleValue();
         }
         if (cycle != null) {
-            this.heatSetting.cycle_time = cycle;
+            this.heatSetting.cycle_time = cycle.doubleValue();
         }
         if (setpoint != null) {
-            this.set_point = setpoint;
+            this.set_point = setpoint.doubleValue();
         }
         BrewServer.LOG.info(heatSetting.proportional + ": "
             + heatSetting.integral + ": " + heatSetting.derivative);
         if (p != null) {
-            this.heatSetting.proportional = p;
+            this.heatSetting.proportional = p.doubleValue();
         }
         if (i != null) {
-            this.heatSetting.integral = i;
+            this.heatSetting.integral = i.doubleValue();
         }
         if (d != null) {
-            this.heatSetting.derivative = d;
+            this.heatSetting.derivative = d.doubleValue();
         }
         BrewServer.LOG.info("Mode " + this.mode + " " + this.heatSetting.proportional + ": "
             + heatSetting.integral + ": " + this.heatSetting.derivative);
@@ -227,7 +255,7 @@ public final class PID implements Runnable {
             return this.outputControl.getStatus();
         }
         // Output control is broken
-        return "No output on! Duty Cyle: " + this.duty_cycle
+        return "No output on! Duty Cyle: " + getDuty()
                 + " - Temp: " + getTempC();
     }
 
@@ -250,43 +278,41 @@ public final class PID implements Runnable {
             throw new NumberFormatException("Min Time is negative");
         }
 
-        this.max = newMax;
-        this.min = newMin;
-        this.minTime = newMinTime;
+        this.max = newMax.doubleValue();
+        this.min = newMin.doubleValue();
+        this.minTime = newMinTime.doubleValue();
     }
 
     public void useHysteria() {
         this.mode = "hysteria";
     }
     /***
-     * Main loop for using a PID Thread.
+     * Start the control loop and outputs on the scheduler.
+     * @param scheduler The scheduler to run on.
      */
-    public void run() {
+    public void start(final ControlScheduler scheduler) {
         BrewServer.LOG.info("Running " + this.fName + " PID.");
         // setup the first time
-        this.previousTime = new BigDecimal(System.currentTimeMillis());
+        this.previousTime = System.currentTimeMillis();
         // create the Output if needed
         if (this.heatGPIO != null && !this.heatGPIO.equals("")) {
             this.outputControl =
                     new OutputControl(fName, heatGPIO, heatSetting.cycle_time);
+            this.outputControl.setStatusFragment(fTemp.getStatusFragment());
         }
         if (this.coolGPIO != null ) {
             if (this.outputControl == null) {
                 this.outputControl = new OutputControl();
+                this.outputControl.setStatusFragment(fTemp.getStatusFragment());
             }
             this.outputControl.setCool(coolGPIO, coolSetting.cycle_time, coolSetting.delay);
         }
-        if (this.outputControl == null) {
-            return;
-        } else {
-            this.outputThread = new Thread(outputControl);
-            outputThread.start();
-        }
 
         // Detect an Auxilliary output
-        if (this.auxGPIO != null && !this.auxGPIO.equals("")) {
+        if (this.outputControl != null
+                && this.auxGPIO != null && !this.auxGPIO.equals("")) {
             try {
-                this.auxPin = new OutPin(this.auxGPIO);
+                this.auxPin = GpioPin.open(this.auxGPIO);
                 setAux(false);
             } catch (InvalidGPIOException e) {
                 BrewServer.LOG.log(Level.SEVERE,
@@ -299,83 +325,115 @@ public final class PID implements Runnable {
             }
         }
 
-        // Main loop
-        while (running) {
-            try {
-                synchronized (this.fTemp) {
-                    // do the bulk of the work here
-                    this.fTempC = this.fTemp.getTempC();
-                    this.fTempF = this.fTemp.getTempF();
-                    this.currentTime = new BigDecimal(this.fTemp.getTime());
-
-                    // if the GPIO is blank we do not need to do any of this;
-                    if (this.hasValidHeater()
-                            || this.hasValidCooler()) {
-                        if (this.tempList.size() >= 5) {
-                            tempList.remove(0);
-                        }
-                        tempList.add(fTemp.getTemp());
-                        BigDecimal tempAvg = calcAverage();
-                        // we have the current temperature
-                        BrewServer.LOG.info(mode);
-                        switch (mode) {
-                            case "auto":
-                                this.calculatedDuty =
-                                        calculate(tempAvg);
-                                BrewServer.LOG.info(
-                                        "Calculated: " + calculatedDuty);
-                                if (this.outputControl.setDuty(calculatedDuty)) {
-                                    this.outputControl.getHeater().setCycleTime(
-                                            heatSetting.cycle_time);
-                                    this.outputThread.interrupt();
-                                }
-                                break;
-                            case "manual":
-                                if (this.outputControl.setDuty(this.manual_duty)) {
-                                    this.outputControl.getHeater().setCycleTime(
-                                            this.manual_time);
-                                    this.outputThread.interrupt();
-                                }
-                                break;
-                            case "off":
-                                this.duty_cycle = BigDecimal.ZERO;
-                                this.outputControl.setDuty(BigDecimal.ZERO);
-                                this.outputControl.getHeater().setCycleTime(
-                                        heatSetting.cycle_time);
-                                this.outputThread.interrupt();
-                                break;
-                            case "hysteria":
-                                setHysteria();
-                                this.outputThread.interrupt();
-                                break;
+        // Outputs can be added later, so schedule the loop either way
+        this.controlTask = scheduler.schedule("PID_" + fName,
+                ControlScheduler.Phase.CONTROL, CONTROL_PERIOD,
+                new ControlScheduler.Task() {
+                    @Override
+                    public boolean run(final long now) {
+                        return control();
+                    }
+                });
+        this.outputTask = scheduler.schedule("Output_" + fName,
+                ControlScheduler.Phase.ACTUATE, scheduler.getTick(),
+                new ControlScheduler.Task() {
+                    @Override
+                    public boolean run(final long now) {
+                        OutputControl output = outputControl;
+                        if (!running) {
+                            // Deleted, don't leave the outputs running
+                            if (output != null) {
+                                output.shutdown();
+                            }
+                            return false;
                         }
-                        BrewServer.LOG.info(mode + ": " + fName + " status: "
-                            + fTempF + " duty cycle: "
-                            + this.outputControl.getDuty());
+                        return output == null || output.actuate(now);
                     }
-                    //notify all waiters of the change of state
-                }
+                });
+    }
 
-                //pause execution for a second
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                BrewServer.LOG.warning("PID " + getName() + " Interrupted.");
-                ex.printStackTrace();
-                Thread.currentThread().interrupt();
+    /**
+     * Run the control loop once, on the latest reading.
+     * @return False once the PID has been stopped.
+     */
+    private boolean control() {
+        if (!running) {
+            return false;
+        }
+        synchronized (this.fTemp) {
+            if (this.fTemp.getHistory().size() == 0) {
+                // No reading yet, or the scale just changed, wait for one
+                return true;
+            }
+            // do the bulk of the work here
+            this.fTempC = this.fTemp.getTempCValue();
+            this.fTempF = this.fTemp.getTempFValue();
+            this.currentTime = this.fTemp.getTime();
+
+            // if the GPIO is blank we do not need to do any of this;
+            if (this.hasValidHeater()
+                    || this.hasValidCooler()) {
+                double tempAvg = calcAverage();
+                // we have the current temperature
+                boolean logging = BrewServer.LOG.isLoggable(Level.INFO);
+                if (logging) {
+                    BrewServer.LOG.info(mode);
+                }
+                switch (mode) {
+                    case "auto":
+                        long start = System.nanoTime();
+                        double newDuty = calculate(tempAvg);
+                        calculateTime.observeSince(start);
+                        boolean changed = newDuty != this.calculatedDuty;
+                        this.calculatedDuty = newDuty;
+                        if (changed) {
+                            fTemp.getStatusFragment().changed();
+                        }
+                        if (logging) {
+                            BrewServer.LOG.info(
+                                    "Calculated: " + calculatedDuty);
+                        }
+                        if (this.outputControl.setDuty(calculatedDuty)) {
+                            this.outputControl.getHeater().setCycleTime(
+                                    heatSetting.cycle_time);
+                        }
+                        break;
+                    case "manual":
+                        if (this.outputControl.setDuty(this.manual_duty)) {
+                            this.outputControl.getHeater().setCycleTime(
+                                    this.manual_time);
+                        }
+                        break;
+                    case "off":
+                        this.duty_cycle = 0;
+                        this.outputControl.setDuty(0);
+                        this.outputControl.getHeater().setCycleTime(
+                                heatSetting.cycle_time);
+                        break;
+                    case "hysteria":
+                        setHysteria();
+                        break;
+                }
+                if (logging) {
+                    BrewServer.LOG.info(mode + ": " + fName + " status: "
+                        + fTempF + " duty cycle: "
+                        + this.outputControl.getDutyValue());
+                }
             }
+            //notify all waiters of the change of state
         }
+        return true;
     }
 
-    private boolean minTimePassed(String direction) {
-        if (this.timeDiff.compareTo(this.minTime) <= 0) {
-            BigDecimal remaining = this.minTime.subtract(this.timeDiff);
-            if (remaining.compareTo(new BigDecimal(10.0/60.0)) >= 0) {
+    private boolean minTimePassed() {
+        if (this.timeDiff <= this.minTime) {
+            double remaining = this.minTime - this.timeDiff;
+            if (remaining >= 10.0 / 60.0) {
                 this.getTemp().currentError =
                     "Waiting for minimum time before changing outputs,"
                     + " less than "
-                    + remaining.setScale(0, BigDecimal.ROUND_UP)
+                    + (long) Math.ceil(remaining)
                     + " mins remaining";
-                    //+ " going " + direction;
             }
             return false;
         } else {
@@ -391,13 +449,7 @@ public final class PID implements Runnable {
      * @param duty Duty Cycle percentage
      */
     public void setDuty(BigDecimal duty) {
-        if (duty.doubleValue() > 100) {
-            duty = new BigDecimal(100);
-        } else if (duty.doubleValue() < -100) {
-            duty = new BigDecimal(-100);
-        }
-
-        this.duty_cycle = duty;
+        this.duty_cycle = Math.max(-100, Math.min(100, duty.doubleValue()));
     }
 
     /****
@@ -408,7 +460,7 @@ public final class PID implements Runnable {
         if (temp.doubleValue() < 0) {
             temp = BigDecimal.ZERO;
         }
-        this.set_point = temp.setScale(2, BigDecimal.ROUND_CEILING);
+        this.set_point = temp.setScale(2, BigDecimal.ROUND_CEILING).doubleValue();
     }
 
     /*******
@@ -429,8 +481,12 @@ public final class PID implements Runnable {
         // Only do this is the pin has changed
         if (!detectGPIO(gpio).equalsIgnoreCase(auxGPIO)) {
             this.auxGPIO = detectGPIO(gpio);
+            if (auxPin != null) {
+                auxPin.close();
+                auxPin = null;
+            }
             try {
-                auxPin = new OutPin(auxGPIO);
+                auxPin = GpioPin.open(auxGPIO);
 
             } catch (InvalidGPIOException i)
             {
@@ -454,9 +510,9 @@ public final class PID implements Runnable {
         if (auxPin != null) {
             // If the value if "1" we set it to false
             // If the value is not "1" we set it to true
-            BrewServer.LOG.info("Aux Pin is being set to: "
-                    + !auxPin.getValue().equals("1"));
-            setAux(!getAuxStatus());
+            boolean on = !getAuxStatus();
+            BrewServer.LOG.info("Aux Pin is being set to: " + on);
+            setAux(on);
         } else {
             BrewServer.LOG.info("Aux Pin is not set for " + this.fName);
         }
@@ -464,11 +520,7 @@ public final class PID implements Runnable {
 
     public void setAux(boolean on)
     {
-        if (this.invertAux) {
-            auxPin.setValue(!on);
-        } else {
-            auxPin.setValue(on);
-        }
+        auxPin.set(on != this.invertAux);
     }
     /**
      * @return True if there's an aux pin
@@ -483,7 +535,7 @@ public final class PID implements Runnable {
      */
     public void setCoolP(final BigDecimal p) {
         if (p != null) {
-            coolSetting.proportional = p;
+            coolSetting.proportional = p.doubleValue();
         }
     }
 
@@ -494,7 +546,7 @@ public final class PID implements Runnable {
     public void setCoolI(final BigDecimal i) {
         if (i != null)
         {
-            coolSetting.integral = i;
+            coolSetting.integral = i.doubleValue();
         }
     }
 
@@ -505,7 +557,7 @@ public final class PID implements Runnable {
     public void setCoolD(final BigDecimal d) {
         if (d != null)
         {
-            coolSetting.derivative = d;
+            coolSetting.derivative = d.doubleValue();
         }
     }
 
@@ -516,7 +568,7 @@ public final class PID implements Runnable {
     public void setHeatP(final BigDecimal p) {
         if (p != null)
         {
-            heatSetting.proportional = p;
+            heatSetting.proportional = p.doubleValue();
         }
     }
 
@@ -527,7 +579,7 @@ public final class PID implements Runnable {
     public void setHeatI(final BigDecimal i) {
         if (i != null)
         {
-            heatSetting.integral = i;
+            heatSetting.integral = i.doubleValue();
         }
     }
 
@@ -538,7 +590,7 @@ public final class PID implements Runnable {
     public void setHeatD(final BigDecimal d) {
         if (d != null)
         {
-            heatSetting.derivative = d;
+            heatSetting.derivative = d.doubleValue();
         }
     }
 
@@ -554,14 +606,14 @@ public final class PID implements Runnable {
      * @return Get the temperature in celsius.
      */
     public BigDecimal getTempC() {
-        return fTempC;
+        return MathUtil.toBigDecimal(fTempC);
     }
 
     /**
      * @return Get the temperature in fahrenheit
      */
     public BigDecimal getTempF() {
-        return fTempF;
+        return MathUtil.toBigDecimal(fTempF);
     }
 
     /**
@@ -586,46 +638,46 @@ public final class PID implements Runnable {
      * @return Get the current duty cycle percentage
      */
     public BigDecimal getDuty() {
-        return duty_cycle;
+        return MathUtil.toBigDecimal(duty_cycle);
     }
 
     /**
      * @return Get the PID Target temperature
      */
     public BigDecimal getSetPoint() {
-        return this.set_point;
+        return MathUtil.toBigDecimal(this.set_point);
     }
 
     /**
      * @return  Get the current Duty Cycle Time
      */
     public BigDecimal getHeatCycle() {
-        return heatSetting.cycle_time;
+        return MathUtil.toBigDecimal(heatSetting.cycle_time);
     }
 
     /**
      * @return Get the current proportional value
      */
     public BigDecimal getHeatP() {
-        return heatSetting.proportional;
+        return MathUtil.toBigDecimal(heatSetting.proportional);
     }
 
     /**
      * @return  Get the current Integral value
      */
     public BigDecimal getHeatI() {
-        return heatSetting.integral;
+        return MathUtil.toBigDecimal(heatSetting.integral);
     }
 
     /**
      * @return Get the current Differential value
      */
     public BigDecimal getHeatD() {
-        return heatSetting.derivative;
+        return MathUtil.toBigDecimal(heatSetting.derivative);
     }
 
     public BigDecimal getHeatDelay() {
-        return heatSetting.delay;
+        return MathUtil.toBigDecimal(heatSetting.delay);
     }
 
     /**
@@ -661,7 +713,7 @@ public final class PID implements Runnable {
      * @return  Get the current Duty Cycle Time
      */
     public BigDecimal getCoolCycle() {
-        return coolSetting.cycle_time;
+        return MathUtil.toBigDecimal(coolSetting.cycle_time);
     }
 
 
@@ -669,25 +721,25 @@ public final class PID implements Runnable {
      * @return Get the current proportional value
      */
     public BigDecimal getCoolP() {
-        return coolSetting.proportional;
+        return MathUtil.toBigDecimal(coolSetting.proportional);
     }
 
     /**
      * @return  Get the current Integral value
      */
     public BigDecimal getCoolI() {
-        return coolSetting.integral;
+        return MathUtil.toBigDecimal(coolSetting.integral);
     }
 
     /**
      * @return Get the current Differential value
      */
     public BigDecimal getCoolD() {
-        return coolSetting.derivative;
+        return MathUtil.toBigDecimal(coolSetting.derivative);
     }
 
     public BigDecimal getCoolDelay() {
-        return coolSetting.delay;
+        return MathUtil.toBigDecimal(coolSetting.delay);
     }
 
     /**
@@ -708,25 +760,16 @@ public final class PID implements Runnable {
     /**
      * Store the previous timestamp for the update.
      */
-    private BigDecimal previousTime = new BigDecimal(0);
+    private long previousTime = 0;
 
     /**
-     * @return Calculate the average of the current temp list
+     * @return The average of the probe's readings over the last
+     * {@link #AVERAGE_WINDOW}.
      */
-    private BigDecimal calcAverage() {
-        int size = tempList.size();
-
-        if (size == 0)
-        {
-            return new BigDecimal(-999.0);
-        }
-
-        BigDecimal total = new BigDecimal(0.0);
-        for (BigDecimal t : tempList) {
-            total = total.add(t);
-        }
-
-        return MathUtil.divide(total, size);
+    private double calcAverage() {
+        TempHistory history = fTemp.getHistory();
+        return history.getMeanSince(
+                history.getLatestTime() - AVERAGE_WINDOW);
     }
 
     /**
@@ -736,26 +779,28 @@ public final class PID implements Runnable {
     /**
      * The current temperature in F and C.
      */
-    private BigDecimal fTempF, fTempC;
+    private double fTempF, fTempC;
     /**
      * The GPIO String values.
      */
     private String heatGPIO, auxGPIO, coolGPIO = null;
     /**
-     * The previous five temperature readings.
+     * Various strings.
      */
-    private List<BigDecimal> tempList = new ArrayList<>();
-
+    private String mode = "off";
+    private volatile String fName = null;
     /**
-     * Various strings.
+     * The time taken to calculate, looked up once per name.
      */
-    private String mode = "off", fName = null;
+    private volatile Histogram.Child calculateTime;
     /**
      * The current timestamp.
      */
-    private BigDecimal currentTime, hysteriaStartTime
-        = new BigDecimal(System.currentTimeMillis());
-    private BigDecimal timeDiff = BigDecimal.ZERO;
+    private long currentTime, hysteriaStartTime = System.currentTimeMillis();
+    /**
+     * The time since the hysteria outputs last changed, in minutes.
+     */
+    private double timeDiff = 0;
     /**
      * Settings for the heating and cooling.
      */
@@ -764,22 +809,22 @@ public final class PID implements Runnable {
     /**
      * The aux output pin.
      */
-    private OutPin auxPin = null;
+    private GpioPin auxPin = null;
 
-    private BigDecimal totalError = new BigDecimal(0.0);
-    private BigDecimal errorFactor = new BigDecimal(0.0);
+    private double totalError = 0;
+    private double errorFactor = 0;
     /**
      *  Temp values for PID calculation.
      */
-    private BigDecimal previousError = new BigDecimal(0.0);
+    private double previousError = 0;
     /**
      *  Temp values for PID calculation.
      */
-    private BigDecimal integralFactor = new BigDecimal(0.0);
+    private double integralFactor = 0;
     /**
      *  Temp values for PID calculation.
      */
-    private BigDecimal derivativeFactor = new BigDecimal(0.0);
+    private double derivativeFactor = 0;
 
     /**
      * @return Get the current temp probe (for saving)
@@ -793,61 +838,55 @@ public final class PID implements Runnable {
      * @param avgTemp The current average temperature
      * @return  A Double of the duty cycle %
      */
-    private BigDecimal calculate(BigDecimal avgTemp) {
-        this.currentTime = new BigDecimal(System.currentTimeMillis());
-        if (previousTime.compareTo(BigDecimal.ZERO) == 0) {
+    private double calculate(double avgTemp) {
+        this.currentTime = System.currentTimeMillis();
+        if (previousTime == 0) {
             previousTime = currentTime;
         }
-        BigDecimal dt = MathUtil.divide(
-                currentTime.subtract(previousTime),THOUSAND);
-        if (dt.compareTo(BigDecimal.ZERO) == 0) {
-            return outputControl.getDuty();
+        double dt = (currentTime - previousTime) / 1000.0;
+        if (dt == 0) {
+            return outputControl.getDutyValue();
         }
 
         // Calculate the error
         /*
        Temp values for PID calculation.
      */
-        BigDecimal error = this.set_point.subtract(avgTemp);
+        double error = this.set_point - avgTemp;
 
-        if ((this.totalError.add(error).multiply(
-                this.integralFactor).compareTo(new BigDecimal(100)) < 0)
-                && (this.totalError.add(error).multiply(
-                        this.integralFactor).compareTo(new BigDecimal(0)) > 0))
+        double accumulated = (this.totalError + error) * this.integralFactor;
+        if (accumulated < 100 && accumulated > 0)
         {
-            this.totalError = this.totalError.add(error);
+            this.totalError += error;
         }
 
-        this.heatSetting.proportional.multiply(error).add(
-                heatSetting.integral.multiply(this.totalError)).add(
-                        heatSetting.derivative.multiply(
-                                error.subtract(this.previousError)));
-
-        BrewServer.LOG.info("DT: " + dt + " Error: " + errorFactor
-            + " integral: " + integralFactor
-            + " derivative: " + derivativeFactor);
+        if (BrewServer.LOG.isLoggable(Level.INFO)) {
+            BrewServer.LOG.info("DT: " + dt + " Error: " + errorFactor
+                + " integral: " + integralFactor
+                + " derivative: " + derivativeFactor);
+        }
 
         /*
        Temp values for PID calculation.
      */
-        BigDecimal output = heatSetting.proportional.multiply(error)
-                .add(heatSetting.integral.multiply(integralFactor))
-                .add(heatSetting.derivative.multiply(derivativeFactor));
+        double output = heatSetting.proportional * error
+                + heatSetting.integral * integralFactor
+                + heatSetting.derivative * derivativeFactor;
 
         previousError = error;
 
-        if (output.compareTo(BigDecimal.ZERO) < 0
+        if (output < 0
                 && (this.coolGPIO == null || this.coolGPIO.equals(""))) {
-            output = BigDecimal.ZERO;
-        } else if (output.compareTo(BigDecimal.ZERO) > 0
+            output = 0;
+        } else if (output > 0
                 && (this.heatGPIO == null || this.heatGPIO.equals(""))) {
-            output = BigDecimal.ZERO;
+            output = 0;
         }
 
-        if (output.compareTo(new BigDecimal(100)) > 0) {
-            output = new BigDecimal(100);
-        } else if (output.compareTo(new BigDecimal(-100)) < 0) {
-            output = new BigDecimal(-100);
+        if (output > 100) {
+            output = 100;
+        } else if (output < -100) {
+            output = -100;
         }
 
         this.previousTime = currentTime;
@@ -858,9 +897,10 @@ public final class PID implements Runnable {
      * Used as a shutdown hook to close off everything.
      */
     public void shutdown() {
-        if (outputControl != null && outputThread != null) {
-            this.outputControl.shuttingDown = true;
-            this.outputThread.interrupt();
+        if (outputTask != null) {
+            this.outputTask.cancel();
+        }
+        if (outputControl != null) {
             this.outputControl.shutdown();
         }
 
@@ -903,7 +943,8 @@ public final class PID implements Runnable {
                 return;
             }
         }
-        this.outputControl.setCool(gpio, duty, delay);
+        this.outputControl.setCool(gpio, duty.doubleValue(),
+                delay.doubleValue());
     }
 
     /**
@@ -914,7 +955,7 @@ public final class PID implements Runnable {
         statusMap.put("mode", getMode());
         // hack to get the real duty out
         if (getMode().contains("auto")) {
-            statusMap.put("actualduty", calculatedDuty);
+            statusMap.put("actualduty", MathUtil.toBigDecimal(calculatedDuty));
         }
 
         // The Heat settings
@@ -940,18 +981,27 @@ public final class PID implements Runnable {
         statusMap.put("cool", coolMap);
 
         statusMap.put("duty", getDuty());
+        if (outputControl != null) {
+            statusMap.put("achievedduty",
+                    MathUtil.toBigDecimal(outputControl.getAchievedDuty()));
+        }
         statusMap.put("setpoint", getSetPoint());
-        statusMap.put("manualduty", this.manual_duty);
-        statusMap.put("manualtime", this.manual_time);
-        statusMap.put("min", this.min);
-        statusMap.put("max", this.max);
-        statusMap.put("time", this.minTime);
+        statusMap.put("manualduty", getManualCycle());
+        statusMap.put("manualtime", getManualTime());
+        statusMap.put("min", getMin());
+        statusMap.put("max", getMax());
+        statusMap.put("time", getTime());
 
         statusMap.put("status", getStatus());
 
         if (auxPin != null) {
-            // This value should be cached
-            // but I don't trust someone to hit it with a different application
+            // Read the pin, someone could have hit it with a different
+            // application
+            try {
+                auxPin.read();
+            } catch (RuntimeException e) {
+                BrewServer.LOG.warning(e.getMessage());
+            }
             Map<String, Object> auxStatus = new HashMap<>();
             auxStatus.put("gpio", auxGPIO);
             auxStatus.put("inverted", isAuxInverted());
@@ -984,7 +1034,8 @@ public final class PID implements Runnable {
         this.heatGPIO = this.detectGPIO(gpio);
         if (this.outputControl == null) {
             this.outputControl = new OutputControl(
-                    this.getName(), gpio, this.getHeatCycle());
+                    this.getName(), gpio, this.heatSetting.cycle_time);
+            this.outputControl.setStatusFragment(fTemp.getStatusFragment());
         }
         if (this.outputControl.getHeater() != null) {
             this.outputControl.getHeater().disable();
@@ -1003,7 +1054,8 @@ public final class PID implements Runnable {
 
         this.coolGPIO = this.detectGPIO(gpio);
         if (this.outputControl == null) {
-            this.outputControl = new OutputControl(this.getName(), this.heatGPIO, this.getHeatCycle());
+            this.outputControl = new OutputControl(this.getName(), this.heatGPIO, this.heatSetting.cycle_time);
+            this.outputControl.setStatusFragment(fTemp.getStatusFragment());
         }
         if (this.outputControl.getCooler() != null) {
             this.outputControl.getCooler().disable();
@@ -1017,15 +1069,15 @@ public final class PID implements Runnable {
     }
     
     public BigDecimal getMin() {
-        return this.min;
+        return MathUtil.toBigDecimal(this.min);
     }
 
     public BigDecimal getMax() {
-        return this.max;
+        return MathUtil.toBigDecimal(this.max);
     }
 
     public BigDecimal getTime() {
-        return this.minTime;
+        return MathUtil.toBigDecimal(this.minTime);
     }
 
     public Settings getHeatSetting() {
@@ -1039,39 +1091,42 @@ public final class PID implements Runnable {
     public void stop() {
         BrewServer.LOG.warning("Shutting down " + this.getName());
         running = false;
-        Thread.currentThread().interrupt();
+        if (controlTask != null) {
+            controlTask.cancel();
+        }
+        CALCULATE_TIME.remove(fName);
     }
 
     public void setCoolDelay(BigDecimal coolDelay) {
         if (coolDelay != null) {
-            this.coolSetting.delay = coolDelay;
+            this.coolSetting.delay = coolDelay.doubleValue();
         }
     }
     
     public void setCoolCycle(BigDecimal coolCycle) {
         if (coolCycle != null)
         {
-            this.coolSetting.cycle_time = coolCycle;
+            this.coolSetting.cycle_time = coolCycle.doubleValue();
         }
     }
     
     public void setHeatCycle(BigDecimal heatCycle) {
         if (heatCycle != null)
         {
-            this.heatSetting.cycle_time = heatCycle;
+            this.heatSetting.cycle_time = heatCycle.doubleValue();
         }
     }
     
     public void setManualDuty(BigDecimal duty) {
         if (duty != null) {
-            this.manual_duty = duty;
+            this.manual_duty = duty.doubleValue();
         }
     }
     
     public void setManualTime(BigDecimal time) {
         if (time != null)
         {
-            this.manual_time = time;
+            this.manual_time = time.doubleValue();
         }
     }
     
@@ -1090,78 +1145,68 @@ public final class PID implements Runnable {
          *      THEN turn on the cooling output
          */
         // Set the duty cycle to be 100, we can wake it up when we want to
-        BrewServer.LOG.info("Checking current temp against " + this.min + " and " + this.max);
-        try {
-            this.timeDiff = this.currentTime.subtract(this.hysteriaStartTime);
-            this.timeDiff = MathUtil.divide(MathUtil.divide(timeDiff, THOUSAND), 60);
-        } catch (ArithmeticException e) {
-            BrewServer.LOG.warning(e.getMessage());
+        boolean logging = BrewServer.LOG.isLoggable(Level.INFO);
+        if (logging) {
+            BrewServer.LOG.info("Checking current temp against " + this.min + " and " + this.max);
         }
-        
-        BigDecimal minTempF = this.min;
-        BigDecimal maxTempF = this.max;
+        // TimeDiff is in minutes
+        this.timeDiff = (this.currentTime - this.hysteriaStartTime) / 1000.0 / 60;
+
+        double minTempF = this.min;
+        double maxTempF = this.max;
         if (this.getTemp().getScale().equalsIgnoreCase("C")) {
             minTempF = Temp.cToF(this.min);
             maxTempF = Temp.cToF(this.max);
         }
 
-        String state = "Min: " + minTempF + " (" + getTempF() + ") " + maxTempF;
-        if (this.getTempF().compareTo(minTempF) < 0) {
+        if (this.fTempF < minTempF) {
 
             if (this.hasValidHeater()
-                    && this.duty_cycle.compareTo(new BigDecimal(100)) != 0
-                    && this.minTimePassed(state)) {
+                    && this.duty_cycle != 100
+                    && this.minTimePassed()) {
                 BrewServer.LOG.info("Current temp is less than the minimum temp, turning on 100");
-                this.hysteriaStartTime = new BigDecimal(System.currentTimeMillis());
-                this.duty_cycle = new BigDecimal(100);
+                this.hysteriaStartTime = System.currentTimeMillis();
+                this.duty_cycle = 100;
                 this.outputControl.setDuty(this.duty_cycle);
-                this.outputControl.getHeater().setCycleTime(this.minTime.multiply(new BigDecimal(60)));
+                this.outputControl.getHeater().setCycleTime(this.minTime * 60);
             } else if (this.hasValidCooler()
-                    && this.duty_cycle.compareTo(new BigDecimal(100)) < 0
-                    && this.minTimePassed(state)) {
+                    && this.duty_cycle < 100
+                    && this.minTimePassed()) {
                 BrewServer.LOG.info("Slept for long enough, turning off");
                 // Make sure the thread wakes up for the new settings
-                this.hysteriaStartTime = new BigDecimal(System.currentTimeMillis());
-                this.duty_cycle = new BigDecimal(0);
+                this.hysteriaStartTime = System.currentTimeMillis();
+                this.duty_cycle = 0;
                 this.outputControl.setDuty(this.duty_cycle);
-                this.outputThread.interrupt();
             }
-
-            // Make sure the thread wakes up for the new settings
-            this.outputThread.interrupt();
-        } else if (this.getTempF().compareTo(maxTempF) >= 0) {
-            // TimeDiff is now in minutes
+        } else if (this.fTempF >= maxTempF) {
             // Is the cooling output on?
             if (this.hasValidCooler()
-                    && this.duty_cycle.compareTo(new BigDecimal(-100)) != 0
-                    && this.minTimePassed(state)) {
+                    && this.duty_cycle != -100
+                    && this.minTimePassed()) {
                 BrewServer.LOG.info("Current temp is greater than the max temp, turning on -100");
-                this.hysteriaStartTime = new BigDecimal(System.currentTimeMillis());
-                this.duty_cycle = new BigDecimal(-100);
+                this.hysteriaStartTime = System.currentTimeMillis();
+                this.duty_cycle = -100;
                 this.outputControl.setDuty(this.duty_cycle);
-                this.outputControl.getCooler().setCycleTime(this.minTime.multiply(new BigDecimal(60)));
-                this.outputThread.interrupt();
+                this.outputControl.getCooler().setCycleTime(this.minTime * 60);
 
             } else if(this.hasValidHeater()
-                    && this.duty_cycle.compareTo(new BigDecimal(-100)) > 0
-                    && this.minTimePassed(state)) {
+                    && this.duty_cycle > -100
+                    && this.minTimePassed()) {
                 BrewServer.LOG.info("Current temp is more than the max temp");
                 BrewServer.LOG.info("Slept for long enough, turning off");
                 // Make sure the thread wakes up for the new settings
-                this.hysteriaStartTime = new BigDecimal(System.currentTimeMillis());
-                this.duty_cycle = BigDecimal.ZERO;
+                this.hysteriaStartTime = System.currentTimeMillis();
+                this.duty_cycle = 0;
                 this.outputControl.setDuty(this.duty_cycle);
-                this.outputThread.interrupt();
             }
-        } else if (this.getTempF().compareTo(minTempF) >= 0 && this.getTempF().compareTo(maxTempF) <= 0
-                && this.duty_cycle.compareTo(new BigDecimal(0)) != 0
-                && this.minTimePassed(state)) {
-            this.hysteriaStartTime = new BigDecimal(System.currentTimeMillis());
-            this.duty_cycle = BigDecimal.ZERO;
+        } else if (this.fTempF >= minTempF && this.fTempF <= maxTempF
+                && this.duty_cycle != 0
+                && this.minTimePassed()) {
+            this.hysteriaStartTime = System.currentTimeMillis();
+            this.duty_cycle = 0;
             this.outputControl.setDuty(this.duty_cycle);
-            this.outputThread.interrupt();
-        } else {
-            BrewServer.LOG.info("Min: " + minTempF + " (" + getTempF() + ") " + maxTempF);
+        } else if (logging) {
+            BrewServer.LOG.info("Min: " + minTempF + " (" + this.fTempF + ") " + maxTempF);
         }
     }
 
@@ -1204,17 +1249,14 @@ public final class PID implements Runnable {
 
     public boolean getAuxStatus()
     {
-        if (this.invertAux) {
-            return auxPin.getValue().equals("0");
-        }
-        return auxPin.getValue().equals("1");
+        return auxPin.get() != this.invertAux;
     }
 
     public BigDecimal getManualCycle() {
-        return this.manual_duty;
+        return MathUtil.toBigDecimal(this.manual_duty);
     }
     
     public BigDecimal getManualTime() {
-        return this.manual_time;
+        return MathUtil.toBigDecimal(this.manual_time);
     }
 }
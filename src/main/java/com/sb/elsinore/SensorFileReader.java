@@ -0,0 +1,167 @@
+package com.sb.elsinore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a kernel temperature file into a reusable buffer and parses it
+ * without allocating.
+ *
+ * Handles the 1-Wire w1_slave format:
+ * <pre>
+ * 72 01 4b 46 7f ff 0e 10 57 : crc=57 YES
+ * 72 01 4b 46 7f ff 0e 10 57 t=23125
+ * </pre>
+ * and plain millidegree files such as the thermal zones and the 1-Wire
+ * temperature file. The file is kept open and read again from the start
+ * each time, which makes sysfs generate it again.
+ */
+public final class SensorFileReader {
+
+    /**
+     * Returned when the reading failed its CRC check.
+     */
+    public static final long BAD_CRC = Long.MIN_VALUE;
+
+    private static final int BUFFER_SIZE = 128;
+
+    private final String path;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private FileChannel channel = null;
+    private int length = 0;
+
+    /**
+     * @param path The file to read.
+     */
+    public SensorFileReader(final String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return The file being read.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Read the file.
+     * @return The temperature in millidegrees, or {@link #BAD_CRC}.
+     * @throws IOException If the file can't be read.
+     * @throws NumberFormatException If there isn't a number where
+     * one is expected.
+     */
+    public long read() throws IOException {
+        fill();
+        int lineEnd = indexOf((byte) '\n', 0, length);
+        if (lineEnd < 0) {
+            lineEnd = length;
+        }
+        if (lineEnd == 0 || indexOf((byte) 'N', (byte) 'O', 0, lineEnd) >= 0) {
+            return BAD_CRC;
+        }
+        if (indexOf((byte) 'Y', (byte) 'E', 0, lineEnd) >= 0) {
+            // Good CRC, the value is after t= on the next line
+            int t = indexOf((byte) 't', (byte) '=', lineEnd, length);
+            if (t < 0) {
+                throw new NumberFormatException(
+                        "No t= in " + getText());
+            }
+            return parseLong(t + 2, length);
+        }
+        // A plain value
+        return parseLong(0, lineEnd);
+    }
+
+    /**
+     * @return The text last read, for error messages.
+     */
+    public String getText() {
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Close the file, it's opened again on the next read.
+     */
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                BrewServer.LOG.fine("Couldn't close " + path + ": "
+                        + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    private void fill() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.READ);
+        }
+        buffer.clear();
+        try {
+            long position = 0;
+            int read;
+            while (buffer.hasRemaining()
+                    && (read = channel.read(buffer, position)) > 0) {
+                position += read;
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        length = buffer.position();
+    }
+
+    private int indexOf(final byte b, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(final byte first, final byte second, final int from,
+            final int to) {
+        for (int i = from; i < to - 1; i++) {
+            if (bytes[i] == first && bytes[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a signed whole number, skipping leading white space and
+     * stopping at the first character that isn't a digit.
+     */
+    private long parseLong(final int from, final int to) {
+        int i = from;
+        while (i < to && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+            value = value * 10 + (bytes[i] - '0');
+            i++;
+        }
+        if (i == start) {
+            throw new NumberFormatException("Couldn't parse " + getText());
+        }
+        return negative ? -value : value;
+    }
+}
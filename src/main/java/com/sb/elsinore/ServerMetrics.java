@@ -0,0 +1,113 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.devices.GpioPin;
+import com.sb.elsinore.devices.OutputDevice;
+import com.sb.elsinore.devices.OutputScheduler;
+import com.sb.elsinore.metrics.Collector;
+import com.sb.elsinore.metrics.TextFormat;
+
+import java.util.Map;
+
+/**
+ * Reads the counters the scheduler, outputs, GPIO pins, configuration
+ * writer and startup already keep, when the metrics are scraped.
+ */
+public final class ServerMetrics implements Collector {
+
+    /**
+     * The name the collector is registered as.
+     */
+    public static final String NAME = "elsinore_server";
+
+    @Override
+    public void collect(final TextFormat out) {
+        collectScheduler(out, LaunchControl.scheduler);
+        collectOutputs(out, LaunchControl.outputScheduler);
+
+        out.family("elsinore_gpio_writes_total", "counter",
+                "Writes to GPIO value files.");
+        out.sample("elsinore_gpio_writes_total", GpioPin.getWrites());
+        out.family("elsinore_gpio_writes_skipped_total", "counter",
+                "GPIO writes skipped as the pin was already set.");
+        out.sample("elsinore_gpio_writes_skipped_total",
+                GpioPin.getSkipped());
+
+        out.family("elsinore_config_save_requests_total", "counter",
+                "Times a configuration save has been asked for.");
+        out.sample("elsinore_config_save_requests_total",
+                LaunchControl.configWriter.getRequests());
+        out.family("elsinore_config_writes_total", "counter",
+                "Times the configuration file has been written.");
+        out.sample("elsinore_config_writes_total",
+                LaunchControl.configWriter.getWrites());
+
+        out.family("elsinore_devices", "gauge", "Devices set up, by kind.");
+        out.sample("elsinore_devices", "kind", "temp",
+                LaunchControl.tempList.size());
+        out.sample("elsinore_devices", "kind", "pid",
+                LaunchControl.pidList.size());
+        out.sample("elsinore_devices", "kind", "switch",
+                LaunchControl.switchList.size());
+        out.sample("elsinore_devices", "kind", "timer",
+                LaunchControl.timerList.size());
+        out.sample("elsinore_devices", "kind", "phsensor",
+                LaunchControl.phSensorList.size());
+
+        Startup startup = LaunchControl.getStartup();
+        if (startup != null) {
+            out.family("elsinore_startup_seconds", "gauge",
+                    "Time taken by each phase and task of startup.");
+            for (Map.Entry<String, Long> timing
+                    : startup.getTimings().entrySet()) {
+                out.sample("elsinore_startup_seconds", "phase",
+                        timing.getKey(), timing.getValue() / 1000.0);
+            }
+        }
+    }
+
+    private static void collectScheduler(final TextFormat out,
+            final ControlScheduler scheduler) {
+        out.family("elsinore_scheduler_ticks_total", "counter",
+                "Control ticks run.");
+        out.sample("elsinore_scheduler_ticks_total", scheduler.getTicks());
+        out.family("elsinore_scheduler_tick_overruns_total", "counter",
+                "Control ticks that started late or took too long.");
+        out.sample("elsinore_scheduler_tick_overruns_total",
+                scheduler.getTickOverruns());
+        out.family("elsinore_scheduler_task_overruns_total", "counter",
+                "Times a scheduled task missed its period, by task.");
+        for (ControlScheduler.Registration task
+                : scheduler.getRegistrations()) {
+            out.sample("elsinore_scheduler_task_overruns_total", "task",
+                    task.getName(), task.getOverruns());
+        }
+    }
+
+    private static void collectOutputs(final TextFormat out,
+            final OutputScheduler outputs) {
+        out.family("elsinore_output_edges_total", "counter",
+                "Output switch edges applied.");
+        out.sample("elsinore_output_edges_total", outputs.getEdges());
+        out.family("elsinore_output_late_edges_total", "counter",
+                "Output switch edges applied late.");
+        out.sample("elsinore_output_late_edges_total",
+                outputs.getLateEdges());
+        out.family("elsinore_output_max_lateness_seconds", "gauge",
+                "The latest an output switch edge has been applied.");
+        out.sample("elsinore_output_max_lateness_seconds",
+                outputs.getMaxLateness() / 1000.0);
+
+        out.family("elsinore_output_requested_duty_percent", "gauge",
+                "The duty asked of each output.");
+        for (OutputDevice device : outputs.getDevices()) {
+            out.sample("elsinore_output_requested_duty_percent", "output",
+                    device.getName(), device.getRequestedDuty());
+        }
+        out.family("elsinore_output_achieved_duty_percent", "gauge",
+                "The duty each output actually ran at over its last cycle.");
+        for (OutputDevice device : outputs.getDevices()) {
+            out.sample("elsinore_output_achieved_duty_percent", "output",
+                    device.getName(), device.getAchievedDuty());
+        }
+    }
+}
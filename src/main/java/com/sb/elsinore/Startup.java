@@ -0,0 +1,205 @@
+package com.sb.elsinore;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the phases of startup and times them.
+ *
+ * The configured devices are brought up in parallel, each on its own
+ * thread, since most of the time is spent waiting on 1-Wire, I2C and GPIO
+ * setup. Each device attaches itself as soon as it's ready. A device that
+ * takes longer than the timeout is left to finish in the background, so
+ * one bad probe can't hold up the rest.
+ */
+public final class Startup {
+
+    /**
+     * The System property for the device timeout in milliseconds.
+     */
+    public static final String DEVICE_TIMEOUT = "device_timeout";
+    /**
+     * The default time to wait for a device in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    private final long timeout;
+    private final long startedAt = System.nanoTime();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private final Set<String> pending = new HashSet<>();
+    private volatile boolean complete = false;
+
+    /**
+     * @param timeout The time to wait for each device in milliseconds.
+     */
+    public Startup(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The timeout set by {@link #DEVICE_TIMEOUT}, or the default.
+     */
+    public static long getConfiguredTimeout() {
+        String timeout = System.getProperty(DEVICE_TIMEOUT);
+        if (timeout != null) {
+            try {
+                return Long.parseLong(timeout);
+            } catch (NumberFormatException e) {
+                BrewServer.LOG.warning("Couldn't parse the device timeout: "
+                        + timeout);
+            }
+        }
+        return DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Run a phase on this thread.
+     * @param phase The phase name.
+     * @param task What to run.
+     */
+    public void run(final String phase, final Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            record(phase, start);
+        }
+    }
+
+    /**
+     * Run each task of a phase on its own thread, and wait for them all to
+     * finish or time out.
+     * @param phase The phase name.
+     * @param tasks The tasks, by name.
+     * @return The names of the tasks still running at the timeout.
+     */
+    public List<String> runInParallel(final String phase,
+            final Map<String, Runnable> tasks) {
+        long start = System.nanoTime();
+        List<String> late = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            record(phase, start);
+            return late;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                tasks.size(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "Startup-" + phase + "-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, Runnable> task : tasks.entrySet()) {
+            synchronized (this) {
+                pending.add(task.getKey());
+            }
+            futures.put(task.getKey(), executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long taskStart = System.nanoTime();
+                    try {
+                        task.getValue().run();
+                    } finally {
+                        record(phase + "/" + task.getKey(), taskStart);
+                        synchronized (Startup.this) {
+                            pending.remove(task.getKey());
+                        }
+                    }
+                }
+            }));
+        }
+        // Anything still running finishes in the background
+        executor.shutdown();
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+            try {
+                future.getValue().get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                BrewServer.LOG.warning(future.getKey() + " is still starting after "
+                        + timeout + "ms, carrying on without it");
+                late.add(future.getKey());
+            } catch (ExecutionException e) {
+                BrewServer.LOG.warning("Couldn't start " + future.getKey() + ": "
+                        + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                late.add(future.getKey());
+            }
+        }
+        record(phase, start);
+        return late;
+    }
+
+    /**
+     * Mark startup as finished.
+     */
+    public void complete() {
+        record("total", startedAt);
+        complete = true;
+        BrewServer.LOG.info("Startup took " + getTimings());
+    }
+
+    /**
+     * @return True once everything has been started.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param name The task name.
+     * @return True if the task has been started but hasn't finished.
+     */
+    public synchronized boolean isPending(final String name) {
+        return pending.contains(name);
+    }
+
+    /**
+     * @return The time taken by each phase and task in milliseconds, in the
+     * order they finished.
+     */
+    public synchronized Map<String, Long> getTimings() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(timings));
+    }
+
+    /**
+     * @return The timings and state for the status.
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("complete", complete);
+        json.put("timings", new JSONObject(getTimings()));
+        synchronized (this) {
+            json.put("pending", new ArrayList<>(pending));
+        }
+        return json;
+    }
+
+    private synchronized void record(final String name, final long start) {
+        timings.put(name, TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,351 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.NanoHTTPD.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In memory cache of the static files (html, javascript, css, logos...).
+ *
+ * Files are read once, text files are gzipped once, and each file gets a
+ * strong ETag from its content. A file is checked for changes on disk at
+ * most every {@link #CHECK_INTERVAL} milliseconds and reloaded if needed.
+ * Every file is copied onto the heap, so a file being replaced on disk
+ * can't change the bytes behind an ETag that has already been sent.
+ */
+public final class StaticAssetCache {
+
+    /**
+     * How often a cached file is checked for changes on disk.
+     */
+    public static final long CHECK_INTERVAL = 2000;
+
+    /**
+     * Files bigger than this aren't cached at all.
+     */
+    public static final long MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Cache-Control for files that can change between releases without
+     * changing their name.
+     */
+    public static final String REVALIDATE = "no-cache";
+
+    /**
+     * Cache-Control for the libraries, logos and images.
+     */
+    public static final String LONG_LIVED = "public, max-age=604800";
+
+    /**
+     * Absolute path -> cached file.
+     */
+    private static final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    private StaticAssetCache() {
+    }
+
+    /**
+     * A single cached file, immutable once built.
+     */
+    private static final class Asset {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final ByteBuffer data;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzipETag;
+        private final String mime;
+        private final String cacheControl;
+        private volatile long lastChecked;
+
+        private Asset(final File file, final String path, final String mime)
+                throws IOException {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.mime = mime;
+            this.cacheControl = getCacheControl(path);
+            this.data = read(file);
+
+            CRC32 crc = new CRC32();
+            ByteBuffer copy = data.duplicate();
+            byte[] buffer = new byte[8192];
+            while (copy.hasRemaining()) {
+                int count = Math.min(buffer.length, copy.remaining());
+                copy.get(buffer, 0, count);
+                crc.update(buffer, 0, count);
+            }
+            String hash = Long.toHexString(crc.getValue())
+                    + Long.toHexString(length);
+            this.etag = "\"" + hash + "\"";
+            this.gzipETag = "\"" + hash + "-gz\"";
+            this.gzipped = isCompressible(mime) ? gzip(data) : null;
+            this.lastChecked = System.currentTimeMillis();
+        }
+
+        /**
+         * @return True if the file on disk has changed since it was read.
+         */
+        private boolean isStale() {
+            long now = System.currentTimeMillis();
+            if (now - lastChecked < CHECK_INTERVAL) {
+                return false;
+            }
+            lastChecked = now;
+            return file.lastModified() != lastModified
+                    || file.length() != length;
+        }
+    }
+
+    /**
+     * Read every file under the static directories into the cache.
+     * @param rootDir The root directory.
+     */
+    public static void preload(final File rootDir) {
+        int count = 0;
+        for (String dir : StaticFileIndex.STATIC_DIRS) {
+            count += preload(rootDir, new File(rootDir, dir), dir);
+        }
+        BrewServer.LOG.info("Cached " + count + " static files");
+    }
+
+    private static int preload(final File rootDir, final File file,
+            final String path) {
+        if (file.isDirectory()) {
+            int count = 0;
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    count += preload(rootDir, child,
+                            path + "/" + child.getName());
+                }
+            }
+            return count;
+        }
+        return getAsset(rootDir, path) != null ? 1 : 0;
+    }
+
+    /**
+     * Serve a file from the cache.
+     * @param homeDir The root directory.
+     * @param uri The URI, already stripped of any query string.
+     * @param header The request headers.
+     * @return The response, or null if the file can't be served from the
+     * cache and should be read from disk.
+     */
+    public static Response serve(final File homeDir, final String uri,
+            final Map<String, String> header) {
+        if (header.get("range") != null) {
+            return null;
+        }
+        Asset asset = getAsset(homeDir, StaticFileIndex.normalize(uri));
+        if (asset == null) {
+            return null;
+        }
+
+        boolean useGzip = asset.gzipped != null
+                && acceptsGzip(header.get("accept-encoding"));
+        String etag = useGzip ? asset.gzipETag : asset.etag;
+        Response res;
+        if (matches(header.get("if-none-match"), etag)) {
+            res = new Response(Response.Status.NOT_MODIFIED, asset.mime, "");
+        } else if (useGzip) {
+            res = new Response(Response.Status.OK, asset.mime,
+                    new ByteArrayInputStream(asset.gzipped));
+            res.addHeader("Content-Encoding", "gzip");
+        } else {
+            res = new Response(Response.Status.OK, asset.mime,
+                    new ByteBufferInputStream(asset.data.duplicate()));
+        }
+        res.addHeader("ETag", etag);
+        res.addHeader("Cache-Control", asset.cacheControl);
+        if (asset.gzipped != null) {
+            res.addHeader("Vary", "Accept-Encoding");
+        }
+        return res;
+    }
+
+    /**
+     * Get the cached file, loading or reloading it if needed.
+     * @param homeDir The root directory.
+     * @param path The path relative to the root directory.
+     * @return The cached file, or null if it can't be cached.
+     */
+    private static Asset getAsset(final File homeDir, final String path) {
+        if (!isCacheable(path)) {
+            return null;
+        }
+        File file = new File(homeDir, path);
+        String key = file.getAbsolutePath();
+        Asset asset = assets.get(key);
+        if (asset != null && !asset.isStale()) {
+            return asset;
+        }
+        if (!file.isFile() || file.length() > MAX_SIZE) {
+            assets.remove(key);
+            return null;
+        }
+        try {
+            asset = new Asset(file, path, getMimeType(path));
+            assets.put(key, asset);
+            return asset;
+        } catch (IOException e) {
+            BrewServer.LOG.warning("Couldn't cache " + path + ": "
+                    + e.getMessage());
+            assets.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * @param path The path relative to the root directory.
+     * @return True if the path is under one of the static directories.
+     */
+    private static boolean isCacheable(final String path) {
+        if (path.contains("..")) {
+            return false;
+        }
+        for (String dir : StaticFileIndex.STATIC_DIRS) {
+            if (path.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The app's own files keep their names between releases, so the browser
+     * has to revalidate them. Everything else can be cached for a week.
+     * @param path The path relative to the root directory.
+     * @return The Cache-Control value.
+     */
+    private static String getCacheControl(final String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.endsWith(".html") || name.endsWith(".htm")
+                || name.startsWith("elsinore")
+                || path.startsWith("src/")) {
+            return REVALIDATE;
+        }
+        return LONG_LIVED;
+    }
+
+    private static String getMimeType(final String path) {
+        String mime = null;
+        int dot = path.lastIndexOf('.');
+        if (dot >= 0) {
+            mime = BrewServer.MIME_TYPES.get(
+                    path.substring(dot + 1).toLowerCase());
+        }
+        if (mime == null) {
+            mime = NanoHTTPD.MIME_HTML;
+        }
+        return mime;
+    }
+
+    private static boolean isCompressible(final String mime) {
+        return mime.startsWith("text/") || mime.endsWith("javascript")
+                || mime.endsWith("json") || mime.endsWith("xml")
+                || mime.endsWith("svg+xml");
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        return acceptEncoding != null
+                && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    /**
+     * Check an If-None-Match header against an ETag.
+     * @param ifNoneMatch The header value, may be a list or *.
+     * @param etag The current ETag.
+     * @return True if the client already has this version.
+     */
+    private static boolean matches(final String ifNoneMatch,
+            final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer read(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private static byte[] gzip(final ByteBuffer data) throws IOException {
+        ByteBuffer copy = data.duplicate();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(copy.remaining() / 4, 64));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            byte[] buffer = new byte[8192];
+            while (copy.hasRemaining()) {
+                int count = Math.min(buffer.length, copy.remaining());
+                copy.get(buffer, 0, count);
+                gzip.write(buffer, 0, count);
+            }
+        }
+        byte[] result = out.toByteArray();
+        // Not worth it if it doesn't shrink
+        return result.length < data.remaining() ? result : null;
+    }
+
+    /**
+     * An InputStream over a ByteBuffer, so cached files are sent without
+     * another copy.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
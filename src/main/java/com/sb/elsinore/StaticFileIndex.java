@@ -0,0 +1,156 @@
+package com.sb.elsinore;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An index of the static files under the root directory, built at startup
+ * so the request path doesn't have to stat the disk to find out if a URI
+ * is a file.
+ * Only the directories that ship with Elsinore are indexed, anything else
+ * (logs, graph data, etc...) is still checked on disk.
+ * A miss in an indexed directory starts a rescan in the background, the
+ * request itself never waits on the disk.
+ */
+public final class StaticFileIndex {
+
+    /**
+     * The directories that hold the static files.
+     */
+    public static final String[] STATIC_DIRS = {
+        "html", "bootstrap-v4", "logos", "img",
+        "src/main/java/com/sb/elsinore/nls"
+    };
+
+    /**
+     * The minimum time between two rescans when a file is missing.
+     */
+    public static final long RESCAN_INTERVAL = 5000;
+
+    private final File rootDir;
+    private volatile Set<String> paths = Collections.emptySet();
+    private volatile long lastScan = 0;
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+
+    /**
+     * Build the index for the root directory.
+     * @param rootDir The root directory files are served from.
+     */
+    public StaticFileIndex(final File rootDir) {
+        this.rootDir = rootDir;
+        rescan();
+    }
+
+    /**
+     * Scan the static directories again.
+     */
+    public synchronized void rescan() {
+        Set<String> newPaths = new HashSet<>();
+        for (String dir : STATIC_DIRS) {
+            scan(new File(rootDir, dir), dir, newPaths);
+        }
+        paths = newPaths;
+        lastScan = System.currentTimeMillis();
+        BrewServer.LOG.info("Indexed " + newPaths.size() + " static files");
+    }
+
+    private void scan(final File file, final String path,
+            final Set<String> newPaths) {
+        if (!file.exists()) {
+            return;
+        }
+        newPaths.add(path);
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                scan(child, path + "/" + child.getName(), newPaths);
+            }
+        }
+    }
+
+    /**
+     * Check if the URI points to a file or directory under the root.
+     * @param uri The request URI.
+     * @return True if the file exists.
+     */
+    public boolean exists(final String uri) {
+        String path = normalize(uri);
+        if (path.equals("")) {
+            return false;
+        }
+        if (paths.contains(path)) {
+            return true;
+        }
+        if (!isIndexed(path)) {
+            return new File(rootDir, uri).exists();
+        }
+        // Something may have been added since the last scan
+        if (System.currentTimeMillis() - lastScan > RESCAN_INTERVAL) {
+            rescanLater();
+        }
+        return false;
+    }
+
+    /**
+     * Start a rescan on a background thread, unless one is running already.
+     */
+    private void rescanLater() {
+        if (!scanning.compareAndSet(false, true)) {
+            return;
+        }
+        // Don't start another until this one is done
+        lastScan = System.currentTimeMillis();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rescan();
+                } finally {
+                    scanning.set(false);
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.setName("Static file rescan");
+        t.start();
+    }
+
+    /**
+     * @param path The normalized path.
+     * @return True if the path is under one of the indexed directories.
+     */
+    private boolean isIndexed(final String path) {
+        for (String dir : STATIC_DIRS) {
+            if (path.equals(dir) || path.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Strip the leading and trailing slashes and any query string.
+     * @param uri The URI to normalize.
+     * @return The path relative to the root directory.
+     */
+    static String normalize(final String uri) {
+        String path = uri.replace(File.separatorChar, '/');
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.replace("//", "/");
+    }
+}
@@ -1,15 +1,23 @@
 package com.sb.elsinore;
 
 import com.sb.common.SBStringUtils;
-import org.apache.commons.io.input.ReversedLinesFileReader;
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
+import com.sb.elsinore.timeseries.Downsampler;
+import com.sb.elsinore.timeseries.SeriesData;
+import com.sb.elsinore.timeseries.TimeSeriesStore;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,7 +32,28 @@ public class StatusRecorder implements Runnable {
 
     public static double THRESHOLD = .15d;
     public static long SLEEP = 1000 * 5; // 5 seconds - is this too fast?
+    /**
+     * How often the recorded data is synced to disk, in milliseconds.
+     */
+    public static long SYNC_INTERVAL = TimeSeriesStore.DEFAULT_SYNC_INTERVAL;
+    /**
+     * The number of points per series to send for a graph by default.
+     */
+    public static final int DEFAULT_MAX_POINTS = 1000;
+    /**
+     * Time taken to record each changed status, including any sync.
+     */
+    private static final Histogram WRITE_TIME = Metrics.histogram(
+            "elsinore_recorder_write_seconds",
+            "Time taken to record a changed status.", Histogram.LATENCY);
+    /**
+     * Bytes appended to the raw status log.
+     */
+    private static final Counter LOG_BYTES = Metrics.counter(
+            "elsinore_recorder_log_bytes_written_total",
+            "Bytes appended to the raw status log.");
     private JSONObject lastStatus = null;
+    private long lastVersion = -1;
     private String logFile = null;
     private Thread thread;
     private String recorderDirectory = StatusRecorder.defaultDirectory;
@@ -34,7 +63,13 @@ public class StatusRecorder implements Runnable {
     public static String defaultDirectory = "graph-data/";
     public static String DIRECTORY_PROPERTY = "recorder_directory";
     public static String RECORDER_ENABLED = "recorder_enabled";
-    private String currentDirectory = null;
+    private volatile String currentDirectory = null;
+    private volatile TimeSeriesStore store = null;
+    /**
+     * Read only store for the current directory once the recorder has
+     * stopped, kept so its block indexes are reused between graph reads.
+     */
+    private TimeSeriesStore readStore = null;
 
     public StatusRecorder(String recorderDirectory) {
         this.recorderDirectory = recorderDirectory;
@@ -77,8 +112,8 @@ public class StatusRecorder implements Runnable {
      */
     public void saveReading(String name, BigDecimal value)
     {
-        File tempFile = new File(currentDirectory + name + "-manual.csv");
-        appendToLog(tempFile, new Date().getTime() + "," + value.toPlainString() + "\r\n");
+        appendToStore(name + "-manual", new Date().getTime(),
+                value.toPlainString());
     }
 
     /**
@@ -108,6 +143,8 @@ public class StatusRecorder implements Runnable {
             }
             LaunchControl.setFileOwner(directoryFile.getParentFile());
             LaunchControl.setFileOwner(directoryFile);
+            store = new TimeSeriesStore(directoryFile, SYNC_INTERVAL);
+            closeReadStore();
 
             //Generate a new log file under the current directory
             logFile = currentDirectory + "raw.log";
@@ -120,9 +157,21 @@ public class StatusRecorder implements Runnable {
             while (continueRunning) {
                 //Just going to record when something changes
                 try {
-                    String status = LaunchControl.getJSONStatus();
-                    JSONObject newStatus = (JSONObject) JSONValue.parse(status);
-                    if (lastStatus == null || isDifferent(lastStatus, newStatus)) {
+                    // Skip the parse if the status hasn't changed at all
+                    StatusSnapshot snapshot = StatusSnapshot.current();
+                    JSONObject newStatus = lastStatus;
+                    if (lastStatus == null
+                            || snapshot.getVersion() != lastVersion) {
+                        lastVersion = snapshot.getVersion();
+                        newStatus = (JSONObject) JSONValue.parse(
+                                snapshot.getJson());
+                    }
+                    long start = System.nanoTime();
+                    boolean wrote = false;
+                    if (lastStatus == null
+                            || (newStatus != lastStatus
+                                && isDifferent(lastStatus, newStatus))) {
+                        wrote = true;
                         //For now just log the whole status
                         //Eventually we may want multiple logs, etc.
                         if (writeRawLog) {
@@ -130,10 +179,14 @@ public class StatusRecorder implements Runnable {
                         }
 
                         Date now = new Date();
-                        printJsonToCsv(now, newStatus, currentDirectory);
+                        recordStatus(now, newStatus);
                         lastStatus = newStatus;
                         fileExists = true;
                     }
+                    store.maybeSync();
+                    if (wrote) {
+                        WRITE_TIME.observeSince(start);
+                    }
                 } catch (Exception ioe) {
                     continueRunning = false;
                 }
@@ -141,6 +194,11 @@ public class StatusRecorder implements Runnable {
             }
         } catch (InterruptedException ex) {
             BrewServer.LOG.warning("Status Recorder shutting down");
+        } finally {
+            if (store != null) {
+                store.close();
+                store = null;
+            }
         }
 
     }
@@ -151,14 +209,13 @@ public class StatusRecorder implements Runnable {
     }
 
     /**
-     * Save the status to the directory.
+     * Save the temperature and duty of each vessel to the series store.
      *
      * @param nowDate The current date to save the datapoint for.
      * @param newStatus The JSON Status object to dump
-     * @param directory The graph data directory.
      */
-    protected final void printJsonToCsv(final Date nowDate,
-            final JSONObject newStatus, final String directory) {
+    protected final void recordStatus(final Date nowDate,
+            final JSONObject newStatus) {
         //Now look for differences in the temperature and duty
         long now = nowDate.getTime();
         JSONArray vessels = (JSONArray) newStatus.get("vessels");
@@ -171,9 +228,16 @@ public class StatusRecorder implements Runnable {
                     name = currentTemp.getProbe();
                 }
                 if (vessel.containsKey("tempprobe")) {
-                    String temp = ((JSONObject) vessel.get("tempprobe"))
-                            .get("temp").toString();
-
+                    String temp;
+                    if (currentTemp != null
+                            && currentTemp.getHistory().size() > 0) {
+                        // Use the probe's own latest reading
+                        temp = TimeSeriesStore.formatValue(
+                                currentTemp.getHistory().getLatest());
+                    } else {
+                        temp = ((JSONObject) vessel.get("tempprobe"))
+                                .get("temp").toString();
+                    }
 
                     Status lastStatus = temperatureMap.get(name);
                     if (lastStatus == null) {
@@ -181,11 +245,11 @@ public class StatusRecorder implements Runnable {
                     }
 
                     if (lastStatus.isDifferentEnough(temp)) {
-                        File tempFile = new File(directory + name + "-temp.csv");
+                        String series = name + "-temp";
                         if (now - lastStatus.timestamp > SLEEP * 1.5) {
-                            appendToLog(tempFile, now - SLEEP + "," + lastStatus.value + "\r\n");
+                            appendToStore(series, now - SLEEP, lastStatus.value);
                         }
-                        appendToLog(tempFile, now + "," + temp + "\r\n");
+                        appendToStore(series, now, temp);
 
                         temperatureMap.put(name, new Status(temp, now));
                     }
@@ -206,11 +270,11 @@ public class StatusRecorder implements Runnable {
                     }
 
                     if (!duty.equals(lastStatus.value)) {
-                        File dutyFile = new File(directory + name + "-duty.csv");
+                        String series = name + "-duty";
                         if (now - lastStatus.timestamp > SLEEP * 1.5) {
-                            appendToLog(dutyFile, now - SLEEP + "," + lastStatus.value + "\r\n");
+                            appendToStore(series, now - SLEEP, lastStatus.value);
                         }
-                        appendToLog(dutyFile, now + "," + duty + "\r\n");
+                        appendToStore(series, now, duty);
                         dutyMap.put(name, new Status(duty, now));
                     }
                 }
@@ -219,6 +283,28 @@ public class StatusRecorder implements Runnable {
         }
     }
 
+    /**
+     * Save a reading to a series in the store.
+     *
+     * @param series The name of the series.
+     * @param timestamp The time of the reading.
+     * @param value The value of the reading, skipped if it isn't a number.
+     */
+    protected final void appendToStore(final String series,
+            final long timestamp, final String value) {
+        TimeSeriesStore currentStore = store;
+        if (currentStore == null) {
+            BrewServer.LOG.warning("Recorder isn't running, can't save to "
+                    + series);
+            return;
+        }
+        try {
+            currentStore.append(series, timestamp, Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            BrewServer.LOG.info("Not recording " + value + " for " + series);
+        }
+    }
+
     /**
      * Save the string to the log file.
      *
@@ -230,6 +316,7 @@ public class StatusRecorder implements Runnable {
         try {
             fileWriter = new FileWriter(file, true);
             fileWriter.write(toAppend);
+            LOG_BYTES.inc(toAppend.getBytes(StandardCharsets.UTF_8).length);
         } catch (IOException ex) {
             BrewServer.LOG.warning("Could not save to file: "
                     + file.getAbsolutePath());
@@ -396,10 +483,77 @@ public class StatusRecorder implements Runnable {
         StatusRecorder.SLEEP = time;
     }
 
+    public void setSyncInterval(long interval) {
+        StatusRecorder.SYNC_INTERVAL = interval;
+    }
+
     public String getCurrentDir() {
         return this.currentDirectory;
     }
 
+    /**
+     * @return The series store for the current directory, or a read only
+     * view of it if the recorder has stopped. Null if nothing was recorded.
+     */
+    public TimeSeriesStore getStore() {
+        TimeSeriesStore currentStore = store;
+        if (currentStore != null) {
+            return currentStore;
+        }
+        String directory = currentDirectory;
+        if (directory == null) {
+            return null;
+        }
+        synchronized (this) {
+            File directoryFile = new File(directory);
+            if (readStore == null
+                    || !readStore.getDirectory().equals(directoryFile)) {
+                closeReadStore();
+                readStore = new TimeSeriesStore(directoryFile, SYNC_INTERVAL);
+            }
+            return readStore;
+        }
+    }
+
+    /**
+     * Drop the read only store, the directory is being recorded to again.
+     */
+    private synchronized void closeReadStore() {
+        if (readStore != null) {
+            readStore.close();
+            readStore = null;
+        }
+    }
+
+    /**
+     * Read a long from the request parameters.
+     * @param params The request parameters.
+     * @param key The parameter name.
+     * @param defaultValue The value to use if it's missing or invalid.
+     * @return The parameter value.
+     */
+    private static long getLongParam(Map<String, String> params, String key,
+            long defaultValue) {
+        String value = params.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the graph data for the recorded series.
+     *
+     * Takes the vessel to graph, a from and to range in epoch milliseconds
+     * and maxPoints (zero for every point). Each series is downsampled with
+     * LTTB, or with mode=minmax to keep every peak.
+     * @param params The request parameters.
+     * @return The c3 chart JSON for the series.
+     */
     @SuppressWarnings("unchecked")
     public NanoHTTPD.Response getData(Map<String, String> params) {
         String rootPath;
@@ -410,14 +564,12 @@ public class StatusRecorder implements Runnable {
             return new NanoHTTPD.Response("No app path");
         }
 
-        int size = 1000;
-        if (params.containsKey("size")) {
-            try {
-                size = Integer.parseInt(params.get("size"));
-            } catch (NumberFormatException nfe) {
-                size = 1000;
-            }
-        }
+        // size is the old name for maxPoints
+        int maxPoints = (int) getLongParam(params, "size", DEFAULT_MAX_POINTS);
+        maxPoints = (int) getLongParam(params, "maxPoints", maxPoints);
+        long from = getLongParam(params, "from", Long.MIN_VALUE);
+        long to = getLongParam(params, "to", Long.MAX_VALUE);
+        Downsampler.Mode mode = Downsampler.Mode.parse(params.get("mode"));
 
         String vessel = "";
         if (params.containsKey("vessel")) {
@@ -429,7 +581,17 @@ public class StatusRecorder implements Runnable {
             vesselName = temp.getProbe();
         }
 
-        File[] contents = new File(getCurrentDir()).listFiles();
+        TimeSeriesStore seriesStore = getStore();
+        if (seriesStore == null) {
+            return new NanoHTTPD.Response(NanoHTTPD.Response.Status.BAD_REQUEST, BrewServer.MIME_TYPES.get("json"),
+                    "{Bad: Request}");
+        }
+        List<String> contents = new ArrayList<>();
+        for (String series : seriesStore.listSeries()) {
+            if (series.toLowerCase().startsWith(vesselName.toLowerCase())) {
+                contents.add(series);
+            }
+        }
         JSONObject xsData = new JSONObject();
         JSONObject axes = new JSONObject();
         JSONArray dataBuffer = new JSONArray();
@@ -449,23 +611,22 @@ public class StatusRecorder implements Runnable {
                 BrewServer.LOG.warning(ioe.getLocalizedMessage());
             }
 
-            if (contents == null || zipFile == null) {
+            if (contents.isEmpty() || zipFile == null) {
                 return new NanoHTTPD.Response(NanoHTTPD.Response.Status.BAD_REQUEST, BrewServer.MIME_TYPES.get("json"),
                         "No files.");
             }
 
-            for (File content : contents) {
+            for (String content : contents) {
                 try {
-
-                    if (content.getName().endsWith(".csv")
-                            && content.getName().toLowerCase()
-                            .startsWith(vesselName.toLowerCase())) {
-                        zipFile.addToZipFile(content.getAbsolutePath());
-                    }
+                    // Export in the old CSV format so the download is still
+                    // readable by a spreadsheet
+                    StringWriter csv = new StringWriter();
+                    seriesStore.exportCsv(content, csv);
+                    zipFile.addToZipFile(content + ".csv",
+                            csv.toString().getBytes(StandardCharsets.UTF_8));
                 } catch (IOException ioe) {
                     BrewServer.LOG.warning(
-                            "Couldn't add " + content.getAbsolutePath()
-                                    + " to zipfile");
+                            "Couldn't add " + content + " to zipfile");
                 }
             }
             try {
@@ -477,20 +638,12 @@ public class StatusRecorder implements Runnable {
                     params, new File(rootPath));
         }
 
-        if (contents == null) {
-            return new NanoHTTPD.Response(NanoHTTPD.Response.Status.BAD_REQUEST, BrewServer.MIME_TYPES.get("json"),
-                    "{Bad: Request}");
-        }
         boolean dutyVisible = false;
-        for (File content : contents) {
-            if (content.getName().endsWith(".csv")
-                    && content.getName().toLowerCase()
-                    .startsWith(vesselName.toLowerCase())) {
-                String name = content.getName();
+        for (String content : contents) {
+            if (content.lastIndexOf("-") > 0) {
+                String name = content;
                 String localName;
 
-                // Strip off .csv
-                name = name.substring(0, name.length() - 4);
                 localName = name.substring(0, name.lastIndexOf("-"));
                 String type = name.substring(name.lastIndexOf("-") + 1);
                 Temp localTemp = LaunchControl.findTemp(localName);
@@ -527,57 +680,33 @@ public class StatusRecorder implements Runnable {
                 xArray.add("x" + axisName);
                 dataArray.add(axisName);
 
-                ReversedLinesFileReader reader = null;
                 try {
-                    reader = new ReversedLinesFileReader(content);
-                    String line;
-                    String[] lArray ;
-
-                    int count = 0;
-                    try {
-                        while ((line = reader.readLine()) != null && count < size) {
-                            // Each line contains the timestamp and the value
-                            lArray = line.split(",");
-                            BrewServer.LOG.info("Line: " + line + ". Split: " + lArray.length);
-                            if (lArray.length != 2) {
-                                continue;
-                            }
-                            long timestamp = Long.parseLong(lArray[0]);
-                            // If this is the first element, add an extra one on.
-                            if (count == 0 && timestamp != currentTime) {
-                                xArray.add(BrewDay.mFormat
-                                        .format(new Date(currentTime)));
-                                dataArray.add(lArray[1].trim());
-                            }
-                            xArray.add(BrewDay.mFormat
-                                            .format(new Date(timestamp))
-                            );
-                            dataArray.add(lArray[1].trim());
-                            count++;
+                    SeriesData data = seriesStore.query(content, from, to,
+                            maxPoints, mode);
+                    // Timestamps are sent as epoch milliseconds, which the
+                    // chart reads directly
+                    for (int i = 0; i < data.size(); i++) {
+                        double value = data.getValue(i);
+                        if (Double.isNaN(value) || Double.isInfinite(value)) {
+                            continue;
                         }
-                    } catch (Exception e) {
-                        // Do nothing. File doesn't have any data.
-                        BrewServer.LOG.info("Error when reading for temperature: " + content.getAbsolutePath());
+                        xArray.add(data.getTimestamp(i));
+                        dataArray.add(value);
+                    }
+                    // Carry the last value on to now for live graphs.
+                    int last = data.size() - 1;
+                    if (last >= 0 && to == Long.MAX_VALUE
+                            && data.getTimestamp(last) < currentTime) {
+                        xArray.add(currentTime);
+                        dataArray.add(data.getValue(last));
                     }
-
-
 
                     dataBuffer.add(xArray);
                     dataBuffer.add(dataArray);
-                    BrewServer.LOG.info("Read: " + count);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    if (reader != null) {
-                        try {
-                            reader.close();
-                        } catch (Exception e) {
-                            BrewServer.LOG.warning("Couldn't close file: "
-                                    + content.getAbsolutePath());
-                        }
-                    }
+                } catch (IOException e) {
+                    BrewServer.LOG.warning("Couldn't read series " + content
+                            + ": " + e.getMessage());
                 }
-
             }
         }
 
@@ -0,0 +1,332 @@
+package com.sb.elsinore;
+
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Metrics;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable, versioned copy of the status JSON served by /getstatus.
+ *
+ * Devices call {@link #publish()} when something that shows up in the status
+ * changes (a new temperature reading, a duty change, an HTTP edit, etc...).
+ * The JSON is only rebuilt the next time someone asks for it after a publish,
+ * so any number of pollers share the same serialized String and bytes.
+ * Anything that changes without publishing is picked up after
+ * {@link #MAX_AGE} milliseconds at the latest.
+ *
+ * Each vessel keeps its part of the JSON in a {@link Fragment}. A probe
+ * reading only marks its own fragment as changed, so a rebuild serializes
+ * the vessels that changed and reuses the rest. {@link #publish()} is for
+ * changes that aren't tied to one vessel, it rebuilds every fragment.
+ */
+public final class StatusSnapshot {
+
+    /**
+     * The longest time a snapshot will be reused without a publish.
+     */
+    public static final long MAX_AGE = 5000;
+
+    /**
+     * The charset used for the cached bytes.
+     */
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Bumped every time something publishes a change.
+     */
+    private static final AtomicLong changeCounter = new AtomicLong(1);
+
+    /**
+     * Bumped by {@link #publish()}, every fragment built before is stale.
+     */
+    private static final AtomicLong epoch = new AtomicLong(1);
+
+    /**
+     * Snapshots and fragments by whether they were reused or rebuilt.
+     */
+    private static final Counter CACHE = Metrics.counter(
+            "elsinore_status_cache_total",
+            "Status snapshots and vessel fragments, reused or rebuilt.",
+            "part", "result");
+    private static final Counter.Child SNAPSHOT_HITS =
+            CACHE.labels("snapshot", "hit");
+    private static final Counter.Child SNAPSHOT_BUILDS =
+            CACHE.labels("snapshot", "rebuilt");
+    private static final Counter.Child FRAGMENT_HITS =
+            CACHE.labels("fragment", "hit");
+    private static final Counter.Child FRAGMENT_BUILDS =
+            CACHE.labels("fragment", "rebuilt");
+
+    /**
+     * Builds the JSON for one fragment.
+     */
+    public interface Builder {
+        /**
+         * @return The JSON for the fragment.
+         */
+        String build();
+    }
+
+    /**
+     * One vessel's part of the status, only rebuilt when that vessel
+     * changes, after a {@link #publish()}, or after {@link #MAX_AGE}.
+     */
+    public static final class Fragment {
+        private final AtomicLong changes = new AtomicLong();
+        private volatile Json cached = null;
+
+        /**
+         * Mark this fragment as out of date, and the snapshot with it.
+         * Call it after the new values are set.
+         */
+        public void changed() {
+            changes.incrementAndGet();
+            signal();
+        }
+
+        /**
+         * @param builder Builds the JSON if the cached copy is out of date.
+         * @return The JSON, to be added to the status as it is.
+         */
+        public JSONAware get(final Builder builder) {
+            Json json = cached;
+            long now = System.currentTimeMillis();
+            if (json != null && json.epoch == epoch.get()
+                    && json.changes == changes.get()
+                    && now - json.createdAt < MAX_AGE) {
+                FRAGMENT_HITS.inc();
+                return json;
+            }
+            // Read the counters first so a change while building is seen
+            long builtEpoch = epoch.get();
+            long builtChanges = changes.get();
+            json = new Json(builder.build(), builtEpoch, builtChanges, now);
+            cached = json;
+            FRAGMENT_BUILDS.inc();
+            return json;
+        }
+    }
+
+    /**
+     * Already serialized JSON, written into the status as it is.
+     */
+    private static final class Json implements JSONAware, JSONStreamAware {
+        private final String json;
+        private final long epoch;
+        private final long changes;
+        private final long createdAt;
+
+        Json(final String json, final long epoch, final long changes,
+                final long createdAt) {
+            this.json = json;
+            this.epoch = epoch;
+            this.changes = changes;
+            this.createdAt = createdAt;
+        }
+
+        @Override
+        public String toJSONString() {
+            return json;
+        }
+
+        @Override
+        public void writeJSONString(final Writer out) throws IOException {
+            out.write(json);
+        }
+    }
+
+    /**
+     * Only bumped when a rebuild actually produces different JSON.
+     */
+    private static long contentVersion = 0;
+
+    /**
+     * Prefix for the ETag so a restart doesn't reuse old versions.
+     */
+    private static final String ETAG_PREFIX =
+            Long.toHexString(System.currentTimeMillis());
+
+    /**
+     * The most recently built snapshot.
+     */
+    private static volatile StatusSnapshot current = null;
+
+    /**
+     * Lock used to wake up the threads waiting in {@link #awaitChange}.
+     */
+    private static final Object changeLock = new Object();
+
+    /**
+     * The number of threads waiting for a change.
+     */
+    private static final AtomicInteger waiting = new AtomicInteger(0);
+
+    private final long version;
+    private final long changeCount;
+    private final long createdAt;
+    private final String json;
+    private final byte[] bytes;
+    private final String etag;
+    private volatile JSONObject parsed = null;
+
+    private StatusSnapshot(final long version, final long changeCount,
+            final long createdAt, final String json) {
+        this.version = version;
+        this.changeCount = changeCount;
+        this.createdAt = createdAt;
+        this.json = json;
+        this.bytes = json.getBytes(UTF8);
+        this.etag = "\"" + ETAG_PREFIX + "-" + version + "\"";
+    }
+
+    /**
+     * Mark the current snapshot and every fragment as out of date.
+     * Devices with a {@link Fragment} should mark that instead.
+     */
+    public static void publish() {
+        epoch.incrementAndGet();
+        signal();
+    }
+
+    /**
+     * Mark the snapshot as out of date and wake anyone waiting for it.
+     */
+    private static void signal() {
+        changeCounter.incrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (changeLock) {
+                changeLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Block until something publishes a change after the given snapshot
+     * was built, or the timeout expires.
+     * @param snapshot The snapshot the caller already has, may be null.
+     * @param timeout The maximum time to wait in milliseconds.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public static void awaitChange(final StatusSnapshot snapshot,
+            final long timeout) throws InterruptedException {
+        if (snapshot == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        waiting.incrementAndGet();
+        try {
+            synchronized (changeLock) {
+                long remaining = timeout;
+                while (snapshot.changeCount == changeCounter.get()
+                        && remaining > 0) {
+                    changeLock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the current snapshot, rebuilding it if something has changed.
+     * @return The current status snapshot.
+     */
+    public static StatusSnapshot current() {
+        StatusSnapshot snapshot = current;
+        if (snapshot != null && snapshot.isFresh()) {
+            SNAPSHOT_HITS.inc();
+            return snapshot;
+        }
+
+        synchronized (StatusSnapshot.class) {
+            snapshot = current;
+            if (snapshot != null && snapshot.isFresh()) {
+                SNAPSHOT_HITS.inc();
+                return snapshot;
+            }
+            SNAPSHOT_BUILDS.inc();
+            // Read the counter before building, a change that happens while
+            // we build will cause the next caller to rebuild again.
+            long changeCount = changeCounter.get();
+            String json = LaunchControl.buildJSONStatus();
+            long newVersion;
+            if (snapshot != null && snapshot.json.equals(json)) {
+                newVersion = snapshot.version;
+            } else {
+                newVersion = ++contentVersion;
+            }
+            snapshot = new StatusSnapshot(newVersion, changeCount,
+                    System.currentTimeMillis(), json);
+            current = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return True if nothing has been published since this was built.
+     */
+    private boolean isFresh() {
+        return changeCount == changeCounter.get()
+                && System.currentTimeMillis() - createdAt < MAX_AGE;
+    }
+
+    /**
+     * @return The version of the JSON content, only changes with the content.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The strong ETag for this snapshot, including the quotes.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * @return The status JSON String.
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Get the status as a parsed JSONObject, this is shared between all the
+     * callers so do not modify it.
+     * @return The parsed status JSON.
+     */
+    public JSONObject getJSONObject() {
+        JSONObject result = parsed;
+        if (result == null) {
+            result = (JSONObject) JSONValue.parse(json);
+            parsed = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the UTF-8 encoded JSON, this is shared so do not modify it.
+     * @return The encoded status JSON.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The time this snapshot was built in milliseconds.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
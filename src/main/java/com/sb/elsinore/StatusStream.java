@@ -0,0 +1,280 @@
+package com.sb.elsinore;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Server-Sent Events stream of the status for a single client.
+ *
+ * The first event is the full status ("status"), after that only the
+ * vessels, switches, timers, etc... that changed are sent as a "delta" event.
+ * If something is added or removed the full status is sent again.
+ * The stream blocks in {@link #read(byte[], int, int)} until the
+ * {@link StatusSnapshot} changes, so an idle connection costs nothing but
+ * a heartbeat comment every {@link #HEARTBEAT} milliseconds.
+ */
+public final class StatusStream extends InputStream {
+
+    /**
+     * The time between keep alive comments when nothing changes.
+     */
+    public static final long HEARTBEAT = 15000;
+
+    /**
+     * The minimum time between two events, to coalesce bursts of changes.
+     */
+    public static final long MIN_INTERVAL = 250;
+
+    /**
+     * Keys in the status object that are maps of name -> status.
+     */
+    private static final String[] KEYED_SECTIONS = {
+        "switches", "timers", "triggers", "phSensors"
+    };
+
+    /**
+     * The number of open streams.
+     */
+    private static final AtomicInteger openStreams = new AtomicInteger(0);
+
+    /**
+     * The default limit on open streams.
+     */
+    public static final int DEFAULT_MAX_STREAMS = 16;
+
+    /**
+     * Each stream holds a thread, so only allow this many at once.
+     */
+    private static volatile int maxStreams = DEFAULT_MAX_STREAMS;
+
+    private StatusSnapshot lastSent = null;
+    private long lastSentAt = 0;
+    private byte[] pending = new byte[0];
+    private int pendingPos = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Use {@link #open()}, which reserves the slot for the stream.
+     */
+    private StatusStream() {
+    }
+
+    /**
+     * Open a stream if there's a free slot.
+     * @return The new stream, or null if too many are open.
+     */
+    public static StatusStream open() {
+        int open;
+        do {
+            open = openStreams.get();
+            if (open >= maxStreams) {
+                return null;
+            }
+        } while (!openStreams.compareAndSet(open, open + 1));
+        return new StatusStream();
+    }
+
+    /**
+     * @return The number of clients currently streaming the status.
+     */
+    public static int getOpenStreams() {
+        return openStreams.get();
+    }
+
+    /**
+     * @param newMax The maximum number of streams that can be open at once.
+     */
+    public static void setMaxStreams(final int newMax) {
+        maxStreams = newMax;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        if (read <= 0) {
+            return -1;
+        }
+        return single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        if (closed) {
+            return -1;
+        }
+        if (pendingPos >= pending.length) {
+            try {
+                pending = nextEvent().getBytes(StatusSnapshot.UTF8);
+                pendingPos = 0;
+            } catch (InterruptedException e) {
+                close();
+                return -1;
+            }
+        }
+        int count = Math.min(length, pending.length - pendingPos);
+        System.arraycopy(pending, pendingPos, buffer, offset, count);
+        pendingPos += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            openStreams.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait for the next change and build the event for it.
+     * @return The next SSE event, or a heartbeat comment.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    private String nextEvent() throws InterruptedException {
+        if (lastSent == null) {
+            lastSent = StatusSnapshot.current();
+            lastSentAt = System.currentTimeMillis();
+            // Tell the browser to reconnect quickly if we go away
+            return "retry: 2000\n" + event("status", lastSent.getJson());
+        }
+
+        long heartbeatAt = System.currentTimeMillis() + HEARTBEAT;
+        while (true) {
+            long wait = lastSentAt + MIN_INTERVAL - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            StatusSnapshot.awaitChange(lastSent,
+                    Math.max(heartbeatAt - System.currentTimeMillis(), 1));
+            StatusSnapshot snapshot = StatusSnapshot.current();
+            if (snapshot.getVersion() != lastSent.getVersion()) {
+                JSONObject delta = getDelta(lastSent.getJSONObject(),
+                        snapshot.getJSONObject());
+                lastSent = snapshot;
+                lastSentAt = System.currentTimeMillis();
+                if (delta == null) {
+                    return event("status", snapshot.getJson());
+                }
+                if (!delta.isEmpty()) {
+                    return event("delta", delta.toJSONString());
+                }
+            } else {
+                // A publish that didn't change the content
+                lastSent = snapshot;
+            }
+            if (System.currentTimeMillis() >= heartbeatAt) {
+                return ": ping\n\n";
+            }
+        }
+    }
+
+    /**
+     * Format a Server-Sent Event.
+     * @param name The event name.
+     * @param data The single line JSON data.
+     * @return The formatted event.
+     */
+    private String event(final String name, final String data) {
+        return "id: " + lastSent.getVersion() + "\n"
+                + "event: " + name + "\n"
+                + "data: " + data + "\n\n";
+    }
+
+    /**
+     * Get the parts of the status that changed between two snapshots.
+     * @param oldStatus The status the client already has.
+     * @param newStatus The new status.
+     * @return The changed parts, or null if the full status needs to be sent.
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject getDelta(final JSONObject oldStatus,
+            final JSONObject newStatus) {
+        if (!oldStatus.keySet().equals(newStatus.keySet())) {
+            return null;
+        }
+        JSONObject delta = new JSONObject();
+        for (Object key : newStatus.keySet()) {
+            Object oldValue = oldStatus.get(key);
+            Object newValue = newStatus.get(key);
+            if (newValue == null ? oldValue == null : newValue.equals(oldValue)) {
+                continue;
+            }
+
+            if ("vessels".equals(key)) {
+                JSONArray vessels = getVesselDelta((JSONArray) oldValue,
+                        (JSONArray) newValue);
+                if (vessels == null) {
+                    return null;
+                }
+                delta.put(key, vessels);
+            } else if (isKeyedSection(key)
+                    && oldValue instanceof JSONObject
+                    && newValue instanceof JSONObject) {
+                JSONObject oldSection = (JSONObject) oldValue;
+                JSONObject newSection = (JSONObject) newValue;
+                if (!oldSection.keySet().equals(newSection.keySet())) {
+                    return null;
+                }
+                JSONObject section = new JSONObject();
+                for (Object name : newSection.keySet()) {
+                    Object entry = newSection.get(name);
+                    if (entry == null ? oldSection.get(name) != null
+                            : !entry.equals(oldSection.get(name))) {
+                        section.put(name, entry);
+                    }
+                }
+                delta.put(key, section);
+            } else {
+                delta.put(key, newValue);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Get the vessels that changed, matched by name.
+     * @param oldVessels The old vessel list.
+     * @param newVessels The new vessel list.
+     * @return The changed vessels, or null if vessels were added/removed.
+     */
+    @SuppressWarnings("unchecked")
+    private static JSONArray getVesselDelta(final JSONArray oldVessels,
+            final JSONArray newVessels) {
+        if (oldVessels == null || newVessels == null
+                || oldVessels.size() != newVessels.size()) {
+            return null;
+        }
+        Map<Object, Object> oldByName = new HashMap<>();
+        for (Object vessel : oldVessels) {
+            oldByName.put(((JSONObject) vessel).get("name"), vessel);
+        }
+        JSONArray changed = new JSONArray();
+        for (Object vessel : newVessels) {
+            Object name = ((JSONObject) vessel).get("name");
+            if (!oldByName.containsKey(name)) {
+                return null;
+            }
+            if (!vessel.equals(oldByName.get(name))) {
+                changed.add(vessel);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isKeyedSection(final Object key) {
+        for (String section : KEYED_SECTIONS) {
+            if (section.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,7 +1,7 @@
 package com.sb.elsinore;
 
+import com.sb.elsinore.devices.GpioPin;
 import jGPIO.InvalidGPIOException;
-import jGPIO.OutPin;
 
 /**
  * A helper class for switch control. not very complex. Designed to control a
@@ -21,7 +21,7 @@ public class Switch implements Comparable<Switch> {
     /**
      * the outpin for the switch.
      */
-    private OutPin output = null;
+    private GpioPin output = null;
     private boolean invertOutput = false;
     private int position = -1;
 
@@ -52,33 +52,32 @@ public class Switch implements Comparable<Switch> {
             this.invertOutput = true;
         }
 
-        this.output = new OutPin(pinName);
+        this.output = GpioPin.open(pinName);
         this.turnOff();
     }
 
     public void setName(String name){
         this.name = name;
+        LaunchControl.switchList.reindex();
     }
 
 
     public void setGPIO(String gpio) throws InvalidGPIOException {
-        if (!this.output.getGPIOName().equalsIgnoreCase(gpio))
+        if (!this.output.getName().equalsIgnoreCase(gpio))
         {
+            GpioPin newOutput = GpioPin.open(gpio);
             this.output.close();
-            this.output = new OutPin(gpio);
+            this.output = newOutput;
         }
     }
 
     /**
      * @return The current state of the switch, true for on. False for off.
+     * This is the state last set, the pin isn't read.
      */
     public final boolean getStatus() {
         try {
-            if (this.invertOutput) {
-                return output.getValue().equals("0");
-            } else {
-                return output.getValue().equals("1");
-            }
+            return output.get() != this.invertOutput;
         } catch (Exception e) {
             BrewServer.LOG.warning("Couldn't toggle switch: " + e);
             return false;
@@ -89,22 +88,14 @@ public class Switch implements Comparable<Switch> {
      * Turn on the switch.
      */
     public final void turnOn() {
-        if (this.invertOutput) {
-            output.setValue(false);
-        } else {
-            output.setValue(true);
-        }
+        output.set(!this.invertOutput);
     }
 
     /**
      * Turn off the switch.
      */
     public final void turnOff() {
-        if (this.invertOutput) {
-            output.setValue(true);
-        } else {
-            output.setValue(false);
-        }
+        output.set(this.invertOutput);
     }
 
     /**
@@ -118,7 +109,7 @@ public class Switch implements Comparable<Switch> {
      * @return The current GPIO Pin.
      */
     public final String getGPIO() {
-        return output.getGPIOName();
+        return output.getName();
     }
 
     /**
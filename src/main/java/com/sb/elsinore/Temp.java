@@ -1,28 +1,29 @@
 package com.sb.elsinore;
 import com.sb.elsinore.devices.I2CDevice;
+import com.sb.elsinore.inputs.AnalogFilter;
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
 import com.sb.util.MathUtil;
 import javax.annotation.Nonnull;
 import jGPIO.GPIO.Direction;
 import jGPIO.InPin;
 import jGPIO.InvalidGPIOException;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,7 +35,7 @@ import org.owfs.jowfsclient.OwfsException;
  * @author Doug Edey
  *
  */
-public final class Temp implements Runnable, Comparable<Temp> {
+public final class Temp implements Comparable<Temp> {
 
     /**
      * Strings for the Nodes.
@@ -43,6 +44,39 @@ public final class Temp implements Runnable, Comparable<Temp> {
     public static final String PROBE_ELEMENT = "probe";
     public static final String POSITION = "position";
 
+    /**
+     * Time taken to read each probe, by probe address.
+     */
+    static final Histogram READ_TIME = Metrics.histogram(
+            "elsinore_probe_read_seconds",
+            "Time taken to read a temperature probe.",
+            Histogram.LATENCY, "probe");
+    /**
+     * Readings thrown away for a bad CRC, by probe address.
+     */
+    static final Counter CRC_FAILURES = Metrics.counter(
+            "elsinore_probe_crc_failures_total",
+            "Readings thrown away for a bad CRC.", "probe");
+    /**
+     * Failed readings of any kind, by probe address.
+     */
+    static final Counter READ_ERRORS = Metrics.counter(
+            "elsinore_probe_read_errors_total",
+            "Temperature readings that failed.", "probe");
+
+    /**
+     * Told about every good reading of a probe.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that read the probe, so keep it short.
+         * @param temp The probe.
+         * @param time The time of the reading in milliseconds.
+         * @param value The reading in the probe's scale.
+         */
+        void reading(Temp temp, long time, double value);
+    }
+
     /**
      * Valid sizes for the probes
      */
@@ -58,9 +92,22 @@ public final class Temp implements Runnable, Comparable<Temp> {
      */
     public MathContext context = new MathContext(2, RoundingMode.HALF_DOWN);
     public static BigDecimal FREEZING = new BigDecimal(32);
-    public static BigDecimal ERROR_TEMP = new BigDecimal(-999);
+    public static final double ERROR_TEMP = -999;
     private boolean badTemp = false;
-    private boolean keepalive = true;
+    /**
+     * This probe's vessel in the status, rebuilt when it changes.
+     */
+    private final StatusSnapshot.Fragment status =
+            new StatusSnapshot.Fragment();
+    private volatile boolean keepalive = true;
+    /**
+     * Is the temperature read by a bulk read of the 1-Wire bus.
+     */
+    private volatile boolean readByBus = false;
+    /**
+     * Reads the probe file, kept open between readings.
+     */
+    private SensorFileReader fileReader = null;
     private boolean hidden = false;
     public boolean cutoffEnabled = false;
 
@@ -87,7 +134,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
      */
     public void save() {
         if (name != null && !name.equals("")) {
-            LaunchControl.addTempToConfig(this);
+            LaunchControl.saveTemp(this);
         }
     }
 
@@ -113,6 +160,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
                 } else {
                     BrewServer.LOG.warning(
                             "Couldn't find a valid system temperature probe");
+                    lookUpMetrics();
                     return;
                 }
             }
@@ -159,36 +207,53 @@ public final class Temp implements Runnable, Comparable<Temp> {
 
         this.probeName = aName;
         this.name = name;
+        lookUpMetrics();
         BrewServer.LOG.info(this.probeName + " added.");
     }
 
     /**
-     * The Runnable loop.
+     * Look up this probe's metrics once, by its address.
      */
-    public void run() {
-
-        while (keepalive) {
-            if (updateTemp().equals(ERROR_TEMP)) {
-                if (fProbe != null && fProbe.equals(
-                        "/sys/class/thermal/thermal_zone0/temp")) {
-                    return;
-                }
-                // Uh(oh no file found, disable output to prevent logging floods
-                loggingOn = false;
-            } else {
-                loggingOn = true;
-            }
+    private void lookUpMetrics() {
+        readTimeMetric = READ_TIME.labels(probeName);
+        readErrorsMetric = READ_ERRORS.labels(probeName);
+        crcFailuresMetric = CRC_FAILURES.labels(probeName);
+    }
 
-            if (volumeMeasurement) {
-                updateVolume();
+    /**
+     * Read the probe once, called by the scheduler every {@link #PERIOD}.
+     * @return False once this probe should stop being read.
+     */
+    public boolean sample() {
+        if (!keepalive) {
+            return false;
+        }
+        if (readByBus) {
+            // The bus reads the temperature, keep measuring the volume
+            loggingOn = true;
+        } else if (updateTemp() == ERROR_TEMP) {
+            if (fProbe != null && fProbe.equals(
+                    "/sys/class/thermal/thermal_zone0/temp")) {
+                return false;
             }
+            // Uh(oh no file found, disable output to prevent logging floods
+            loggingOn = false;
+        } else {
+            loggingOn = true;
+        }
 
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        if (volumeMeasurement) {
+            updateVolume();
         }
+        return keepalive;
+    }
+
+    /**
+     * @return This probe's vessel in the status, mark it changed when
+     * anything shown for the vessel changes.
+     */
+    public StatusSnapshot.Fragment getStatusFragment() {
+        return status;
     }
 
     /**
@@ -196,6 +261,13 @@ public final class Temp implements Runnable, Comparable<Temp> {
      */
     public void setName(final String n) {
         this.name = n;
+        // The PID is found by the probe's name too
+        LaunchControl.tempList.reindex();
+        LaunchControl.pidList.reindex();
+        PID pid = LaunchControl.findPID(getName());
+        if (pid != null) {
+            pid.renamed();
+        }
     }
 
     /**
@@ -237,6 +309,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
             }
             // Create the temp
             this.cutoffTemp= new BigDecimal(number);
+            this.cutoffValue = this.cutoffTemp.doubleValue();
         } else {
             BrewServer.LOG.severe(cutoffTemp + " doesn't match "
                     + tempRegexp.pattern());
@@ -258,10 +331,15 @@ public final class Temp implements Runnable, Comparable<Temp> {
     public String currentError = null;
 
     /**
-     * The current temp.
+     * The current temp, in this probe's scale without the calibration.
+     * Kept as a double so reading and control don't allocate.
      */
-    private BigDecimal currentTemp = new BigDecimal(0),
-            currentVolume = new BigDecimal(0),
+    private double currentTemp = 0;
+    /**
+     * The cutoff and calibration as doubles, for checking every reading.
+     */
+    private double cutoffValue = -999.0, calibrationValue = 0;
+    private BigDecimal currentVolume = new BigDecimal(0),
             cutoffTemp = new BigDecimal(-999.0),
             volumeConstant = new BigDecimal(0),
             volumeMultiplier = new BigDecimal(0.0),
@@ -271,6 +349,31 @@ public final class Temp implements Runnable, Comparable<Temp> {
      * The current timestamp.
      */
     private long currentTime = 0;
+    /**
+     * When the reading being recorded was taken, if it wasn't just now.
+     */
+    private long readTime = 0;
+    /**
+     * This probe's metrics, looked up once rather than on every reading.
+     */
+    private Histogram.Child readTimeMetric;
+    private Counter.Child readErrorsMetric, crcFailuresMetric;
+    /**
+     * The time between readings in milliseconds.
+     */
+    public static final long PERIOD = 500;
+    /**
+     * The number of readings kept in the history, a minute at 500ms.
+     */
+    public static final int HISTORY_SIZE = 120;
+    /**
+     * The latest readings, in this probe's scale.
+     */
+    private final TempHistory history = new TempHistory(HISTORY_SIZE);
+    /**
+     * Told about each new reading.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     /**
      * Other strings, obviously named.
      */
@@ -289,12 +392,39 @@ public final class Temp implements Runnable, Comparable<Temp> {
      * The baselist of volume measurements.
      */
     private ConcurrentHashMap<BigDecimal, BigDecimal> volumeBase = null;
+    /**
+     * The volume measurements compiled for lookups, null until there are
+     * two usable points.
+     */
+    private volatile VolumeCalibration volumeCalibration = null;
+    /**
+     * Interpolate the volume along a spline rather than linearly.
+     */
+    private boolean volumeSpline = false;
+    /**
+     * The current volume as a double, to only publish changes.
+     */
+    private double currentVolumeValue = 0;
 
     /**
      * The input pin to read.
      */
     private InPin volumePin = null;
     private boolean stopVolumeLogging;
+    /**
+     * The filter applied to the volume readings.
+     */
+    private AnalogFilter volumeFilter = new AnalogFilter();
+    /**
+     * Reads one sample from the volume input.
+     */
+    private final AnalogFilter.Source volumeSource =
+            new AnalogFilter.Source() {
+                @Override
+                public double read() throws Exception {
+                    return readVolumeSample();
+                }
+            };
     private BigDecimal calibration = BigDecimal.ZERO;
     private TriggerControl triggerControl = null;
     private int position = -1;
@@ -303,11 +433,14 @@ public final class Temp implements Runnable, Comparable<Temp> {
      * @return Get the current temperature
      */
     public BigDecimal getTemp() {
-        // set up the reader
-        if (scale.equals("F")) {
-            return getTempF();
-        }
-        return getTempC();
+        return MathUtil.toBigDecimal(getTempValue());
+    }
+
+    /**
+     * @return The current temperature in this probe's scale.
+     */
+    public double getTempValue() {
+        return currentTemp + calibrationValue;
     }
 
     /**
@@ -325,7 +458,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
 
         if (s.equalsIgnoreCase("F")) {
             // Do we need to convert the cutoff temp
-            if (cutoffTemp.compareTo(ERROR_TEMP) != 0
+            if (cutoffValue != ERROR_TEMP
                     && !scale.equalsIgnoreCase(s)) {
                 this.cutoffTemp = cToF(cutoffTemp);
             }
@@ -337,13 +470,17 @@ public final class Temp implements Runnable, Comparable<Temp> {
 
         if (s.equalsIgnoreCase("C")) {
             // Do we need to convert the cutoff temp
-            if (cutoffTemp.compareTo(ERROR_TEMP) != 0
+            if (cutoffValue != ERROR_TEMP
                     && !scale.equalsIgnoreCase(s)) {
                 this.cutoffTemp = fToC(cutoffTemp);
             }
             this.calibration = this.calibration.divide(new BigDecimal(1.8), context);
             this.scale = s;
         }
+        this.cutoffValue = this.cutoffTemp.doubleValue();
+        this.calibrationValue = this.calibration.doubleValue();
+        // The old readings are in the old scale
+        this.history.clear();
         BrewServer.LOG.warning("Cut off is now: " + this.cutoffTemp);
     }
 
@@ -351,20 +488,34 @@ public final class Temp implements Runnable, Comparable<Temp> {
      * @return The current temperature in fahrenheit.
      */
     public BigDecimal getTempF() {
+        return MathUtil.toBigDecimal(getTempFValue());
+    }
+
+    /**
+     * @return The current temperature in celsius.
+     */
+    public BigDecimal getTempC() {
+        return MathUtil.toBigDecimal(getTempCValue());
+    }
+
+    /**
+     * @return The current temperature in fahrenheit.
+     */
+    public double getTempFValue() {
         if (scale.equals("F")) {
-            return currentTemp.add(this.calibration);
+            return getTempValue();
         }
-        return cToF(currentTemp.add(this.calibration));
+        return cToF(getTempValue());
     }
 
     /**
      * @return The current temperature in celsius.
      */
-    public BigDecimal getTempC() {
+    public double getTempCValue() {
         if (scale.equals("C")) {
-            return currentTemp.add(this.calibration);
+            return getTempValue();
         }
-        return fToC(currentTemp.add(this.calibration));
+        return fToC(getTempValue());
     }
 
     /**
@@ -387,12 +538,72 @@ public final class Temp implements Runnable, Comparable<Temp> {
         return t;
     }
 
+    /**
+     * @param currentTemp temperature to convert in Fahrenheit
+     * @return Temperature in celsius
+     */
+    public static double fToC(final double currentTemp) {
+        return (currentTemp - 32) * 5 / 9;
+    }
+
+    /**
+     * @param currentTemp temperature to convert in Celsius
+     * @return Temperature in Fahrenheit
+     */
+    public static double cToF(final double currentTemp) {
+        return currentTemp * 9 / 5 + 32;
+    }
+
     /**
      * @return The current timestamp.
      */
     public long getTime() {
         return currentTime;
     }
+
+    /**
+     * @return The ID of the kernel 1-Wire device for this probe, null if
+     * it isn't read through the kernel driver.
+     */
+    public String getW1Id() {
+        String prefix = "/sys/bus/w1/devices/";
+        String suffix = "/w1_slave";
+        if (fProbe == null || !fProbe.startsWith(prefix)
+                || !fProbe.endsWith(suffix)) {
+            return null;
+        }
+        return fProbe.substring(prefix.length(),
+                fProbe.length() - suffix.length());
+    }
+
+    /**
+     * @param bus True if a bulk read of the 1-Wire bus reads this probe,
+     *            rather than reading it separately.
+     */
+    public void setReadByBus(final boolean bus) {
+        this.readByBus = bus;
+    }
+
+    /**
+     * @return The latest readings of this probe, in its scale.
+     */
+    public TempHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @param listener Told about every good reading from now on.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener No longer told about readings.
+     */
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
     
     /**
      * @return The current cutoff temp.
@@ -404,27 +615,65 @@ public final class Temp implements Runnable, Comparable<Temp> {
     /**
      * @return The current temperature as read. -999 if it's bad.
      */
-    public BigDecimal updateTemp() {
-        BigDecimal result;
+    public double updateTemp() {
+        double result;
+        String previousError = currentError;
 
         if (badTemp && currentError != null && currentError.equals("")) {
             BrewServer.LOG.warning("Trying to recover " + this.getName());
         }
+        long start = System.nanoTime();
         if (fProbe == null) {
             result = updateTempFromOWFS();
         } else {
             result = updateTempFromFile();
         }
+        readTimeMetric.observeSince(start);
+        return recordReading(result, previousError);
+    }
+
+    /**
+     * Record a reading taken for this probe by a bulk read of its bus.
+     * @param celsius The reading in Celsius, -999 if it failed.
+     * @param error Why the reading failed.
+     * @return The current temperature as read. -999 if it's bad.
+     */
+    public double updateTemp(final double celsius, final String error) {
+        String previousError = currentError;
+        if (celsius == ERROR_TEMP) {
+            currentError = error;
+        }
+        return recordReading(celsius, previousError);
+    }
 
-        if (result.equals(ERROR_TEMP)) {
+    /**
+     * Record a new reading, publishing any change.
+     * @param reading The reading in Celsius, -999 if it failed.
+     * @param previousError The error before the reading was taken.
+     * @return The current temperature as read. -999 if it's bad.
+     */
+    private double recordReading(final double reading,
+            final String previousError) {
+        double result = reading;
+        boolean batched = readTime > 0;
+        long time = batched ? readTime : System.currentTimeMillis();
+        readTime = 0;
+        if (result == ERROR_TEMP) {
+            readErrorsMetric.inc();
+            boolean changed = !badTemp
+                    || !Objects.equals(previousError, currentError);
             badTemp = true;
+            if (changed) {
+                status.changed();
+            }
             return result;
         }
 
         if (badTemp) {
             badTemp = false;
             BrewServer.LOG.warning("Recovered temperature reading for " + this.getName());
-            if (this.currentError.startsWith("Could"))
+            if (this.currentError != null
+                    && this.currentError.startsWith("Could"))
             {
                 this.currentError = "";
             }
@@ -435,12 +684,25 @@ public final class Temp implements Runnable, Comparable<Temp> {
             result = cToF(result);
         }
 
+        boolean changed = currentTemp != result || previousError != null;
         currentTemp = result;
-        currentTime = System.currentTimeMillis();
         currentError = null;
+        if (changed) {
+            status.changed();
+        }
+        if (batched && time <= currentTime) {
+            // The batched value this came from is already recorded
+            return result;
+        }
+        currentTime = time;
+        double value = getTempValue();
+        history.add(currentTime, value);
+        for (Listener listener : listeners) {
+            listener.reading(this, currentTime, value);
+        }
 
         if (cutoffEnabled
-                && currentTemp.compareTo(cutoffTemp) >= 0) {
+                && currentTemp >= cutoffValue) {
             BrewServer.LOG.log(Level.SEVERE,
                 currentTemp + ": ****** CUT OFF TEMPERATURE ("
                 + cutoffTemp + ") EXCEEDED *****");
@@ -452,19 +714,22 @@ public final class Temp implements Runnable, Comparable<Temp> {
     /**
      * @return Get the current temperature from the OWFS server
      */
-    public BigDecimal updateTempFromOWFS() {
+    public double updateTempFromOWFS() {
         // Use the OWFS connection
-        if (probeName.equals("Blank")) { return new BigDecimal(0.0);}
-        BigDecimal temp = ERROR_TEMP;
+        if (probeName.equals("Blank")) { return 0.0;}
+        double temp = ERROR_TEMP;
         String rawTemp = "";
         try {
-            rawTemp = LaunchControl.readOWFSPath(probeName + "/temperature");
+            String path = probeName + "/temperature";
+            rawTemp = LaunchControl.readOWFSPath(path);
+            // The value may come from the last batch read
+            readTime = LaunchControl.getOWFSReadTime(path);
             if (rawTemp.equals("")) {
+                // The reader checks again for missing paths itself
                 BrewServer.LOG.severe(
                     "Couldn't find the probe " + probeName + " for " + name);
-                LaunchControl.setupOWFS();
             } else {
-                temp = new BigDecimal(rawTemp);
+                temp = Double.parseDouble(rawTemp.trim());
             }
         } catch (IOException e) {
             currentError = "Couldn't read " + probeName;
@@ -472,7 +737,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
         } catch (OwfsException e) {
             currentError = "Couldn't read " + probeName;
             BrewServer.LOG.log(Level.SEVERE, currentError, e);
-            LaunchControl.setupOWFS();
+            LaunchControl.reconnectOWFS();
         } catch (NumberFormatException e) {
             currentError = "Couldn't parse" + rawTemp;
             BrewServer.LOG.log(Level.SEVERE, currentError, e);
@@ -482,36 +747,31 @@ public final class Temp implements Runnable, Comparable<Temp> {
     }
 
     /**
-     * @return The current temperature read directly from the file system.
+     * @return The current temperature read directly from the file system,
+     * -999 if there's no good reading, like a bulk read of the bus.
      */
-    public BigDecimal updateTempFromFile() {
-        BufferedReader br = null;
-        String temp = null;
-        
-        BigDecimal newTemperature = null;
+    public double updateTempFromFile() {
+        double newTemperature = ERROR_TEMP;
+
+        SensorFileReader reader = fileReader;
+        if (reader == null || !reader.getPath().equals(fProbe)) {
+            if (reader != null) {
+                reader.close();
+            }
+            reader = new SensorFileReader(fProbe);
+            fileReader = reader;
+        }
 
         try {
-            br = new BufferedReader(new FileReader(fProbe));
-            String line = br.readLine();
-            
-            if (line == null || line.contains("NO")) {
-                // bad CRC, do nothing
+            long milliDegrees = reader.read();
+            if (milliDegrees == SensorFileReader.BAD_CRC) {
+                // bad CRC, the previous reading isn't a new one
                 this.currentError = "Bad CRC from " + fProbe;
-            } else if (line.contains("YES")) {
-                // good CRC
-                line = br.readLine();
-                // last value should be t=
-                int t = line.indexOf("t=");
-                temp = line.substring(t + 2);
-                BigDecimal tTemp = new BigDecimal(temp);
-                newTemperature = MathUtil.divide(tTemp, 1000);
-                this.currentError = null;
+                crcFailuresMetric.inc();
             } else {
-                // System Temperature
-                BigDecimal tTemp = new BigDecimal(line);
-                newTemperature = MathUtil.divide(tTemp, 1000);
+                newTemperature = milliDegrees / 1000.0;
+                this.currentError = null;
             }
-
         } catch (IOException ie) {
             if (loggingOn) {
                 this.currentError = "Couldn't find the device under: " + fProbe;
@@ -522,20 +782,8 @@ public final class Temp implements Runnable, Comparable<Temp> {
             }
             return ERROR_TEMP;
         } catch (NumberFormatException nfe) {
-            this.currentError = "Couldn't parse " + temp + " as a double";
+            this.currentError = "Couldn't parse " + reader.getText() + " as a double";
             nfe.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException ie) {
-                    BrewServer.LOG.warning(ie.getLocalizedMessage());
-                }
-            }
-        }
-        if( newTemperature == null )
-        {
-            newTemperature = getTempC();
         }
         return newTemperature;
     }
@@ -694,111 +942,117 @@ public final class Temp implements Runnable, Comparable<Temp> {
      */
     public BigDecimal updateVolume() {
         try {
-            BigDecimal pinValue;
-            if (volumeAIN != -1) {
-                pinValue = new BigDecimal(volumePin.readValue());
-            } else if (volumeAddress != null && volumeOffset != null) {
-                try {
-                    pinValue = new BigDecimal(
-                        LaunchControl.readOWFSPath(
-                            volumeAddress + "/volt." + volumeOffset));
-                    if (this.stopVolumeLogging) {
-                        BrewServer.LOG.log(Level.SEVERE,
-                            "Recovered volume level reading for " + this.name);
-                        this.stopVolumeLogging = false;
-                    }
-                } catch (Exception e) {
-                    if (!this.stopVolumeLogging) {
-                        BrewServer.LOG.log(Level.SEVERE,
-                            "Could not update the volume reading from OWFS");
-                        this.stopVolumeLogging = true;
-                    }
-                    BrewServer.LOG.info("Reconnecting OWFS");
-                    LaunchControl.setupOWFS();
-
-                    return BigDecimal.ZERO;
-                }
-
-            } else {
+            if (!hasVolumeInput()) {
                 return BigDecimal.ZERO;
             }
-
-            // Are we outside of the known range?
-            BigDecimal curKey = null, prevKey = null;
-            BigDecimal curValue = null, prevValue = null;
-            SortedSet<BigDecimal> keys = null;
+            double reading;
             try {
-                keys = Collections.synchronizedSortedSet(
-                    new TreeSet<>(volumeBase.keySet()));
-            } catch (NullPointerException npe) {
-                // No VolumeBase setup, so we're probably calibrating
-                return pinValue;
+                if (isVolumeOwfs()) {
+                    // OWFS returns the latest conversion, so one sample will do
+                    reading = volumeFilter.update(readVolumeSample());
+                } else {
+                    reading = volumeFilter.update(volumeSource);
+                }
+                if (this.stopVolumeLogging) {
+                    BrewServer.LOG.log(Level.SEVERE,
+                        "Recovered volume level reading for " + this.name);
+                    this.stopVolumeLogging = false;
+                }
             } catch (Exception e) {
-                BrewServer.LOG.log(Level.SEVERE,
-                    "Uncaught exception when creating the volume set", e);
-                System.exit(-1);
-            }
-
-            BigDecimal tVolume = null;
-
-            try  {
-                for (BigDecimal key: keys) {
-                    if (prevKey == null) {
-                        prevKey = key;
-                        prevValue = volumeBase.get(key);
-                        continue;
-                    } else if (curKey != null) {
-                        prevKey = curKey;
-                        prevValue = curValue;
-                    }
-
-                    curKey = key;
-                    curValue = volumeBase.get(key);
-
-                    if (pinValue.compareTo(prevValue) >= 0
-                            && pinValue.compareTo(curValue) <= 0) {
-                        // We have a set encompassing the values!
-                        // assume it's linear
-                        BigDecimal volRange = curKey.subtract(prevKey);
-                        BigDecimal readingRange = curValue.subtract(prevValue);
-                        BigDecimal ratio = MathUtil.divide(pinValue.subtract(prevValue),readingRange);
-                        BigDecimal volDiff = ratio.multiply(volRange);
-                        tVolume = volDiff.add(prevKey);
-                    }
-
+                if (!this.stopVolumeLogging) {
+                    BrewServer.LOG.log(Level.SEVERE,
+                        "Could not update the volume reading for "
+                        + this.name, e);
+                    this.stopVolumeLogging = true;
                 }
-
-                if (tVolume == null && curKey != null) {
-                    // Try to extrapolate
-                    BigDecimal volRange = curKey.subtract(prevKey);
-                    BigDecimal readingRange = curValue.subtract(prevValue);
-                    BigDecimal ratio = MathUtil.divide(pinValue.subtract(prevValue),readingRange);
-                    BigDecimal volDiff = ratio.multiply(volRange);
-                    tVolume = volDiff.add(prevKey);
+                if (isVolumeOwfs()) {
+                    BrewServer.LOG.info("Reconnecting OWFS");
+                    LaunchControl.reconnectOWFS();
                 }
-
-            } catch (NoSuchElementException e) {
-                // no more elements
-                BrewServer.LOG.info("Finished reading Volume Elements");
+                return BigDecimal.ZERO;
             }
+            BigDecimal pinValue = MathUtil.toBigDecimal(reading);
 
-            if (tVolume == null) {
-                // try to assume the value
-                this.currentVolume = pinValue.subtract(volumeConstant)
-                        .multiply(volumeMultiplier);
+            VolumeCalibration calibration = this.volumeCalibration;
+            double volume;
+            if (calibration != null) {
+                volume = calibration.getVolume(reading);
+            } else if (volumeBase == null) {
+                // No VolumeBase setup, so we're probably calibrating
+                return pinValue;
             } else {
-                this.currentVolume = tVolume;
+                // try to assume the value
+                volume = pinValue.subtract(volumeConstant)
+                        .multiply(volumeMultiplier).doubleValue();
             }
 
-            this.currentVolume = this.currentVolume.multiply(this.gravity);
+            volume *= this.gravity.doubleValue();
+            if (volume != this.currentVolumeValue) {
+                this.currentVolumeValue = volume;
+                this.currentVolume = MathUtil.toBigDecimal(volume);
+                status.changed();
+            }
 
             return pinValue;
-        } catch (RuntimeException | IOException e) {
+        } catch (RuntimeException e) {
             e.printStackTrace();
         }
         return BigDecimal.ZERO;
     }
 
+    /**
+     * @return True if there is an input to read the volume from.
+     */
+    private boolean hasVolumeInput() {
+        return volumePin != null || isVolumeOwfs()
+                || (i2cDevice != null && i2cChannel > -1);
+    }
+
+    /**
+     * @return True if the volume is read through OWFS.
+     */
+    private boolean isVolumeOwfs() {
+        return volumePin == null && volumeAddress != null
+                && volumeAddress.length() > 0 && volumeOffset != null
+                && volumeOffset.length() > 0;
+    }
+
+    /**
+     * Read one sample from the volume input.
+     * @return The sample.
+     * @throws Exception If the input can't be read.
+     */
+    private double readVolumeSample() throws Exception {
+        if (volumePin != null) {
+            return Double.parseDouble(volumePin.readValue());
+        } else if (isVolumeOwfs()) {
+            return Double.parseDouble(LaunchControl.readOWFSPath(
+                    volumeAddress + "/volt." + volumeOffset));
+        } else if (i2cDevice == null || i2cChannel < 0) {
+            throw new IOException("No volume input for " + this.name);
+        }
+        float value = i2cDevice.readValue(i2cChannel);
+        if (value < 0) {
+            throw new IOException("Failed to read " + i2cDevice.getDevName()
+                    + " channel " + i2cChannel);
+        }
+        return value;
+    }
+
+    /**
+     * @return The filter applied to the volume readings.
+     */
+    public AnalogFilter getVolumeFilter() {
+        return this.volumeFilter;
+    }
+
+    /**
+     * @param filter The filter to apply to the volume readings.
+     */
+    public void setVolumeFilter(final AnalogFilter filter) {
+        this.volumeFilter = filter;
+    }
+
     /**
      * @param unit Unit to set the volume units to.
      */
@@ -818,29 +1072,13 @@ public final class Temp implements Runnable, Comparable<Temp> {
         BigDecimal total = new BigDecimal(0);
         for (int i = 0; i < maxReads.intValue(); i++) {
             try {
-                try {
-                    if (this.volumePin != null) {
-                        total = total.add(new BigDecimal(
-                            this.volumePin.readValue()));
-                    } else {
-                        try {
-                            total = total.add(new BigDecimal(
-                                LaunchControl.readOWFSPath(
-                                    volumeAddress + "/volt." + volumeOffset)));
-                        } catch (OwfsException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } catch (RuntimeException re) {
-                    re.printStackTrace();
-                    return false;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-                }
+                total = total.add(MathUtil.toBigDecimal(readVolumeSample()));
             } catch (NumberFormatException  e) {
                 BrewServer.LOG.warning("Bad Analog input value!");
                 return false;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
             }
 
             try {
@@ -870,10 +1108,37 @@ public final class Temp implements Runnable, Comparable<Temp> {
     public void addVolumeMeasurement(
             final BigDecimal key, final BigDecimal value) {
         BrewServer.LOG.info("Adding " + key + " with value " + value);
-        if (volumeBase == null) {
-            this.volumeBase = new ConcurrentHashMap<>();
+        synchronized (this) {
+            if (volumeBase == null) {
+                this.volumeBase = new ConcurrentHashMap<>();
+            }
+            this.volumeBase.put(key, value);
+            compileVolume();
         }
-        this.volumeBase.put(key, value);
+    }
+
+    /**
+     * Compile the volume measurements for lookups.
+     */
+    private synchronized void compileVolume() {
+        this.volumeCalibration =
+                VolumeCalibration.compile(volumeBase, volumeSpline);
+    }
+
+    /**
+     * @param spline True to interpolate the volume along a monotone spline
+     *               rather than linearly between measurements.
+     */
+    public void setVolumeSpline(final boolean spline) {
+        this.volumeSpline = spline;
+        compileVolume();
+    }
+
+    /**
+     * @return True if the volume is interpolated along a spline.
+     */
+    public boolean isVolumeSpline() {
+        return this.volumeSpline;
     }
 
     /**
@@ -963,7 +1228,27 @@ public final class Temp implements Runnable, Comparable<Temp> {
         // Graceful shutdown.
         keepalive = false;
         BrewServer.LOG.warning(this.getName() + " is shutting down");
-        Thread.currentThread().interrupt();
+        SensorFileReader reader = fileReader;
+        if (reader != null) {
+            reader.close();
+        }
+        READ_TIME.remove(probeName);
+        READ_ERRORS.remove(probeName);
+        CRC_FAILURES.remove(probeName);
+    }
+
+    /**
+     * @return The time taken to read this probe, for a bulk read of its bus.
+     */
+    Histogram.Child getReadTimeMetric() {
+        return readTimeMetric;
+    }
+
+    /**
+     * @return The bad CRCs read from this probe, for a bulk read of its bus.
+     */
+    Counter.Child getCrcFailuresMetric() {
+        return crcFailuresMetric;
     }
 
     public void setCalibration(String calibration) {
@@ -988,6 +1273,7 @@ public final class Temp implements Runnable, Comparable<Temp> {
             // Create the temp
             BigDecimal temperature = new BigDecimal(number);
             this.calibration = temperature.setScale(2, BigDecimal.ROUND_DOWN);
+            this.calibrationValue = this.calibration.doubleValue();
         } else {
             BrewServer.LOG.severe(calibration + " doesn't match "
                     + tempRegexp.pattern());
@@ -0,0 +1,276 @@
+package com.sb.elsinore;
+
+/**
+ * A fixed size ring buffer of the latest readings from a probe.
+ *
+ * Alongside each reading the buffer keeps running (prefix) sums of the
+ * value, the time and their products, so the mean, variance and slope of
+ * any number of the latest readings are O(1) and never allocate. The sums
+ * are rebuilt relative to the oldest reading every time the buffer turns
+ * over, which keeps them small enough not to lose precision.
+ */
+public final class TempHistory {
+
+    /**
+     * Default smoothing factor for the exponential moving average.
+     */
+    public static final double DEFAULT_EMA_ALPHA = 0.2;
+
+    private final int capacity;
+    private final int slots;
+    private final long[] times;
+    private final double[] values;
+    /*
+     * Prefix sums up to and including each slot. There is one more slot
+     * than the capacity so the sums just before the oldest reading are
+     * always still available.
+     */
+    private final double[] sumV, sumVV, sumT, sumTT, sumTV;
+    private final double emaAlpha;
+
+    private int last = 0;
+    private int size = 0;
+    private int sinceRebase = 0;
+    private long baseTime = 0;
+    private double ema = Double.NaN;
+
+    /**
+     * @param capacity The number of readings to keep.
+     */
+    public TempHistory(final int capacity) {
+        this(capacity, DEFAULT_EMA_ALPHA);
+    }
+
+    /**
+     * @param capacity The number of readings to keep.
+     * @param emaAlpha The smoothing factor for the EMA, between 0 and 1.
+     */
+    public TempHistory(final int capacity, final double emaAlpha) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        this.times = new long[slots];
+        this.values = new double[slots];
+        this.sumV = new double[slots];
+        this.sumVV = new double[slots];
+        this.sumT = new double[slots];
+        this.sumTT = new double[slots];
+        this.sumTV = new double[slots];
+        this.emaAlpha = emaAlpha;
+    }
+
+    /**
+     * Add a reading, replacing the oldest one when the buffer is full.
+     * @param time The time of the reading in milliseconds.
+     * @param value The reading.
+     */
+    public synchronized void add(final long time, final double value) {
+        if (size == 0) {
+            // The current slot becomes the empty sums before the first one
+            baseTime = time;
+            setSums(last, 0, 0, 0, 0, 0);
+        }
+        int previous = last;
+        last = (last + 1) % slots;
+        times[last] = time;
+        values[last] = value;
+        if (size < capacity) {
+            size++;
+        }
+        setSums(last, sumV[previous], sumVV[previous], sumT[previous],
+                sumTT[previous], sumTV[previous]);
+        addToSums(last);
+
+        if (Double.isNaN(ema)) {
+            ema = value;
+        } else {
+            ema += emaAlpha * (value - ema);
+        }
+
+        if (++sinceRebase >= capacity) {
+            rebase();
+        }
+    }
+
+    /**
+     * Clear all the readings.
+     */
+    public synchronized void clear() {
+        size = 0;
+        sinceRebase = 0;
+        ema = Double.NaN;
+    }
+
+    /**
+     * @return The number of readings held.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of readings held.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The latest reading, NaN if there isn't one.
+     */
+    public synchronized double getLatest() {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        return values[last];
+    }
+
+    /**
+     * @return The time of the latest reading, 0 if there isn't one.
+     */
+    public synchronized long getLatestTime() {
+        if (size == 0) {
+            return 0;
+        }
+        return times[last];
+    }
+
+    /**
+     * @return The exponential moving average of every reading so far.
+     */
+    public synchronized double getEma() {
+        return ema;
+    }
+
+    /**
+     * @return The mean of all the readings held.
+     */
+    public double getMean() {
+        return getMean(capacity);
+    }
+
+    /**
+     * @param count The number of latest readings to use.
+     * @return The mean of the readings, NaN if there aren't any.
+     */
+    public synchronized double getMean(final int count) {
+        int n = Math.min(count, size);
+        if (n <= 0) {
+            return Double.NaN;
+        }
+        return windowSum(sumV, n) / n;
+    }
+
+    /**
+     * @param time The earliest time to include, in milliseconds.
+     * @return The mean of the readings after the time, or the latest
+     * reading if they're all older. NaN if there aren't any.
+     */
+    public synchronized double getMeanSince(final long time) {
+        return getMean(Math.max(countSince(time), 1));
+    }
+
+    /**
+     * @param time The earliest time to include, in milliseconds.
+     * @return The number of latest readings taken after the time.
+     */
+    public synchronized int countSince(final long time) {
+        int count = 0;
+        while (count < size && times[(last - count + slots) % slots] > time) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The population variance of all the readings held.
+     */
+    public double getVariance() {
+        return getVariance(capacity);
+    }
+
+    /**
+     * @param count The number of latest readings to use.
+     * @return The population variance, NaN if there aren't any readings.
+     */
+    public synchronized double getVariance(final int count) {
+        int n = Math.min(count, size);
+        if (n <= 0) {
+            return Double.NaN;
+        }
+        double mean = windowSum(sumV, n) / n;
+        double variance = windowSum(sumVV, n) / n - mean * mean;
+        return Math.max(variance, 0);
+    }
+
+    /**
+     * @return The slope of all the readings held in degrees per minute.
+     */
+    public double getSlope() {
+        return getSlope(capacity);
+    }
+
+    /**
+     * The least squares slope of the latest readings.
+     * @param count The number of latest readings to use.
+     * @return The slope in degrees per minute, 0 if there aren't two
+     * readings at different times.
+     */
+    public synchronized double getSlope(final int count) {
+        int n = Math.min(count, size);
+        if (n < 2) {
+            return 0;
+        }
+        double st = windowSum(sumT, n);
+        double denominator = n * windowSum(sumTT, n) - st * st;
+        if (denominator <= 0) {
+            return 0;
+        }
+        return (n * windowSum(sumTV, n) - st * windowSum(sumV, n))
+                / denominator;
+    }
+
+    private double windowSum(final double[] sums, final int n) {
+        return sums[last] - sums[(last - n + slots) % slots];
+    }
+
+    private void setSums(final int slot, final double v, final double vv,
+            final double t, final double tt, final double tv) {
+        sumV[slot] = v;
+        sumVV[slot] = vv;
+        sumT[slot] = t;
+        sumTT[slot] = tt;
+        sumTV[slot] = tv;
+    }
+
+    private void addToSums(final int slot) {
+        double value = values[slot];
+        double minutes = (times[slot] - baseTime) / 60000.0;
+        sumV[slot] += value;
+        sumVV[slot] += value * value;
+        sumT[slot] += minutes;
+        sumTT[slot] += minutes * minutes;
+        sumTV[slot] += minutes * value;
+    }
+
+    /**
+     * Rebuild the sums relative to the oldest reading.
+     */
+    private void rebase() {
+        int oldest = (last - size + 1 + slots) % slots;
+        int before = (oldest - 1 + slots) % slots;
+        baseTime = times[oldest];
+        setSums(before, 0, 0, 0, 0, 0);
+        int previous = before;
+        for (int i = 0; i < size; i++) {
+            int slot = (oldest + i) % slots;
+            setSums(slot, sumV[previous], sumVV[previous], sumT[previous],
+                    sumTT[previous], sumTV[previous]);
+            addToSums(slot);
+            previous = slot;
+        }
+        sinceRebase = 0;
+    }
+}
@@ -27,6 +27,7 @@ public class Timer implements Comparable<Timer> {
      */
     public void setName(String newName) {
         this.name = newName;
+        LaunchControl.timerList.reindex();
     }
 
     public String getName() {
@@ -1,14 +1,13 @@
 package com.sb.elsinore;
 
 import com.sb.common.CollectionsUtil;
+import com.sb.elsinore.config.TriggerConfig;
 import com.sb.elsinore.triggers.TriggerInterface;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.reflections.Reflections;
 import org.rendersnake.HtmlCanvas;
 import org.rendersnake.tools.PrettyWriter;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import java.io.IOException;
 import java.io.StringWriter;
@@ -17,6 +16,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.rendersnake.HtmlAttributesFactory.*;
 
@@ -24,11 +24,16 @@ import static org.rendersnake.HtmlAttributesFactory.*;
  * This class is for storing the mash steps.
  * It automatically updating the process as it goes.
  *
+ * The active step is checked on the {@link ControlScheduler} rather than
+ * on a thread of its own. Each step is only checked when it's started,
+ * when it wakes this control (a probe it watches has a new reading) or
+ * at the deadline it asked for, and the next step starts in the same tick.
+ *
  * @author Doug Edey
  *
  */
 
-public class TriggerControl implements Runnable {
+public class TriggerControl {
 
     public static final String NAME = "triggers";
     /**
@@ -39,7 +44,33 @@ public class TriggerControl implements Runnable {
     /**
      * A flag to tell the thread to shutdown.
      */
-    private boolean shutdownFlag = false;
+    private volatile boolean shutdownFlag = false;
+
+    /**
+     * Set when the active step should be checked on the next tick.
+     */
+    private final AtomicBoolean woken = new AtomicBoolean(false);
+
+    /**
+     * Set when a step is activated, to start it again even if it's the
+     * one already running.
+     */
+    private final AtomicBoolean restart = new AtomicBoolean(false);
+
+    /**
+     * The step that's been started, only used by the scheduler thread.
+     */
+    private TriggerInterface running = null;
+
+    /**
+     * When the running step next needs checking, if it isn't woken.
+     */
+    private long nextCheck = TriggerInterface.NEVER;
+
+    /**
+     * The task checking the steps, null if not started.
+     */
+    private ControlScheduler.Registration task = null;
 
     /**
      * The list of mash steps, position -> Step.
@@ -239,57 +270,107 @@ public class TriggerControl implements Runnable {
     }
 
     /**
-     * A loop to run for the thread that checks the states.
+     * Start checking the steps on the scheduler, if it isn't already.
+     * @param scheduler The scheduler to run on.
      */
-    @Override
-    public final void run() {
-        // Run through and update the times based on the currently active step
-        TriggerInterface triggerEntry = getCurrentTrigger();
+    public final synchronized void start(final ControlScheduler scheduler) {
+        shutdownFlag = false;
+        if (task == null || task.isCancelled()) {
+            task = scheduler.schedule("Triggers_" + outputControl,
+                    ControlScheduler.Phase.CONTROL, scheduler.getTick(),
+                    new ControlScheduler.Task() {
+                        @Override
+                        public boolean run(final long now) {
+                            return checkTriggers(now);
+                        }
+                    });
+        }
+        wake();
+    }
 
-        TriggerInterface currentTrigger = null;
-        Integer currentTriggerPosition = -1;
+    /**
+     * Check the active step on the next tick.
+     * Safe to call from any thread.
+     */
+    public final void wake() {
+        woken.set(true);
+    }
 
-        // active step
-        if (triggerEntry != null) {
-            currentTrigger = triggerEntry;
-            currentTriggerPosition = triggerEntry.getPosition();
+    /**
+     * Check the active step if it's due, moving on to the next step as
+     * each one fires. Called by the scheduler every tick.
+     * @param now The current time in milliseconds.
+     * @return False once this control is shut down.
+     */
+    public final boolean checkTriggers(final long now) {
+        if (isShutdownFlag()) {
+            stopRunning();
+            return false;
+        }
+        boolean wakeUp = woken.getAndSet(false);
+        if (restart.getAndSet(false)) {
+            stopRunning();
+        }
+        if (running != null && (!running.isActive()
+                || wakeUp && !triggerList.contains(running))) {
+            // Deactivated or deleted
+            stopRunning();
+            wakeUp = true;
         }
 
-        while (true) {
-            // Is there a step and an output control?
-            if (currentTrigger == null) {
-                triggerEntry = getCurrentTrigger();
-
-                // active step
-                if (triggerEntry != null) {
-                    currentTrigger = triggerEntry;
-                    currentTriggerPosition = triggerEntry.getPosition();
-                    BrewServer.LOG.warning("Found an active mash step: "
-                        + currentTriggerPosition);
-                }
+        if (running == null) {
+            if (!wakeUp) {
+                return true;
             }
-
-            if (currentTrigger != null) {
-                // Do stuff with the active step
-                currentTrigger.waitForTrigger();
-                currentTrigger.deactivate(false);
-                currentTriggerPosition += 1;
-                if (currentTriggerPosition >= this.triggerCount()) {
-                    return;
-                }
-                currentTrigger = getTrigger(currentTriggerPosition);
-                currentTrigger.setActive();
+            TriggerInterface current = getCurrentTrigger();
+            if (current == null) {
+                return true;
             }
-            try {
-                // Sleep for 10 seconds
-                Thread.sleep(10000);
-            } catch (InterruptedException e) {
-                // We got woken up.
+            BrewServer.LOG.info("Starting step " + current.getPosition()
+                    + " for " + outputControl);
+            startRunning(current, now);
+        } else if (!wakeUp && now < nextCheck) {
+            return true;
+        }
+
+        // Steps that fire straight away are all run in this tick
+        for (int i = 0; i < triggerList.size(); i++) {
+            long next = running.checkTrigger(now);
+            if (next != TriggerInterface.FIRED) {
+                nextCheck = next;
+                return true;
             }
-            if (isShutdownFlag()) {
-                return;
+            TriggerInterface fired = running;
+            stopRunning();
+            fired.deactivate(false);
+            int position = fired.getPosition() + 1;
+            if (position >= this.triggerCount()) {
+                StatusSnapshot.publish();
+                return true;
             }
+            TriggerInterface nextTrigger = getTrigger(position);
+            nextTrigger.setActive();
+            StatusSnapshot.publish();
+            startRunning(nextTrigger, now);
         }
+        // Carry on next tick
+        nextCheck = now;
+        return true;
+    }
+
+    private void startRunning(final TriggerInterface trigger,
+            final long now) {
+        running = trigger;
+        nextCheck = now;
+        trigger.startTrigger(this, now);
+    }
+
+    private void stopRunning() {
+        if (running != null) {
+            running.stopTrigger();
+            running = null;
+        }
+        nextCheck = TriggerInterface.NEVER;
     }
 
     /**
@@ -315,6 +396,8 @@ public class TriggerControl implements Runnable {
         }
 
         triggerEntry.setActive();
+        restart.set(true);
+        wake();
         LaunchControl.saveSettings();
         return true;
     }
@@ -367,6 +450,7 @@ public class TriggerControl implements Runnable {
                 mEntry.deactivate(fromUI);
             }
         }
+        wake();
         LaunchControl.saveSettings();
         return true;
     }
@@ -445,8 +529,8 @@ public class TriggerControl implements Runnable {
         // No more steps, turn off the MashControl
         if (triggerList.size() == 0) {
             setShutdownFlag(true);
-            Thread.currentThread().interrupt();
         }
+        wake();
         LaunchControl.saveSettings();
     }
 
@@ -500,6 +584,7 @@ public class TriggerControl implements Runnable {
 
     public void clear() {
         this.triggerList.clear();
+        wake();
         LaunchControl.saveSettings();
     }
 
@@ -508,39 +593,35 @@ public class TriggerControl implements Runnable {
         LaunchControl.saveSettings();
     }
 
-    public void saveTriggers(Element rootElement)
+    /**
+     * @return The settings of the steps, to be saved.
+     */
+    public List<TriggerConfig> getConfig()
     {
-        Element triggersRoot = rootElement;
-        if (!rootElement.getNodeName().equals(NAME))
-        {
-            triggersRoot = LaunchControl.addNewElement(rootElement, NAME);
-        }
-
+        List<TriggerConfig> configs = new ArrayList<>();
         for (TriggerInterface triggerInterface: triggerList) {
-            triggerInterface.updateElement(triggersRoot);
+            configs.add(triggerInterface.getConfig());
         }
+        return Collections.unmodifiableList(configs);
     }
 
-    public void readTriggers(Element rootElement)
+    /**
+     * Add the saved steps.
+     * @param triggers The settings of the steps.
+     */
+    public void readTriggers(List<TriggerConfig> triggers)
     {
-        Element triggersElement = rootElement;
-        if (!NAME.equals(rootElement.getNodeName()))
-        {
-            triggersElement = LaunchControl.addNewElement(rootElement, NAME);
-        }
-        NodeList triggers = triggersElement.getElementsByTagName(TriggerInterface.NAME);
-        for(int i = 0; i < triggers.getLength(); i++)
+        for (TriggerConfig trigger: triggers)
         {
-            Element trigger = (Element) triggers.item(i);
-            String type = trigger.getAttribute(TriggerInterface.TYPE);
-            Class<? extends TriggerInterface> triggerInterface = TriggerControl.getTriggerOfName(type);
+            Class<? extends TriggerInterface> triggerInterface = TriggerControl.getTriggerOfName(trigger.type);
             if (triggerInterface != null)
             {
                 try {
                     TriggerInterface triggerStep = triggerInterface.newInstance();
                     if (!triggerStep.readTrigger(trigger))
                     {
-                        BrewServer.LOG.warning("Couldn't read trigger: " + trigger.toString());
+                        BrewServer.LOG.warning("Couldn't read trigger: " + trigger.type
+                                + " at " + trigger.position);
                     }
                     else
                     {
@@ -573,5 +654,6 @@ public class TriggerControl implements Runnable {
                 triggerInterface.deactivate(false);
             }
         }
+        wake();
     }
 }
@@ -4,6 +4,8 @@ import ca.strangebrew.recipe.Recipe;
 import com.sb.common.CollectionsUtil;
 import com.sb.elsinore.annotations.Parameter;
 import com.sb.elsinore.html.*;
+import com.sb.elsinore.metrics.Metrics;
+import com.sb.elsinore.metrics.TextFormat;
 import com.sb.elsinore.notificiations.Notifications;
 import jGPIO.InvalidGPIOException;
 
@@ -161,8 +163,40 @@ public class UrlEndpoints {
     @UrlEndpoint(url = "/getstatus", help = "Get the current status JSON",
     parameters = {})
     public final Response getStatus() {
-        return new NanoHTTPD.Response(Status.OK, MIME_TYPES.get("json"),
-                LaunchControl.getJSONStatus());
+        StatusSnapshot snapshot = StatusSnapshot.current();
+        Response response;
+        if (header != null
+                && snapshot.getETag().equals(header.get("if-none-match"))) {
+            response = new NanoHTTPD.Response(Status.NOT_MODIFIED,
+                    MIME_TYPES.get("json"), "");
+        } else {
+            response = new NanoHTTPD.Response(Status.OK,
+                    MIME_TYPES.get("json"),
+                    new ByteArrayInputStream(snapshot.getBytes()));
+        }
+        response.addHeader("ETag", snapshot.getETag());
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
+    }
+
+    @UrlEndpoint(url = "/status/stream",
+    help = "Stream the status as Server-Sent Events, the full status first then only the changes",
+    parameters = {})
+    public final Response getStatusStream() {
+        StatusStream stream = StatusStream.open();
+        if (stream == null) {
+            // The client will fall back to polling /getstatus
+            Response busy = new NanoHTTPD.Response(Status.SERVICE_UNAVAILABLE,
+                    MIME_TYPES.get("txt"), "Too many status streams open");
+            busy.addHeader("Retry-After", "30");
+            return busy;
+        }
+        Response response = new NanoHTTPD.Response(Status.OK,
+                "text/event-stream", stream);
+        response.setChunkedTransfer(true);
+        response.setStreaming(true);
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
     }
 
     @UrlEndpoint(url = "/getsystemsettings", help = "Get the current system settings",
@@ -172,6 +206,16 @@ public class UrlEndpoints {
                 LaunchControl.getSystemStatus());
     }
 
+    @UrlEndpoint(url = "/metrics",
+    help = "Get the server metrics in the Prometheus text format",
+    parameters = {})
+    public final Response getMetrics() {
+        Response response = new NanoHTTPD.Response(Status.OK,
+                TextFormat.CONTENT_TYPE, Metrics.scrape());
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
+    }
+
     @UrlEndpoint( url = "/graph", help = "Get the current Graph file",
     parameters = {})
     public final Response getGraph() {
@@ -1315,7 +1359,14 @@ public class UrlEndpoints {
         return getGraphData();
     }
 
-    @UrlEndpoint(url = "/graph-data/", help = "Get the graph data as JSON", parameters = {})
+    @UrlEndpoint(url = "/graph-data/", help = "Get the graph data as JSON",
+    parameters = {
+            @Parameter(name = "vessel", value = "The name or probe of the vessel to graph, all vessels if missing"),
+            @Parameter(name = "from", value = "The start of the range in epoch milliseconds"),
+            @Parameter(name = "to", value = "The end of the range in epoch milliseconds"),
+            @Parameter(name = "maxPoints", value = "The maximum number of points per series, 0 for all of them"),
+            @Parameter(name = "mode", value = "lttb (default) or minmax downsampling")
+    })
     public NanoHTTPD.Response getGraphData() {
         if (!LaunchControl.recorderEnabled()) {
             return new NanoHTTPD.Response("Recorder disabled");
@@ -0,0 +1,253 @@
+package com.sb.elsinore;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The volume calibration of a vessel, compiled from its measured points
+ * into sorted arrays so a reading is converted without allocating.
+ *
+ * A vessel's sensor reading has to rise (or fall) with the volume, so
+ * points that break that order are rejected as bad measurements. Between
+ * points the volume is interpolated linearly, or along a monotone cubic
+ * spline which follows a curved vessel bottom without overshooting.
+ * Readings outside the calibrated range are extrapolated along the
+ * nearest segment.
+ */
+public final class VolumeCalibration {
+
+    /**
+     * The readings in increasing order.
+     */
+    private final double[] readings;
+    /**
+     * The volume at each reading.
+     */
+    private final double[] volumes;
+    /**
+     * The slope of the spline at each reading, null when linear.
+     */
+    private final double[] tangents;
+    private final int rejected;
+
+    private VolumeCalibration(final double[] readings, final double[] volumes,
+            final double[] tangents, final int rejected) {
+        this.readings = readings;
+        this.volumes = volumes;
+        this.tangents = tangents;
+        this.rejected = rejected;
+    }
+
+    /**
+     * Compile the measured points.
+     * @param points The sensor reading at each volume.
+     * @param spline True to interpolate along a monotone spline.
+     * @return The calibration, or null if there aren't two usable points.
+     */
+    public static VolumeCalibration compile(
+            final Map<BigDecimal, BigDecimal> points, final boolean spline) {
+        if (points == null) {
+            return null;
+        }
+        List<double[]> sorted = new ArrayList<>();
+        for (Map.Entry<BigDecimal, BigDecimal> entry : points.entrySet()) {
+            double volume = entry.getKey().doubleValue();
+            double reading = entry.getValue().doubleValue();
+            if (!Double.isNaN(volume) && !Double.isInfinite(volume)
+                    && !Double.isNaN(reading) && !Double.isInfinite(reading)) {
+                sorted.add(new double[]{volume, reading});
+            }
+        }
+        int total = points.size();
+        if (sorted.size() < 2) {
+            return null;
+        }
+        Collections.sort(sorted, new Comparator<double[]>() {
+            @Override
+            public int compare(final double[] a, final double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+
+        // Readings run the same way as the volume from the first point to
+        // the last, keep the most points that do
+        boolean rising = sorted.get(sorted.size() - 1)[1] >= sorted.get(0)[1];
+        List<double[]> kept = monotone(sorted, rising);
+        if (kept.size() < 2) {
+            return null;
+        }
+        if (!rising) {
+            Collections.reverse(kept);
+        }
+
+        int n = kept.size();
+        double[] readings = new double[n];
+        double[] volumes = new double[n];
+        for (int i = 0; i < n; i++) {
+            volumes[i] = kept.get(i)[0];
+            readings[i] = kept.get(i)[1];
+        }
+        double[] tangents = null;
+        if (spline && n > 2) {
+            tangents = tangents(readings, volumes);
+        }
+        return new VolumeCalibration(readings, volumes, tangents,
+                total - n);
+    }
+
+    /**
+     * Find the longest run of points whose readings strictly rise (or
+     * fall) with the volume, and log the others.
+     * @param sorted The points in volume order.
+     * @param rising True if the readings should rise with the volume.
+     * @return The points kept, in volume order.
+     */
+    private static List<double[]> monotone(final List<double[]> sorted,
+            final boolean rising) {
+        int n = sorted.size();
+        // tails[k] is the index of the smallest last reading of a run of
+        // k + 1 points, previous[i] the point before i in its run
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            double reading = value(sorted.get(i), rising);
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (value(sorted.get(tails[mid]), rising) < reading) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] keep = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0;
+                i = previous[i]) {
+            keep[i] = true;
+        }
+        List<double[]> kept = new ArrayList<>(length);
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept.add(sorted.get(i));
+            } else {
+                BrewServer.LOG.warning("Ignoring the volume point "
+                        + sorted.get(i)[0] + " reading " + sorted.get(i)[1]
+                        + ", it's out of order with the other points");
+            }
+        }
+        return kept;
+    }
+
+    private static double value(final double[] point, final boolean rising) {
+        return rising ? point[1] : -point[1];
+    }
+
+    /**
+     * Fritsch-Carlson tangents, which keep the spline monotone.
+     */
+    private static double[] tangents(final double[] x, final double[] y) {
+        int n = x.length;
+        double[] secants = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            secants[i] = (y[i + 1] - y[i]) / (x[i + 1] - x[i]);
+        }
+        double[] m = new double[n];
+        m[0] = secants[0];
+        m[n - 1] = secants[n - 2];
+        for (int i = 1; i < n - 1; i++) {
+            if (secants[i - 1] * secants[i] <= 0) {
+                m[i] = 0;
+            } else {
+                m[i] = (secants[i - 1] + secants[i]) / 2;
+            }
+        }
+        for (int i = 0; i < n - 1; i++) {
+            if (secants[i] == 0) {
+                m[i] = 0;
+                m[i + 1] = 0;
+                continue;
+            }
+            double a = m[i] / secants[i];
+            double b = m[i + 1] / secants[i];
+            double h = a * a + b * b;
+            if (h > 9) {
+                double t = 3 / Math.sqrt(h);
+                m[i] = t * a * secants[i];
+                m[i + 1] = t * b * secants[i];
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Convert a sensor reading to a volume.
+     * @param reading The sensor reading.
+     * @return The volume.
+     */
+    public double getVolume(final double reading) {
+        int last = readings.length - 1;
+        int i = Arrays.binarySearch(readings, reading);
+        if (i >= 0) {
+            return volumes[i];
+        }
+        // The segment that starts below the reading, or the end segment
+        i = -i - 2;
+        boolean outside = i < 0 || i >= last;
+        if (i < 0) {
+            i = 0;
+        } else if (i >= last) {
+            i = last - 1;
+        }
+
+        double x0 = readings[i];
+        double width = readings[i + 1] - x0;
+        double y0 = volumes[i];
+        double y1 = volumes[i + 1];
+        if (tangents == null || outside) {
+            return y0 + (reading - x0) * (y1 - y0) / width;
+        }
+        // Cubic Hermite
+        double t = (reading - x0) / width;
+        double t2 = t * t;
+        double t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * y0
+                + (t3 - 2 * t2 + t) * width * tangents[i]
+                + (-2 * t3 + 3 * t2) * y1
+                + (t3 - t2) * width * tangents[i + 1];
+    }
+
+    /**
+     * @return The number of points in use.
+     */
+    public int size() {
+        return readings.length;
+    }
+
+    /**
+     * @return The number of points rejected.
+     */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return True if interpolating along a spline.
+     */
+    public boolean isSpline() {
+        return tangents != null;
+    }
+}
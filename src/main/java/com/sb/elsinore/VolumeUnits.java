@@ -3,7 +3,7 @@ package com.sb.elsinore;
 /**
  * Volume Units here are to be used in the future for conversion.
  */
-final class VolumeUnits {
+public final class VolumeUnits {
     /**
      * The US Gallon Measurement, 3.8 Litres.
      */
@@ -20,6 +20,9 @@ final class VolumeUnits {
     public static final String VOLUME_PIN = "volume-ain";
     public static final String VOLUME_ADDRESS = "volume-address";
     public static final String VOLUME_OFFSET = "volume-offset";
+    public static final String VOLUME_SPLINE = "volume-spline";
+    public static final String VOLUME_SAMPLES = "volume-samples";
+    public static final String VOLUME_FILTER = "volume-filter";
 
     /**
      * Constructor.
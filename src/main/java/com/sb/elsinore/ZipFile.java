@@ -58,6 +58,25 @@ public class ZipFile {
         fis.close();
     }
 
+    /**
+     * Add an in memory entry to the zipfile specified by this ZipFile object.
+     * @param entryName The name of the entry in the archive.
+     * @param data The contents of the entry.
+     * @throws IOException If the Zipfile hasn't been opened.
+     */
+    public final void addToZipFile(final String entryName, final byte[] data)
+            throws IOException {
+        if (zos == null) {
+            throw new IOException("Zip file has not been opened");
+        }
+
+        BrewServer.LOG.info("Writing '" + entryName + "' to zip file");
+
+        zos.putNextEntry(new ZipEntry(entryName));
+        zos.write(data);
+        zos.closeEntry();
+    }
+
     /**
      * Close the archive.
      * @throws IOException If the archive couldn't be closed.
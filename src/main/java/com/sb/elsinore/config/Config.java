@@ -0,0 +1,139 @@
+package com.sb.elsinore.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of the whole configuration.
+ *
+ * Nothing in it changes once it's made. A save makes a new snapshot with
+ * the changed section replaced and swaps it in, so the file writer and
+ * anyone else reading it always see a complete configuration, and edits
+ * to different sections made at the same time are both kept.
+ */
+public final class Config {
+
+    /**
+     * Nothing configured.
+     */
+    public static final Config EMPTY = new Config(GeneralConfig.DEFAULT,
+            Collections.<DeviceConfig>emptyList(),
+            Collections.<TimerConfig>emptyList(),
+            Collections.<SwitchConfig>emptyList(),
+            Collections.<PhSensorConfig>emptyList());
+
+    /**
+     * The general settings.
+     */
+    public final GeneralConfig general;
+    /**
+     * The temperature probes and their PIDs.
+     */
+    public final List<DeviceConfig> devices;
+    /**
+     * The timers.
+     */
+    public final List<TimerConfig> timers;
+    /**
+     * The switches.
+     */
+    public final List<SwitchConfig> switches;
+    /**
+     * The pH sensors.
+     */
+    public final List<PhSensorConfig> phSensors;
+
+    private Config(final GeneralConfig general,
+            final List<DeviceConfig> devices, final List<TimerConfig> timers,
+            final List<SwitchConfig> switches,
+            final List<PhSensorConfig> phSensors) {
+        this.general = general;
+        this.devices = devices;
+        this.timers = timers;
+        this.switches = switches;
+        this.phSensors = phSensors;
+    }
+
+    private static <T> List<T> copy(final List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    /**
+     * @param newGeneral The new general settings.
+     * @return A copy with the general settings replaced.
+     */
+    public Config withGeneral(final GeneralConfig newGeneral) {
+        return new Config(newGeneral, devices, timers, switches, phSensors);
+    }
+
+    /**
+     * @param newDevices The new devices.
+     * @return A copy with the devices replaced.
+     */
+    public Config withDevices(final List<DeviceConfig> newDevices) {
+        return new Config(general, copy(newDevices), timers, switches,
+                phSensors);
+    }
+
+    /**
+     * @param device The new settings for a device.
+     * @return A copy with the device of the same name replaced, or added
+     * at the end.
+     */
+    public Config withDevice(final DeviceConfig device) {
+        List<DeviceConfig> newDevices = new ArrayList<>(devices);
+        int index = indexOf(device.name);
+        if (index < 0) {
+            newDevices.add(device);
+        } else {
+            newDevices.set(index, device);
+        }
+        return withDevices(newDevices);
+    }
+
+    /**
+     * @param newTimers The new timers.
+     * @return A copy with the timers replaced.
+     */
+    public Config withTimers(final List<TimerConfig> newTimers) {
+        return new Config(general, devices, copy(newTimers), switches,
+                phSensors);
+    }
+
+    /**
+     * @param newSwitches The new switches.
+     * @return A copy with the switches replaced.
+     */
+    public Config withSwitches(final List<SwitchConfig> newSwitches) {
+        return new Config(general, devices, timers, copy(newSwitches),
+                phSensors);
+    }
+
+    /**
+     * @param newSensors The new pH sensors.
+     * @return A copy with the pH sensors replaced.
+     */
+    public Config withPhSensors(final List<PhSensorConfig> newSensors) {
+        return new Config(general, devices, timers, switches,
+                copy(newSensors));
+    }
+
+    /**
+     * @param name The device name.
+     * @return The device, null if there isn't one of that name.
+     */
+    public DeviceConfig getDevice(final String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : devices.get(index);
+    }
+
+    private int indexOf(final String name) {
+        for (int i = 0; i < devices.size(); i++) {
+            if (devices.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
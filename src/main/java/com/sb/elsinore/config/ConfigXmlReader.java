@@ -0,0 +1,504 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.BrewServer;
+import com.sb.elsinore.LaunchControl;
+import com.sb.elsinore.PID;
+import com.sb.elsinore.StatusRecorder;
+import com.sb.elsinore.Switch;
+import com.sb.elsinore.Temp;
+import com.sb.elsinore.Timer;
+import com.sb.elsinore.TriggerControl;
+import com.sb.elsinore.VolumeUnits;
+import com.sb.elsinore.devices.I2CDevice;
+import com.sb.elsinore.inputs.AnalogFilter;
+import com.sb.elsinore.inputs.PhSensor;
+import com.sb.elsinore.triggers.TriggerInterface;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the elsinore.cfg XML into a {@link Config} in a single pass,
+ * without building a document first. Nothing is started, so it's quick
+ * to read even with a lot of devices; starting them is up to the caller.
+ */
+public final class ConfigXmlReader {
+
+    private static final XMLInputFactory FACTORY =
+            XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final XMLStreamReader xml;
+
+    private ConfigXmlReader(final XMLStreamReader xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * Read the configuration.
+     * @param in Where to read it from, left open.
+     * @return The configuration.
+     * @throws XMLStreamException If it isn't an XML configuration.
+     */
+    public static Config read(final InputStream in)
+            throws XMLStreamException {
+        XMLStreamReader xml = FACTORY.createXMLStreamReader(in);
+        try {
+            return new ConfigXmlReader(xml).readConfig();
+        } finally {
+            xml.close();
+        }
+    }
+
+    private Config readConfig() throws XMLStreamException {
+        xml.nextTag();
+        GeneralConfig general = GeneralConfig.DEFAULT;
+        List<DeviceConfig> devices = new ArrayList<>();
+        List<TimerConfig> timers = new ArrayList<>();
+        List<SwitchConfig> switches = new ArrayList<>();
+        List<PhSensorConfig> sensors = new ArrayList<>();
+        Map<String, List<TriggerConfig>> triggers = new HashMap<>();
+
+        while (nextChild()) {
+            String name = xml.getLocalName();
+            if (name.equals("general")) {
+                general = readGeneral(readFields());
+            } else if (name.equals("device")) {
+                devices.add(readDevice());
+            } else if (name.equalsIgnoreCase("timers")) {
+                readTimers(timers);
+            } else if (name.equals("switches")) {
+                readSwitches(switches);
+            } else if (name.equals("phSensors")) {
+                readPhSensors(sensors);
+            } else if (name.equals(TriggerControl.NAME)) {
+                String device = xml.getAttributeValue(null, "name");
+                triggers.put(device, readTriggers());
+            } else {
+                skip();
+            }
+        }
+
+        // The steps are kept at the end of the file, after every device
+        for (int i = 0; i < devices.size(); i++) {
+            List<TriggerConfig> steps = triggers.get(devices.get(i).name);
+            if (steps != null) {
+                devices.set(i, devices.get(i).withTriggers(steps));
+            }
+        }
+        return Config.EMPTY.withGeneral(general).withDevices(devices)
+                .withTimers(timers).withSwitches(switches)
+                .withPhSensors(sensors);
+    }
+
+    private GeneralConfig readGeneral(final Map<String, String> fields) {
+        String cosmKey = fields.get(LaunchControl.COSM_API_KEY);
+        if (cosmKey == null) {
+            cosmKey = fields.get("pachube");
+        }
+        Integer cosmFeed = toInteger(fields.get(LaunchControl.COSM_FEED_ID));
+        if (cosmFeed == null || cosmFeed == 0) {
+            cosmFeed = toInteger(fields.get("pachube_feed"));
+        }
+
+        // Both the server and port are needed for OWFS
+        String owfsServer = fields.get(LaunchControl.OWFS_SERVER);
+        Integer owfsPort = toInteger(fields.get(LaunchControl.OWFS_PORT));
+        if (owfsServer == null || owfsPort == null) {
+            owfsServer = null;
+            owfsPort = null;
+        }
+
+        GeneralConfig defaults = GeneralConfig.DEFAULT;
+        return new GeneralConfig(
+                fields.get(LaunchControl.BREWERY_NAME),
+                Boolean.parseBoolean(fields.get(LaunchControl.PAGE_LOCK)),
+                get(fields, LaunchControl.SCALE, defaults.scale),
+                Boolean.parseBoolean(fields.get(StatusRecorder.RECORDER)),
+                toDouble(fields.get(StatusRecorder.RECORDER_DIFF),
+                        defaults.recorderDiff),
+                toLong(fields.get(StatusRecorder.RECORDER_TIME),
+                        defaults.recorderTime),
+                owfsServer, owfsPort,
+                Boolean.parseBoolean(fields.get("use_owfs")),
+                Boolean.parseBoolean(fields.get(LaunchControl.RESTORE)),
+                cosmKey, cosmKey == null ? null : cosmFeed);
+    }
+
+    private DeviceConfig readDevice() throws XMLStreamException {
+        String deviceName = xml.getAttributeValue(null, PID.ID);
+        Map<String, String> fields = new HashMap<>();
+        Map<String, String> heat = null;
+        Map<String, String> cool = null;
+        Map<String, String> i2c = null;
+        Map<BigDecimal, BigDecimal> points = new TreeMap<>();
+        String auxInvert = null;
+
+        while (nextChild()) {
+            String name = xml.getLocalName();
+            if (name.equals(PID.HEAT)) {
+                heat = readFields();
+            } else if (name.equals(PID.COOL)) {
+                cool = readFields();
+            } else if (name.equals(I2CDevice.I2C_NODE)) {
+                i2c = readFields();
+            } else if (name.equals("volume")) {
+                String volume = xml.getAttributeValue(null, "vol");
+                String reading = readText();
+                try {
+                    points.put(new BigDecimal(volume),
+                            new BigDecimal(reading));
+                } catch (NumberFormatException | NullPointerException e) {
+                    BrewServer.LOG.warning("Could not parse volume " + volume
+                            + " for " + deviceName);
+                }
+            } else {
+                if (name.equals(PID.AUX)) {
+                    auxInvert = xml.getAttributeValue(null, PID.INVERT);
+                }
+                String text = readText();
+                if (!fields.containsKey(name)) {
+                    fields.put(name, text);
+                }
+            }
+        }
+
+        // Older files kept the heat settings on the device itself
+        if (heat == null) {
+            heat = fields;
+        }
+        PidConfig pid = null;
+        if (!isEmpty(heat.get(PID.GPIO))
+                || (cool != null && !isEmpty(cool.get(PID.GPIO)))) {
+            pid = new PidConfig(
+                    toDecimal(fields.get(PID.DUTY_CYCLE), deviceName),
+                    toDecimal(fields.get(PID.DUTY_TIME), deviceName),
+                    toDecimal(fields.get(PID.SET_POINT), deviceName),
+                    get(fields, PID.MODE, "off"),
+                    readOutput(heat, deviceName),
+                    cool == null ? null : readOutput(cool, deviceName),
+                    toDecimal(fields.get(PID.MIN), deviceName),
+                    toDecimal(fields.get(PID.MAX), deviceName),
+                    toDecimal(fields.get(PID.TIME), deviceName),
+                    fields.get(PID.AUX),
+                    Boolean.parseBoolean(auxInvert));
+        }
+
+        VolumeConfig volume = null;
+        String unit = fields.get(VolumeUnits.VOLUME_UNITS);
+        String ain = get(fields, VolumeUnits.VOLUME_PIN, "");
+        String address = fields.get(VolumeUnits.VOLUME_ADDRESS);
+        if (unit != null || !ain.equals("") || address != null
+                || i2c != null || !points.isEmpty()) {
+            AnalogFilter filter = AnalogFilter.parse(
+                    fields.get(VolumeUnits.VOLUME_SAMPLES),
+                    fields.get(VolumeUnits.VOLUME_FILTER));
+            volume = new VolumeConfig(unit, ain, address,
+                    fields.get(VolumeUnits.VOLUME_OFFSET),
+                    Boolean.parseBoolean(
+                            fields.get(VolumeUnits.VOLUME_SPLINE)),
+                    filter.getSamples(), filter.getSpec(),
+                    readI2C(i2c, deviceName), points);
+        }
+
+        return new DeviceConfig(deviceName,
+                fields.get(Temp.PROBE_ELEMENT),
+                toInt(fields.get(Temp.POSITION), -1, deviceName),
+                get(fields, PID.CUTOFF, "0.0"),
+                Boolean.parseBoolean(fields.get(PID.CUTOFF_ENABLED)),
+                get(fields, PID.CALIBRATION, "0.0"),
+                Boolean.parseBoolean(fields.get(PID.HIDDEN)),
+                toInt(fields.get(Temp.PROBE_SIZE), Temp.SIZE_LARGE,
+                        deviceName),
+                pid, volume, Collections.<TriggerConfig>emptyList());
+    }
+
+    private OutputConfig readOutput(final Map<String, String> fields,
+            final String deviceName) {
+        return new OutputConfig(fields.get(PID.GPIO),
+                toDecimal(fields.get(PID.CYCLE_TIME), deviceName),
+                toDecimal(fields.get(PID.PROPORTIONAL), deviceName),
+                toDecimal(fields.get(PID.INTEGRAL), deviceName),
+                toDecimal(fields.get(PID.DERIVATIVE), deviceName),
+                toDecimal(fields.get(PID.DELAY), deviceName),
+                Boolean.parseBoolean(fields.get(PID.INVERT)));
+    }
+
+    private I2CConfig readI2C(final Map<String, String> fields,
+            final String owner) {
+        if (fields == null) {
+            return null;
+        }
+        String type = fields.get(I2CDevice.DEV_TYPE);
+        String number = fields.get(I2CDevice.DEV_NUMBER);
+        String address = fields.get(I2CDevice.DEV_ADDRESS);
+        if (type == null || number == null || address == null) {
+            BrewServer.LOG.warning("Incomplete I2C device for " + owner);
+            return null;
+        }
+        try {
+            int bus = Integer.parseInt(number.replace("i2c-", "").trim());
+            int devAddress;
+            if (address.startsWith("0x")) {
+                devAddress = Integer.parseInt(address.substring(2), 16);
+            } else {
+                devAddress = Integer.parseInt(address.trim());
+            }
+            return new I2CConfig(type, bus, devAddress,
+                    toInt(fields.get(I2CDevice.DEV_CHANNEL), 0, owner),
+                    fields.get(I2CDevice.DEV_MODE),
+                    fields.get(I2CDevice.DEV_ALERT_PIN));
+        } catch (NumberFormatException e) {
+            BrewServer.LOG.warning("Invalid I2C device " + number + " "
+                    + address + " for " + owner);
+            return null;
+        }
+    }
+
+    private void readTimers(final List<TimerConfig> timers)
+            throws XMLStreamException {
+        while (nextChild()) {
+            String name = xml.getAttributeValue(null, Timer.ID);
+            int position = toInt(xml.getAttributeValue(null, Timer.POSITION),
+                    -1, name);
+            int target = toInt(xml.getAttributeValue(null, Timer.TARGET),
+                    -1, name);
+            skip();
+            timers.add(new TimerConfig(name, position, target));
+        }
+    }
+
+    private void readSwitches(final List<SwitchConfig> switches)
+            throws XMLStreamException {
+        while (nextChild()) {
+            String name = xml.getAttributeValue(null, "name")
+                    .replace("_", " ").trim();
+            String gpio = xml.getAttributeValue(null, Switch.GPIO);
+            int position = toInt(xml.getAttributeValue(null, Switch.POSITION),
+                    -1, name);
+            String invert = null;
+            StringBuilder text = new StringBuilder();
+            // Older files kept the GPIO as the text of the switch
+            while (true) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals(PID.INVERT)) {
+                        invert = readText();
+                    } else {
+                        skip();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    break;
+                } else if (event == XMLStreamConstants.CHARACTERS
+                        || event == XMLStreamConstants.CDATA) {
+                    text.append(xml.getText());
+                }
+            }
+            if (gpio == null) {
+                gpio = text.toString().trim();
+            }
+            switches.add(new SwitchConfig(name, gpio, position,
+                    Boolean.parseBoolean(invert)));
+        }
+    }
+
+    private void readPhSensors(final List<PhSensorConfig> sensors)
+            throws XMLStreamException {
+        while (nextChild()) {
+            String name = xml.getLocalName().replace("_", " ");
+            String model = xml.getAttributeValue(null, PhSensor.MODEL);
+            String ain = xml.getAttributeValue(null, PhSensor.AIN_PIN);
+            String dsAddress = xml.getAttributeValue(null,
+                    PhSensor.DS_ADDRESS);
+            String dsOffset = xml.getAttributeValue(null, PhSensor.DS_OFFSET);
+            String offset = xml.getAttributeValue(null, PhSensor.OFFSET);
+            AnalogFilter filter = AnalogFilter.parse(
+                    xml.getAttributeValue(null, PhSensor.SAMPLES),
+                    xml.getAttributeValue(null, PhSensor.FILTER));
+            Map<String, String> i2c = null;
+            while (nextChild()) {
+                if (xml.getLocalName().equals(I2CDevice.I2C_NODE)) {
+                    i2c = readFields();
+                } else {
+                    skip();
+                }
+            }
+            sensors.add(new PhSensorConfig(name, model, ain, dsAddress,
+                    dsOffset, offset, filter.getSamples(), filter.getSpec(),
+                    readI2C(i2c, name)));
+        }
+    }
+
+    private List<TriggerConfig> readTriggers() throws XMLStreamException {
+        List<TriggerConfig> triggers = new ArrayList<>();
+        while (nextChild()) {
+            if (!xml.getLocalName().equals(TriggerInterface.NAME)) {
+                skip();
+                continue;
+            }
+            String type = xml.getAttributeValue(null, TriggerInterface.TYPE);
+            String position = xml.getAttributeValue(null,
+                    TriggerInterface.POSITION);
+            Map<String, String> values = readFields();
+            try {
+                triggers.add(new TriggerConfig(Integer.parseInt(position),
+                        type, values));
+            } catch (NumberFormatException e) {
+                BrewServer.LOG.warning("Couldn't read the position of "
+                        + type + " trigger: " + position);
+            }
+        }
+        return triggers;
+    }
+
+    /**
+     * Move to the next child of the current element.
+     * @return True if there is one, false at the end of the element.
+     */
+    private boolean nextChild() throws XMLStreamException {
+        while (true) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT
+                    || event == XMLStreamConstants.END_DOCUMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Read the text of each child of the current element by name.
+     */
+    private Map<String, String> readFields() throws XMLStreamException {
+        Map<String, String> fields = new HashMap<>();
+        while (nextChild()) {
+            String name = xml.getLocalName();
+            String text = readText();
+            if (!fields.containsKey(name)) {
+                fields.put(name, text);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Read the text of the current element, skipping any children.
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth == 1
+                    && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA)) {
+                text.append(xml.getText());
+            }
+        }
+        // Indentation on its own isn't a value
+        if (text.toString().trim().length() == 0) {
+            return "";
+        }
+        return text.toString();
+    }
+
+    /**
+     * Skip to the end of the current element.
+     */
+    private void skip() throws XMLStreamException {
+        readText();
+    }
+
+    private static boolean isEmpty(final String value) {
+        return value == null || value.equals("");
+    }
+
+    private static String get(final Map<String, String> fields,
+            final String name, final String defaultValue) {
+        String value = fields.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static Integer toInteger(final String value) {
+        if (isEmpty(value)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int toInt(final String value, final int defaultValue,
+            final String owner) {
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            BrewServer.LOG.warning("Couldn't parse " + value + " for "
+                    + owner);
+            return defaultValue;
+        }
+    }
+
+    private static long toLong(final String value, final long defaultValue) {
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double toDouble(final String value,
+            final double defaultValue) {
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static BigDecimal toDecimal(final String value,
+            final String owner) {
+        if (isEmpty(value)) {
+            return BigDecimal.ZERO;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            BrewServer.LOG.warning("Couldn't parse " + value + " for "
+                    + owner);
+            return BigDecimal.ZERO;
+        }
+    }
+}
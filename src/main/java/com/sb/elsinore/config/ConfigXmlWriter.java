@@ -0,0 +1,311 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.LaunchControl;
+import com.sb.elsinore.PID;
+import com.sb.elsinore.StatusRecorder;
+import com.sb.elsinore.Switch;
+import com.sb.elsinore.Temp;
+import com.sb.elsinore.Timer;
+import com.sb.elsinore.TriggerControl;
+import com.sb.elsinore.VolumeUnits;
+import com.sb.elsinore.devices.I2CDevice;
+import com.sb.elsinore.inputs.PhSensor;
+import com.sb.elsinore.triggers.TriggerInterface;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Writes a {@link Config} as the elsinore.cfg XML, streaming it out
+ * rather than building a document first.
+ */
+public final class ConfigXmlWriter {
+
+    private static final String ENCODING = "UTF-8";
+    private static final String INDENT = "  ";
+    private static final XMLOutputFactory FACTORY =
+            XMLOutputFactory.newInstance();
+
+    private final XMLStreamWriter xml;
+    private int depth = 0;
+
+    private ConfigXmlWriter(final XMLStreamWriter xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * Write the configuration.
+     * @param config The configuration.
+     * @param out Where to write it, left open.
+     * @throws XMLStreamException If it couldn't be written.
+     */
+    public static void write(final Config config, final OutputStream out)
+            throws XMLStreamException {
+        XMLStreamWriter xml = FACTORY.createXMLStreamWriter(out, ENCODING);
+        try {
+            new ConfigXmlWriter(xml).writeConfig(config);
+        } finally {
+            xml.close();
+        }
+    }
+
+    private void writeConfig(final Config config) throws XMLStreamException {
+        xml.writeStartDocument(ENCODING, "1.0");
+        start("elsinore");
+        writeGeneral(config.general);
+        for (DeviceConfig device : config.devices) {
+            writeDevice(device);
+        }
+        start("timers");
+        for (TimerConfig timer : config.timers) {
+            empty("timer");
+            xml.writeAttribute(Timer.ID, timer.name);
+            xml.writeAttribute(Timer.POSITION,
+                    Integer.toString(timer.position));
+            xml.writeAttribute(Timer.TARGET, Integer.toString(timer.target));
+        }
+        end();
+        start("switches");
+        for (SwitchConfig switchConfig : config.switches) {
+            writeSwitch(switchConfig);
+        }
+        end();
+        start("phSensors");
+        for (PhSensorConfig sensor : config.phSensors) {
+            writePhSensor(sensor);
+        }
+        end();
+        for (DeviceConfig device : config.devices) {
+            if (!device.triggers.isEmpty()) {
+                writeTriggers(device);
+            }
+        }
+        end();
+        newLine();
+        xml.writeEndDocument();
+    }
+
+    private void writeGeneral(final GeneralConfig general)
+            throws XMLStreamException {
+        start("general");
+        text(LaunchControl.PAGE_LOCK, general.pageLock);
+        text(LaunchControl.SCALE, general.scale);
+        text(StatusRecorder.RECORDER, general.recorder);
+        text(StatusRecorder.RECORDER_DIFF,
+                Double.toString(general.recorderDiff));
+        text(StatusRecorder.RECORDER_TIME,
+                Long.toString(general.recorderTime));
+        if (general.breweryName != null && !general.breweryName.equals("")) {
+            text(LaunchControl.BREWERY_NAME, general.breweryName);
+        }
+        if (general.owfsServer != null) {
+            text(LaunchControl.OWFS_SERVER, general.owfsServer);
+        }
+        if (general.owfsPort != null) {
+            text(LaunchControl.OWFS_PORT, general.owfsPort.toString());
+        }
+        if (general.useOwfs) {
+            text("use_owfs", true);
+        }
+        if (general.cosmApiKey != null && general.cosmFeedId != null) {
+            text(LaunchControl.COSM_API_KEY, general.cosmApiKey);
+            text(LaunchControl.COSM_FEED_ID, general.cosmFeedId.toString());
+        }
+        text(LaunchControl.RESTORE, general.restore);
+        end();
+    }
+
+    private void writeDevice(final DeviceConfig device)
+            throws XMLStreamException {
+        start("device");
+        xml.writeAttribute(PID.ID, device.name);
+        text(Temp.PROBE_ELEMENT, device.probe);
+        text(Temp.POSITION, Integer.toString(device.position));
+        text(PID.CUTOFF, device.cutoff);
+        text(PID.CUTOFF_ENABLED, device.cutoffEnabled);
+        text(PID.CALIBRATION, device.calibration);
+        text(PID.HIDDEN, device.hidden);
+        text(Temp.PROBE_SIZE, Integer.toString(device.size));
+
+        PidConfig pid = device.pid;
+        if (pid != null) {
+            text(PID.DUTY_CYCLE, pid.dutyCycle);
+            text(PID.DUTY_TIME, pid.dutyTime);
+            text(PID.SET_POINT, pid.setPoint);
+            text(PID.MODE, pid.mode);
+            writeOutput(PID.HEAT, pid.heat);
+            writeOutput(PID.COOL, pid.cool);
+            text(PID.MIN, pid.min);
+            text(PID.MAX, pid.max);
+            text(PID.TIME, pid.time);
+            if (pid.auxGpio != null) {
+                indent();
+                xml.writeStartElement(PID.AUX);
+                xml.writeAttribute(PID.INVERT,
+                        Boolean.toString(pid.auxInvert));
+                xml.writeCharacters(pid.auxGpio);
+                xml.writeEndElement();
+            }
+        }
+
+        VolumeConfig volume = device.volume;
+        if (volume != null) {
+            text(VolumeUnits.VOLUME_UNITS, volume.unit);
+            if (!volume.ain.equals("")) {
+                text(VolumeUnits.VOLUME_PIN, volume.ain);
+            } else if (volume.address != null) {
+                text(VolumeUnits.VOLUME_ADDRESS, volume.address);
+                text(VolumeUnits.VOLUME_OFFSET, volume.offset);
+            }
+            text(VolumeUnits.VOLUME_SPLINE, volume.spline);
+            text(VolumeUnits.VOLUME_SAMPLES, Integer.toString(volume.samples));
+            text(VolumeUnits.VOLUME_FILTER, volume.filter);
+            writeI2C(volume.i2c);
+            for (Map.Entry<BigDecimal, BigDecimal> point
+                    : volume.points.entrySet()) {
+                indent();
+                xml.writeStartElement("volume");
+                xml.writeAttribute("vol", point.getKey().toString());
+                xml.writeCharacters(point.getValue().toString());
+                xml.writeEndElement();
+            }
+        }
+        end();
+    }
+
+    private void writeOutput(final String name, final OutputConfig output)
+            throws XMLStreamException {
+        if (output == null) {
+            return;
+        }
+        start(name);
+        text(PID.CYCLE_TIME, output.cycleTime);
+        text(PID.PROPORTIONAL, output.proportional);
+        text(PID.INTEGRAL, output.integral);
+        text(PID.DERIVATIVE, output.derivative);
+        text(PID.GPIO, output.gpio);
+        text(PID.DELAY, output.delay);
+        text(PID.INVERT, output.invert);
+        end();
+    }
+
+    private void writeI2C(final I2CConfig i2c) throws XMLStreamException {
+        if (i2c == null) {
+            return;
+        }
+        start(I2CDevice.I2C_NODE);
+        text(I2CDevice.DEV_ADDRESS, Integer.toString(i2c.address));
+        text(I2CDevice.DEV_NUMBER, Integer.toString(i2c.number));
+        text(I2CDevice.DEV_TYPE, i2c.type);
+        text(I2CDevice.DEV_CHANNEL, Integer.toString(i2c.channel));
+        if (i2c.mode != null) {
+            text(I2CDevice.DEV_MODE, i2c.mode);
+        }
+        if (i2c.alertPin != null) {
+            text(I2CDevice.DEV_ALERT_PIN, i2c.alertPin);
+        }
+        end();
+    }
+
+    private void writeSwitch(final SwitchConfig switchConfig)
+            throws XMLStreamException {
+        start("switch");
+        xml.writeAttribute("name", switchConfig.name);
+        attribute(Switch.GPIO, switchConfig.gpio);
+        xml.writeAttribute(Switch.POSITION,
+                Integer.toString(switchConfig.position));
+        text(PID.INVERT, switchConfig.invert);
+        end();
+    }
+
+    private void writePhSensor(final PhSensorConfig sensor)
+            throws XMLStreamException {
+        start(sensor.name);
+        attribute(PhSensor.MODEL, sensor.model);
+        attribute(PhSensor.AIN_PIN, sensor.ain);
+        attribute(PhSensor.DS_ADDRESS, sensor.dsAddress);
+        attribute(PhSensor.DS_OFFSET, sensor.dsOffset);
+        attribute(PhSensor.OFFSET, sensor.offset);
+        xml.writeAttribute(PhSensor.SAMPLES, Integer.toString(sensor.samples));
+        attribute(PhSensor.FILTER, sensor.filter);
+        writeI2C(sensor.i2c);
+        end();
+    }
+
+    private void writeTriggers(final DeviceConfig device)
+            throws XMLStreamException {
+        start(TriggerControl.NAME);
+        xml.writeAttribute("name", device.name);
+        for (TriggerConfig trigger : device.triggers) {
+            start(TriggerInterface.NAME);
+            xml.writeAttribute(TriggerInterface.POSITION,
+                    Integer.toString(trigger.position));
+            xml.writeAttribute(TriggerInterface.TYPE, trigger.type);
+            for (Map.Entry<String, String> value
+                    : trigger.values.entrySet()) {
+                text(value.getKey(), value.getValue());
+            }
+            end();
+        }
+        end();
+    }
+
+    private void newLine() throws XMLStreamException {
+        xml.writeCharacters("\n");
+    }
+
+    private void indent() throws XMLStreamException {
+        newLine();
+        for (int i = 0; i < depth; i++) {
+            xml.writeCharacters(INDENT);
+        }
+    }
+
+    private void start(final String name) throws XMLStreamException {
+        indent();
+        xml.writeStartElement(name);
+        depth++;
+    }
+
+    private void end() throws XMLStreamException {
+        depth--;
+        indent();
+        xml.writeEndElement();
+    }
+
+    private void empty(final String name) throws XMLStreamException {
+        indent();
+        xml.writeEmptyElement(name);
+    }
+
+    private void attribute(final String name, final String value)
+            throws XMLStreamException {
+        if (value != null) {
+            xml.writeAttribute(name, value);
+        }
+    }
+
+    private void text(final String name, final String value)
+            throws XMLStreamException {
+        indent();
+        xml.writeStartElement(name);
+        if (value != null) {
+            xml.writeCharacters(value);
+        }
+        xml.writeEndElement();
+    }
+
+    private void text(final String name, final boolean value)
+            throws XMLStreamException {
+        text(name, Boolean.toString(value));
+    }
+
+    private void text(final String name, final BigDecimal value)
+            throws XMLStreamException {
+        text(name, value == null ? null : value.toString());
+    }
+}
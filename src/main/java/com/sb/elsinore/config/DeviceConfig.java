@@ -0,0 +1,124 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.PID;
+import com.sb.elsinore.Temp;
+import com.sb.elsinore.TriggerControl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A saved temperature probe, with its PID, volume input and trigger steps.
+ */
+public final class DeviceConfig {
+
+    /**
+     * The device name.
+     */
+    public final String name;
+    /**
+     * The probe address.
+     */
+    public final String probe;
+    /**
+     * The position in the UI.
+     */
+    public final int position;
+    /**
+     * The cutoff temperature.
+     */
+    public final String cutoff;
+    /**
+     * True if everything is turned off at the cutoff temperature.
+     */
+    public final boolean cutoffEnabled;
+    /**
+     * The calibration offset.
+     */
+    public final String calibration;
+    /**
+     * True if it's hidden in the UI.
+     */
+    public final boolean hidden;
+    /**
+     * The size it's drawn at.
+     */
+    public final int size;
+    /**
+     * The PID settings, null if there's no PID.
+     */
+    public final PidConfig pid;
+    /**
+     * The volume input, null if there isn't one.
+     */
+    public final VolumeConfig volume;
+    /**
+     * The trigger steps.
+     */
+    public final List<TriggerConfig> triggers;
+
+    /**
+     * @param name The device name.
+     * @param probe The probe address.
+     * @param position The position in the UI.
+     * @param cutoff The cutoff temperature.
+     * @param cutoffEnabled True if everything is turned off at the cutoff.
+     * @param calibration The calibration offset.
+     * @param hidden True if it's hidden in the UI.
+     * @param size The size it's drawn at.
+     * @param pid The PID settings, null if there's no PID.
+     * @param volume The volume input, null if there isn't one.
+     * @param triggers The trigger steps.
+     */
+    public DeviceConfig(final String name, final String probe,
+            final int position, final String cutoff,
+            final boolean cutoffEnabled, final String calibration,
+            final boolean hidden, final int size, final PidConfig pid,
+            final VolumeConfig volume, final List<TriggerConfig> triggers) {
+        this.name = name;
+        this.probe = probe;
+        this.position = position;
+        this.cutoff = cutoff;
+        this.cutoffEnabled = cutoffEnabled;
+        this.calibration = calibration;
+        this.hidden = hidden;
+        this.size = size;
+        this.pid = pid;
+        this.volume = volume;
+        this.triggers = Collections.unmodifiableList(
+                new ArrayList<>(triggers));
+    }
+
+    /**
+     * @param temp The probe.
+     * @param pid The PID for the probe, null if it doesn't have one.
+     * @return The current settings of the probe.
+     */
+    public static DeviceConfig of(final Temp temp, final PID pid) {
+        PidConfig pidConfig = null;
+        // A PID named after its probe hasn't been set up
+        if (pid != null && pid.getName() != null && !pid.getName().equals("")
+                && !pid.getName().equals(temp.getProbe())) {
+            pidConfig = PidConfig.of(pid);
+        }
+        List<TriggerConfig> triggers = Collections.emptyList();
+        TriggerControl triggerControl = temp.getTriggerControl();
+        if (triggerControl != null) {
+            triggers = triggerControl.getConfig();
+        }
+        return new DeviceConfig(temp.getName(), temp.getProbe(),
+                temp.getPosition(), temp.getCutoff(), temp.cutoffEnabled,
+                temp.getCalibration(), temp.isHidden(), temp.getSize(),
+                pidConfig, VolumeConfig.of(temp), triggers);
+    }
+
+    /**
+     * @param newTriggers The new trigger steps.
+     * @return A copy with the trigger steps replaced.
+     */
+    public DeviceConfig withTriggers(final List<TriggerConfig> newTriggers) {
+        return new DeviceConfig(name, probe, position, cutoff, cutoffEnabled,
+                calibration, hidden, size, pid, volume, newTriggers);
+    }
+}
@@ -0,0 +1,97 @@
+package com.sb.elsinore.config;
+
+/**
+ * The saved general settings.
+ */
+public final class GeneralConfig {
+
+    /**
+     * No settings, everything off.
+     */
+    public static final GeneralConfig DEFAULT = new GeneralConfig(null,
+            false, "F", false, 0.15, 5000, null, null, false, false, null,
+            null);
+
+    /**
+     * The brewery name, null if it isn't set.
+     */
+    public final String breweryName;
+    /**
+     * True if the UI is locked.
+     */
+    public final boolean pageLock;
+    /**
+     * The temperature scale, C or F.
+     */
+    public final String scale;
+    /**
+     * True if the status recorder is running.
+     */
+    public final boolean recorder;
+    /**
+     * The change in a reading that's recorded.
+     */
+    public final double recorderDiff;
+    /**
+     * The time between recordings in milliseconds.
+     */
+    public final long recorderTime;
+    /**
+     * The OWFS server, null if there isn't one.
+     */
+    public final String owfsServer;
+    /**
+     * The OWFS port, null if there isn't one.
+     */
+    public final Integer owfsPort;
+    /**
+     * True if the probes are read through OWFS.
+     */
+    public final boolean useOwfs;
+    /**
+     * True if the PID modes and trigger states are restored on startup.
+     */
+    public final boolean restore;
+    /**
+     * The Cosm API key, null if it isn't used.
+     */
+    public final String cosmApiKey;
+    /**
+     * The Cosm feed, null if it isn't used.
+     */
+    public final Integer cosmFeedId;
+
+    /**
+     * @param breweryName The brewery name, null if it isn't set.
+     * @param pageLock True if the UI is locked.
+     * @param scale The temperature scale, C or F.
+     * @param recorder True if the status recorder is running.
+     * @param recorderDiff The change in a reading that's recorded.
+     * @param recorderTime The time between recordings in milliseconds.
+     * @param owfsServer The OWFS server, null if there isn't one.
+     * @param owfsPort The OWFS port, null if there isn't one.
+     * @param useOwfs True if the probes are read through OWFS.
+     * @param restore True if the states are restored on startup.
+     * @param cosmApiKey The Cosm API key, null if it isn't used.
+     * @param cosmFeedId The Cosm feed, null if it isn't used.
+     */
+    public GeneralConfig(final String breweryName, final boolean pageLock,
+            final String scale, final boolean recorder,
+            final double recorderDiff, final long recorderTime,
+            final String owfsServer, final Integer owfsPort,
+            final boolean useOwfs, final boolean restore,
+            final String cosmApiKey, final Integer cosmFeedId) {
+        this.breweryName = breweryName;
+        this.pageLock = pageLock;
+        this.scale = scale;
+        this.recorder = recorder;
+        this.recorderDiff = recorderDiff;
+        this.recorderTime = recorderTime;
+        this.owfsServer = owfsServer;
+        this.owfsPort = owfsPort;
+        this.useOwfs = useOwfs;
+        this.restore = restore;
+        this.cosmApiKey = cosmApiKey;
+        this.cosmFeedId = cosmFeedId;
+    }
+}
@@ -0,0 +1,72 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.devices.ADS1015;
+import com.sb.elsinore.devices.I2CDevice;
+
+/**
+ * A saved I2C device channel.
+ */
+public final class I2CConfig {
+
+    /**
+     * The device type name.
+     */
+    public final String type;
+    /**
+     * The bus number.
+     */
+    public final int number;
+    /**
+     * The device address on the bus.
+     */
+    public final int address;
+    /**
+     * The channel read.
+     */
+    public final int channel;
+    /**
+     * The conversion mode, null if the device doesn't have one.
+     */
+    public final String mode;
+    /**
+     * The GPIO wired to the ready signal, null if none.
+     */
+    public final String alertPin;
+
+    /**
+     * @param type The device type name.
+     * @param number The bus number.
+     * @param address The device address on the bus.
+     * @param channel The channel read.
+     * @param mode The conversion mode, null if the device doesn't have one.
+     * @param alertPin The GPIO wired to the ready signal, null if none.
+     */
+    public I2CConfig(final String type, final int number, final int address,
+            final int channel, final String mode, final String alertPin) {
+        this.type = type;
+        this.number = number;
+        this.address = address;
+        this.channel = channel;
+        this.mode = mode;
+        this.alertPin = alertPin;
+    }
+
+    /**
+     * @param device The device, may be null.
+     * @param channel The channel read.
+     * @return The saved device, null if there's no device.
+     */
+    public static I2CConfig of(final I2CDevice device, final int channel) {
+        if (device == null) {
+            return null;
+        }
+        if (device instanceof ADS1015) {
+            ADS1015 ads = (ADS1015) device;
+            return new I2CConfig(device.getDevName(), device.getDevNumber(),
+                    device.getAddress(), channel,
+                    ads.getMode().name().toLowerCase(), ads.getAlertPin());
+        }
+        return new I2CConfig(device.getDevName(), device.getDevNumber(),
+                device.getAddress(), channel, null, null);
+    }
+}
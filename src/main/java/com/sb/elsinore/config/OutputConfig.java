@@ -0,0 +1,60 @@
+package com.sb.elsinore.config;
+
+import java.math.BigDecimal;
+
+/**
+ * The saved settings for one side of a PID, heating or cooling.
+ */
+public final class OutputConfig {
+
+    /**
+     * The output GPIO.
+     */
+    public final String gpio;
+    /**
+     * The cycle time in seconds.
+     */
+    public final BigDecimal cycleTime;
+    /**
+     * The proportional gain.
+     */
+    public final BigDecimal proportional;
+    /**
+     * The integral gain.
+     */
+    public final BigDecimal integral;
+    /**
+     * The derivative gain.
+     */
+    public final BigDecimal derivative;
+    /**
+     * The delay between runs in minutes.
+     */
+    public final BigDecimal delay;
+    /**
+     * True if the output is active low.
+     */
+    public final boolean invert;
+
+    /**
+     * @param gpio The output GPIO.
+     * @param cycleTime The cycle time in seconds.
+     * @param proportional The proportional gain.
+     * @param integral The integral gain.
+     * @param derivative The derivative gain.
+     * @param delay The delay between runs in minutes.
+     * @param invert True if the output is active low.
+     */
+    public OutputConfig(final String gpio, final BigDecimal cycleTime,
+            final BigDecimal proportional, final BigDecimal integral,
+            final BigDecimal derivative, final BigDecimal delay,
+            final boolean invert) {
+        this.gpio = gpio;
+        this.cycleTime = cycleTime;
+        this.proportional = proportional;
+        this.integral = integral;
+        this.derivative = derivative;
+        this.delay = delay;
+        this.invert = invert;
+    }
+}
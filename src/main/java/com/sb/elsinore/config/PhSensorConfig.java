@@ -0,0 +1,86 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.inputs.PhSensor;
+
+/**
+ * A saved pH sensor.
+ */
+public final class PhSensorConfig {
+
+    /**
+     * The sensor name, as used in the XML.
+     */
+    public final String name;
+    /**
+     * The probe model.
+     */
+    public final String model;
+    /**
+     * The analogue input, empty if it's read another way.
+     */
+    public final String ain;
+    /**
+     * The DS2450 address.
+     */
+    public final String dsAddress;
+    /**
+     * The DS2450 input.
+     */
+    public final String dsOffset;
+    /**
+     * The calibration offset in pH.
+     */
+    public final String offset;
+    /**
+     * The number of samples read for each reading.
+     */
+    public final int samples;
+    /**
+     * The filter applied to the samples.
+     */
+    public final String filter;
+    /**
+     * The I2C input, null if it isn't used.
+     */
+    public final I2CConfig i2c;
+
+    /**
+     * @param name The sensor name, as used in the XML.
+     * @param model The probe model.
+     * @param ain The analogue input, empty if it's read another way.
+     * @param dsAddress The DS2450 address.
+     * @param dsOffset The DS2450 input.
+     * @param offset The calibration offset in pH.
+     * @param samples The number of samples read for each reading.
+     * @param filter The filter applied to the samples.
+     * @param i2c The I2C input, null if it isn't used.
+     */
+    public PhSensorConfig(final String name, final String model,
+            final String ain, final String dsAddress, final String dsOffset,
+            final String offset, final int samples, final String filter,
+            final I2CConfig i2c) {
+        this.name = name;
+        this.model = model;
+        this.ain = ain;
+        this.dsAddress = dsAddress;
+        this.dsOffset = dsOffset;
+        this.offset = offset;
+        this.samples = samples;
+        this.filter = filter;
+        this.i2c = i2c;
+    }
+
+    /**
+     * @param sensor The sensor.
+     * @return Its current settings.
+     */
+    public static PhSensorConfig of(final PhSensor sensor) {
+        return new PhSensorConfig(sensor.getName(), sensor.getModel(),
+                sensor.getAIN(), sensor.getDsAddress(), sensor.getDsOffset(),
+                sensor.getOffset() == null
+                        ? null : sensor.getOffset().toString(),
+                sensor.getFilter().getSamples(),
+                sensor.getFilter().getSpec(),
+                I2CConfig.of(sensor.i2cDevice, sensor.i2cChannel));
+    }
+}
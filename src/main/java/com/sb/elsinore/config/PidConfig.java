@@ -0,0 +1,112 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.PID;
+
+import java.math.BigDecimal;
+
+/**
+ * The saved settings of a PID.
+ */
+public final class PidConfig {
+
+    /**
+     * The manual duty cycle.
+     */
+    public final BigDecimal dutyCycle;
+    /**
+     * The manual cycle time.
+     */
+    public final BigDecimal dutyTime;
+    /**
+     * The target temperature.
+     */
+    public final BigDecimal setPoint;
+    /**
+     * The mode, auto, manual, hysteria or off.
+     */
+    public final String mode;
+    /**
+     * The heating settings, null if it doesn't heat.
+     */
+    public final OutputConfig heat;
+    /**
+     * The cooling settings, null if it doesn't cool.
+     */
+    public final OutputConfig cool;
+    /**
+     * The hysteria minimum.
+     */
+    public final BigDecimal min;
+    /**
+     * The hysteria maximum.
+     */
+    public final BigDecimal max;
+    /**
+     * The hysteria minimum time.
+     */
+    public final BigDecimal time;
+    /**
+     * The aux GPIO, null if there isn't one.
+     */
+    public final String auxGpio;
+    /**
+     * True if the aux output is active low.
+     */
+    public final boolean auxInvert;
+
+    /**
+     * @param dutyCycle The manual duty cycle.
+     * @param dutyTime The manual cycle time.
+     * @param setPoint The target temperature.
+     * @param mode The mode, auto, manual, hysteria or off.
+     * @param heat The heating settings, null if it doesn't heat.
+     * @param cool The cooling settings, null if it doesn't cool.
+     * @param min The hysteria minimum.
+     * @param max The hysteria maximum.
+     * @param time The hysteria minimum time.
+     * @param auxGpio The aux GPIO, null if there isn't one.
+     * @param auxInvert True if the aux output is active low.
+     */
+    public PidConfig(final BigDecimal dutyCycle, final BigDecimal dutyTime,
+            final BigDecimal setPoint, final String mode,
+            final OutputConfig heat, final OutputConfig cool,
+            final BigDecimal min, final BigDecimal max, final BigDecimal time,
+            final String auxGpio, final boolean auxInvert) {
+        this.dutyCycle = dutyCycle;
+        this.dutyTime = dutyTime;
+        this.setPoint = setPoint;
+        this.mode = mode;
+        this.heat = heat;
+        this.cool = cool;
+        this.min = min;
+        this.max = max;
+        this.time = time;
+        this.auxGpio = auxGpio;
+        this.auxInvert = auxInvert;
+    }
+
+    /**
+     * @param pid The PID.
+     * @return Its current settings.
+     */
+    public static PidConfig of(final PID pid) {
+        OutputConfig heat = null;
+        if (pid.getHeatSetting() != null) {
+            heat = new OutputConfig(pid.getHeatGPIO(),
+                    pid.getHeatCycle(), pid.getHeatP(), pid.getHeatI(),
+                    pid.getHeatD(), pid.getHeatDelay(),
+                    pid.getHeatInverted());
+        }
+        OutputConfig cool = null;
+        if (pid.getCoolSetting() != null) {
+            cool = new OutputConfig(pid.getCoolGPIO(),
+                    pid.getCoolCycle(), pid.getCoolP(), pid.getCoolI(),
+                    pid.getCoolD(), pid.getCoolDelay(),
+                    pid.getCoolInverted());
+        }
+        return new PidConfig(pid.getManualCycle(), pid.getManualTime(),
+                pid.getSetPoint(), pid.getMode(), heat, cool, pid.getMin(),
+                pid.getMax(), pid.getTime(), pid.getAuxGPIO(),
+                pid.isAuxInverted());
+    }
+}
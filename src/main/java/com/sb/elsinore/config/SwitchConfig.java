@@ -0,0 +1,49 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.Switch;
+
+/**
+ * A saved switch.
+ */
+public final class SwitchConfig {
+
+    /**
+     * The switch name, as used in the XML.
+     */
+    public final String name;
+    /**
+     * The output GPIO.
+     */
+    public final String gpio;
+    /**
+     * The position in the UI.
+     */
+    public final int position;
+    /**
+     * True if the output is active low.
+     */
+    public final boolean invert;
+
+    /**
+     * @param name The switch name, as used in the XML.
+     * @param gpio The output GPIO.
+     * @param position The position in the UI.
+     * @param invert True if the output is active low.
+     */
+    public SwitchConfig(final String name, final String gpio,
+            final int position, final boolean invert) {
+        this.name = name;
+        this.gpio = gpio;
+        this.position = position;
+        this.invert = invert;
+    }
+
+    /**
+     * @param source The switch.
+     * @return Its current settings.
+     */
+    public static SwitchConfig of(final Switch source) {
+        return new SwitchConfig(source.getNodeName(), source.getGPIO(),
+                source.getPosition(), source.getInverted());
+    }
+}
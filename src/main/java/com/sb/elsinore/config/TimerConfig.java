@@ -0,0 +1,43 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.Timer;
+
+/**
+ * A saved timer.
+ */
+public final class TimerConfig {
+
+    /**
+     * The timer name.
+     */
+    public final String name;
+    /**
+     * The position in the UI.
+     */
+    public final int position;
+    /**
+     * The time to count down from in minutes, -1 to count up.
+     */
+    public final int target;
+
+    /**
+     * @param name The timer name.
+     * @param position The position in the UI.
+     * @param target The time to count down from in minutes, -1 to count up.
+     */
+    public TimerConfig(final String name, final int position,
+            final int target) {
+        this.name = name;
+        this.position = position;
+        this.target = target;
+    }
+
+    /**
+     * @param timer The timer.
+     * @return Its current settings.
+     */
+    public static TimerConfig of(final Timer timer) {
+        return new TimerConfig(timer.getName(), timer.getPosition(),
+                timer.getTarget());
+    }
+}
@@ -0,0 +1,48 @@
+package com.sb.elsinore.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A saved trigger step. Each type of trigger has its own settings, so
+ * they're kept by name in the order they're written.
+ */
+public final class TriggerConfig {
+
+    /**
+     * The position of the step in its list.
+     */
+    public final int position;
+    /**
+     * The trigger type name.
+     */
+    public final String type;
+    /**
+     * The settings for the step.
+     */
+    public final Map<String, String> values;
+
+    /**
+     * @param position The position of the step in its list.
+     * @param type The trigger type name.
+     * @param values The settings for the step, copied.
+     */
+    public TriggerConfig(final int position, final String type,
+            final Map<String, String> values) {
+        this.position = position;
+        this.type = type;
+        this.values = Collections.unmodifiableMap(
+                new LinkedHashMap<>(values));
+    }
+
+    /**
+     * @param name The setting name.
+     * @param defaultValue What to use if it isn't set.
+     * @return The setting.
+     */
+    public String get(final String name, final String defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,100 @@
+package com.sb.elsinore.config;
+
+import com.sb.elsinore.Temp;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The saved volume input of a vessel.
+ */
+public final class VolumeConfig {
+
+    /**
+     * The volume units.
+     */
+    public final String unit;
+    /**
+     * The analogue input, empty if it's read another way.
+     */
+    public final String ain;
+    /**
+     * The 1-Wire ADC address, null if it isn't used.
+     */
+    public final String address;
+    /**
+     * The 1-Wire ADC input, null if it isn't used.
+     */
+    public final String offset;
+    /**
+     * True if the calibration is interpolated along a spline.
+     */
+    public final boolean spline;
+    /**
+     * The number of samples read for each reading.
+     */
+    public final int samples;
+    /**
+     * The filter applied to the samples.
+     */
+    public final String filter;
+    /**
+     * The I2C input, null if it isn't used.
+     */
+    public final I2CConfig i2c;
+    /**
+     * The calibration readings, by volume.
+     */
+    public final SortedMap<BigDecimal, BigDecimal> points;
+
+    /**
+     * @param unit The volume units.
+     * @param ain The analogue input, empty if it's read another way.
+     * @param address The 1-Wire ADC address, null if it isn't used.
+     * @param offset The 1-Wire ADC input, null if it isn't used.
+     * @param spline True if the calibration is interpolated along a spline.
+     * @param samples The number of samples read for each reading.
+     * @param filter The filter applied to the samples.
+     * @param i2c The I2C input, null if it isn't used.
+     * @param points The calibration readings by volume, null if none.
+     */
+    public VolumeConfig(final String unit, final String ain,
+            final String address, final String offset, final boolean spline,
+            final int samples, final String filter, final I2CConfig i2c,
+            final Map<BigDecimal, BigDecimal> points) {
+        this.unit = unit;
+        this.ain = ain;
+        this.address = address;
+        this.offset = offset;
+        this.spline = spline;
+        this.samples = samples;
+        this.filter = filter;
+        this.i2c = i2c;
+        if (points == null) {
+            this.points = Collections.unmodifiableSortedMap(
+                    new TreeMap<BigDecimal, BigDecimal>());
+        } else {
+            this.points = Collections.unmodifiableSortedMap(
+                    new TreeMap<>(points));
+        }
+    }
+
+    /**
+     * @param temp The probe.
+     * @return Its volume settings, null if it doesn't measure volume.
+     */
+    public static VolumeConfig of(final Temp temp) {
+        if (!temp.hasVolume() && temp.i2cDevice == null) {
+            return null;
+        }
+        return new VolumeConfig(temp.getVolumeUnit(), temp.getVolumeAIN(),
+                temp.getVolumeAddress(), temp.getVolumeOffset(),
+                temp.isVolumeSpline(), temp.getVolumeFilter().getSamples(),
+                temp.getVolumeFilter().getSpec(),
+                I2CConfig.of(temp.i2cDevice, temp.i2cChannel),
+                temp.getVolumeBase());
+    }
+}
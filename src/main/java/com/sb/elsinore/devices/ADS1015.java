@@ -1,166 +1,385 @@
 package com.sb.elsinore.devices;
 
 import com.sb.elsinore.BrewServer;
+import jGPIO.InPin;
+import jGPIO.InvalidGPIOException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Read from an ADS1015 device on a specific channel
  * Created by doug on 12/07/15.
+ *
+ * The device is reached through its shared {@link I2CBus}, which stays
+ * open. In single shot mode (the default) each read starts a conversion
+ * and waits for it, by polling the conversion bit or the ALERT/RDY pin
+ * when one is set. In continuous mode the device keeps converting the last
+ * channel read, so reading the same channel again only waits for the next
+ * conversion, without writing the configuration.
+ *
+ * {@link #readValues(int[], float[])} reads several channels round robin
+ * with the bus held, starting each channel's conversion before reading
+ * the previous channel's result so the two overlap.
  */
-@SuppressWarnings("unused")
 public class ADS1015 extends I2CDevice {
 
+    public static String DEV_NAME = "ADS1015";
+
+    /**
+     * How the device converts.
+     */
+    public enum Mode {
+        /**
+         * Convert once per read, powering down in between.
+         */
+        SINGLE_SHOT,
+        /**
+         * Convert all the time.
+         */
+        CONTINUOUS
+    }
+
+    /**
+     * Tells when a conversion is ready, such as a GPIO wired to ALERT/RDY.
+     */
+    public interface ReadySignal {
+        /**
+         * @return True if the last conversion has finished.
+         * @throws IOException If the signal can't be read.
+         */
+        boolean isReady() throws IOException;
+    }
+
+    /*=========================================================================
+        POINTER REGISTER
+        -----------------------------------------------------------------------*/
+    public static final int ADS1015_REG_POINTER_CONVERT     = 0;
+    public static final int ADS1015_REG_POINTER_CONFIG      = 1;
+    public static final int ADS1015_REG_POINTER_LOWTHRESH   = 2;
+    public static final int ADS1015_REG_POINTER_HITHRESH    = 3;
+
+    /*=========================================================================
+        CONFIG REGISTER
+        -----------------------------------------------------------------------*/
+    public static final int ADS1015_REG_CONFIG_OS_SINGLE    = 0x8000;  // Write: Set to start a single-conversion
+    public static final int ADS1015_REG_CONFIG_OS_NOTBUSY   = 0x8000;  // Read: Bit = 1 when device is not performing a conversion
+    public static final int ADS1015_REG_CONFIG_MUX_SINGLE_0 = 0x4000;  // Single-ended AIN0, AIN1-3 follow on
+    public static final int ADS1015_REG_CONFIG_MUX_SHIFT    = 12;
+    public static final int ADS1015_REG_CONFIG_PGA_6_144V   = 0x0000;  // +/-6.144V range
+    public static final int ADS1015_REG_CONFIG_PGA_4_096V   = 0x0200;  // +/-4.096V range
+    public static final int ADS1015_REG_CONFIG_MODE_CONTIN  = 0x0000;  // Continuous conversion mode
+    public static final int ADS1015_REG_CONFIG_MODE_SINGLE  = 0x0100;  // Power-down single-shot mode (default)
+    public static final int ADS1015_REG_CONFIG_DR_1600SPS   = 0x0080;  // 1600 samples per second (default)
+    public static final int ADS1015_REG_CONFIG_CQUE_1CONV   = 0x0000;  // Assert ALERT/RDY after one conversions
+    public static final int ADS1015_REG_CONFIG_CQUE_NONE    = 0x0003;  // Disable the comparator and put ALERT/RDY in high state (default)
+
+    /**
+     * The longest to wait for a conversion.
+     */
+    private static final long CONVERSION_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Allowance for the internal oscillator, which can run 10% slow.
+     */
+    private static final double CLOCK_MARGIN = 1.1;
+
+    private volatile Mode mode = Mode.SINGLE_SHOT;
+    private volatile ReadySignal readySignal = null;
+    private String alertPin = null;
+    /**
+     * The channel being converted in continuous mode, -1 if none.
+     */
+    private int continuousChannel = -1;
+    /**
+     * When the next continuous conversion is ready.
+     */
+    private long nextConversion = 0;
+    private boolean alertConfigured = false;
+
+    public ADS1015(int deviceNo, int address) {
+        super(deviceNo, address);
+    }
+
     @Override
     public String getDevName() {
         return DEV_NAME;
     }
 
-    public ADS1015(int deviceNo, int address) {
-        super(deviceNo, address);
+    /**
+     * @return The programmable gain bits.
+     */
+    protected int getGain() {
+        return ADS1015_REG_CONFIG_PGA_6_144V;
     }
 
-    public static String DEV_NAME = "ADS1015";
+    /**
+     * @return The full scale of the programmable gain in millivolts.
+     */
+    protected double getFullScale() {
+        return 6144;
+    }
+
+    /**
+     * @return The data rate bits.
+     */
+    protected int getDataRate() {
+        return ADS1015_REG_CONFIG_DR_1600SPS;
+    }
 
-    public int ADS1015_READBIT                 = 0x01;
-/*=========================================================================*/
-
-/*=========================================================================
-    POINTER REGISTER
-    -----------------------------------------------------------------------*/
-public int ADS1015_REG_POINTER_MASK        = (0x03);
-    public int ADS1015_REG_POINTER_CONVERT     = 0;
-    public int ADS1015_REG_POINTER_CONFIG      = 1;
-    public int ADS1015_REG_POINTER_LOWTHRESH   = 2;
-    public int ADS1015_REG_POINTER_HITHRESH    = 3;
-/*=========================================================================*/
-
-/*=========================================================================
-    CONFIG REGISTER
-    -----------------------------------------------------------------------*/
-    public int ADS1015_REG_CONFIG_OS_MASK      = (0x8000);
-    public int ADS1015_REG_CONFIG_OS_SINGLE    = (0x8000);  // Write: Set to start a single-conversion
-    public int ADS1015_REG_CONFIG_OS_BUSY      = (0x0000);  // Read: Bit = 0 when conversion is in progress
-    public int ADS1015_REG_CONFIG_OS_NOTBUSY   = (0x8000);  // Read: Bit = 1 when device is not performing a conversion
-
-    public int  ADS1015_REG_CONFIG_MUX_MASK     =  0x7000;
-    public int  ADS1015_REG_CONFIG_MUX_DIFF_0_1 =  0x0000;  // Differential P = AIN0, N = AIN1 (default)
-    public int  ADS1015_REG_CONFIG_MUX_DIFF_0_3 =  0x1000;  // Differential P = AIN0, N = AIN3
-    public int  ADS1015_REG_CONFIG_MUX_DIFF_1_3 =  0x2000;  // Differential P = AIN1, N = AIN3
-    public int  ADS1015_REG_CONFIG_MUX_DIFF_2_3 =  0x3000;  // Differential P = AIN2, N = AIN3
-    public int  ADS1015_REG_CONFIG_MUX_SINGLE_0 =  0x4000;  // Single-ended AIN0
-    public int  ADS1015_REG_CONFIG_MUX_SINGLE_1 =  0x5000;  // Single-ended AIN1
-    public int  ADS1015_REG_CONFIG_MUX_SINGLE_2 =  0x6000;  // Single-ended AIN2
-    public int  ADS1015_REG_CONFIG_MUX_SINGLE_3 =  0x7000;  // Single-ended AIN3
-
-    public int  ADS1015_REG_CONFIG_PGA_MASK     =  0x0E00;
-    public int  ADS1015_REG_CONFIG_PGA_6_144V   =  0x0000;  // +/-6.144V range
-    public int  ADS1015_REG_CONFIG_PGA_4_096V   =  0x0200;  // +/-4.096V range
-    public int  ADS1015_REG_CONFIG_PGA_2_048V   =  0x0400;  // +/-2.048V range (default)
-    public int  ADS1015_REG_CONFIG_PGA_1_024V   =  0x0600;  // +/-1.024V range
-    public int  ADS1015_REG_CONFIG_PGA_0_512V   =  0x0800;  // +/-0.512V range
-    public int  ADS1015_REG_CONFIG_PGA_0_256V   =  0x0A00;  // +/-0.256V range
-
-    public int  ADS1015_REG_CONFIG_MODE_MASK    =  0x0100;
-    public int  ADS1015_REG_CONFIG_MODE_CONTIN  =  0x0000;  // Continuous conversion mode
-    public int  ADS1015_REG_CONFIG_MODE_SINGLE  =  0x0100;  // Power-down single-shot mode (default)
-
-    public int  ADS1015_REG_CONFIG_DR_MASK      =  0x00E0;
-    public int  ADS1015_REG_CONFIG_DR_128SPS    =  0x0000;  // 128 samples per second
-    public int  ADS1015_REG_CONFIG_DR_250SPS    =  0x0020;  // 250 samples per second
-    public int  ADS1015_REG_CONFIG_DR_490SPS    =  0x0040;  // 490 samples per second
-    public int  ADS1015_REG_CONFIG_DR_920SPS    =  0x0050;  // 920 samples per second
-    public int  ADS1015_REG_CONFIG_DR_1600SPS   =  0x0080;  // 1600 samples per second (default)
-    public int  ADS1015_REG_CONFIG_DR_2400SPS   =  0x00A0;  // 2400 samples per second
-    public int  ADS1015_REG_CONFIG_DR_3300SPS   =  0x00C0;  // 3300 samples per second
-
-    public int  ADS1015_REG_CONFIG_CMODE_MASK   =  0x0010;
-    public int  ADS1015_REG_CONFIG_CMODE_TRAD   =  0x0000;  // Traditional comparator with hysteresis (default)
-    public int  ADS1015_REG_CONFIG_CMODE_WINDOW =  0x0010;  // Window comparator
-
-    public int  ADS1015_REG_CONFIG_CPOL_MASK    =  0x0008;
-    public int  ADS1015_REG_CONFIG_CPOL_ACTVLOW =  0x0000;  // ALERT/RDY pin is low when active (default)
-    public int  ADS1015_REG_CONFIG_CPOL_ACTVHI  =  0x0008;  // ALERT/RDY pin is high when active
-
-    public int  ADS1015_REG_CONFIG_CLAT_MASK    =  0x0004;  // Determines if ALERT/RDY pin latches once asserted
-    public int  ADS1015_REG_CONFIG_CLAT_NONLAT  =  0x0000;  // Non-latching comparator (default)
-    public int  ADS1015_REG_CONFIG_CLAT_LATCH   =  0x0004;  // Latching comparator
-
-    public int  ADS1015_REG_CONFIG_CQUE_MASK    =  0x0003;
-    public int  ADS1015_REG_CONFIG_CQUE_1CONV   =  0x0000;  // Assert ALERT/RDY after one conversions
-    public int  ADS1015_REG_CONFIG_CQUE_2CONV   =  0x0001;  // Assert ALERT/RDY after two conversions
-    public int  ADS1015_REG_CONFIG_CQUE_4CONV   =  0x0002;  // Assert ALERT/RDY after four conversions
-    public int  ADS1015_REG_CONFIG_CQUE_NONE    =  0x0003;  // Disable the comparator and put ALERT/RDY in high state (default)
-/*=========================================================================*/
-
-    /**
-     * Read a single value from an ADS1015 device.
-     * @param channel
-     * @return
-     */
-    public float readValue(int channel)
-    {
-        error = ads1015error.ADS1015_ERROR_OK;
-
-        if (!(_adsInitialised)) {
-            ads1015Init();
+    /**
+     * @return The samples per second at the data rate.
+     */
+    protected int getSamplesPerSecond() {
+        return 1600;
+    }
+
+    /**
+     * Convert the conversion register to millivolts.
+     * @param raw The register.
+     * @return The millivolts.
+     */
+    protected float toMillivolts(final int raw) {
+        // 12 bits, left aligned
+        int code = ((short) raw) >> 4;
+        return (float) (code * getFullScale() / 2048);
+    }
+
+    /**
+     * @param newMode How the device converts.
+     */
+    public void setMode(final Mode newMode) {
+        I2CBus bus = getBus();
+        bus.lock();
+        try {
+            this.mode = newMode;
+            this.continuousChannel = -1;
+        } finally {
+            bus.unlock();
         }
+    }
 
-        if (channel > 3) {
-            error = ads1015error.ADS1015_ERROR_INVALIDCHANNEL;
-            return -1f;
+    /**
+     * @return How the device converts.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Wait for single shot conversions on the ALERT/RDY pin rather than
+     * polling the device over I2C.
+     * @param signal The pin, null to poll the device.
+     */
+    public void setReadySignal(final ReadySignal signal) {
+        I2CBus bus = getBus();
+        bus.lock();
+        try {
+            this.readySignal = signal;
+            this.alertConfigured = false;
+        } finally {
+            bus.unlock();
         }
+    }
 
-        // Start with default values
-        int config = ADS1015_REG_CONFIG_CQUE_NONE    | // Disable the comparator (default val)
-                ADS1015_REG_CONFIG_CLAT_NONLAT  | // Non-latching (default val)
-                ADS1015_REG_CONFIG_CPOL_ACTVLOW | // Alert/Rdy active low   (default val)
-                ADS1015_REG_CONFIG_CMODE_TRAD   | // Traditional comparator (default val)
-                ADS1015_REG_CONFIG_DR_1600SPS   | // 1600 samples per second (default)
-                ADS1015_REG_CONFIG_MODE_SINGLE;   // Single-shot mode (default)
-
-        // Set PGA/voltage range
-        config |= ADS1015_REG_CONFIG_PGA_6_144V;            // +/- 6.144V range (limited to VDD +0.3V max!)
-
-        // Set single-ended input channel
-        switch (channel)
-        {
-            case (0):
-                config |= ADS1015_REG_CONFIG_MUX_SINGLE_0;
-                break;
-            case (1):
-                config |= ADS1015_REG_CONFIG_MUX_SINGLE_1;
-                break;
-            case (2):
-                config |= ADS1015_REG_CONFIG_MUX_SINGLE_2;
-                break;
-            case (3):
-                config |= ADS1015_REG_CONFIG_MUX_SINGLE_3;
-                break;
+    /**
+     * Wait for single shot conversions on a GPIO wired to ALERT/RDY, which
+     * is pulled low when a conversion is ready.
+     * @param gpio The GPIO name, null to poll the device.
+     * @throws InvalidGPIOException If the GPIO can't be used.
+     */
+    public void setAlertPin(final String gpio) throws InvalidGPIOException {
+        if (gpio == null) {
+            setReadySignal(null);
+            this.alertPin = null;
+            return;
         }
+        final InPin pin = new InPin(gpio);
+        setReadySignal(new ReadySignal() {
+            @Override
+            public boolean isReady() throws IOException {
+                return "0".equals(pin.readValue().trim());
+            }
+        });
+        this.alertPin = gpio;
+    }
 
-        // Set 'start single-conversion' bit
-        config |= ADS1015_REG_CONFIG_OS_SINGLE;
+    /**
+     * @return The GPIO wired to ALERT/RDY, null if none.
+     */
+    public String getAlertPin() {
+        return alertPin;
+    }
 
-        // Write config register to the ADC
-        error = ads1015WriteRegister(ADS1015_REG_POINTER_CONFIG, config);
-        if (error != ads1015error.ADS1015_ERROR_OK) return -1f;
+    /**
+     * Read a single value from the device.
+     * @param channel The channel, 0 to 3.
+     * @return The value in millivolts, or -1 if it couldn't be read.
+     */
+    @Override
+    public float readValue(int channel) {
+        if (channel < 0 || channel > 3) {
+            return -1f;
+        }
+        I2CBus bus = getBus();
+        bus.lock();
+        try {
+            if (mode == Mode.CONTINUOUS) {
+                return readContinuous(bus, channel);
+            }
+            startConversion(bus, channel);
+            waitForConversion(bus);
+            return clamp(toMillivolts(bus.readRegister(address,
+                    ADS1015_REG_POINTER_CONVERT)));
+        } catch (IOException e) {
+            conversionFailed(e);
+            return -1f;
+        } finally {
+            bus.unlock();
+        }
+    }
 
-        // Wait for the conversion to complete
+    /**
+     * Read several channels round robin with the bus held.
+     * In single shot mode the next channel's conversion is started before
+     * the previous result is read back.
+     * @param channels The channels to read.
+     * @param values Set to each channel's value in millivolts, or -1 if it
+     *               couldn't be read.
+     * @return True if every channel was read.
+     */
+    public boolean readValues(final int[] channels, final float[] values) {
+        I2CBus bus = getBus();
+        bus.lock();
         try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            // Do nothing
+            if (mode == Mode.CONTINUOUS) {
+                boolean ok = true;
+                for (int i = 0; i < channels.length; i++) {
+                    values[i] = readValue(channels[i]);
+                    ok &= values[i] >= 0;
+                }
+                return ok;
+            }
+            for (int i = 0; i < channels.length; i++) {
+                values[i] = -1f;
+                if (channels[i] < 0 || channels[i] > 3) {
+                    return false;
+                }
+            }
+            if (channels.length == 0) {
+                return true;
+            }
+            startConversion(bus, channels[0]);
+            for (int i = 0; i < channels.length; i++) {
+                waitForConversion(bus);
+                if (i + 1 < channels.length) {
+                    // The result stays in the conversion register until the
+                    // next conversion finishes, a whole period away
+                    startConversion(bus, channels[i + 1]);
+                }
+                values[i] = clamp(toMillivolts(bus.readRegister(address,
+                        ADS1015_REG_POINTER_CONVERT)));
+            }
+            return true;
+        } catch (IOException e) {
+            conversionFailed(e);
+            return false;
+        } finally {
+            bus.unlock();
         }
+    }
 
-        // Read the conversion results
+    /**
+     * Read the channel converting continuously, switching to it if needed.
+     */
+    private float readContinuous(final I2CBus bus, final int channel)
+            throws IOException {
+        if (continuousChannel != channel) {
+            bus.writeRegister(address, ADS1015_REG_POINTER_CONFIG,
+                    getConfig(channel) | ADS1015_REG_CONFIG_MODE_CONTIN);
+            continuousChannel = channel;
+            // The first conversion on the new channel
+            nextConversion = System.nanoTime() + getConversionTime();
+        }
+        long wait = nextConversion - System.nanoTime();
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        int raw = bus.readRegister(address, ADS1015_REG_POINTER_CONVERT);
+        // Don't read the same conversion twice
+        nextConversion = System.nanoTime() + getConversionTime();
+        return clamp(toMillivolts(raw));
+    }
 
-        int value = ina219Read16(ADS1015_REG_POINTER_CONVERT);
-        if (value == -1) {
-            BrewServer.LOG.warning("Failed to read ADS1015");
-            return -1f;
+    private void startConversion(final I2CBus bus, final int channel)
+            throws IOException {
+        if (readySignal != null && !alertConfigured) {
+            // ALERT/RDY signals conversions when the high threshold's most
+            // significant bit is set and the low threshold's is clear
+            bus.writeRegister(address, ADS1015_REG_POINTER_HITHRESH, 0x8000);
+            bus.writeRegister(address, ADS1015_REG_POINTER_LOWTHRESH, 0x0000);
+            alertConfigured = true;
         }
+        continuousChannel = -1;
+        bus.writeRegister(address, ADS1015_REG_POINTER_CONFIG,
+                getConfig(channel) | ADS1015_REG_CONFIG_MODE_SINGLE
+                | ADS1015_REG_CONFIG_OS_SINGLE);
+    }
+
+    /**
+     * Wait a conversion time, then until the device or ALERT/RDY says the
+     * conversion has finished.
+     */
+    private void waitForConversion(final I2CBus bus) throws IOException {
+        long start = System.nanoTime();
+        LockSupport.parkNanos(getConversionTime());
+        ReadySignal signal = readySignal;
+        while (signal != null ? !signal.isReady()
+                : (bus.readRegister(address, ADS1015_REG_POINTER_CONFIG)
+                        & ADS1015_REG_CONFIG_OS_NOTBUSY) == 0) {
+            if (System.nanoTime() - start > CONVERSION_TIMEOUT) {
+                throw new IOException("Timed out waiting for a conversion");
+            }
+            LockSupport.parkNanos(getConversionTime() / 4);
+        }
+    }
+
+    /**
+     * @param channel The channel to convert.
+     * @return The configuration, without the mode.
+     */
+    private int getConfig(final int channel) {
+        int config = getGain() | getDataRate()
+                | (ADS1015_REG_CONFIG_MUX_SINGLE_0
+                        + (channel << ADS1015_REG_CONFIG_MUX_SHIFT));
+        if (readySignal != null) {
+            // Active low, non latching ALERT/RDY after each conversion
+            config |= ADS1015_REG_CONFIG_CQUE_1CONV;
+        } else {
+            config |= ADS1015_REG_CONFIG_CQUE_NONE;
+        }
+        return config;
+    }
+
+    /**
+     * @return One conversion period in nanoseconds.
+     */
+    private long getConversionTime() {
+        return (long) (TimeUnit.SECONDS.toNanos(1) * CLOCK_MARGIN
+                / getSamplesPerSecond());
+    }
+
+    /**
+     * Single ended inputs can read just below zero.
+     */
+    private static float clamp(final float value) {
+        return value < 0 ? 0 : value;
+    }
 
-        // Shift results 4-bits to the right
-        value = value >> 4;
-        return value;
+    private void conversionFailed(final IOException e) {
+        continuousChannel = -1;
+        alertConfigured = false;
+        BrewServer.LOG.warning(String.format("Failed to read %s at 0x%02x: %s",
+                getDevName(), address, e.getMessage()));
     }
 }
@@ -1,8 +1,6 @@
 package com.sb.elsinore.devices;
 
 import com.sb.elsinore.BrewServer;
-import jGPIO.InvalidGPIOException;
-import java.math.BigDecimal;
 
 /**
  * This class represents a compressor based device that needs a pause between
@@ -17,53 +15,45 @@ public class CompressorDevice extends OutputDevice {
     protected boolean running = false;
     protected long delayBetweenRuns = 1000 * 60 * 3; // 3 Minutes
 
-    public CompressorDevice(String name, String gpio, BigDecimal cycleTimeSeconds) {
+    public CompressorDevice(String name, String gpio, double cycleTimeSeconds) {
         super(name, gpio, cycleTimeSeconds);
     }
 
     
     /**
-     * Run through a cycle and turn the device on/off as appropriate based on the input duty.
-     * @param duty The percentage of time / power to run.  This will only run if the duty
-     *              is between 0 and 100 and not null.
+     * Run the compressor for whole cycles once it's at full duty and it
+     * has rested long enough, it keeps running until turned off.
+     * @param duty The duty of the cycle starting.
+     * @param now The current time in milliseconds.
+     * @return The whole cycle if it's running, otherwise 0.
      */
     @Override
-    public void runCycle(BigDecimal duty) throws InterruptedException, InvalidGPIOException {
-        // Run if the duty is not null and is between 0 and 100 inclusive.
-        if (duty != null && 
-            duty.compareTo(BigDecimal.ZERO) > -1 &&
-            duty.compareTo(HUNDRED) < 1) {
-            initializeSSR();
-
-            if (duty.compareTo(HUNDRED) == 0) {
-                if (System.currentTimeMillis() - lastStopTime > delayBetweenRuns) {
-                    if (!running) {
-                        BrewServer.LOG.warning("Starting compressor device.");
-                        lastStartTime = System.currentTimeMillis();
-                    }
-                    running = true;
-                    setValue(true);
-                } else {
-                    BrewServer.LOG.warning("Need to wait before starting compressor again.: "+(delayBetweenRuns - (System.currentTimeMillis() - lastStopTime)));
-                }
+    protected long onTimeFor(final double duty, final long now) {
+        if (!running && duty == HUNDRED) {
+            if (lastStopTime < 0 || now - lastStopTime > delayBetweenRuns) {
+                BrewServer.LOG.warning("Starting compressor device.");
+                lastStartTime = now;
+                running = true;
+            } else {
+                BrewServer.LOG.warning("Need to wait before starting compressor again.: "+(delayBetweenRuns - (now - lastStopTime)));
             }
-            Thread.sleep(cycleTime.intValue());
         }
+        return running ? (long) cycleTime : 0;
     }
 
     @Override
-    public void turnOff() {
+    public synchronized void turnOff() {
         if (running) {
-            lastStopTime = System.currentTimeMillis();
+            lastStopTime = OutputScheduler.now();
             BrewServer.LOG.warning("Stopping compressor device.");
             BrewServer.LOG.warning("Ran for " + (lastStopTime - lastStartTime) / 60000f + " minutes");
         }
         running = false;
-        setValue(false);
+        super.turnOff();
     }
     
-    public void setDelay(BigDecimal delay)
+    public void setDelay(double delay)
     {
-        delayBetweenRuns = delay.longValue() * 1000 * 60;
+        delayBetweenRuns = (long) delay * 1000 * 60;
     }
 }
@@ -0,0 +1,346 @@
+package com.sb.elsinore.devices;
+
+import com.sb.elsinore.BrewServer;
+import jGPIO.FilePaths;
+import jGPIO.GPIO;
+import jGPIO.InvalidGPIOException;
+import jGPIO.OutPin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An output pin, opened once and shared by everything that drives it.
+ *
+ * jGPIO opens the sysfs value file for every read and write, and reads it
+ * before every write. Here the value file is kept open, the last state
+ * written is remembered so writes that don't change the pin are skipped,
+ * and several pins can be set together in a {@link Batch}.
+ */
+public final class GpioPin {
+
+    /**
+     * The connection to a pin.
+     */
+    public interface Channel {
+        /**
+         * @param value The new state of the pin.
+         * @throws IOException If it couldn't be written.
+         */
+        void write(boolean value) throws IOException;
+
+        /**
+         * @return The state of the pin.
+         * @throws IOException If it couldn't be read.
+         */
+        boolean read() throws IOException;
+
+        /**
+         * Release the pin.
+         */
+        void close();
+    }
+
+    /**
+     * Opens the connections to pins.
+     */
+    public interface Opener {
+        /**
+         * @param name The GPIO name.
+         * @return The connection.
+         * @throws InvalidGPIOException If the pin can't be used.
+         */
+        Channel open(String name) throws InvalidGPIOException;
+    }
+
+    /**
+     * Opens pins through sysfs.
+     */
+    public static final Opener SYSFS = new Opener() {
+        @Override
+        public Channel open(final String name) throws InvalidGPIOException {
+            return new SysfsChannel(name);
+        }
+    };
+
+    private static final Map<String, GpioPin> PINS = new HashMap<>();
+    private static final ThreadLocal<Batch> BATCH = new ThreadLocal<>();
+    private static final AtomicLong WRITES = new AtomicLong();
+    private static final AtomicLong SKIPPED = new AtomicLong();
+    private static Opener opener = SYSFS;
+
+    private final String name;
+    private final Channel channel;
+    private int users = 0;
+    private boolean known = false;
+    private boolean state = false;
+
+    private GpioPin(final String name, final Channel channel) {
+        this.name = name;
+        this.channel = channel;
+    }
+
+    /**
+     * Open a pin as an output, sharing it if it's already open.
+     * Each open should be matched by a {@link #close()}.
+     * @param name The GPIO name.
+     * @return The pin.
+     * @throws InvalidGPIOException If the pin can't be used.
+     */
+    public static synchronized GpioPin open(final String name)
+            throws InvalidGPIOException {
+        GpioPin pin = PINS.get(name);
+        if (pin == null) {
+            pin = new GpioPin(name, opener.open(name));
+            PINS.put(name, pin);
+        }
+        pin.users++;
+        return pin;
+    }
+
+    /**
+     * Close every pin and open them with a different opener from now on,
+     * for testing without hardware.
+     * @param newOpener The opener, null for sysfs.
+     */
+    public static synchronized void setOpener(final Opener newOpener) {
+        for (GpioPin pin : PINS.values()) {
+            pin.channel.close();
+        }
+        PINS.clear();
+        opener = newOpener == null ? SYSFS : newOpener;
+    }
+
+    /**
+     * Set the pin, unless it's already in that state.
+     * In a batch the write waits for the end of the batch.
+     * @param value The new state.
+     * @return True if the pin was (or will be) written.
+     */
+    public boolean set(final boolean value) {
+        Batch batch = BATCH.get();
+        if (batch != null) {
+            batch.pending.put(this, value);
+            return true;
+        }
+        return write(value);
+    }
+
+    private synchronized boolean write(final boolean value) {
+        if (known && state == value) {
+            SKIPPED.incrementAndGet();
+            return false;
+        }
+        try {
+            channel.write(value);
+        } catch (IOException e) {
+            known = false;
+            throw new RuntimeException("Couldn't set " + name + ": "
+                    + e.getMessage(), e);
+        }
+        known = true;
+        state = value;
+        WRITES.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return The last state written, reading the pin if there hasn't been
+     * one.
+     */
+    public synchronized boolean get() {
+        if (!known) {
+            return read();
+        }
+        return state;
+    }
+
+    /**
+     * Read the pin, in case something else has changed it.
+     * @return The state of the pin.
+     */
+    public synchronized boolean read() {
+        try {
+            state = channel.read();
+            known = true;
+        } catch (IOException e) {
+            known = false;
+            throw new RuntimeException("Couldn't read " + name + ": "
+                    + e.getMessage(), e);
+        }
+        return state;
+    }
+
+    /**
+     * Stop using the pin, it's released once nothing is using it.
+     */
+    public void close() {
+        synchronized (GpioPin.class) {
+            users--;
+            if (users > 0 || PINS.get(name) != this) {
+                return;
+            }
+            PINS.remove(name);
+        }
+        channel.close();
+    }
+
+    /**
+     * @return The GPIO name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Start a batch on this thread, pins set until it's closed are
+     * written together when it's closed, once each. Use it in a
+     * try-with-resources block. A batch started inside another one joins
+     * it.
+     * @return The batch.
+     */
+    public static Batch startBatch() {
+        Batch batch = BATCH.get();
+        if (batch != null) {
+            return new Batch(false);
+        }
+        batch = new Batch(true);
+        BATCH.set(batch);
+        return batch;
+    }
+
+    /**
+     * @return The number of pin writes.
+     */
+    public static long getWrites() {
+        return WRITES.get();
+    }
+
+    /**
+     * @return The number of writes skipped as the pin was already set.
+     */
+    public static long getSkipped() {
+        return SKIPPED.get();
+    }
+
+    /**
+     * Pins set together.
+     */
+    public static final class Batch implements AutoCloseable {
+        private final boolean outer;
+        private final Map<GpioPin, Boolean> pending = new LinkedHashMap<>();
+        private final Map<GpioPin, RuntimeException> failures =
+                new HashMap<>();
+
+        private Batch(final boolean outer) {
+            this.outer = outer;
+        }
+
+        /**
+         * Write the pins set in the batch.
+         * @throws RuntimeException The first write that failed, after
+         * trying the rest.
+         */
+        @Override
+        public void close() {
+            if (!outer) {
+                return;
+            }
+            BATCH.remove();
+            RuntimeException first = null;
+            for (Map.Entry<GpioPin, Boolean> entry : pending.entrySet()) {
+                try {
+                    entry.getKey().write(entry.getValue());
+                } catch (RuntimeException e) {
+                    failures.put(entry.getKey(), e);
+                    if (first == null) {
+                        first = e;
+                    }
+                }
+            }
+            pending.clear();
+            if (first != null) {
+                throw first;
+            }
+        }
+
+        /**
+         * @param pin A pin set in the batch.
+         * @return Why writing it failed, null if it didn't.
+         */
+        public RuntimeException getFailure(final GpioPin pin) {
+            return failures.get(pin);
+        }
+    }
+
+    /**
+     * A pin exported by jGPIO, with its value file held open.
+     */
+    private static final class SysfsChannel implements Channel {
+        private static final byte ON = '1';
+        private static final byte OFF = '0';
+
+        private final OutPin pin;
+        private final FileChannel value;
+        private final ByteBuffer buffer = ByteBuffer.allocate(2);
+
+        SysfsChannel(final String name) throws InvalidGPIOException {
+            // Exports the pin and sets it as an output
+            pin = new OutPin(name);
+            FileChannel file = null;
+            try {
+                file = FileChannel.open(
+                        Paths.get(FilePaths.getValuePath(
+                                GPIO.getPinNumber(name))),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException | RuntimeException e) {
+                BrewServer.LOG.warning("Couldn't hold " + name
+                        + " open, writing through jGPIO: " + e.getMessage());
+            }
+            value = file;
+        }
+
+        @Override
+        public void write(final boolean on) throws IOException {
+            if (value == null) {
+                pin.writeValue(on ? "1" : "0");
+                return;
+            }
+            buffer.clear();
+            buffer.put(on ? ON : OFF).flip();
+            value.write(buffer, 0);
+        }
+
+        @Override
+        public boolean read() throws IOException {
+            if (value == null) {
+                return pin.readValue().trim().equals("1");
+            }
+            buffer.clear();
+            if (value.read(buffer, 0) < 1) {
+                throw new IOException("Nothing to read");
+            }
+            return buffer.get(0) == ON;
+        }
+
+        @Override
+        public void close() {
+            if (value != null) {
+                try {
+                    value.close();
+                } catch (IOException e) {
+                    BrewServer.LOG.warning("Couldn't close "
+                            + pin.getGPIOName() + ": " + e.getMessage());
+                }
+            }
+            pin.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.sb.elsinore.devices;
+
+import com.sb.elsinore.BrewServer;
+import com.sun.jna.Native;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One I2C bus, /dev/i2c-N, shared by every device on it.
+ *
+ * The bus is opened once and kept open, the slave address is only changed
+ * when a different device is addressed, and the register pointer of each
+ * device is remembered so repeated reads of a register skip the pointer
+ * write. Each transfer holds the bus lock, and a device that needs several
+ * transfers in a row, such as starting a conversion and reading it back,
+ * can hold it across them with {@link #lock()} and {@link #unlock()}.
+ *
+ * If a transfer fails the bus is closed and opened again on the next one.
+ */
+public final class I2CBus {
+
+    private static final ConcurrentHashMap<Integer, I2CBus> BUSES =
+            new ConcurrentHashMap<>();
+    private static I2CDevice.Linux_C_lib library = null;
+
+    private final int number;
+    private final String path;
+    private final I2CDevice.Linux_C_lib libC;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] buffer = new byte[3];
+    /**
+     * The register each device's pointer is on, -1 if unknown.
+     */
+    private final int[] pointers = new int[128];
+    private int fd = -1;
+    private int slave = -1;
+
+    /**
+     * @param number The bus number.
+     * @param libC The C library to make the calls with.
+     */
+    public I2CBus(final int number, final I2CDevice.Linux_C_lib libC) {
+        this.number = number;
+        this.path = String.format(I2CDevice.BASE_PATH, number);
+        this.libC = libC;
+        Arrays.fill(pointers, -1);
+    }
+
+    /**
+     * @param number The bus number.
+     * @return The shared bus.
+     */
+    public static synchronized I2CBus get(final int number) {
+        I2CBus bus = BUSES.get(number);
+        if (bus == null) {
+            if (library == null) {
+                library = new I2CDevice.Linux_C_lib_DirectMapping();
+            }
+            bus = new I2CBus(number, library);
+            BUSES.put(number, bus);
+        }
+        return bus;
+    }
+
+    /**
+     * Close every bus and make the calls with a different C library from
+     * now on, for testing without hardware.
+     * @param newLibrary The C library.
+     */
+    public static synchronized void setLibrary(
+            final I2CDevice.Linux_C_lib newLibrary) {
+        closeAll();
+        BUSES.clear();
+        library = newLibrary;
+    }
+
+    /**
+     * Close every bus, they're opened again when next used.
+     */
+    public static synchronized void closeAll() {
+        for (I2CBus bus : BUSES.values()) {
+            bus.close();
+        }
+    }
+
+    /**
+     * Hold the bus for several transfers.
+     */
+    public void lock() {
+        lock.lock();
+    }
+
+    /**
+     * Release the bus.
+     */
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Write a 16 bit register, most significant byte first.
+     * @param address The device address.
+     * @param register The register.
+     * @param value The value.
+     * @throws IOException If the write fails.
+     */
+    public void writeRegister(final int address, final int register,
+            final int value) throws IOException {
+        lock.lock();
+        try {
+            select(address);
+            buffer[0] = (byte) register;
+            buffer[1] = (byte) (value >> 8);
+            buffer[2] = (byte) value;
+            if (libC.write(fd, buffer, 3) != 3) {
+                fail("Failed to write register " + register + " at "
+                        + address);
+            }
+            pointers[address] = register;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read a 16 bit register, most significant byte first.
+     * @param address The device address.
+     * @param register The register.
+     * @return The unsigned value.
+     * @throws IOException If the read fails.
+     */
+    public int readRegister(final int address, final int register)
+            throws IOException {
+        lock.lock();
+        try {
+            select(address);
+            if (pointers[address] != register) {
+                buffer[0] = (byte) register;
+                if (libC.write(fd, buffer, 1) != 1) {
+                    fail("Failed to select register " + register + " at "
+                            + address);
+                }
+                pointers[address] = register;
+            }
+            if (libC.read(fd, buffer, 2) != 2) {
+                fail("Failed to read register " + register + " at "
+                        + address);
+            }
+            return ((buffer[0] & 0xFF) << 8) | (buffer[1] & 0xFF);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open the bus if needed and address a device.
+     */
+    private void select(final int address) throws IOException {
+        if (address < 0 || address >= pointers.length) {
+            throw new IOException("Invalid I2C address " + address);
+        }
+        if (fd < 0) {
+            fd = libC.open(path, I2CDevice.O_RDWR);
+            if (fd < 0) {
+                fd = -1;
+                throw new IOException("Failed to open " + path + ". Error "
+                        + lastError());
+            }
+            slave = -1;
+            Arrays.fill(pointers, -1);
+        }
+        if (slave != address) {
+            if (libC.ioctl(fd, I2CDevice.I2C_SLAVE, address) < 0) {
+                fail("Failed to select the device at " + address);
+            }
+            slave = address;
+        }
+    }
+
+    /**
+     * Close the bus after a failed transfer and report it.
+     */
+    private void fail(final String message) throws IOException {
+        String error = message + " on " + path + ". Error " + lastError();
+        close();
+        throw new IOException(error);
+    }
+
+    private static String lastError() {
+        try {
+            return Integer.toString(Native.getLastError());
+        } catch (Throwable e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Close the bus, it's opened again when next used.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (fd >= 0 && libC.close(fd) != 0) {
+                BrewServer.LOG.warning("Failed to close " + path);
+            }
+            fd = -1;
+            slave = -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The bus number.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return True if the bus is open.
+     */
+    public boolean isOpen() {
+        return fd >= 0;
+    }
+}
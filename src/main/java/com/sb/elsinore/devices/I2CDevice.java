@@ -1,9 +1,7 @@
 package com.sb.elsinore.devices;
 
 import com.sb.elsinore.BrewServer;
-import com.sb.elsinore.LaunchControl;
 import com.sun.jna.*;
-import org.w3c.dom.Element;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -19,6 +17,8 @@ public abstract class I2CDevice {
     public static String DEV_ADDRESS = "Address";
     public static String DEV_CHANNEL = "Channel";
     public static String DEV_TYPE = "Type";
+    public static String DEV_MODE = "Mode";
+    public static String DEV_ALERT_PIN = "AlertPin";
     public static String I2C_NODE = "I2C";
     public static String DEV_NAME = "BASE";
 
@@ -55,8 +55,6 @@ public abstract class I2CDevice {
     private static String[] available_devices = null;
     protected int address = 0x00;
 
-    protected Linux_C_lib libC = new Linux_C_lib_DirectMapping();
-
 
     public static ArrayList<String> getAvailableAddresses(String device_path)
     {
@@ -316,157 +314,21 @@ public abstract class I2CDevice {
         return device_path;
     }
 
-    protected boolean _adsInitialised = false;
-    protected int fd = -1;
-
-    public ads1015error error = ads1015error.ADS1015_ERROR_OK;
-
-    enum ads1015error
-    {
-        ADS1015_ERROR_OK,                // Everything executed normally
-        ADS1015_ERROR_I2CINIT,               // Unable to initialise I2C
-        ADS1015_ERROR_I2CBUSY,               // I2C already in use
-        ADS1015_ERROR_INVALIDCHANNEL,        // Invalid channel specified
-        ADS1015_ERROR_LAST
-    }
-
-    public byte[] I2CMasterBuffer = new byte[I2C_BUFSIZE];
-    public byte[] I2CSlaveBuffer = new byte[I2C_BUFSIZE];
-    public int I2CReadLength, I2CWriteLength;
-
-    public void close()
-    {
-        if (fd > -1)
-        {
-            if (libC.close(fd) != 0)
-            {
-                BrewServer.LOG.warning(String.format("Failed to close: %s", Native.getLastError()));
-            }
-        }
-        fd = -1;
-    }
-
-    public ads1015error ads1015WriteRegister (int reg, int value)
-    {
-        ads1015error error = ads1015error.ADS1015_ERROR_OK;
-
-        // Clear write buffers
-        int i;
-        for ( i = 0; i < I2C_BUFSIZE; i++ )
-        {
-            I2CMasterBuffer[i] = 0x00;
-        }
-
-        I2CWriteLength = 3;
-        I2CReadLength = 0;
-        I2CMasterBuffer[0] = (byte) reg;                   // Register
-        System.out.println(String.format("value: 0x%02x", (byte) (value >> 8)));
-        System.out.println(String.format("value: 0x%02x", (byte) (value & 0xFF)));
-        I2CMasterBuffer[1] = (byte) (value >> 8); //0xC3;            // Upper 8-bits
-        I2CMasterBuffer[2] = (byte) (value & 0xFF); //0x03;          // Lower 8-bits
-
-        int ret = libC.write(fd, I2CMasterBuffer, I2CWriteLength);
-        if (ret != I2CWriteLength)
-        {
-            BrewServer.LOG.warning(String.format("Failed to write to I2C Device %s. Error %s", ret, Native.getLastError()));
-            error = ads1015error.ADS1015_ERROR_I2CBUSY;
-        }
-        // ToDo: Add in proper I2C error-checking
-        return error;
-    }
-
-    public ads1015error ads1015Init()
-    {
-        ads1015error error = ads1015error.ADS1015_ERROR_OK;
-
-        // Initialise I2C
-        if (!i2cInit())
-        {
-            return ads1015error.ADS1015_ERROR_I2CINIT;    /* Fatal error */
-        }
-
-        _adsInitialised = true;
-        return error;
-
-    }
-
-    public int ina219Read16(int reg)
-    {
-
-        // Clear write buffers
-        for (int i = 0; i < I2C_BUFSIZE; i++ )
-        {
-            I2CMasterBuffer[i] = 0x00;
-        }
-
-        I2CWriteLength = 2;
-        I2CReadLength = 2;
-        I2CSlaveBuffer[0] = (byte) 0x0;           // I2C device address
-        I2CSlaveBuffer[1] = (byte) 0x0;                       // Command register
-
-        while ((I2CSlaveBuffer[0] & 0x80) == 0)
-        {
-            libC.read(fd, I2CSlaveBuffer, I2CReadLength);
-        }
-        I2CMasterBuffer[0] = 0x0;
-        libC.write(fd, I2CMasterBuffer, 1);
-
-        if (I2CReadLength != libC.read(fd, I2CMasterBuffer, I2CReadLength))
-        {
-            BrewServer.LOG.warning(String.format("Error reading %s", Native.getLastError()));
-        }
-
-        int msb = I2CMasterBuffer[0];
-        int lsb = I2CMasterBuffer[1];
-        if (lsb < 0)
-            lsb = 256 + lsb;
-
-        return ((msb << 8) + lsb);
-        // Shift values to create properly formed integer
-        //return (short) ((I2CMasterBuffer[0] << 8) | I2CMasterBuffer[1]);
-    }
-
-    public boolean i2cInit()
+    /**
+     * @return The bus this device is on, shared with the other devices on it.
+     */
+    protected I2CBus getBus()
     {
-        fd = libC.open(device_path, O_RDWR);
-        if (fd < 0)
-        {
-            BrewServer.LOG.warning(String.format("Failed to read from %s. Error %s", device_path, Native.getLastError()));
-            return false;
-        }
-        else {
-            BrewServer.LOG.warning(String.format("Opened fd %s", fd));
-        }
-
-        int iovalue = libC.ioctl(fd, I2CDevice.I2C_SLAVE, address);
-
-        if (iovalue < 0)
-        {
-            BrewServer.LOG.warning(String.format("Failed to open slave device at address %s, wrote %s", address, iovalue));
-            BrewServer.LOG.warning(String.format("Error %s", Native.getLastError()));
-            return false;
-        }
-        else
-        {
-            BrewServer.LOG.warning(String.format("I2C Slave %s opened %s", address, iovalue));
-        }
-        return true;
+        return I2CBus.get(device_number);
     }
 
+    /**
+     * Read a channel.
+     * @param devChannel The channel to read.
+     * @return The value in millivolts, or -1 if it couldn't be read.
+     */
     public abstract float readValue(int devChannel);
 
-    public static I2CDevice parseElement(Element i2cElement) {
-        String devType = LaunchControl.getFirstElement(i2cElement, DEV_ADDRESS).getNodeValue();
-        if (devType == null) {
-            return null;
-        }
-
-        String devNumber = LaunchControl.getFirstElement(i2cElement, DEV_NUMBER).getNodeValue();
-        String devAddress = LaunchControl.getFirstElement(i2cElement, DEV_ADDRESS).getNodeValue();
-
-        return create(devNumber, devAddress, devType);
-    }
-
     public int getAddress()
     {
         return this.address;
@@ -1,10 +1,9 @@
 package com.sb.elsinore.devices;
 
 import com.sb.elsinore.BrewServer;
-import com.sb.util.MathUtil;
 import jGPIO.InvalidGPIOException;
-import jGPIO.OutPin;
-import java.math.BigDecimal;
+
+import java.util.logging.Level;
 
 /**
  * This class represents a single heating/cooling device that can have a duty
@@ -15,16 +14,28 @@ import java.math.BigDecimal;
 public class OutputDevice {
 
     protected boolean invertOutput = false;
-    protected static BigDecimal HUNDRED = new BigDecimal(100);
-    protected static BigDecimal THOUSAND = new BigDecimal(1000);
+    protected static final double HUNDRED = 100;
+    protected static final double THOUSAND = 1000;
 
-    protected BigDecimal cycleTime = new BigDecimal(5000);    //5 second default
-    protected OutPin ssr = null;    //The output pin.
+    protected double cycleTime = 5000;    //5 second default, in milliseconds
+    protected long cycleStart = -1;    //Start of the current cycle, -1 for none
+    private long cycleLength = 0;    //Length of the current cycle
+    private long offAt = 0;    //When the output turns off in this cycle
+    private boolean cycleOn = false;    //Is the output on
+    private volatile double requestedDuty = 0;    //Picked up at the next cycle
+    private double cycleDuty = 0;    //Duty of the current cycle
+    private long measureStart = -1;    //When the current measurement started
+    private long onSince = 0;    //When the output last turned on
+    private long onTotal = 0;    //Time on in the current measurement
+    private volatile double achievedDuty = 0;    //Duty of the last cycle
+    private boolean failed = false;
+    private OutputScheduler scheduler = null;
+    protected GpioPin ssr = null;    //The output pin.
     private final Object ssrLock = new Object();
     protected String name;    //The name of this device
     private String gpio;    //The gpio pin
 
-    public OutputDevice(String name, String gpio, BigDecimal cycleTimeSeconds) {
+    public OutputDevice(String name, String gpio, double cycleTimeSeconds) {
         // Check for inverted outputs using a property.
         try {
             String invOut = System.getProperty("invert_outputs");
@@ -56,7 +67,14 @@ public class OutputDevice {
         }
     }
 
-    public void turnOff() {
+    /**
+     * Turn the output off straight away and stop cycling until a new duty
+     * is set.
+     */
+    public synchronized void turnOff() {
+        requestedDuty = 0;
+        cycleStart = -1;
+        switchOff(OutputScheduler.now());
         setValue(false);
     }
 
@@ -64,9 +82,9 @@ public class OutputDevice {
         if (ssr == null) {
             if (gpio != null && gpio.length() > 0) {
                 synchronized (ssrLock) {
-                    ssr = new OutPin(gpio);
+                    ssr = GpioPin.open(gpio);
                 }
-                turnOff();
+                setValue(cycleOn);
             }
         }
 
@@ -75,49 +93,206 @@ public class OutputDevice {
         }
     }
 
-    
     /**
-     * Run through a cycle and turn the device on/off as appropriate based on the input duty.
-     * @param duty The percentage of time / power to run.  This will only run if the duty
-     *              is between 0 and 100 and not null.
+     * Set the duty to run at, it's picked up at the start of the next
+     * cycle so the current one is never cut short. An idle device starts
+     * a cycle straight away.
+     * @param duty The percentage of time / power to run, 0 to 100.
      */
-    public void runCycle(BigDecimal duty) throws InterruptedException, InvalidGPIOException {
-        // Run if the duty is not null and is between 0 and 100 inclusive.
-        if (duty != null
-                && duty.compareTo(BigDecimal.ZERO) > 0
-                && duty.compareTo(HUNDRED) <= 0) {
-            initializeSSR();
-
-            duty = MathUtil.divide(duty, HUNDRED);
-            BigDecimal onTime = duty.multiply(cycleTime);
-            BigDecimal offTime = cycleTime.subtract(onTime);
-            BrewServer.LOG.info("On: " + onTime
-                    + " Off; " + offTime);
+    public synchronized void setDuty(double duty) {
+        if (failed) {
+            return;
+        }
+        duty = Math.max(0, Math.min(HUNDRED, duty));
+        if (duty == requestedDuty) {
+            return;
+        }
+        requestedDuty = duty;
+        if (cycleStart < 0 && duty > 0 && scheduler != null) {
+            scheduler.wake();
+        }
+    }
 
-            if (onTime.intValue() > 0) {
-                setValue(true);
-                Thread.sleep(onTime.intValue());
+    /**
+     * Turn the device on/off as appropriate for this point in its cycle.
+     * Cycles start at fixed intervals from the first one, so a late call
+     * doesn't push the following edges back.
+     * Called by the {@link OutputScheduler}, it never blocks.
+     * @param now The current time in milliseconds, from
+     *            {@link OutputScheduler#now()}.
+     * @return The time of the next edge, Long.MAX_VALUE if idle.
+     * @throws InvalidGPIOException If the output couldn't be set up.
+     */
+    public synchronized long poll(final long now)
+            throws InvalidGPIOException {
+        if (cycleStart < 0) {
+            if (requestedDuty <= 0) {
+                return Long.MAX_VALUE;
+            }
+            initializeSSR();
+            measureStart = now;
+            onTotal = 0;
+            startCycle(now, now);
+        }
+        long cycleEnd = cycleStart + cycleLength;
+        while (cycleStart >= 0 && now >= cycleEnd) {
+            measure(now);
+            if (now - cycleEnd >= cycleLength) {
+                // A whole cycle was missed, start again from now
+                cycleEnd = now;
             }
+            startCycle(cycleEnd, now);
+            cycleEnd = cycleStart + cycleLength;
+        }
+        if (cycleStart < 0) {
+            return Long.MAX_VALUE;
+        }
+        if (cycleOn && now >= offAt) {
+            switchOff(now);
+            setValue(false);
+        }
+        return cycleOn ? offAt : cycleEnd;
+    }
 
-            if (duty.abs().compareTo(HUNDRED) < 0 && offTime.intValue() > 0) {
+    /**
+     * Start a cycle with the latest duty.
+     * @param start The start of the cycle.
+     * @param now The current time.
+     */
+    private void startCycle(final long start, final long now) {
+        cycleDuty = requestedDuty;
+        cycleLength = Math.max(1, (long) cycleTime);
+        long onTime = onTimeFor(cycleDuty, now);
+        if (onTime <= 0 && cycleDuty <= 0) {
+            // Nothing more to do until a new duty is set
+            cycleStart = -1;
+            if (cycleOn) {
+                switchOff(now);
                 setValue(false);
-                Thread.sleep(offTime.intValue());
             }
+            return;
+        }
+        cycleStart = start;
+        offAt = start + Math.min(onTime, cycleLength);
+        boolean value = now < offAt;
+        if (value != cycleOn) {
+            if (value) {
+                cycleOn = true;
+                onSince = now;
+            } else {
+                switchOff(now);
+            }
+            setValue(value);
+        }
+        if (BrewServer.LOG.isLoggable(Level.INFO)) {
+            BrewServer.LOG.info("On: " + (offAt - start)
+                    + " Off; " + (cycleLength - (offAt - start)));
+        }
+    }
+
+    /**
+     * @param duty The duty of the cycle starting.
+     * @param now The current time.
+     * @return How long to stay on in this cycle.
+     */
+    protected long onTimeFor(final double duty, final long now) {
+        return (long) (duty / HUNDRED * cycleTime);
+    }
+
+    private void switchOff(final long now) {
+        if (cycleOn) {
+            cycleOn = false;
+            onTotal += now - onSince;
+        }
+    }
+
+    /**
+     * Work out the duty achieved since the last cycle boundary.
+     */
+    private void measure(final long now) {
+        long elapsed = now - measureStart;
+        if (elapsed <= 0) {
+            return;
+        }
+        if (cycleOn) {
+            onTotal += now - onSince;
+            onSince = now;
         }
+        achievedDuty = Math.min(HUNDRED, onTotal * HUNDRED / elapsed);
+        measureStart = now;
+        onTotal = 0;
+    }
+
+    /**
+     * Stop driving the output after an error, it's turned off and new
+     * duties are ignored.
+     * @param e The error.
+     */
+    public void fail(final Exception e) {
+        BrewServer.LOG.log(Level.WARNING,
+                "Could not control the GPIO Pin for " + name, e);
+        try {
+            turnOff();
+        } catch (RuntimeException off) {
+            BrewServer.LOG.warning("Couldn't turn off " + name + ": "
+                    + off.getMessage());
+        }
+        synchronized (this) {
+            failed = true;
+        }
+    }
+
+    /**
+     * @return True if driving the output failed.
+     */
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @param outputScheduler The scheduler driving this device, woken when
+     *                        an idle device gets a duty.
+     */
+    synchronized void setScheduler(final OutputScheduler outputScheduler) {
+        this.scheduler = outputScheduler;
+    }
+
+    /**
+     * @return The duty asked for, in percent.
+     */
+    public double getRequestedDuty() {
+        return requestedDuty;
+    }
+
+    /**
+     * @return The duty the output actually ran at over the last cycle,
+     * in percent, 0 when idle.
+     */
+    public synchronized double getAchievedDuty() {
+        return cycleStart < 0 && !cycleOn ? 0 : achievedDuty;
     }
 
     protected void setValue(boolean value) {
-        if (this.ssr != null) {
-            synchronized (ssrLock) {
+        synchronized (ssrLock) {
+            if (this.ssr != null) {
                 // invert the output if needed
                 if (this.invertOutput) {
                     value = !value;
                 }
-                this.ssr.setValue(value);
+                this.ssr.set(value);
             }
         }
     }
 
+    /**
+     * @return The output pin, null if there isn't one.
+     */
+    final GpioPin getPin() {
+        synchronized (ssrLock) {
+            return ssr;
+        }
+    }
+
     /**
      * @return the name
      */
@@ -133,12 +308,10 @@ public class OutputDevice {
     }
 
     /**
-     * @param cycleTime the cycleTime to set
+     * @param cycleTime the cycleTime to set in seconds
      */
-    public void setCycleTime(BigDecimal cycleTime) {
-        if (cycleTime != null) {
-            this.cycleTime = cycleTime.multiply(THOUSAND);
-        }
+    public void setCycleTime(double cycleTime) {
+        this.cycleTime = cycleTime * THOUSAND;
     }
 
     /**
@@ -0,0 +1,227 @@
+package com.sb.elsinore.devices;
+
+import com.sb.elsinore.BrewServer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the time proportioned outputs of every device from one thread.
+ *
+ * Each {@link OutputDevice} works out the absolute time of its next on or
+ * off edge, and the thread sleeps until the earliest one, so edges land
+ * when they're due instead of on the next control tick. The thread runs
+ * at the highest priority to keep them there under load, and the time
+ * it's woken past an edge is recorded. The edges due at the same time are
+ * written as one {@link GpioPin.Batch}.
+ */
+public final class OutputScheduler {
+
+    /**
+     * An edge this much later than it was due is counted as late.
+     */
+    public static final long LATE = 20;
+    /**
+     * The longest time to sleep between checks, in milliseconds.
+     */
+    private static final long MAX_SLEEP = 1000;
+    private static final long ORIGIN = System.nanoTime();
+
+    private final List<OutputDevice> devices =
+            new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private final AtomicLong edges = new AtomicLong();
+    private final AtomicLong lateEdges = new AtomicLong();
+    private final AtomicLong maxLateness = new AtomicLong();
+    private boolean woken = false;
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    /**
+     * @return The time in milliseconds used for the output edges. It only
+     * ever goes forward, unlike the wall clock.
+     */
+    public static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ORIGIN);
+    }
+
+    /**
+     * Start driving a device, starting the thread if needed.
+     * @param device The device.
+     */
+    public void add(final OutputDevice device) {
+        if (device == null || devices.contains(device)) {
+            return;
+        }
+        device.setScheduler(this);
+        devices.add(device);
+        start();
+        wake();
+    }
+
+    /**
+     * Stop driving a device, it's left as it is.
+     * @param device The device.
+     */
+    public void remove(final OutputDevice device) {
+        if (device != null && devices.remove(device)) {
+            device.setScheduler(null);
+        }
+    }
+
+    /**
+     * Check the devices now, used when one gets a new duty.
+     */
+    public void wake() {
+        synchronized (lock) {
+            woken = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Start the thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Output-Scheduler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop the thread, the devices are left as they are.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        wake();
+        try {
+            thread.join(MAX_SLEEP);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void loop() {
+        long due = Long.MAX_VALUE;
+        while (running) {
+            long now = now();
+            if (due != Long.MAX_VALUE && now >= due) {
+                late(now - due);
+            }
+            due = poll(now);
+            synchronized (lock) {
+                while (!woken && running) {
+                    long wait = Math.min(due - now(), MAX_SLEEP);
+                    if (wait <= 0) {
+                        break;
+                    }
+                    try {
+                        lock.wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (due == Long.MAX_VALUE) {
+                        break;
+                    }
+                }
+                if (woken) {
+                    // Not waiting for an edge
+                    woken = false;
+                    due = Long.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the edges due by now, the pins are written together at the
+     * end.
+     * @param now The current time, from {@link #now()}.
+     * @return The time of the next edge, Long.MAX_VALUE if none.
+     */
+    public long poll(final long now) {
+        long next = Long.MAX_VALUE;
+        GpioPin.Batch batch = GpioPin.startBatch();
+        try {
+            for (OutputDevice device : devices) {
+                if (device.isFailed()) {
+                    continue;
+                }
+                try {
+                    next = Math.min(next, device.poll(now));
+                } catch (Exception e) {
+                    device.fail(e);
+                }
+            }
+        } finally {
+            try {
+                batch.close();
+            } catch (RuntimeException e) {
+                for (OutputDevice device : devices) {
+                    RuntimeException failure =
+                            batch.getFailure(device.getPin());
+                    if (failure != null) {
+                        device.fail(failure);
+                    }
+                }
+            }
+        }
+        return next;
+    }
+
+    private void late(final long lateness) {
+        edges.incrementAndGet();
+        if (lateness > LATE) {
+            lateEdges.incrementAndGet();
+            BrewServer.LOG.fine("Output edge was " + lateness + "ms late");
+        }
+        long max = maxLateness.get();
+        while (lateness > max && !maxLateness.compareAndSet(max, lateness)) {
+            max = maxLateness.get();
+        }
+    }
+
+    /**
+     * @return The number of edges applied on time or late.
+     */
+    public long getEdges() {
+        return edges.get();
+    }
+
+    /**
+     * @return The number of edges applied more than {@link #LATE}ms late.
+     */
+    public long getLateEdges() {
+        return lateEdges.get();
+    }
+
+    /**
+     * @return The latest an edge has been applied, in milliseconds.
+     */
+    public long getMaxLateness() {
+        return maxLateness.get();
+    }
+
+    /**
+     * @return The devices being driven.
+     */
+    public List<OutputDevice> getDevices() {
+        return devices;
+    }
+}
@@ -0,0 +1,307 @@
+package com.sb.elsinore.inputs;
+
+import java.util.Arrays;
+
+/**
+ * Filters the readings of an analog input.
+ *
+ * Each update reads a burst of samples from the input. The burst is reduced
+ * to one value by its median, which throws away single sample spikes, or
+ * its mean. That value is then smoothed over time with an exponential
+ * moving average or a one dimensional Kalman filter, or used as it is.
+ *
+ * Alongside the value the filter keeps an estimate of the noise on the
+ * input, the standard deviation of a single sample.
+ */
+public final class AnalogFilter {
+
+    /**
+     * The default number of samples per burst.
+     */
+    public static final int DEFAULT_SAMPLES = 8;
+    /**
+     * The most samples per burst.
+     */
+    public static final int MAX_SAMPLES = 64;
+    /**
+     * The default weight of a new value in the moving average.
+     */
+    public static final double DEFAULT_ALPHA = 0.3;
+    /**
+     * The default variance the input is expected to change by each update,
+     * for the Kalman filter.
+     */
+    public static final double DEFAULT_PROCESS_NOISE = 1e-4;
+    /**
+     * Scales the median absolute deviation to a standard deviation.
+     */
+    private static final double MAD_SCALE = 1.4826;
+
+    /**
+     * Reads one sample from an input.
+     */
+    public interface Source {
+        /**
+         * @return The sample.
+         * @throws Exception If the input can't be read.
+         */
+        double read() throws Exception;
+    }
+
+    /**
+     * How each value is smoothed over time.
+     */
+    public enum Smoothing {
+        /**
+         * Use each value as it is.
+         */
+        NONE,
+        /**
+         * Exponential moving average.
+         */
+        EMA,
+        /**
+         * Kalman filter.
+         */
+        KALMAN
+    }
+
+    private final int samples;
+    private final boolean median;
+    private final Smoothing smoothing;
+    private double alpha = DEFAULT_ALPHA;
+    private double processNoise = DEFAULT_PROCESS_NOISE;
+
+    private final double[] burst;
+    private final double[] deviations;
+    private double value = Double.NaN;
+    private double noise = 0;
+    /**
+     * The Kalman filter's variance of the value.
+     */
+    private double variance = 0;
+
+    /**
+     * The default filter, the median of {@link #DEFAULT_SAMPLES} samples.
+     */
+    public AnalogFilter() {
+        this(DEFAULT_SAMPLES, true, Smoothing.NONE);
+    }
+
+    /**
+     * @param samples The number of samples to read per update.
+     * @param median True to reduce each burst by its median, false by its
+     *               mean.
+     * @param smoothing How the values are smoothed over time.
+     */
+    public AnalogFilter(final int samples, final boolean median,
+            final Smoothing smoothing) {
+        this.samples = Math.max(1, Math.min(MAX_SAMPLES, samples));
+        this.median = median;
+        this.smoothing = smoothing == null ? Smoothing.NONE : smoothing;
+        this.burst = new double[this.samples];
+        this.deviations = new double[this.samples];
+    }
+
+    /**
+     * Parse a filter from the configuration.
+     * @param samples The number of samples per update, null for the
+     *                default.
+     * @param spec A comma separated list of "median", "ema" and "kalman",
+     *             "none" for no filtering, or null for the default.
+     * @return The filter.
+     */
+    public static AnalogFilter parse(final String samples, final String spec) {
+        int count = DEFAULT_SAMPLES;
+        if (samples != null && samples.length() > 0) {
+            try {
+                count = Integer.parseInt(samples.trim());
+            } catch (NumberFormatException e) {
+                count = DEFAULT_SAMPLES;
+            }
+        }
+        if (spec == null || spec.trim().length() == 0) {
+            return new AnalogFilter(count, true, Smoothing.NONE);
+        }
+        boolean median = false;
+        Smoothing smoothing = Smoothing.NONE;
+        for (String part : spec.split(",")) {
+            part = part.trim().toLowerCase();
+            if (part.equals("median")) {
+                median = true;
+            } else if (part.equals("ema")) {
+                smoothing = Smoothing.EMA;
+            } else if (part.equals("kalman")) {
+                smoothing = Smoothing.KALMAN;
+            }
+        }
+        return new AnalogFilter(count, median, smoothing);
+    }
+
+    /**
+     * @return The filter as it's saved in the configuration.
+     */
+    public String getSpec() {
+        StringBuilder spec = new StringBuilder();
+        if (median) {
+            spec.append("median");
+        }
+        if (smoothing != Smoothing.NONE) {
+            if (spec.length() > 0) {
+                spec.append(',');
+            }
+            spec.append(smoothing.name().toLowerCase());
+        }
+        if (spec.length() == 0) {
+            return "none";
+        }
+        return spec.toString();
+    }
+
+    /**
+     * Read a burst of samples from the input and filter them.
+     * @param source The input.
+     * @return The filtered value.
+     * @throws Exception If the input can't be read, the value is left as
+     * it was.
+     */
+    public synchronized double update(final Source source) throws Exception {
+        for (int i = 0; i < samples; i++) {
+            burst[i] = source.read();
+        }
+        return filter(samples);
+    }
+
+    /**
+     * Filter a burst of samples that have already been read.
+     * @param values The samples.
+     * @return The filtered value.
+     */
+    public synchronized double update(final double... values) {
+        int count = Math.min(values.length, samples);
+        System.arraycopy(values, 0, burst, 0, count);
+        return filter(count);
+    }
+
+    private double filter(final int count) {
+        if (count == 0) {
+            return value;
+        }
+        double reduced;
+        double spread;
+        if (median && count > 2) {
+            reduced = median(burst, count);
+            for (int i = 0; i < count; i++) {
+                deviations[i] = Math.abs(burst[i] - reduced);
+            }
+            spread = MAD_SCALE * median(deviations, count);
+        } else {
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += burst[i];
+            }
+            reduced = sum / count;
+            double squares = 0;
+            for (int i = 0; i < count; i++) {
+                double d = burst[i] - reduced;
+                squares += d * d;
+            }
+            spread = count > 1 ? Math.sqrt(squares / (count - 1)) : 0;
+        }
+        if (count > 1) {
+            noise = spread;
+        } else if (!Double.isNaN(value)) {
+            // One sample at a time, estimate from how far each one jumps
+            double jump = reduced - value;
+            noise = Math.sqrt((1 - DEFAULT_ALPHA) * noise * noise
+                    + DEFAULT_ALPHA * jump * jump);
+        }
+
+        if (Double.isNaN(value) || smoothing == Smoothing.NONE) {
+            value = reduced;
+            variance = noise * noise / count;
+        } else if (smoothing == Smoothing.EMA) {
+            value += alpha * (reduced - value);
+        } else {
+            // The burst's value has the variance of one sample over count
+            double measured = Math.max(noise * noise / count, 1e-12);
+            variance += processNoise;
+            double gain = variance / (variance + measured);
+            value += gain * (reduced - value);
+            variance *= 1 - gain;
+        }
+        return value;
+    }
+
+    /**
+     * The median of the first count values, sorting them in place.
+     */
+    private static double median(final double[] values, final int count) {
+        Arrays.sort(values, 0, count);
+        int middle = count / 2;
+        if (count % 2 == 1) {
+            return values[middle];
+        }
+        return (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * Forget the filtered value, the next update starts again.
+     */
+    public synchronized void reset() {
+        value = Double.NaN;
+        noise = 0;
+        variance = 0;
+    }
+
+    /**
+     * @return The filtered value, NaN before the first update.
+     */
+    public synchronized double getValue() {
+        return value;
+    }
+
+    /**
+     * @return The estimated standard deviation of a single sample.
+     */
+    public synchronized double getNoise() {
+        return noise;
+    }
+
+    /**
+     * @return The number of samples read per update.
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return How the values are smoothed over time.
+     */
+    public Smoothing getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * @return True if each burst is reduced by its median.
+     */
+    public boolean isMedian() {
+        return median;
+    }
+
+    /**
+     * @param newAlpha The weight of a new value in the moving average,
+     *                 between 0 and 1.
+     */
+    public synchronized void setAlpha(final double newAlpha) {
+        this.alpha = Math.max(0, Math.min(1, newAlpha));
+    }
+
+    /**
+     * @param newProcessNoise The variance the input is expected to change
+     *                        by each update, for the Kalman filter.
+     */
+    public synchronized void setProcessNoise(final double newProcessNoise) {
+        this.processNoise = Math.max(0, newProcessNoise);
+    }
+}
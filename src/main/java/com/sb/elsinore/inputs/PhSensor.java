@@ -5,6 +5,7 @@ import jGPIO.GPIO.Direction;
 import jGPIO.InPin;
 import jGPIO.InvalidGPIOException;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -26,6 +27,8 @@ public class PhSensor {
     public static final String AIN_PIN = "ainPin";
     public static final String OFFSET = "offset";
     public static final String MODEL = "model";
+    public static final String SAMPLES = "samples";
+    public static final String FILTER = "filter";
     private int ainPin = -1;
     private String dsAddress = "";
     private String dsOffset = "";
@@ -37,6 +40,16 @@ public class PhSensor {
     private boolean stopLogging = false;
     public I2CDevice i2cDevice = null;
     public int i2cChannel = -1;
+    private AnalogFilter filter = new AnalogFilter();
+    /**
+     * Reads one sample from the analog pin or I2C device.
+     */
+    private final AnalogFilter.Source source = new AnalogFilter.Source() {
+        @Override
+        public double read() throws Exception {
+            return readSample();
+        }
+    };
 
     /**
      * Create a blank pH Sensor.
@@ -152,62 +165,90 @@ public class PhSensor {
         retVal.put("name", name);
         retVal.put("deviceType", model);
         retVal.put("offset", getOffset());
+        retVal.put("noise", MathUtil.toBigDecimal(filter.getNoise()));
         return retVal;
     }
 
     /**
-     * Update the current reading.
+     * Update the current reading, filtering a burst of samples.
      * @return the current Analog Value.
      */
     public final BigDecimal updateReading() {
-        BigDecimal pinValue = new BigDecimal(0);
+        if (ainGPIO == null && !isOwfs()
+                && (i2cDevice == null || i2cChannel < 0)) {
+            return BigDecimal.ZERO;
+        }
 
-        if (ainGPIO != null) {
-            try {
-                pinValue = new BigDecimal(ainGPIO.readValue());
-                if (this.stopLogging) {
-                    BrewServer.LOG.log(Level.SEVERE,
-                        "Recovered pH level reading for " + this.name);
-                    this.stopLogging = false;
-                }
-            } catch (Exception e) {
-                if (!this.stopLogging) {
-                    BrewServer.LOG.log(Level.SEVERE,
-                        "Could not update the pH reading from Analogue", e);
-                    this.stopLogging = true;
-                }
-                BrewServer.LOG.info("Reconnecting OWFS");
-                LaunchControl.setupOWFS();
+        double value;
+        try {
+            if (isOwfs()) {
+                // OWFS returns the latest conversion, so one sample will do
+                value = filter.update(readSample());
+            } else {
+                value = filter.update(source);
             }
-        } else if (dsAddress != null && dsAddress.length() > 0
-                && dsOffset != null && dsOffset.length() > 0) {
-            try {
-                pinValue = new BigDecimal(
-                    LaunchControl.readOWFSPath(
-                        dsAddress + "/volt." + dsOffset));
-                if (this.stopLogging) {
-                    BrewServer.LOG.log(Level.SEVERE,
-                        "Recovered pH level reading for " + this.name);
-                    this.stopLogging = false;
-                }
-            } catch (Exception e) {
-                if (!this.stopLogging) {
-                    BrewServer.LOG.log(Level.SEVERE,
-                        "Could not update the pH reading from OWFS", e);
-                    this.stopLogging = true;
-                }
+            if (this.stopLogging) {
+                BrewServer.LOG.log(Level.SEVERE,
+                    "Recovered pH level reading for " + this.name);
+                this.stopLogging = false;
+            }
+        } catch (Exception e) {
+            if (!this.stopLogging) {
+                BrewServer.LOG.log(Level.SEVERE,
+                    "Could not update the pH reading for " + this.name, e);
+                this.stopLogging = true;
+            }
+            if (isOwfs()) {
                 BrewServer.LOG.info("Reconnecting OWFS");
-                LaunchControl.setupOWFS();
+                LaunchControl.reconnectOWFS();
             }
+            return BigDecimal.ZERO;
         }
-        else if (i2cDevice != null && i2cChannel > -1)
-        {
-            BrewServer.LOG.warning(String.format("Reading from %s channel %s", getI2CDevAddressString(), i2cChannel));
-            pinValue = new BigDecimal(i2cDevice.readValue(i2cChannel)).divide(BIGDEC_THOUSAND);
+
+        BrewServer.LOG.fine("Read: " + value + " noise " + filter.getNoise());
+        return MathUtil.toBigDecimal(value);
+    }
+
+    /**
+     * @return True if this sensor is read through OWFS.
+     */
+    private boolean isOwfs() {
+        return ainGPIO == null && dsAddress != null && dsAddress.length() > 0
+                && dsOffset != null && dsOffset.length() > 0;
+    }
+
+    /**
+     * Read one sample from the input.
+     * @return The sample in volts.
+     * @throws Exception If the input can't be read.
+     */
+    private double readSample() throws Exception {
+        if (ainGPIO != null) {
+            return Double.parseDouble(ainGPIO.readValue());
+        } else if (isOwfs()) {
+            return Double.parseDouble(LaunchControl.readOWFSPath(
+                    dsAddress + "/volt." + dsOffset));
+        }
+        float value = i2cDevice.readValue(i2cChannel);
+        if (value < 0) {
+            throw new IOException(String.format("Failed to read %s channel %s",
+                    getI2CDevAddressString(), i2cChannel));
         }
+        return value / 1000.0;
+    }
 
-        BrewServer.LOG.warning("Read: " + pinValue);
-        return pinValue;
+    /**
+     * @return The filter applied to the readings.
+     */
+    public final AnalogFilter getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * @param newFilter The filter to apply to the readings.
+     */
+    public final void setFilter(final AnalogFilter newFilter) {
+        this.filter = newFilter;
     }
 
     /**
@@ -323,7 +364,7 @@ public class PhSensor {
      */
     @PhSensorType(model = "SEN0161")
     public final BigDecimal calcSEN0161() {
-        BigDecimal readValue = this.getAverage(3);
+        BigDecimal readValue = this.updateReading();
         if (readValue.compareTo(BigDecimal.ZERO) <= 0)
         {
             return readValue;
@@ -367,6 +408,7 @@ public class PhSensor {
      */
     public final void setName(final String newName) {
         this.name = newName;
+        LaunchControl.phSensorList.reindex();
     }
 
     /**
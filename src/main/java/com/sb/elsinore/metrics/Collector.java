@@ -0,0 +1,16 @@
+package com.sb.elsinore.metrics;
+
+/**
+ * Something that writes metric families when the metrics are scraped.
+ *
+ * Counters and histograms are collectors, and values that are already
+ * counted elsewhere are read by a collector at scrape time instead of
+ * being copied on every change.
+ */
+public interface Collector {
+    /**
+     * Write the current values.
+     * @param out Where to write them.
+     */
+    void collect(TextFormat out);
+}
@@ -0,0 +1,126 @@
+package com.sb.elsinore.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, optionally split by labels.
+ */
+public final class Counter implements Collector {
+
+    /**
+     * The count for one set of label values.
+     */
+    public static final class Child {
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * Add one.
+         */
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        /**
+         * @param amount The amount to add.
+         */
+        public void inc(final long amount) {
+            value.addAndGet(amount);
+        }
+
+        /**
+         * @return The current count.
+         */
+        public long get() {
+            return value.get();
+        }
+    }
+
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, Child> children =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Use {@link Metrics#counter} to make one that's scraped.
+     * @param name The metric name, ending in _total.
+     * @param help What it counts.
+     * @param labelNames The label names, if it's split by labels.
+     */
+    public Counter(final String name, final String help,
+            final String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames.clone();
+        if (labelNames.length == 0) {
+            // Always show an unlabelled count, even at 0
+            labels();
+        }
+    }
+
+    /**
+     * @param values The label values, in the order of the label names.
+     * @return The count for those values.
+     */
+    public Child labels(final String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " takes "
+                    + labelNames.length + " labels, got " + values.length);
+        }
+        List<String> key = Arrays.asList(values);
+        Child child = children.get(key);
+        if (child == null) {
+            child = new Child();
+            Child existing = children.putIfAbsent(key, child);
+            if (existing != null) {
+                child = existing;
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Add one to a counter without labels.
+     */
+    public void inc() {
+        labels().inc();
+    }
+
+    /**
+     * @param amount The amount to add to a counter without labels.
+     */
+    public void inc(final long amount) {
+        labels().inc(amount);
+    }
+
+    /**
+     * Stop exporting the count for some label values, for a device
+     * that's gone. A child that's still held carries on counting unseen.
+     * @param values The label values, in the order of the label names.
+     */
+    public void remove(final String... values) {
+        children.remove(Arrays.asList(values));
+    }
+
+    /**
+     * @return The metric name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void collect(final TextFormat out) {
+        out.family(name, "counter", help);
+        for (Map.Entry<List<String>, Child> child : children.entrySet()) {
+            out.sample(name, labelNames,
+                    child.getKey().toArray(new String[labelNames.length]),
+                    child.getValue().get());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.sb.elsinore.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts observations into fixed buckets, optionally split by labels.
+ * Used for latencies, which are observed in seconds.
+ */
+public final class Histogram implements Collector {
+
+    /**
+     * Buckets for latencies from half a millisecond to ten seconds.
+     */
+    public static final double[] LATENCY = {0.0005, 0.001, 0.0025, 0.005,
+            0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /**
+     * The observations for one set of label values.
+     */
+    public final class Child {
+        // One more than the buckets for the ones above the last bound
+        private final AtomicLongArray counts =
+                new AtomicLongArray(bounds.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumBits = new AtomicLong();
+
+        /**
+         * @param value The value seen.
+         */
+        public void observe(final double value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            if (bucket < 0) {
+                bucket = -(bucket + 1);
+            }
+            counts.incrementAndGet(bucket);
+            count.incrementAndGet();
+            long old;
+            do {
+                old = sumBits.get();
+            } while (!sumBits.compareAndSet(old, Double.doubleToLongBits(
+                    Double.longBitsToDouble(old) + value)));
+        }
+
+        /**
+         * Observe the time since a start.
+         * @param startNanos The start, from {@link System#nanoTime()}.
+         */
+        public void observeSince(final long startNanos) {
+            observe((System.nanoTime() - startNanos)
+                    / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        /**
+         * @return The number of observations.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return The total of the observations.
+         */
+        public double getSum() {
+            return Double.longBitsToDouble(sumBits.get());
+        }
+    }
+
+    private final String name;
+    private final String help;
+    private final double[] bounds;
+    private final String[] labelNames;
+    private final String[] bucketLabels;
+    private final ConcurrentMap<List<String>, Child> children =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Use {@link Metrics#histogram} to make one that's scraped.
+     * @param name The metric name.
+     * @param help What it measures.
+     * @param bounds The upper bound of each bucket, in order.
+     * @param labelNames The label names, if it's split by labels.
+     */
+    public Histogram(final String name, final String help,
+            final double[] bounds, final String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.bounds = bounds.clone();
+        this.labelNames = labelNames.clone();
+        this.bucketLabels = Arrays.copyOf(labelNames, labelNames.length + 1);
+        this.bucketLabels[labelNames.length] = "le";
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException(name
+                        + " buckets must be in order");
+            }
+        }
+    }
+
+    /**
+     * @param values The label values, in the order of the label names.
+     * @return The observations for those values.
+     */
+    public Child labels(final String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " takes "
+                    + labelNames.length + " labels, got " + values.length);
+        }
+        List<String> key = Arrays.asList(values);
+        Child child = children.get(key);
+        if (child == null) {
+            child = new Child();
+            Child existing = children.putIfAbsent(key, child);
+            if (existing != null) {
+                child = existing;
+            }
+        }
+        return child;
+    }
+
+    /**
+     * @param value The value seen, for a histogram without labels.
+     */
+    public void observe(final double value) {
+        labels().observe(value);
+    }
+
+    /**
+     * @param startNanos The start, for a histogram without labels.
+     */
+    public void observeSince(final long startNanos) {
+        labels().observeSince(startNanos);
+    }
+
+    /**
+     * Stop exporting the observations for some label values, for a device
+     * that's gone. A child that's still held carries on counting unseen.
+     * @param values The label values, in the order of the label names.
+     */
+    public void remove(final String... values) {
+        children.remove(Arrays.asList(values));
+    }
+
+    /**
+     * @return The metric name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void collect(final TextFormat out) {
+        out.family(name, "histogram", help);
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            String[] values = entry.getKey().toArray(
+                    new String[labelNames.length + 1]);
+            Child child = entry.getValue();
+            long cumulative = 0;
+            for (int i = 0; i <= bounds.length; i++) {
+                cumulative += child.counts.get(i);
+                values[labelNames.length] = i < bounds.length
+                        ? TextFormat.format(bounds[i]) : "+Inf";
+                out.sample(name + "_bucket", bucketLabels, values,
+                        cumulative);
+            }
+            String[] plain = Arrays.copyOf(values, labelNames.length);
+            out.sample(name + "_sum", labelNames, plain, child.getSum());
+            // The +Inf bucket, so the count always matches the buckets
+            out.sample(name + "_count", labelNames, plain, cumulative);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.sb.elsinore.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics that are scraped at /metrics.
+ *
+ * Each class makes the counters and histograms for its own hot spots when
+ * it's loaded and keeps them in static fields, so recording a value is a
+ * couple of atomic operations with no lookup. Values that are counted
+ * elsewhere already are read by a registered {@link Collector} when the
+ * metrics are scraped.
+ */
+public final class Metrics {
+
+    private static final Map<String, Collector> COLLECTORS =
+            new LinkedHashMap<>();
+
+    static {
+        register("jvm", new Collector() {
+            @Override
+            public void collect(final TextFormat out) {
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                out.family("jvm_threads_current", "gauge",
+                        "Live threads, including daemon threads.");
+                out.sample("jvm_threads_current", threads.getThreadCount());
+                out.family("jvm_threads_daemon", "gauge", "Live daemon threads.");
+                out.sample("jvm_threads_daemon",
+                        threads.getDaemonThreadCount());
+                out.family("jvm_threads_peak", "gauge",
+                        "The most live threads since the JVM started.");
+                out.sample("jvm_threads_peak", threads.getPeakThreadCount());
+
+                MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+                        .getHeapMemoryUsage();
+                MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean()
+                        .getNonHeapMemoryUsage();
+                out.family("jvm_memory_bytes_used", "gauge",
+                        "Memory in use, by area.");
+                out.sample("jvm_memory_bytes_used", "area", "heap",
+                        heap.getUsed());
+                out.sample("jvm_memory_bytes_used", "area", "nonheap",
+                        nonHeap.getUsed());
+                out.family("jvm_memory_bytes_max", "gauge",
+                        "The most memory that can be used, by area.");
+                out.sample("jvm_memory_bytes_max", "area", "heap",
+                        heap.getMax());
+
+                out.family("process_uptime_seconds", "gauge",
+                        "Time since the server started.");
+                out.sample("process_uptime_seconds",
+                        ManagementFactory.getRuntimeMXBean().getUptime()
+                                / 1000.0);
+            }
+        });
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Make a counter and register it.
+     * @param name The metric name, ending in _total.
+     * @param help What it counts.
+     * @param labelNames The label names, if it's split by labels.
+     * @return The counter.
+     */
+    public static Counter counter(final String name, final String help,
+            final String... labelNames) {
+        Counter counter = new Counter(name, help, labelNames);
+        register(name, counter);
+        return counter;
+    }
+
+    /**
+     * Make a histogram and register it.
+     * @param name The metric name.
+     * @param help What it measures.
+     * @param bounds The upper bound of each bucket, in order.
+     * @param labelNames The label names, if it's split by labels.
+     * @return The histogram.
+     */
+    public static Histogram histogram(final String name, final String help,
+            final double[] bounds, final String... labelNames) {
+        Histogram histogram = new Histogram(name, help, bounds, labelNames);
+        register(name, histogram);
+        return histogram;
+    }
+
+    /**
+     * Add a collector to the scrape.
+     * @param name A name for the collector, unique among collectors.
+     * @param collector The collector.
+     */
+    public static synchronized void register(final String name,
+            final Collector collector) {
+        if (COLLECTORS.containsKey(name)) {
+            throw new IllegalArgumentException(name
+                    + " is already registered");
+        }
+        COLLECTORS.put(name, collector);
+    }
+
+    /**
+     * Remove a collector from the scrape.
+     * @param name The name it was registered as.
+     */
+    public static synchronized void unregister(final String name) {
+        COLLECTORS.remove(name);
+    }
+
+    /**
+     * @return Every registered metric in the Prometheus text format.
+     */
+    public static String scrape() {
+        List<Collector> collectors;
+        synchronized (Metrics.class) {
+            collectors = new ArrayList<>(COLLECTORS.values());
+        }
+        StringBuilder out = new StringBuilder();
+        TextFormat format = new TextFormat(out);
+        for (Collector collector : collectors) {
+            collector.collect(format);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.sb.elsinore.metrics;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ */
+public final class TextFormat {
+
+    /**
+     * The content type Prometheus expects for this format.
+     */
+    public static final String CONTENT_TYPE =
+            "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] NONE = new String[0];
+
+    private final StringBuilder out;
+
+    /**
+     * @param out Where to write the metrics.
+     */
+    public TextFormat(final StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Start a metric family, before its samples.
+     * @param name The metric name.
+     * @param type counter, gauge or histogram.
+     * @param help What the metric measures.
+     */
+    public void family(final String name, final String type,
+            final String help) {
+        out.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type)
+                .append('\n');
+    }
+
+    /**
+     * Write a sample without labels.
+     * @param name The sample name.
+     * @param value The value.
+     */
+    public void sample(final String name, final double value) {
+        sample(name, NONE, NONE, value);
+    }
+
+    /**
+     * Write a sample with a single label.
+     * @param name The sample name.
+     * @param labelName The label name.
+     * @param labelValue The label value.
+     * @param value The value.
+     */
+    public void sample(final String name, final String labelName,
+            final String labelValue, final double value) {
+        sample(name, new String[] {labelName}, new String[] {labelValue},
+                value);
+    }
+
+    /**
+     * Write a sample.
+     * @param name The sample name.
+     * @param labelNames The label names.
+     * @param labelValues The label values, in the same order.
+     * @param value The value.
+     */
+    public void sample(final String name, final String[] labelNames,
+            final String[] labelValues, final double value) {
+        out.append(name);
+        if (labelNames.length > 0) {
+            out.append('{');
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labelNames[i]).append("=\"");
+                escape(labelValues[i]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * @param value A sample value.
+     * @return The value as Prometheus writes it.
+     */
+    public static String format(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private void escape(final String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
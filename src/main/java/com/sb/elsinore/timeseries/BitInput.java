@@ -0,0 +1,55 @@
+package com.sb.elsinore.timeseries;
+
+import java.io.IOException;
+
+/**
+ * Reads bits back out of a byte array written by {@link BitOutput}.
+ */
+final class BitInput {
+
+    private final byte[] buffer;
+    private final int bitLimit;
+    private int bitPos = 0;
+
+    BitInput(final byte[] buffer) {
+        this.buffer = buffer;
+        this.bitLimit = buffer.length * 8;
+    }
+
+    /**
+     * @return The next bit.
+     * @throws IOException If there are no bits left.
+     */
+    boolean readBit() throws IOException {
+        if (bitPos >= bitLimit) {
+            throw new IOException("Read past the end of the block");
+        }
+        boolean bit = (buffer[bitPos >>> 3] & (0x80 >>> (bitPos & 7))) != 0;
+        bitPos++;
+        return bit;
+    }
+
+    /**
+     * @param bits The number of bits to read, 0 to 64.
+     * @return The bits as the low bits of a long.
+     * @throws IOException If there aren't enough bits left.
+     */
+    long readBits(final int bits) throws IOException {
+        if (bitPos + bits > bitLimit) {
+            throw new IOException("Read past the end of the block");
+        }
+        long value = 0;
+        int remaining = bits;
+        while (remaining > 0) {
+            int bitOffset = bitPos & 7;
+            int available = 8 - bitOffset;
+            int count = Math.min(available, remaining);
+            int current = buffer[bitPos >>> 3] & 0xff;
+            int chunk = (current >>> (available - count)) & ((1 << count) - 1);
+            value = (value << count) | chunk;
+            bitPos += count;
+            remaining -= count;
+        }
+        return value;
+    }
+}
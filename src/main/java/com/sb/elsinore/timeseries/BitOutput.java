@@ -0,0 +1,72 @@
+package com.sb.elsinore.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer that bits are written into, most significant bit first.
+ */
+final class BitOutput {
+
+    private byte[] buffer;
+    private int bitLength = 0;
+
+    BitOutput() {
+        this(64);
+    }
+
+    BitOutput(final int initialBytes) {
+        this.buffer = new byte[Math.max(initialBytes, 8)];
+    }
+
+    /**
+     * @param bit The bit to write.
+     */
+    void writeBit(final boolean bit) {
+        ensureCapacity(1);
+        if (bit) {
+            buffer[bitLength >>> 3] |= (byte) (0x80 >>> (bitLength & 7));
+        }
+        bitLength++;
+    }
+
+    /**
+     * Write the lowest bits of a value.
+     * @param value The value to write.
+     * @param bits The number of bits to write, 0 to 64.
+     */
+    void writeBits(final long value, final int bits) {
+        ensureCapacity(bits);
+        int remaining = bits;
+        while (remaining > 0) {
+            int bytePos = bitLength >>> 3;
+            int bitOffset = bitLength & 7;
+            int free = 8 - bitOffset;
+            int count = Math.min(free, remaining);
+            int chunk = (int) ((value >>> (remaining - count)) & ((1 << count) - 1));
+            buffer[bytePos] |= (byte) (chunk << (free - count));
+            bitLength += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * @return The number of bits written.
+     */
+    int bitLength() {
+        return bitLength;
+    }
+
+    /**
+     * @return The bytes written so far, the last byte is zero padded.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, (bitLength + 7) >>> 3);
+    }
+
+    private void ensureCapacity(final int bits) {
+        int needed = (bitLength + bits + 7) >>> 3;
+        if (needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+        }
+    }
+}
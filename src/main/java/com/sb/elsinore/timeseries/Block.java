@@ -0,0 +1,208 @@
+package com.sb.elsinore.timeseries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A compressed block of samples in a series file.
+ *
+ * Timestamps are stored as delta-of-deltas and values are XORed against
+ * the previous value, as described in the Facebook Gorilla paper.
+ * Each block is self contained so it can be decoded, or skipped using the
+ * header alone.
+ *
+ * Layout (big endian):
+ * <pre>
+ * short  MARKER
+ * int    count
+ * long   first timestamp
+ * long   last timestamp
+ * int    payload length in bytes
+ * int    CRC32 of the payload
+ * byte[] payload
+ * </pre>
+ */
+final class Block {
+
+    static final short MARKER = (short) 0xE15E;
+    static final int HEADER_SIZE = 2 + 4 + 8 + 8 + 4 + 4;
+
+    private final BitOutput bits = new BitOutput(256);
+    private int count = 0;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long previousDelta;
+    private long previousValue;
+    private int previousLeading = -1;
+    private int previousTrailing = 0;
+
+    /**
+     * Add a sample to the block.
+     * @param timestamp The timestamp in milliseconds.
+     * @param value The value.
+     */
+    void append(final long timestamp, final double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            bits.writeBits(timestamp, 64);
+            bits.writeBits(valueBits, 64);
+            previousDelta = 0;
+        } else {
+            long delta = timestamp - lastTimestamp;
+            writeDeltaOfDelta(delta - previousDelta);
+            previousDelta = delta;
+            writeValue(valueBits);
+        }
+        previousValue = valueBits;
+        lastTimestamp = timestamp;
+        count++;
+    }
+
+    private void writeDeltaOfDelta(final long dod) {
+        if (dod == 0) {
+            bits.writeBit(false);
+        } else if (dod >= -64 && dod <= 63) {
+            bits.writeBits(0x2, 2);
+            bits.writeBits(dod, 7);
+        } else if (dod >= -256 && dod <= 255) {
+            bits.writeBits(0x6, 3);
+            bits.writeBits(dod, 9);
+        } else if (dod >= -2048 && dod <= 2047) {
+            bits.writeBits(0xE, 4);
+            bits.writeBits(dod, 12);
+        } else {
+            bits.writeBits(0xF, 4);
+            bits.writeBits(dod, 64);
+        }
+    }
+
+    private void writeValue(final long valueBits) {
+        long xor = valueBits ^ previousValue;
+        if (xor == 0) {
+            bits.writeBit(false);
+            return;
+        }
+        bits.writeBit(true);
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading != -1 && leading >= previousLeading
+                && trailing >= previousTrailing) {
+            // Fits in the previous window
+            bits.writeBit(false);
+            bits.writeBits(xor >>> previousTrailing,
+                    64 - previousLeading - previousTrailing);
+        } else {
+            int significant = 64 - leading - trailing;
+            bits.writeBit(true);
+            bits.writeBits(leading, 5);
+            bits.writeBits(significant - 1, 6);
+            bits.writeBits(xor >>> trailing, significant);
+            previousLeading = leading;
+            previousTrailing = trailing;
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @param count The number of samples.
+     * @return The most bytes a block of that many samples can take.
+     */
+    static int maxSize(final int count) {
+        // The first sample is two raw longs, after that the worst case is
+        // a 4 + 64 bit delta-of-delta and a 2 + 5 + 6 + 64 bit value
+        long bits = 128 + Math.max(count - 1, 0) * (68L + 77L);
+        return HEADER_SIZE + (int) ((bits + 7) / 8);
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return The block with its header, ready to write to disk.
+     */
+    ByteBuffer toByteBuffer() {
+        byte[] payload = bits.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putShort(MARKER);
+        buffer.putInt(count);
+        buffer.putLong(firstTimestamp);
+        buffer.putLong(lastTimestamp);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a block payload into the series data.
+     * @param payload The payload bytes.
+     * @param count The number of samples in the payload.
+     * @param into The data to append the samples to.
+     * @throws IOException If the payload is corrupt.
+     */
+    static void decode(final byte[] payload, final int count,
+            final SeriesData into) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        BitInput in = new BitInput(payload);
+        long timestamp = in.readBits(64);
+        long valueBits = in.readBits(64);
+        into.add(timestamp, Double.longBitsToDouble(valueBits));
+
+        long delta = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(5);
+                    int significant = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - significant;
+                } else if (leading == -1) {
+                    throw new IOException("Value window used before it was set");
+                }
+                long xor = in.readBits(64 - leading - trailing) << trailing;
+                valueBits ^= xor;
+            }
+            into.add(timestamp, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    private static long readDeltaOfDelta(final BitInput in) throws IOException {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(7), 7);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(9), 9);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(12), 12);
+        }
+        return in.readBits(64);
+    }
+
+    private static long signExtend(final long value, final int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+}
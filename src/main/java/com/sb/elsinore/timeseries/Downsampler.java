@@ -0,0 +1,165 @@
+package com.sb.elsinore.timeseries;
+
+/**
+ * Reduces a series to a bounded number of points for graphing.
+ */
+public final class Downsampler {
+
+    /**
+     * The ways a series can be downsampled.
+     */
+    public enum Mode {
+        /**
+         * Largest-Triangle-Three-Buckets, keeps the visual shape.
+         */
+        LTTB,
+        /**
+         * The minimum and maximum of each bucket, keeps every peak.
+         */
+        MINMAX;
+
+        /**
+         * Get the mode for a request parameter.
+         * @param name The name of the mode, case insensitive.
+         * @return The mode, LTTB if the name isn't known.
+         */
+        public static Mode parse(final String name) {
+            if (name != null) {
+                for (Mode mode : values()) {
+                    if (mode.name().equalsIgnoreCase(name)) {
+                        return mode;
+                    }
+                }
+            }
+            return LTTB;
+        }
+    }
+
+    private Downsampler() {
+    }
+
+    /**
+     * Downsample a series.
+     * @param data The series in timestamp order.
+     * @param maxPoints The maximum number of points to return,
+     *                  zero or less for all of them.
+     * @param mode How to pick the points.
+     * @return The downsampled series, or the original if it's small enough.
+     */
+    public static SeriesData downsample(final SeriesData data,
+            final int maxPoints, final Mode mode) {
+        if (maxPoints <= 0 || data.size() <= maxPoints) {
+            return data;
+        }
+        if (mode == Mode.MINMAX) {
+            return minMax(data, maxPoints);
+        }
+        return lttb(data, maxPoints);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets downsampling, as described in
+     * Sveinn Steinarsson's thesis. The first and last points are kept and
+     * each bucket in between keeps the point that makes the largest triangle
+     * with the previous pick and the average of the next bucket.
+     * @param data The series in timestamp order.
+     * @param threshold The number of points to return, at least 3.
+     * @return The downsampled series.
+     */
+    public static SeriesData lttb(final SeriesData data, final int threshold) {
+        int size = data.size();
+        if (threshold >= size || threshold < 3) {
+            return data;
+        }
+        SeriesData sampled = new SeriesData(threshold);
+        double every = (double) (size - 2) / (threshold - 2);
+
+        int a = 0;
+        sampled.add(data.getTimestamp(a), data.getValue(a));
+        for (int i = 0; i < threshold - 2; i++) {
+            // Average of the next bucket
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += data.getTimestamp(j);
+                avgY += data.getValue(j);
+            }
+            int avgLength = avgEnd - avgStart;
+            avgX /= avgLength;
+            avgY /= avgLength;
+
+            // Pick the point in this bucket with the largest triangle
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            double pointAX = data.getTimestamp(a);
+            double pointAY = data.getValue(a);
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((pointAX - avgX)
+                        * (data.getValue(j) - pointAY)
+                        - (pointAX - data.getTimestamp(j))
+                        * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled.add(data.getTimestamp(next), data.getValue(next));
+            a = next;
+        }
+        sampled.add(data.getTimestamp(size - 1), data.getValue(size - 1));
+        return sampled;
+    }
+
+    /**
+     * Min/max downsampling. The series is split into buckets of equal time
+     * and each bucket keeps its lowest and highest points in time order,
+     * so no spike is lost.
+     * @param data The series in timestamp order.
+     * @param maxPoints The maximum number of points to return, at least 2.
+     * @return The downsampled series.
+     */
+    public static SeriesData minMax(final SeriesData data,
+            final int maxPoints) {
+        int size = data.size();
+        if (maxPoints >= size || maxPoints < 2) {
+            return data;
+        }
+        int buckets = maxPoints / 2;
+        SeriesData sampled = new SeriesData(maxPoints);
+        long start = data.getTimestamp(0);
+        long span = data.getTimestamp(size - 1) - start + 1;
+
+        int i = 0;
+        for (int bucket = 0; bucket < buckets && i < size; bucket++) {
+            long bucketEnd = start + (long) ((double) span
+                    * (bucket + 1) / buckets);
+            int min = i;
+            int max = i;
+            while (i < size && (data.getTimestamp(i) < bucketEnd
+                    || bucket == buckets - 1)) {
+                if (data.getValue(i) < data.getValue(min)) {
+                    min = i;
+                }
+                if (data.getValue(i) > data.getValue(max)) {
+                    max = i;
+                }
+                i++;
+            }
+            if (i == min) {
+                // Empty bucket
+                continue;
+            }
+            int first = Math.min(min, max);
+            int second = Math.max(min, max);
+            sampled.add(data.getTimestamp(first), data.getValue(first));
+            if (second != first) {
+                sampled.add(data.getTimestamp(second), data.getValue(second));
+            }
+        }
+        return sampled;
+    }
+}
@@ -0,0 +1,172 @@
+package com.sb.elsinore.timeseries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Holds the open bucket of every tier of a series, so a restart carries on
+ * with the same buckets rather than writing them a second time.
+ *
+ * The buckets are rewritten on every sync, in two slots that are written
+ * in turn. A write never goes to the slot holding the last synced copy, so
+ * a torn write can only lose what wasn't synced yet.
+ *
+ * Layout (big endian), two slots of:
+ * <pre>
+ * long   generation, higher is newer
+ * byte[] the open bucket of each tier in order, as
+ *        {@link Rollup#writeRecord(ByteBuffer)}
+ * int    CRC32 of everything above in the slot
+ * </pre>
+ */
+final class OpenBucketFile implements Closeable {
+
+    /**
+     * Added to the series name.
+     */
+    static final String SUFFIX =
+            RollupFile.EXTENSION + PendingBlockFile.SUFFIX;
+
+    private static final int SLOT_SIZE =
+            8 + RollupTier.values().length * Rollup.RECORD_SIZE + 4;
+
+    private final File file;
+    private FileChannel channel;
+    private long generation = 0;
+    private boolean unsynced = false;
+
+    /**
+     * @param file The file to keep the open buckets in.
+     */
+    OpenBucketFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the newest good copy of the open buckets.
+     * @param into The open bucket of each tier, in tier order, left empty
+     *             if there isn't a good copy.
+     * @throws IOException If the file can't be read.
+     */
+    void load(final Rollup[] into) throws IOException {
+        ByteBuffer slot = read(file);
+        if (slot == null) {
+            return;
+        }
+        generation = slot.getLong(0);
+        for (Rollup rollup : into) {
+            rollup.readRecord(slot);
+        }
+    }
+
+    /**
+     * Write the open buckets, they aren't on disk until {@link #sync()}.
+     * @param rollups The open bucket of each tier, in tier order.
+     * @throws IOException If the write fails.
+     */
+    void write(final Rollup[] rollups) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putLong(++generation);
+        for (Rollup rollup : rollups) {
+            rollup.writeRecord(slot);
+        }
+        slot.putInt(crc(slot.array()));
+        slot.flip();
+        // Alternate slots, the other one holds the last synced copy
+        long position = (generation % 2) * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            position += channel.write(slot, position);
+        }
+        unsynced = true;
+    }
+
+    /**
+     * Force the last copy written to the disk.
+     * @throws IOException If the sync fails.
+     */
+    void sync() throws IOException {
+        if (channel != null && unsynced) {
+            channel.force(false);
+            unsynced = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Read the open buckets of a series that isn't being written.
+     * @param file The file the open buckets are kept in.
+     * @param tier The tier to read.
+     * @return The open bucket of the tier, or null if there isn't one.
+     * @throws IOException If the file can't be read.
+     */
+    static Rollup read(final File file, final RollupTier tier)
+            throws IOException {
+        ByteBuffer slot = read(file);
+        if (slot == null) {
+            return null;
+        }
+        slot.position(8 + tier.ordinal() * Rollup.RECORD_SIZE);
+        Rollup rollup = new Rollup(tier);
+        rollup.readRecord(slot);
+        return rollup.isEmpty() ? null : rollup;
+    }
+
+    /**
+     * @return The newest good slot positioned after its generation, or
+     * null if there isn't one.
+     */
+    private static ByteBuffer read(final File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer best = null;
+            for (int i = 0; i < 2; i++) {
+                ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+                long position = (long) i * SLOT_SIZE;
+                while (slot.hasRemaining()) {
+                    int read = channel.read(slot, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    position += read;
+                }
+                if (slot.hasRemaining()
+                        || slot.getInt(SLOT_SIZE - 4) != crc(slot.array())) {
+                    continue;
+                }
+                if (best == null || slot.getLong(0) > best.getLong(0)) {
+                    best = slot;
+                }
+            }
+            if (best != null) {
+                best.position(8);
+            }
+            return best;
+        }
+    }
+
+    private static int crc(final byte[] slot) {
+        CRC32 crc = new CRC32();
+        crc.update(slot, 0, SLOT_SIZE - 4);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,213 @@
+package com.sb.elsinore.timeseries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Holds the samples of a series' open block that hasn't filled up yet.
+ *
+ * The series file itself is only ever appended to with full blocks. Each
+ * flush appends just the samples added since the last one to this file,
+ * as a small block of their own, so a flush costs a few bytes per sample
+ * rather than a rewrite of the whole open block. The file is emptied once
+ * the open block is in the series file.
+ *
+ * Only the end of the file is ever written, so a torn write can only
+ * damage the last frame, which wasn't synced yet. Reading stops at the
+ * first frame that's torn or older than the one before it.
+ *
+ * Layout (big endian):
+ * <pre>
+ * long   offset in the series file the open block belongs at
+ * int    CRC32 of the offset
+ * block  x n: the samples of each flush, as {@link Block#toByteBuffer()}
+ * </pre>
+ */
+final class PendingBlockFile implements Closeable {
+
+    /**
+     * Added to the series file name.
+     */
+    static final String SUFFIX = ".open";
+
+    private static final int FILE_HEADER = 8 + 4;
+
+    private final File file;
+    private FileChannel channel;
+    private long position = 0;
+    private boolean written = false;
+    private boolean truncated = false;
+
+    /**
+     * @param seriesFile The series file the open block belongs to.
+     */
+    PendingBlockFile(final File seriesFile) {
+        this.file = fileFor(seriesFile);
+    }
+
+    /**
+     * @param seriesFile The series file.
+     * @return The file its open block is kept in.
+     */
+    static File fileFor(final File seriesFile) {
+        return new File(seriesFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Append samples of the open block, they aren't on disk until
+     * {@link #sync()}.
+     * @param offset The offset the open block will have in the series file.
+     * @param samples The samples added since the last append.
+     * @return The number of bytes written.
+     * @throws IOException If the write fails.
+     */
+    int append(final long offset, final Block samples) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            position = 0;
+        }
+        int bytes = 0;
+        if (position == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            header.putLong(offset);
+            header.putInt(crc(header.array(), 8));
+            header.flip();
+            bytes += writeFully(header);
+        }
+        bytes += writeFully(samples.toByteBuffer());
+        written = true;
+        return bytes;
+    }
+
+    /**
+     * Empty the file for the next open block, once the last one is safely
+     * in the series file.
+     * @throws IOException If the file can't be truncated.
+     */
+    void reset() throws IOException {
+        if (channel != null && position > 0) {
+            channel.truncate(0);
+            position = 0;
+            truncated = true;
+        }
+    }
+
+    /**
+     * Force what's been appended to the disk.
+     * @throws IOException If the sync fails.
+     */
+    void sync() throws IOException {
+        if (channel != null && (written || truncated)) {
+            // The new length has to be on disk too after a reset
+            channel.force(truncated);
+            written = false;
+            truncated = false;
+        }
+    }
+
+    /**
+     * Remove the file, once the open block is safely in the series file.
+     * @throws IOException If the file can't be closed.
+     */
+    void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Read the good samples of the open block of a series.
+     * @param seriesFile The series file.
+     * @param offset The end of the last good block in the series file,
+     *               samples for anywhere else are already in a full block.
+     * @return The samples in timestamp order, or null if there aren't any.
+     * @throws IOException If the file can't be read.
+     */
+    static SeriesData read(final File seriesFile, final long offset)
+            throws IOException {
+        File file = fileFor(seriesFile);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            if (!readFully(channel, header, 0)
+                    || header.getInt(8) != crc(header.array(), 8)
+                    || header.getLong(0) != offset) {
+                return null;
+            }
+            SeriesData data = new SeriesData();
+            long position = FILE_HEADER;
+            long lastTimestamp = Long.MIN_VALUE;
+            ByteBuffer frameHeader = ByteBuffer.allocate(Block.HEADER_SIZE);
+            while (true) {
+                frameHeader.clear();
+                if (!readFully(channel, frameHeader, position)) {
+                    break;
+                }
+                frameHeader.flip();
+                SeriesReader.BlockInfo frame =
+                        SeriesReader.parseHeader(frameHeader, position);
+                if (frame == null
+                        || frame.getFirstTimestamp() < lastTimestamp) {
+                    break;
+                }
+                try {
+                    SeriesReader.read(channel, frame, Long.MIN_VALUE,
+                            Long.MAX_VALUE, data);
+                } catch (IOException e) {
+                    // Torn or corrupt, nothing after it was synced
+                    break;
+                }
+                lastTimestamp = frame.getLastTimestamp();
+                position = frame.getEnd();
+            }
+            return data.size() == 0 ? null : data;
+        }
+    }
+
+    private static int crc(final byte[] bytes, final int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private int writeFully(final ByteBuffer buffer) throws IOException {
+        long start = position;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return (int) (position - start);
+    }
+
+    private static boolean readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                return false;
+            }
+            pos += read;
+        }
+        return true;
+    }
+}
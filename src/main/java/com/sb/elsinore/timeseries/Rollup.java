@@ -0,0 +1,141 @@
+package com.sb.elsinore.timeseries;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The open bucket of one series in one tier.
+ *
+ * A bucket is stored as one record holding all of its aggregates.
+ *
+ * Record layout (big endian):
+ * <pre>
+ * long   bucket start
+ * int    count, 0 for no bucket
+ * double min
+ * double max
+ * double sum
+ * double last
+ * </pre>
+ */
+final class Rollup {
+
+    /**
+     * The size of a bucket record in bytes.
+     */
+    static final int RECORD_SIZE = 8 + 4 + 8 * 4;
+
+    private final RollupTier tier;
+    private long start = Long.MIN_VALUE;
+    private double min;
+    private double max;
+    private double sum;
+    private double last;
+    private int count = 0;
+
+    Rollup(final RollupTier tier) {
+        this.tier = tier;
+    }
+
+    /**
+     * @param timestamp The timestamp of the sample.
+     * @return True if the sample is past the open bucket, which has to be
+     * written out before adding it.
+     */
+    boolean closes(final long timestamp) {
+        return count > 0 && tier.bucketStart(timestamp) > start;
+    }
+
+    /**
+     * Add a sample to the open bucket, starting one if needed.
+     * @param timestamp The timestamp of the sample.
+     * @param value The value.
+     */
+    void add(final long timestamp, final double value) {
+        if (count == 0) {
+            start = tier.bucketStart(timestamp);
+            min = value;
+            max = value;
+            sum = 0;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        sum += value;
+        last = value;
+        count++;
+    }
+
+    /**
+     * Drop the bucket, once it's been written out.
+     */
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * @param out Where to put the bucket as a record.
+     */
+    void writeRecord(final ByteBuffer out) {
+        out.putLong(start);
+        out.putInt(count);
+        out.putDouble(min);
+        out.putDouble(max);
+        out.putDouble(sum);
+        out.putDouble(last);
+    }
+
+    /**
+     * Replace the bucket with a record.
+     * @param in The record.
+     */
+    void readRecord(final ByteBuffer in) {
+        start = in.getLong();
+        count = Math.max(0, in.getInt());
+        min = in.getDouble();
+        max = in.getDouble();
+        sum = in.getDouble();
+        last = in.getDouble();
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    double getMin() {
+        return min;
+    }
+
+    double getMax() {
+        return max;
+    }
+
+    double getMean() {
+        return sum / count;
+    }
+
+    double getLast() {
+        return last;
+    }
+
+    /**
+     * Add the bucket to graph data.
+     * @param mode MINMAX for the min and max, otherwise the mean.
+     * @param into The data to add the points to, stamped with the start.
+     */
+    void addTo(final Downsampler.Mode mode, final SeriesData into) {
+        if (mode == Downsampler.Mode.MINMAX) {
+            into.add(start, min);
+            into.add(start, max);
+        } else {
+            into.add(start, getMean());
+        }
+    }
+}
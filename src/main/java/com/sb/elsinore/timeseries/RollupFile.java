@@ -0,0 +1,235 @@
+package com.sb.elsinore.timeseries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The complete buckets of one series in one tier.
+ *
+ * Each bucket is a fixed size record with all of its aggregates,
+ * appended once the bucket is complete, so the records are in start
+ * order and a range is found by a binary search. A bucket start is never
+ * written twice.
+ *
+ * Layout (big endian): records of
+ * <pre>
+ * byte[] the bucket, as {@link Rollup#writeRecord(ByteBuffer)}
+ * int    CRC32 of the bucket
+ * </pre>
+ */
+final class RollupFile implements Closeable {
+
+    /**
+     * The file extension for tier files.
+     */
+    static final String EXTENSION = ".rollup";
+
+    /**
+     * The size of a record in the file.
+     */
+    static final int SIZE = Rollup.RECORD_SIZE + 4;
+
+    private final File file;
+    private FileChannel channel;
+    private long length;
+    private long lastStart = Long.MIN_VALUE;
+    private boolean unsynced = false;
+
+    /**
+     * @param file The tier file of the series.
+     */
+    RollupFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The start of the last bucket written, Long.MIN_VALUE if there
+     * isn't one.
+     * @throws IOException If the file can't be opened.
+     */
+    long getLastStart() throws IOException {
+        open();
+        return lastStart;
+    }
+
+    /**
+     * Write a complete bucket, it isn't on disk until {@link #sync()}.
+     * @param bucket The bucket.
+     * @throws IOException If the write fails.
+     */
+    void append(final Rollup bucket) throws IOException {
+        open();
+        if (bucket.isEmpty() || bucket.getStart() <= lastStart) {
+            // Already written before a restart
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(SIZE);
+        bucket.writeRecord(record);
+        record.putInt(crc(record.array()));
+        record.flip();
+        long position = length;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        length = position;
+        lastStart = bucket.getStart();
+        unsynced = true;
+    }
+
+    /**
+     * Force the buckets written to the disk.
+     * @throws IOException If the sync fails.
+     */
+    void sync() throws IOException {
+        if (channel != null && unsynced) {
+            channel.force(false);
+            unsynced = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Open the file, dropping a torn record from the end.
+     */
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create "
+                    + directory.getAbsolutePath());
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        length = channel.size() - channel.size() % SIZE;
+        if (length > 0 && readRecord(channel, length / SIZE - 1) == null) {
+            length -= SIZE;
+        }
+        if (channel.size() > length) {
+            channel.truncate(length);
+        }
+        lastStart = lastStart(channel, length);
+    }
+
+    /**
+     * Read the buckets between two starts.
+     * @param file The tier file of the series.
+     * @param tier The tier.
+     * @param from The first bucket start to include.
+     * @param to The last bucket start to include.
+     * @param mode MINMAX for the min and max of each bucket, otherwise
+     *             the mean.
+     * @param into The data to add the buckets to, stamped with their start.
+     * @return The start of the last bucket in the file, Long.MIN_VALUE if
+     * there isn't one.
+     * @throws IOException If the file can't be read.
+     */
+    static long read(final File file, final RollupTier tier,
+            final long from, final long to, final Downsampler.Mode mode,
+            final SeriesData into) throws IOException {
+        if (!file.exists()) {
+            return Long.MIN_VALUE;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long records = channel.size() / SIZE;
+            // The first record starting at or after from
+            long low = 0;
+            long high = records;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (readStart(channel, middle) < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            Rollup bucket = new Rollup(tier);
+            for (long i = low; i < records; i++) {
+                ByteBuffer record = readRecord(channel, i);
+                if (record == null) {
+                    // Torn, skip it
+                    continue;
+                }
+                bucket.readRecord(record);
+                if (bucket.getStart() > to) {
+                    break;
+                }
+                if (!bucket.isEmpty()) {
+                    bucket.addTo(mode, into);
+                }
+            }
+            return lastStart(channel, records * SIZE);
+        }
+    }
+
+    /**
+     * @param channel The open file.
+     * @param length The length of the good records.
+     * @return The start of the last good record, Long.MIN_VALUE if there
+     * isn't one.
+     */
+    private static long lastStart(final FileChannel channel,
+            final long length) throws IOException {
+        for (long i = length / SIZE - 1; i >= 0; i--) {
+            ByteBuffer record = readRecord(channel, i);
+            if (record != null) {
+                return record.getLong(0);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static long readStart(final FileChannel channel,
+            final long record) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(8);
+        readFully(channel, start, record * SIZE);
+        return start.getLong(0);
+    }
+
+    /**
+     * @return The record, or null if it fails its CRC.
+     */
+    private static ByteBuffer readRecord(final FileChannel channel,
+            final long record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        readFully(channel, buffer, record * SIZE);
+        if (buffer.getInt(Rollup.RECORD_SIZE) != crc(buffer.array())) {
+            return null;
+        }
+        buffer.position(0);
+        buffer.limit(Rollup.RECORD_SIZE);
+        return buffer;
+    }
+
+    private static int crc(final byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, Rollup.RECORD_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos += read;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.sb.elsinore.timeseries;
+
+import com.sb.elsinore.BrewServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the min, max, mean, last and count of every series per minute,
+ * per 15 minutes and per hour.
+ *
+ * Each tier is a sub directory of the raw series holding a
+ * {@link RollupFile} per series (e.g. "1m/28-0000012345-temp.rollup"),
+ * with one record per bucket for all of its aggregates. A bucket is
+ * written once it's complete. The open bucket of each tier is kept in
+ * memory and added to reads, and saved to an {@link OpenBucketFile} on
+ * every sync, so a restart in the middle of a bucket carries on with it.
+ */
+final class RollupStore implements Closeable {
+
+    /**
+     * The rollups of one series.
+     */
+    private static final class Series {
+        private final Rollup[] open = new Rollup[RollupTier.values().length];
+        private final RollupFile[] files =
+                new RollupFile[RollupTier.values().length];
+        private final OpenBucketFile openFile;
+        private boolean dirty = false;
+
+        Series(final File directory, final String name) {
+            for (RollupTier tier : RollupTier.values()) {
+                open[tier.ordinal()] = new Rollup(tier);
+                files[tier.ordinal()] = new RollupFile(
+                        getFile(directory, tier, name));
+            }
+            openFile = new OpenBucketFile(getOpenFile(directory, name));
+        }
+    }
+
+    private final File directory;
+    private final ConcurrentMap<String, Series> series =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param directory The directory of the raw series.
+     */
+    RollupStore(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param directory The directory of the raw series.
+     * @param tier The tier.
+     * @param series The name of the series.
+     * @return The file the complete buckets are kept in.
+     */
+    static File getFile(final File directory, final RollupTier tier,
+            final String series) {
+        return new File(new File(directory, tier.getDirectoryName()),
+                series + RollupFile.EXTENSION);
+    }
+
+    /**
+     * @param directory The directory of the raw series.
+     * @param series The name of the series.
+     * @return The file the open buckets are kept in.
+     */
+    static File getOpenFile(final File directory, final String series) {
+        return new File(directory, series + OpenBucketFile.SUFFIX);
+    }
+
+    /**
+     * Add a sample to the open bucket of every tier, writing out the
+     * buckets it closes.
+     * @param name The name of the series.
+     * @param timestamp The timestamp in milliseconds.
+     * @param value The value.
+     * @throws IOException If a complete bucket couldn't be written.
+     */
+    void append(final String name, final long timestamp,
+            final double value) throws IOException {
+        Series rollups = getSeries(name);
+        synchronized (rollups) {
+            rollups.dirty = true;
+            for (RollupTier tier : RollupTier.values()) {
+                Rollup rollup = rollups.open[tier.ordinal()];
+                if (rollup.closes(timestamp)) {
+                    try {
+                        rollups.files[tier.ordinal()].append(rollup);
+                    } finally {
+                        rollup.clear();
+                    }
+                }
+                rollup.add(timestamp, value);
+            }
+        }
+    }
+
+    /**
+     * Read the buckets of a series between two timestamps.
+     * @param name The name of the series.
+     * @param tier The tier to read.
+     * @param from The first bucket start to include.
+     * @param to The last bucket start to include.
+     * @param mode MINMAX for the min and max of each bucket,
+     *             otherwise the mean.
+     * @return The buckets in timestamp order, stamped with their start.
+     * @throws IOException If the tier can't be read.
+     */
+    SeriesData read(final String name, final RollupTier tier,
+            final long from, final long to, final Downsampler.Mode mode)
+            throws IOException {
+        SeriesData data = new SeriesData();
+        Series rollups = series.get(name);
+        if (rollups != null) {
+            synchronized (rollups) {
+                RollupFile.read(getFile(directory, tier, name), tier, from,
+                        to, mode, data);
+                addOpen(rollups.open[tier.ordinal()], from, to, mode, data);
+            }
+            return data;
+        }
+
+        // Not being written, the open bucket is the one saved last
+        long lastStart = RollupFile.read(getFile(directory, tier, name),
+                tier, from, to, mode, data);
+        Rollup open = OpenBucketFile.read(getOpenFile(directory, name), tier);
+        if (open != null && open.getStart() > lastStart) {
+            addOpen(open, from, to, mode, data);
+        }
+        return data;
+    }
+
+    /**
+     * Write and sync the complete buckets, and save the open ones.
+     */
+    void sync() {
+        for (Series rollups : series.values()) {
+            synchronized (rollups) {
+                try {
+                    for (RollupFile file : rollups.files) {
+                        file.sync();
+                    }
+                    if (rollups.dirty) {
+                        rollups.openFile.write(rollups.open);
+                        rollups.openFile.sync();
+                        rollups.dirty = false;
+                    }
+                } catch (IOException e) {
+                    BrewServer.LOG.warning("Could not sync the rollups in "
+                            + directory.getAbsolutePath() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the open buckets and close every file. The open buckets aren't
+     * written to the tiers, they carry on if the series is written again.
+     */
+    @Override
+    public void close() {
+        sync();
+        for (Series rollups : series.values()) {
+            synchronized (rollups) {
+                try {
+                    for (RollupFile file : rollups.files) {
+                        file.close();
+                    }
+                    rollups.openFile.close();
+                } catch (IOException e) {
+                    BrewServer.LOG.warning("Could not close the rollups in "
+                            + directory.getAbsolutePath() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+        series.clear();
+    }
+
+    /**
+     * Get the rollups of a series, carrying on with the open buckets saved
+     * by the last run.
+     */
+    private Series getSeries(final String name) throws IOException {
+        Series rollups = series.get(name);
+        if (rollups != null) {
+            return rollups;
+        }
+        synchronized (this) {
+            rollups = series.get(name);
+            if (rollups == null) {
+                rollups = new Series(directory, name);
+                rollups.openFile.load(rollups.open);
+                for (RollupTier tier : RollupTier.values()) {
+                    Rollup open = rollups.open[tier.ordinal()];
+                    // Completed before the open buckets were last saved
+                    if (!open.isEmpty() && open.getStart()
+                            <= rollups.files[tier.ordinal()].getLastStart()) {
+                        open.clear();
+                    }
+                }
+                series.put(name, rollups);
+            }
+        }
+        return rollups;
+    }
+
+    private static void addOpen(final Rollup open, final long from,
+            final long to, final Downsampler.Mode mode,
+            final SeriesData into) {
+        if (!open.isEmpty() && open.getStart() >= from
+                && open.getStart() <= to) {
+            open.addTo(mode, into);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.sb.elsinore.timeseries;
+
+/**
+ * The aggregate tiers kept alongside the raw samples of every series.
+ */
+public enum RollupTier {
+    ONE_MINUTE("1m", 60 * 1000L),
+    FIFTEEN_MINUTES("15m", 15 * 60 * 1000L),
+    ONE_HOUR("1h", 60 * 60 * 1000L);
+
+    private final String directoryName;
+    private final long width;
+
+    RollupTier(final String directoryName, final long width) {
+        this.directoryName = directoryName;
+        this.width = width;
+    }
+
+    /**
+     * @return The name of the sub directory the tier is stored in.
+     */
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    /**
+     * @return The width of each bucket in milliseconds.
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * @param timestamp A timestamp in milliseconds.
+     * @return The start of the bucket the timestamp falls in.
+     */
+    public long bucketStart(final long timestamp) {
+        long remainder = timestamp % width;
+        if (remainder < 0) {
+            remainder += width;
+        }
+        return timestamp - remainder;
+    }
+
+    /**
+     * Pick the coarsest tier that still gives the requested resolution.
+     * @param resolution The time each point should cover in milliseconds.
+     * @return The tier, or null if only the raw samples are fine enough.
+     */
+    public static RollupTier forResolution(final long resolution) {
+        RollupTier best = null;
+        for (RollupTier tier : values()) {
+            if (tier.width <= resolution) {
+                best = tier;
+            }
+        }
+        return best;
+    }
+}
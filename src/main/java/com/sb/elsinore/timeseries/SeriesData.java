@@ -0,0 +1,65 @@
+package com.sb.elsinore.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * The samples of a series, stored as parallel primitive arrays
+ * in timestamp order.
+ */
+public final class SeriesData {
+
+    private long[] timestamps;
+    private double[] values;
+    private int size = 0;
+
+    public SeriesData() {
+        this(64);
+    }
+
+    /**
+     * @param capacity The initial number of samples to allocate for.
+     */
+    public SeriesData(final int capacity) {
+        timestamps = new long[Math.max(capacity, 1)];
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Add a sample to the end of the series.
+     * @param timestamp The timestamp in milliseconds.
+     * @param value The value.
+     */
+    public void add(final long timestamp, final double value) {
+        if (size == timestamps.length) {
+            int newCapacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return The number of samples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the sample.
+     * @return The timestamp of the sample in milliseconds.
+     */
+    public long getTimestamp(final int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index The index of the sample.
+     * @return The value of the sample.
+     */
+    public double getValue(final int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,279 @@
+package com.sb.elsinore.timeseries;
+
+import com.sb.elsinore.BrewServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the blocks of a series file.
+ */
+public final class SeriesReader {
+
+    private SeriesReader() {
+    }
+
+    /**
+     * The header of a block in a series file.
+     */
+    public static final class BlockInfo {
+        private final long offset;
+        private final int count;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+        private final int payloadLength;
+        private final int crc;
+
+        BlockInfo(final long offset, final int count,
+                final long firstTimestamp, final long lastTimestamp,
+                final int payloadLength, final int crc) {
+            this.offset = offset;
+            this.count = count;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.payloadLength = payloadLength;
+            this.crc = crc;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+        /**
+         * @return The offset just after this block.
+         */
+        public long getEnd() {
+            return offset + Block.HEADER_SIZE + payloadLength;
+        }
+    }
+
+    /**
+     * Read the block headers of a series file without decoding them.
+     * Stops at the first block that's incomplete or corrupt, which is
+     * where a crash mid write leaves the file.
+     * @param channel The open file.
+     * @param limit Only read blocks that end before this offset.
+     * @return The valid blocks in file order.
+     * @throws IOException If the file can't be read.
+     */
+    public static List<BlockInfo> scan(final FileChannel channel,
+            final long limit) throws IOException {
+        List<BlockInfo> blocks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+        long offset = 0;
+        long end = Math.min(limit, channel.size());
+        while (offset + Block.HEADER_SIZE <= end) {
+            header.clear();
+            readFully(channel, header, offset);
+            header.flip();
+            BlockInfo info = parseHeader(header, offset);
+            if (info == null || info.getEnd() > end) {
+                break;
+            }
+            blocks.add(info);
+            offset = info.getEnd();
+        }
+        // A torn write can only affect the last block, check its payload
+        if (!blocks.isEmpty()) {
+            BlockInfo last = blocks.get(blocks.size() - 1);
+            try {
+                readPayload(channel, last);
+            } catch (IOException e) {
+                blocks.remove(blocks.size() - 1);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Parse a block header.
+     * @param header The buffer positioned at the start of the header.
+     * @param offset The offset of the block in the file.
+     * @return The block, or null if the header isn't valid.
+     */
+    static BlockInfo parseHeader(final ByteBuffer header, final long offset) {
+        if (header.getShort() != Block.MARKER) {
+            return null;
+        }
+        int count = header.getInt();
+        long first = header.getLong();
+        long last = header.getLong();
+        int payloadLength = header.getInt();
+        int crc = header.getInt();
+        if (count <= 0 || payloadLength < 0) {
+            return null;
+        }
+        return new BlockInfo(offset, count, first, last, payloadLength, crc);
+    }
+
+    /**
+     * Read the samples between two timestamps.
+     * @param file The series file.
+     * @param limit Only read blocks that end before this offset.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param into The data to append the samples to.
+     * @throws IOException If the file can't be read.
+     */
+    public static void read(final File file, final long limit,
+            final long from, final long to, final SeriesData into)
+            throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            read(file, channel, scan(channel, limit), from, to, into);
+        }
+    }
+
+    /**
+     * Read the samples between two timestamps using an index of the blocks,
+     * only the blocks that overlap the range are read from the file.
+     * @param file The series file, for logging.
+     * @param channel The open series file.
+     * @param index The blocks of the file in timestamp order.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param into The data to append the samples to.
+     * @throws IOException If the file can't be read.
+     */
+    public static void read(final File file, final FileChannel channel,
+            final List<BlockInfo> index, final long from, final long to,
+            final SeriesData into) throws IOException {
+        for (int i = firstBlock(index, from); i < index.size(); i++) {
+            BlockInfo block = index.get(i);
+            if (block.getFirstTimestamp() > to) {
+                break;
+            }
+            try {
+                read(channel, block, from, to, into);
+            } catch (IOException e) {
+                // Skip the damaged block, the rest is still good
+                BrewServer.LOG.warning("Skipping block in "
+                        + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read the samples between two timestamps from the open block a
+     * writer left behind, if it wasn't closed cleanly.
+     * @param file The series file.
+     * @param index The blocks of the series file in timestamp order.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param into The data to append the samples to.
+     * @throws IOException If the pending block file can't be read.
+     */
+    public static void readPending(final File file,
+            final List<BlockInfo> index, final long from, final long to,
+            final SeriesData into) throws IOException {
+        long end = index.isEmpty() ? 0 : index.get(index.size() - 1).getEnd();
+        SeriesData all = PendingBlockFile.read(file, end);
+        if (all == null) {
+            return;
+        }
+        for (int i = 0; i < all.size(); i++) {
+            long timestamp = all.getTimestamp(i);
+            if (timestamp >= from && timestamp <= to) {
+                into.add(timestamp, all.getValue(i));
+            }
+        }
+    }
+
+    /**
+     * Find the first block that may contain the timestamp.
+     * @param index The blocks in timestamp order.
+     * @param from The timestamp to look for.
+     * @return The index of the first block that ends at or after the
+     * timestamp, or the size of the index if there isn't one.
+     */
+    static int firstBlock(final List<BlockInfo> index, final long from) {
+        int low = 0;
+        int high = index.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.get(mid).getLastTimestamp() < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read the samples of a single block between two timestamps.
+     * @param channel The open series file.
+     * @param block The block to read.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param into The data to append the samples to.
+     * @throws IOException If the block can't be read.
+     */
+    public static void read(final FileChannel channel, final BlockInfo block,
+            final long from, final long to, final SeriesData into)
+            throws IOException {
+        if (block.getLastTimestamp() < from
+                || block.getFirstTimestamp() > to) {
+            return;
+        }
+        byte[] payload = readPayload(channel, block);
+        if (block.getFirstTimestamp() >= from
+                && block.getLastTimestamp() <= to) {
+            Block.decode(payload, block.getCount(), into);
+            return;
+        }
+        SeriesData all = new SeriesData(block.getCount());
+        Block.decode(payload, block.getCount(), all);
+        for (int i = 0; i < all.size(); i++) {
+            long timestamp = all.getTimestamp(i);
+            if (timestamp >= from && timestamp <= to) {
+                into.add(timestamp, all.getValue(i));
+            }
+        }
+    }
+
+    private static byte[] readPayload(final FileChannel channel,
+            final BlockInfo block) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(block.payloadLength);
+        readFully(channel, payload, block.getOffset() + Block.HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != block.crc) {
+            throw new IOException("Bad CRC for block at " + block.getOffset());
+        }
+        return payload.array();
+    }
+
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos += read;
+        }
+    }
+}
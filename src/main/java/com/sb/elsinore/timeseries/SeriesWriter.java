@@ -0,0 +1,215 @@
+package com.sb.elsinore.timeseries;
+
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends samples to a single series file.
+ *
+ * Samples are kept in an open {@link Block} in memory. On
+ * {@link #flush(boolean)} the samples added since the last flush are
+ * appended to a {@link PendingBlockFile}, and once the open block is full
+ * it's appended to the series file, synced, and a new block is started.
+ * Bytes that have been synced are never written over, so a crash mid write
+ * can only lose what wasn't synced yet.
+ */
+final class SeriesWriter implements Closeable {
+
+    /**
+     * Bytes written to every series file.
+     */
+    private static final Counter BYTES_WRITTEN = Metrics.counter(
+            "elsinore_series_bytes_written_total",
+            "Bytes written to the recorder's series files.");
+
+    private final File file;
+    private final FileChannel channel;
+    private final int blockSize;
+    private final List<SeriesReader.BlockInfo> index = new ArrayList<>();
+    private final PendingBlockFile pending;
+    private Block open = new Block();
+    private SeriesData openData;
+    /**
+     * The samples of the open block added since the last flush.
+     */
+    private Block unflushed = new Block();
+    private long committed;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Open the series file, dropping anything after the last valid block.
+     * An open block left behind by a crash is added as a short block.
+     * @param file The series file.
+     * @param blockSize The number of samples in a full block.
+     * @throws IOException If the file can't be opened.
+     */
+    SeriesWriter(final File file, final int blockSize) throws IOException {
+        this.file = file;
+        this.blockSize = blockSize;
+        this.openData = new SeriesData(blockSize);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        List<SeriesReader.BlockInfo> blocks =
+                SeriesReader.scan(channel, Long.MAX_VALUE);
+        index.addAll(blocks);
+        if (blocks.isEmpty()) {
+            committed = 0;
+        } else {
+            SeriesReader.BlockInfo last = blocks.get(blocks.size() - 1);
+            committed = last.getEnd();
+            lastTimestamp = last.getLastTimestamp();
+        }
+        if (channel.size() > committed) {
+            channel.truncate(committed);
+        }
+        this.pending = new PendingBlockFile(file);
+        SeriesData recovered = PendingBlockFile.read(file, committed);
+        if (recovered != null) {
+            Block block = new Block();
+            for (int i = 0; i < recovered.size(); i++) {
+                block.append(recovered.getTimestamp(i),
+                        recovered.getValue(i));
+            }
+            appendBlock(block.toByteBuffer());
+        }
+        pending.delete();
+    }
+
+    /**
+     * Add a sample, only kept in memory until the next flush.
+     * @param timestamp The timestamp in milliseconds, never before the
+     *                  previous one.
+     * @param value The value.
+     * @throws IOException If a full block couldn't be written.
+     */
+    synchronized void append(final long timestamp, final double value)
+            throws IOException {
+        long time = Math.max(timestamp, lastTimestamp);
+        open.append(time, value);
+        openData.add(time, value);
+        unflushed.append(time, value);
+        lastTimestamp = time;
+        if (open.getCount() >= blockSize) {
+            appendBlock(open.toByteBuffer());
+            open = new Block();
+            openData = new SeriesData(blockSize);
+            unflushed = new Block();
+            pending.reset();
+        }
+    }
+
+    /**
+     * Append the samples added since the last flush to the pending block
+     * file.
+     * @param sync True to force the data to the disk as well.
+     * @throws IOException If the write fails.
+     */
+    synchronized void flush(final boolean sync) throws IOException {
+        if (unflushed.getCount() > 0) {
+            BYTES_WRITTEN.inc(pending.append(committed, unflushed));
+            unflushed = new Block();
+        }
+        if (sync) {
+            pending.sync();
+        }
+    }
+
+    /**
+     * Read the samples between two timestamps, including the ones that
+     * haven't been flushed yet. Full blocks are found using the in memory
+     * index so the file is never scanned.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param into The data to append the samples to.
+     * @throws IOException If the file can't be read.
+     */
+    void read(final long from, final long to, final SeriesData into)
+            throws IOException {
+        List<SeriesReader.BlockInfo> blocks;
+        SeriesData pending = new SeriesData(blockSize);
+        synchronized (this) {
+            // Full blocks never change, so only the open block needs to be
+            // copied under the lock
+            blocks = new ArrayList<>(index);
+            for (int i = 0; i < openData.size(); i++) {
+                long timestamp = openData.getTimestamp(i);
+                if (timestamp >= from && timestamp <= to) {
+                    pending.add(timestamp, openData.getValue(i));
+                }
+            }
+        }
+        SeriesReader.read(file, channel, blocks, from, to, into);
+        for (int i = 0; i < pending.size(); i++) {
+            into.add(pending.getTimestamp(i), pending.getValue(i));
+        }
+    }
+
+    /**
+     * @return The first timestamp in the series, or Long.MAX_VALUE if
+     * it's empty.
+     */
+    synchronized long getFirstTimestamp() {
+        if (!index.isEmpty()) {
+            return index.get(0).getFirstTimestamp();
+        }
+        if (openData.size() > 0) {
+            return openData.getTimestamp(0);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Append the open block to the series file as a short block.
+     * @throws IOException If the block couldn't be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (open.getCount() > 0) {
+                appendBlock(open.toByteBuffer());
+                open = new Block();
+                openData = new SeriesData(blockSize);
+                unflushed = new Block();
+            }
+            pending.delete();
+        } finally {
+            pending.close();
+            channel.close();
+        }
+    }
+
+    /**
+     * Write a block at the end of the series file and sync it before it's
+     * counted as committed, the pending block file may still need the
+     * previous copy until then.
+     * @param buffer The block, as {@link Block#toByteBuffer()}.
+     * @throws IOException If the write fails.
+     */
+    private void appendBlock(final ByteBuffer buffer) throws IOException {
+        SeriesReader.BlockInfo block =
+                SeriesReader.parseHeader(buffer.duplicate(), committed);
+        long position = committed;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        BYTES_WRITTEN.inc(position - committed);
+        index.add(block);
+        committed = block.getEnd();
+        lastTimestamp = Math.max(lastTimestamp, block.getLastTimestamp());
+    }
+}
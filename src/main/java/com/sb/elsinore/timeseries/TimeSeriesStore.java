@@ -0,0 +1,371 @@
+package com.sb.elsinore.timeseries;
+
+import com.sb.elsinore.BrewServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A directory of compressed, append only series files.
+ *
+ * Each series (e.g. "28-0000012345-temp") lives in its own file made of
+ * {@link Block}s. Samples are buffered in memory until
+ * {@link #maybeSync()} finds the sync interval has passed. Each sync then
+ * appends only the samples added since the last one to the series'
+ * {@link PendingBlockFile}, as one compressed frame. A frame is 46 bytes
+ * for its first sample and a few bits for each one after that. Each full
+ * block is written once to the series file, and the pending file is
+ * emptied.
+ *
+ * Every series also gets per minute, 15 minute and hour aggregates in a
+ * {@link RollupStore}, which {@link #query} reads instead of the raw samples
+ * when the requested resolution allows it.
+ */
+public final class TimeSeriesStore implements Closeable {
+
+    /**
+     * The file extension for series files.
+     */
+    public static final String EXTENSION = ".tsdb";
+
+    /**
+     * Number of samples in a full block.
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * The default time between syncs to disk in milliseconds.
+     */
+    public static final long DEFAULT_SYNC_INTERVAL = 30 * 1000;
+
+    private final File directory;
+    private final long syncInterval;
+    private final Map<String, SeriesWriter> writers = new ConcurrentHashMap<>();
+    private final Map<String, FileIndex> indexes = new ConcurrentHashMap<>();
+    private final RollupStore rollups;
+    private long lastSync = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    /**
+     * @param directory The directory to keep the series files in.
+     * @param syncInterval The time between syncs to disk in milliseconds.
+     */
+    public TimeSeriesStore(final File directory, final long syncInterval) {
+        this(directory, syncInterval, true);
+    }
+
+    /**
+     * @param directory The directory to keep the series files in.
+     * @param syncInterval The time between syncs to disk in milliseconds.
+     * @param withRollups True to keep the aggregate tiers as well.
+     */
+    TimeSeriesStore(final File directory, final long syncInterval,
+            final boolean withRollups) {
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+        if (withRollups) {
+            this.rollups = new RollupStore(directory);
+        } else {
+            this.rollups = null;
+        }
+    }
+
+    /**
+     * @return The directory the series files are in.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Add a sample to a series.
+     * @param series The name of the series.
+     * @param timestamp The timestamp in milliseconds.
+     * @param value The value.
+     */
+    public void append(final String series, final long timestamp,
+            final double value) {
+        if (closed) {
+            return;
+        }
+        try {
+            getWriter(series).append(timestamp, value);
+        } catch (IOException e) {
+            BrewServer.LOG.warning("Could not save to series " + series
+                    + ": " + e.getMessage());
+            return;
+        }
+        if (rollups != null) {
+            try {
+                rollups.append(series, timestamp, value);
+            } catch (IOException e) {
+                BrewServer.LOG.warning("Could not save the rollups of "
+                        + series + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write and sync everything if the sync interval has passed.
+     */
+    public void maybeSync() {
+        if (System.currentTimeMillis() - lastSync >= syncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * Write and sync every series now.
+     */
+    public synchronized void sync() {
+        lastSync = System.currentTimeMillis();
+        for (SeriesWriter writer : writers.values()) {
+            try {
+                writer.flush(true);
+            } catch (IOException e) {
+                BrewServer.LOG.warning("Could not sync "
+                        + writer.getFile().getAbsolutePath() + ": "
+                        + e.getMessage());
+            }
+        }
+        if (rollups != null) {
+            rollups.sync();
+        }
+    }
+
+    /**
+     * @return The names of all the series in the directory, sorted.
+     */
+    public List<String> listSeries() {
+        List<String> series = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(EXTENSION)) {
+                    series.add(name.substring(0,
+                            name.length() - EXTENSION.length()));
+                }
+            }
+        }
+        Collections.sort(series);
+        return series;
+    }
+
+    /**
+     * Read the samples of a series between two timestamps.
+     * @param series The name of the series.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @return The samples in timestamp order.
+     * @throws IOException If the series can't be read.
+     */
+    public SeriesData read(final String series, final long from,
+            final long to) throws IOException {
+        SeriesData data = new SeriesData();
+        SeriesWriter writer = writers.get(series);
+        if (writer != null) {
+            writer.read(from, to, data);
+        } else {
+            readFile(series, from, to, data);
+        }
+        return data;
+    }
+
+    /**
+     * Read the samples of a series between two timestamps, downsampled
+     * for graphing. The coarsest aggregate tier that still has a bucket for
+     * every point is used instead of the raw samples when there is one.
+     * @param series The name of the series.
+     * @param from The first timestamp to include.
+     * @param to The last timestamp to include.
+     * @param maxPoints The maximum number of points to return,
+     *                  zero or less for all of them.
+     * @param mode How to downsample the series.
+     * @return At most maxPoints samples in timestamp order.
+     * @throws IOException If the series can't be read.
+     */
+    public SeriesData query(final String series, final long from,
+            final long to, final int maxPoints, final Downsampler.Mode mode)
+            throws IOException {
+        if (rollups != null && maxPoints > 0) {
+            long start = from;
+            if (start == Long.MIN_VALUE) {
+                start = getFirstTimestamp(series);
+            }
+            long end = Math.min(to, System.currentTimeMillis());
+            RollupTier tier = RollupTier.forResolution((end - start) / maxPoints);
+            if (tier != null) {
+                SeriesData data = rollups.read(series, tier, from, to, mode);
+                // Series recorded before the tiers existed only have raw data
+                if (data.size() > 0) {
+                    return Downsampler.downsample(data, maxPoints, mode);
+                }
+            }
+        }
+        return Downsampler.downsample(read(series, from, to), maxPoints, mode);
+    }
+
+    /**
+     * @param series The name of the series.
+     * @return The first timestamp in the series, or Long.MAX_VALUE if
+     * it's empty.
+     * @throws IOException If the series can't be read.
+     */
+    public long getFirstTimestamp(final String series) throws IOException {
+        SeriesWriter writer = writers.get(series);
+        if (writer != null) {
+            return writer.getFirstTimestamp();
+        }
+        FileIndex index = getIndex(series);
+        if (index == null || index.blocks.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return index.blocks.get(0).getFirstTimestamp();
+    }
+
+    /**
+     * Write a series out in the old "timestamp,value" CSV format.
+     * @param series The name of the series.
+     * @param out The writer to write the CSV to.
+     * @throws IOException If the series can't be read or written.
+     */
+    public void exportCsv(final String series, final Writer out)
+            throws IOException {
+        SeriesData data = read(series, Long.MIN_VALUE, Long.MAX_VALUE);
+        StringBuilder line = new StringBuilder(32);
+        for (int i = 0; i < data.size(); i++) {
+            line.setLength(0);
+            line.append(data.getTimestamp(i)).append(',')
+                    .append(formatValue(data.getValue(i))).append("\r\n");
+            out.write(line.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Format a value the way the recorder used to write it.
+     * @param value The value to format.
+     * @return The plain string for the value.
+     */
+    public static String formatValue(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.toString(value);
+        }
+        BigDecimal decimal = BigDecimal.valueOf(value).stripTrailingZeros();
+        if (decimal.scale() < 0) {
+            decimal = decimal.setScale(0);
+        }
+        return decimal.toPlainString();
+    }
+
+    /**
+     * @param series The name of the series.
+     * @return The file the series is stored in.
+     */
+    public File getFile(final String series) {
+        return new File(directory, series + EXTENSION);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (rollups != null) {
+            rollups.close();
+        }
+        for (SeriesWriter writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                BrewServer.LOG.warning("Could not close "
+                        + writer.getFile().getAbsolutePath() + ": "
+                        + e.getMessage());
+            }
+        }
+        writers.clear();
+    }
+
+    /**
+     * Read a series that isn't open for writing, reusing the block index
+     * from the last read as long as the file hasn't changed size.
+     */
+    private void readFile(final String series, final long from,
+            final long to, final SeriesData into) throws IOException {
+        File file = getFile(series);
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            FileIndex index = getIndex(series, channel);
+            SeriesReader.read(file, channel, index.blocks, from, to, into);
+            // A writer that didn't close cleanly left its open block aside
+            SeriesReader.readPending(file, index.blocks, from, to, into);
+        }
+    }
+
+    private FileIndex getIndex(final String series) throws IOException {
+        File file = getFile(series);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return getIndex(series, channel);
+        }
+    }
+
+    private FileIndex getIndex(final String series, final FileChannel channel)
+            throws IOException {
+        long length = channel.size();
+        FileIndex index = indexes.get(series);
+        if (index == null || index.length != length) {
+            index = new FileIndex(length, SeriesReader.scan(channel, length));
+            indexes.put(series, index);
+        }
+        return index;
+    }
+
+    /**
+     * The blocks of a series file and the file size they were read at.
+     */
+    private static final class FileIndex {
+        private final long length;
+        private final List<SeriesReader.BlockInfo> blocks;
+
+        FileIndex(final long length,
+                final List<SeriesReader.BlockInfo> blocks) {
+            this.length = length;
+            this.blocks = blocks;
+        }
+    }
+
+    private SeriesWriter getWriter(final String series) throws IOException {
+        SeriesWriter writer = writers.get(series);
+        if (writer == null) {
+            synchronized (this) {
+                writer = writers.get(series);
+                if (writer == null) {
+                    if (!directory.isDirectory() && !directory.mkdirs()) {
+                        throw new IOException("Could not create "
+                                + directory.getAbsolutePath());
+                    }
+                    writer = new SeriesWriter(getFile(series), BLOCK_SIZE);
+                    writers.put(series, writer);
+                    indexes.remove(series);
+                }
+            }
+        }
+        return writer;
+    }
+}
@@ -7,8 +7,8 @@ import static org.rendersnake.HtmlAttributesFactory.value;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.json.simple.JSONObject;
 import org.rendersnake.HtmlCanvas;
@@ -19,7 +19,7 @@ import com.sb.elsinore.LaunchControl;
 import com.sb.elsinore.Messages;
 import com.sb.elsinore.Temp;
 import com.sb.elsinore.TriggerControl;
-import org.w3c.dom.Element;
+import com.sb.elsinore.config.TriggerConfig;
 
 public class ProfileTrigger implements TriggerInterface {
 
@@ -56,16 +56,24 @@ public class ProfileTrigger implements TriggerInterface {
     }
 
     @Override
-    public void waitForTrigger() {
-        startDate = new Date();
+    public void startTrigger(final TriggerControl control, final long now) {
+        startDate = new Date(now);
+    }
+
+    /**
+     * Activate or deactivate the target profile.
+     * @return FIRED, straight away.
+     */
+    @Override
+    public long checkTrigger(final long now) {
         if (this.targetName == null) {
-            return;
+            return FIRED;
         }
 
         TriggerControl triggerControl = LaunchControl.findTriggerControl(
                 this.targetName);
         TriggerInterface triggerEntry = triggerControl != null ? triggerControl.getCurrentTrigger() : null;
-        if (triggerControl == null) { return;}
+        if (triggerControl == null) { return FIRED;}
 
         int stepToUse = -1;
         if (!this.activate) {
@@ -93,6 +101,11 @@ public class ProfileTrigger implements TriggerInterface {
         }
 
         LaunchControl.startMashControl(this.targetName);
+        return FIRED;
+    }
+
+    @Override
+    public void stopTrigger() {
     }
 
     @Override
@@ -107,7 +120,7 @@ public class ProfileTrigger implements TriggerInterface {
 
     @Override
     public void deactivate(boolean fromUI) {
-        this.active = true;
+        this.active = false;
     }
 
     @Override
@@ -275,56 +288,29 @@ public class ProfileTrigger implements TriggerInterface {
     }
 
     @Override
-    public boolean readTrigger(Element rootElement) {
-        if (!rootElement.getAttribute(TYPE).equals(getName()))
+    public boolean readTrigger(TriggerConfig config) {
+        if (!config.type.equals(getName()))
         {
             return false;
         }
 
-        this.position = Integer.parseInt(rootElement.getAttribute(POSITION));
-        String target = LaunchControl.getTextForElement(rootElement, TARGET_NAME, null);
+        this.position = config.position;
+        String target = config.get(TARGET_NAME, null);
         if (target != null && LaunchControl.findTemp(target) != null) {
             this.targetName = target;
         }
         if (LaunchControl.shouldRestore()) {
-            this.activate = Boolean.parseBoolean(LaunchControl.getTextForElement(rootElement, ACTIVATE, "false"));
+            this.activate = Boolean.parseBoolean(config.get(ACTIVATE, "false"));
         }
         return true;
     }
 
     @Override
-    public void updateElement(Element rootElement) {
-        Element triggerElement;
-        if (rootElement.getNodeName().equals(TriggerControl.NAME))
-        {
-            triggerElement = LaunchControl.addNewElement(rootElement, TriggerInterface.NAME);
-        }
-        else if (rootElement.getNodeName().equals(TriggerInterface.NAME))
-        {
-            triggerElement = rootElement;
-        }
-        else
-        {
-            return;
-        }
-
-        triggerElement.setAttribute(TriggerInterface.POSITION, Integer.toString(this.position));
-        triggerElement.setAttribute(TriggerInterface.TYPE, getName());
-
-        if (triggerElement.hasChildNodes()) {
-            Set<Element> delElements = new HashSet<>();
-            // Can't delete directly from the nodelist, concurrency issues.
-            for (int i = 0; i < triggerElement.getChildNodes().getLength(); i++) {
-                delElements.add((Element) triggerElement.getChildNodes().item(i));
-            }
-            // now we can delete them.
-            for (Element e : delElements) {
-                e.getParentNode().removeChild(e);
-            }
-        }
-
-        LaunchControl.addNewElement(triggerElement, ACTIVATE).setTextContent(Boolean.toString(activate));
-        LaunchControl.addNewElement(triggerElement, TARGET_NAME).setTextContent(targetName);
+    public TriggerConfig getConfig() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(ACTIVATE, Boolean.toString(activate));
+        values.put(TARGET_NAME, targetName);
+        return new TriggerConfig(this.position, getName(), values);
     }
 
 }
@@ -7,15 +7,14 @@ import static org.rendersnake.HtmlAttributesFactory.value;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.sb.elsinore.*;
+import com.sb.elsinore.config.TriggerConfig;
 import org.json.simple.JSONObject;
 import org.rendersnake.HtmlCanvas;
 
-import org.w3c.dom.Element;
-
 import javax.annotation.Nonnull;
 
 @SuppressWarnings("unused")
@@ -73,16 +72,27 @@ public class SwitchTrigger implements TriggerInterface {
         return "Switch";
     }
 
+    @Override
+    public final void startTrigger(final TriggerControl control,
+            final long now) {
+        this.startDate = new Date(now);
+    }
+
     /**
      * Activate or deactivate the switch.
+     * @return FIRED, straight away.
      */
     @Override
-    public final void waitForTrigger() {
-        this.startDate = new Date();
+    public final long checkTrigger(final long now) {
         if (this.switchName == null && this.activate != null) {
-            return;
+            return FIRED;
         }
         triggerSwitch();
+        return FIRED;
+    }
+
+    @Override
+    public final void stopTrigger() {
     }
 
     /**
@@ -261,52 +271,25 @@ public class SwitchTrigger implements TriggerInterface {
     }
 
     @Override
-    public boolean readTrigger(Element rootElement) {
-        if (getName().equals(rootElement.getAttribute(TYPE)))
+    public boolean readTrigger(TriggerConfig config) {
+        if (!getName().equals(config.type))
         {
             return false;
         }
-        this.position = Integer.parseInt(rootElement.getAttribute(POSITION));
+        this.position = config.position;
         if (LaunchControl.shouldRestore()) {
-            this.activate = LaunchControl.getTextForElement(rootElement, ACTIVATE, ACTIVATE);
+            this.activate = config.get(ACTIVATE, ACTIVATE);
         }
-        this.switchName = LaunchControl.getTextForElement(rootElement, SWITCHNAME, "");
+        this.switchName = config.get(SWITCHNAME, "");
         return true;
     }
 
     @Override
-    public void updateElement(Element rootElement) {
-        Element triggerElement;
-        if (rootElement.getNodeName().equals(TriggerControl.NAME))
-        {
-            triggerElement = LaunchControl.addNewElement(rootElement, TriggerInterface.NAME);
-        }
-        else if (rootElement.getNodeName().equals(TriggerInterface.NAME))
-        {
-            triggerElement = rootElement;
-        }
-        else
-        {
-            return;
-        }
-
-        triggerElement.setAttribute(TriggerInterface.POSITION, Integer.toString(this.position));
-        triggerElement.setAttribute(TriggerInterface.TYPE, getName());
-
-        if (triggerElement.hasChildNodes()) {
-            Set<Element> delElements = new HashSet<>();
-            // Can't delete directly from the nodelist, concurrency issues.
-            for (int i = 0; i < triggerElement.getChildNodes().getLength(); i++) {
-                delElements.add((Element) triggerElement.getChildNodes().item(i));
-            }
-            // now we can delete them.
-            for (Element e : delElements) {
-                e.getParentNode().removeChild(e);
-            }
-        }
-
-        LaunchControl.addNewElement(rootElement, SWITCHNAME).setTextContent(this.switchName);
-        LaunchControl.addNewElement(rootElement, ACTIVATE).setTextContent(this.activate);
+    public TriggerConfig getConfig() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(SWITCHNAME, this.switchName);
+        values.put(ACTIVATE, this.activate);
+        return new TriggerConfig(this.position, getName(), values);
     }
 
     /**
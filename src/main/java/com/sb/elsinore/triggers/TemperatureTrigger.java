@@ -3,10 +3,11 @@ package com.sb.elsinore.triggers;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.sb.elsinore.*;
+import com.sb.elsinore.config.TriggerConfig;
 import com.sb.elsinore.notificiations.Notifications;
 import com.sb.elsinore.notificiations.WebNotification;
 import org.json.simple.JSONObject;
@@ -15,8 +16,6 @@ import org.rendersnake.tools.PrettyWriter;
 
 import static org.rendersnake.HtmlAttributesFactory.*;
 
-import org.w3c.dom.Element;
-
 /**
  * A TemperatureTrigger will hold until the specified probe hits the target
  * temperature when active.
@@ -49,6 +48,11 @@ public class TemperatureTrigger implements TriggerInterface {
     private Date startDate = null;
     private BigDecimal exitTemp;
     private WebNotification webNotification = null;
+    /**
+     * Wakes the control when a reading meets the condition, while running.
+     */
+    private Temp.Listener listener = null;
+    private Temp listening = null;
 
     public TemperatureTrigger() {
         BrewServer.LOG.info("Created an empty Temperature Trigger");
@@ -178,62 +182,35 @@ public class TemperatureTrigger implements TriggerInterface {
     }
 
     @Override
-    public void updateElement(Element rootElement) {
-        Element triggerElement;
-        if (rootElement.getNodeName().equals(TriggerControl.NAME))
-        {
-            triggerElement = LaunchControl.addNewElement(rootElement, TriggerInterface.NAME);
-        }
-        else if (rootElement.getNodeName().equals(TriggerInterface.NAME))
-        {
-            triggerElement = rootElement;
-        }
-        else
-        {
-            return;
-        }
-
-        triggerElement.setAttribute(TriggerInterface.POSITION, Integer.toString(this.position));
-        triggerElement.setAttribute(TriggerInterface.TYPE, getName());
-
-        if (triggerElement.hasChildNodes()) {
-            Set<Element> delElements = new HashSet<>();
-            // Can't delete directly from the nodelist, concurrency issues.
-            for (int i = 0; i < triggerElement.getChildNodes().getLength(); i++) {
-                delElements.add((Element) triggerElement.getChildNodes().item(i));
-            }
-            // now we can delete them.
-            for (Element e : delElements) {
-                e.getParentNode().removeChild(e);
-            }
-        }
-
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.METHOD).setTextContent(this.method);
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.MODE).setTextContent(this.mode);
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.STEPTYPE).setTextContent(this.type);
-        LaunchControl.addNewElement(triggerElement, TriggerInterface.ACTIVE).setTextContent(Boolean.toString(this.active));
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.TARGET_TEMP).setTextContent(this.targetTemp.toString());
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.EXIT_TEMP).setTextContent(this.exitTemp.toString());
-        LaunchControl.addNewElement(triggerElement, TemperatureTrigger.TEMPPROBE).setTextContent(this.temperatureProbe.getName());
+    public TriggerConfig getConfig() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(TemperatureTrigger.METHOD, this.method);
+        values.put(TemperatureTrigger.MODE, this.mode);
+        values.put(TemperatureTrigger.STEPTYPE, this.type);
+        values.put(TriggerInterface.ACTIVE, Boolean.toString(this.active));
+        values.put(TemperatureTrigger.TARGET_TEMP, this.targetTemp.toString());
+        values.put(TemperatureTrigger.EXIT_TEMP, this.exitTemp.toString());
+        values.put(TemperatureTrigger.TEMPPROBE, this.temperatureProbe.getName());
+        return new TriggerConfig(this.position, getName(), values);
     }
 
     @Override
-    public boolean readTrigger(Element rootElement) {
-        if (!rootElement.getAttribute(TriggerInterface.TYPE).equals(getName()))
+    public boolean readTrigger(TriggerConfig config) {
+        if (!config.type.equals(getName()))
         {
             return false;
         }
 
-        position = Integer.parseInt(rootElement.getAttribute(TemperatureTrigger.POSITION));
-        method = LaunchControl.getTextForElement(rootElement, METHOD, "");
-        mode = LaunchControl.getTextForElement(rootElement, MODE, "");
-        type = LaunchControl.getTextForElement(rootElement, STEPTYPE, "");
+        position = config.position;
+        method = config.get(METHOD, "");
+        mode = config.get(MODE, "");
+        type = config.get(STEPTYPE, "");
         if (LaunchControl.shouldRestore()) {
-            active = Boolean.parseBoolean(LaunchControl.getTextForElement(rootElement, ACTIVE, "false"));
+            active = Boolean.parseBoolean(config.get(ACTIVE, "false"));
         }
-        targetTemp = new BigDecimal(LaunchControl.getTextForElement(rootElement, TARGET_TEMP, "0"));
-        exitTemp = new BigDecimal(LaunchControl.getTextForElement(rootElement, EXIT_TEMP, "0"));
-        String probe = LaunchControl.getTextForElement(rootElement, TEMPPROBE, null);
+        targetTemp = new BigDecimal(config.get(TARGET_TEMP, "0"));
+        exitTemp = new BigDecimal(config.get(EXIT_TEMP, "0"));
+        String probe = config.get(TEMPPROBE, null);
         if (probe != null)
         {
             temperatureProbe = LaunchControl.findTemp(probe);
@@ -243,11 +220,11 @@ public class TemperatureTrigger implements TriggerInterface {
     }
 
     /**
-     * A blocking call that waits for a trigger to be hit.
+     * Set the PID to the target and start watching the probe.
      */
     @Override
-    public final void waitForTrigger() {
-
+    public final void startTrigger(final TriggerControl control,
+            final long now) {
         if (targetTemp == null) {
             BrewServer.LOG.warning("No Target Temperature Set");
             return;
@@ -258,56 +235,89 @@ public class TemperatureTrigger implements TriggerInterface {
         }
 
         setTargetTemperature();
-        setStart(new Date());
-        if (this.mode == null) {
-            // Just get to within 2F of the target Temp.
-            BrewServer.LOG.warning(String.format("Waiting to be within 2F of %.2f", targetTemp));
-            BrewServer.LOG.warning("Temp: " + temperatureProbe.convertF(temperatureProbe.getTemp().subtract(targetTemp).abs()));
-            while(temperatureProbe.convertF(temperatureProbe.getTemp().subtract(targetTemp).abs())
-                    .compareTo(new BigDecimal(2.0)) >= 0) {
-                try {
-                    BrewServer.LOG.warning("" + temperatureProbe.convertF(temperatureProbe.getTemp().subtract(targetTemp).abs()));
-                    Thread.sleep(500);
-                } catch (InterruptedException ie) {
-                    BrewServer.LOG.warning("Temperature Trigger interrupted.");
-                }
-            }
-        } else if (this.mode.equals(TemperatureTrigger.INCREASE)) {
-            while (this.temperatureProbe.getTemp().compareTo(
-                    this.targetTemp) <= 0) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ie) {
-                    BrewServer.LOG.warning("Temperature Trigger interrupted");
-                    return;
-                }
-            }
-        } else if (this.mode.equals(TemperatureTrigger.DECREASE)) {
-            while (this.temperatureProbe.getTemp().compareTo(
-                    this.targetTemp) >= 0) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ie) {
-                    BrewServer.LOG.warning("Temperature Trigger interrupted");
-                    return;
-                }
-            }
-        } else {
-            // Just get to within 2F of the target Temp.
-            BrewServer.LOG.warning("Waiting to be within 2F of " + targetTemp);
-            while(temperatureProbe.convertF(temperatureProbe.getTemp().subtract(targetTemp).abs())
-                    .compareTo(new BigDecimal(2.0)) >= 0) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ie) {
-                    BrewServer.LOG.warning("Temperature Trigger interrupted.");
+        setStart(new Date(now));
+        if (!isIncrease() && !isDecrease()) {
+            BrewServer.LOG.info("Waiting to be within 2F of " + targetTemp);
+        }
+        stopTrigger();
+        listener = new Temp.Listener() {
+            @Override
+            public void reading(final Temp temp, final long time,
+                    final double value) {
+                if (isMet(value)) {
+                    control.wake();
                 }
             }
-        }
+        };
+        listening = temperatureProbe;
+        listening.addListener(listener);
+    }
 
+    /**
+     * Fires once the probe passes the target, setting the PID to the exit
+     * temperature.
+     */
+    @Override
+    public final long checkTrigger(final long now) {
+        if (targetTemp == null || temperatureProbe == null) {
+            return FIRED;
+        }
+        if (!isMet(latest(this.temperatureProbe.getHistory()))) {
+            return NEVER;
+        }
         if (exitTemp != null && exitTemp.compareTo(targetTemp) != 0) {
             setExitTemperature();
         }
+        return FIRED;
+    }
+
+    /**
+     * Stop watching the probe.
+     */
+    @Override
+    public final void stopTrigger() {
+        if (listening != null) {
+            listening.removeListener(listener);
+        }
+        listening = null;
+        listener = null;
+    }
+
+    /**
+     * @param value A reading from the probe.
+     * @return True if the reading passes the target, or is within 2F of it
+     * if there's no direction.
+     */
+    private boolean isMet(final double value) {
+        double target = this.targetTemp.doubleValue();
+        if (isIncrease()) {
+            return value > target;
+        } else if (isDecrease()) {
+            return value < target;
+        }
+        // Differences in C are converted to F
+        double toF = this.temperatureProbe.getScale().equals("C") ? 1.8 : 1;
+        return Math.abs(value - target) * toF < 2.0;
+    }
+
+    private boolean isIncrease() {
+        return this.mode != null && this.mode.equals(TemperatureTrigger.INCREASE);
+    }
+
+    private boolean isDecrease() {
+        return this.mode != null && this.mode.equals(TemperatureTrigger.DECREASE);
+    }
+
+    /**
+     * @param history The history of the probe.
+     * @return The latest reading, or the probe's current temperature if
+     * there hasn't been a reading yet.
+     */
+    private double latest(final TempHistory history) {
+        if (history.size() == 0) {
+            return this.temperatureProbe.getTempValue();
+        }
+        return history.getLatest();
     }
 
     /**
@@ -2,9 +2,10 @@ package com.sb.elsinore.triggers;
 
 import java.io.IOException;
 
+import com.sb.elsinore.TriggerControl;
+import com.sb.elsinore.config.TriggerConfig;
 import org.json.simple.JSONObject;
 import org.rendersnake.HtmlCanvas;
-import org.w3c.dom.Element;
 
 /**
  * This is the base Trigger interface, a trigger should cause an action.
@@ -17,6 +18,15 @@ public interface TriggerInterface extends Comparable<TriggerInterface> {
     String POSITION = "position";
     String TYPE = "type";
     String ACTIVE = "active";
+    /**
+     * Returned by {@link #checkTrigger(long)} once the condition is met.
+     */
+    long FIRED = -1;
+    /**
+     * Returned by {@link #checkTrigger(long)} when there's no deadline, the
+     * trigger wakes its {@link TriggerControl} when it should be checked.
+     */
+    long NEVER = Long.MAX_VALUE;
 
     /**
      * Get the name of this Trigger.
@@ -24,9 +34,27 @@ public interface TriggerInterface extends Comparable<TriggerInterface> {
      */
     String getName();
     /**
-     * Causes a wait until the trigger condition is met.
+     * Start waiting for the trigger condition, without blocking.
+     * @param control The control running this trigger, to be woken with
+     * {@link TriggerControl#wake()} when the condition may have been met.
+     * @param now The current time in milliseconds.
+     */
+    void startTrigger(TriggerControl control, long now);
+
+    /**
+     * Check the trigger condition, without blocking.
+     * Called when started, when the control is woken and at the deadline.
+     * @param now The current time in milliseconds.
+     * @return {@link #FIRED} once the condition is met, otherwise the time
+     * to check again at, or {@link #NEVER} to wait to be woken.
      */
-    void waitForTrigger();
+    long checkTrigger(long now);
+
+    /**
+     * Stop waiting for the trigger condition, after it fired or the
+     * trigger was deactivated.
+     */
+    void stopTrigger();
 
     /**
      * Return true is this is the current trigger that is waiting.
@@ -82,7 +110,15 @@ public interface TriggerInterface extends Comparable<TriggerInterface> {
      */
     boolean updateTrigger(JSONObject params);
 
-    boolean readTrigger(Element rootElement);
+    /**
+     * Set this trigger up from its saved settings.
+     * @param config The saved settings.
+     * @return True if the settings were for this type of trigger.
+     */
+    boolean readTrigger(TriggerConfig config);
 
-    void updateElement(Element rootElement);
+    /**
+     * @return The settings of this trigger, to be saved.
+     */
+    TriggerConfig getConfig();
 }
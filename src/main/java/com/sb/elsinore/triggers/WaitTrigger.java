@@ -7,18 +7,18 @@ import static org.rendersnake.HtmlAttributesFactory.name;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.sb.common.SBStringUtils;
 import com.sb.elsinore.*;
+import com.sb.elsinore.config.TriggerConfig;
 import com.sb.elsinore.notificiations.Notifications;
 import com.sb.elsinore.notificiations.WebNotification;
 import org.json.simple.JSONObject;
 import org.rendersnake.HtmlCanvas;
 
 import com.sb.util.MathUtil;
-import org.w3c.dom.Element;
 
 import javax.annotation.Nonnull;
 
@@ -32,8 +32,6 @@ public class WaitTrigger implements TriggerInterface {
     public static final String WAITTIMEMINS = "waitTimeMins";
     public static final String WAITTIMESECS = "waitTimeSecs";
     public static final String NOTES = "notes";
-    final Object lck = new Object();
-    volatile boolean waitStatus = true;
     private int position = -1;
     private BigDecimal waitTime = BigDecimal.ZERO;
     private Date startDate, endDate;
@@ -98,31 +96,6 @@ public class WaitTrigger implements TriggerInterface {
         return true;
     }
 
-    /**
-     * Suspend the thread for a certain period of time.
-     * @param ms The time in milliseconds to suspend for.
-     */
-    private void cooldown(final long ms) {
-        synchronized (lck) {
-            long startTime = System.currentTimeMillis();
-            this.startDate = new Date();
-            this.endDate = new Date(startTime + ms);
-
-            // Do thread need to wait
-            if (waitStatus) {
-                while (System.currentTimeMillis() - startTime < ms) {
-                    try {
-                        lck.wait(1000);
-                    } catch (InterruptedException e) {
-                        // DO NOTHING!
-                    }
-                }
-                //  Wait over no other thread will wait
-                waitStatus = false;
-            }
-        }
-    }
-
     /**
      * Compare by position.
      * @param o the TriggerInterface to compare to.
@@ -147,10 +120,30 @@ public class WaitTrigger implements TriggerInterface {
         return "Wait";
     }
 
+    /**
+     * Start the wait from now.
+     */
+    @Override
+    public void startTrigger(final TriggerControl control, final long now) {
+        // Time is in seconds, multiply by 1000.
+        long ms = MathUtil.multiply(this.waitTime, 1000).longValue();
+        this.startDate = new Date(now);
+        this.endDate = new Date(now + ms);
+    }
+
+    /**
+     * @return The end of the wait, or FIRED once it's passed.
+     */
+    @Override
+    public long checkTrigger(final long now) {
+        if (this.endDate == null || now >= this.endDate.getTime()) {
+            return FIRED;
+        }
+        return this.endDate.getTime();
+    }
+
     @Override
-    public void waitForTrigger() {
-        // Time is in seconds, multiply by 1000 and wait.
-        cooldown(MathUtil.multiply(this.waitTime, 1000).longValue());
+    public void stopTrigger() {
     }
 
     @Override
@@ -286,55 +279,29 @@ public class WaitTrigger implements TriggerInterface {
     }
 
     @Override
-    public boolean readTrigger(Element rootElement) {
-        if (!getName().equals(rootElement.getAttribute(TYPE)))
+    public boolean readTrigger(TriggerConfig config) {
+        if (!getName().equals(config.type))
         {
-            BrewServer.LOG.warning(rootElement.getAttribute(TYPE) + " is not a "  + getName());
+            BrewServer.LOG.warning(config.type + " is not a "  + getName());
             return false;
         }
         if (LaunchControl.shouldRestore()) {
-            this.active = Boolean.parseBoolean(LaunchControl.getTextForElement(rootElement, ACTIVE, "false"));
+            this.active = Boolean.parseBoolean(config.get(ACTIVE, "false"));
         }
-        this.position = Integer.parseInt(rootElement.getAttribute(POSITION));
-        this.minutes = Double.parseDouble(LaunchControl.getTextForElement(rootElement, WAITTIMEMINS, "0"));
-        this.seconds = Double.parseDouble(LaunchControl.getTextForElement(rootElement, WAITTIMESECS, "0"));
-        this.note = LaunchControl.getTextForElement(rootElement, NOTES, "");
+        this.position = config.position;
+        this.minutes = Double.parseDouble(config.get(WAITTIMEMINS, "0"));
+        this.seconds = Double.parseDouble(config.get(WAITTIMESECS, "0"));
+        this.note = config.get(NOTES, "");
         return true;
     }
 
     @Override
-    public void updateElement(Element rootElement) {
-        Element triggerElement;
-        if (rootElement.getNodeName().equals(TriggerControl.NAME))
-        {
-            triggerElement = LaunchControl.addNewElement(rootElement, TriggerInterface.NAME);
-        }
-        else if (rootElement.getNodeName().equals(TriggerInterface.NAME))
-        {
-            triggerElement = rootElement;
-        }
-        else
-        {
-            return;
-        }
-
-        triggerElement.setAttribute(TriggerInterface.POSITION, Integer.toString(this.position));
-        triggerElement.setAttribute(TriggerInterface.TYPE, getName());
-
-        if (triggerElement.hasChildNodes()) {
-            Set<Element> delElements = new HashSet<>();
-            // Can't delete directly from the nodelist, concurrency issues.
-            for (int i = 0; i < triggerElement.getChildNodes().getLength(); i++) {
-                delElements.add((Element) triggerElement.getChildNodes().item(i));
-            }
-            // now we can delete them.
-            for (Element e : delElements) {
-                e.getParentNode().removeChild(e);
-            }
-        }
-        LaunchControl.addNewElement(triggerElement, WAITTIMEMINS).setTextContent(Double.toString(this.minutes));
-        LaunchControl.addNewElement(triggerElement, WAITTIMESECS).setTextContent(Double.toString(this.seconds));
-        LaunchControl.addNewElement(triggerElement, NOTES).setTextContent(this.note);
+    public TriggerConfig getConfig() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(WAITTIMEMINS, Double.toString(this.minutes));
+        values.put(WAITTIMESECS, Double.toString(this.seconds));
+        values.put(NOTES, this.note);
+        return new TriggerConfig(this.position, getName(), values);
     }
 
     public void setNote(String note) {
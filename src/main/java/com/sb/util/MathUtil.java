@@ -40,6 +40,25 @@ public final class MathUtil
     {
         return a.multiply(BigDecimal.valueOf(multiplier));
     }
+
+    /**
+     * Convert a value from the control loop for display or saving.
+     * Rounded to the same precision as {@link #divide} so binary noise
+     * like 20.400000000000002 doesn't leak out.
+     * @param value The value to convert.
+     * @return The value as a plain BigDecimal, never in E notation.
+     */
+    public static BigDecimal toBigDecimal(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return BigDecimal.ZERO;
+        }
+        BigDecimal result = new BigDecimal(value, context).stripTrailingZeros();
+        if (result.scale() < 0) {
+            result = result.setScale(0);
+        }
+        return result;
+    }
     
     
     
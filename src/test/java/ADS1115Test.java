@@ -0,0 +1,280 @@
+import com.sb.elsinore.devices.ADS1015;
+import com.sb.elsinore.devices.ADS1115;
+import com.sb.elsinore.devices.I2CBus;
+import com.sb.elsinore.devices.I2CDevice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ADS1115 reads over a shared bus, against a fake C library.
+ */
+public class ADS1115Test {
+
+    private static final int ADDRESS = 0x48;
+    private static final int OTHER = 0x49;
+
+    /**
+     * An I2C bus with ADS1115s on it. Single shot conversions finish when
+     * the device is next polled, continuous ones straight away.
+     */
+    private static class FakeLib implements I2CDevice.Linux_C_lib {
+        /**
+         * The input on each channel of each device, as a conversion code.
+         */
+        private final Map<Integer, int[]> inputs = new HashMap<>();
+        private final Map<Integer, int[]> registers = new HashMap<>();
+        private final Map<Integer, Integer> pointers = new HashMap<>();
+        /**
+         * The conversion in progress on each device, -1 if none.
+         */
+        private final Map<Integer, Integer> pending = new HashMap<>();
+        private int slave = -1;
+        private int opens = 0;
+        private int closes = 0;
+        private int selects = 0;
+        private int configWrites = 0;
+        private int reads = 0;
+        private boolean broken = false;
+
+        void addDevice(final int address, final int... codes) {
+            inputs.put(address, codes);
+            registers.put(address, new int[]{0, 0x8583, 0x8000, 0x7FFF});
+            pointers.put(address, 0);
+            pending.put(address, -1);
+        }
+
+        void finish() {
+            if (pending.get(slave) >= 0) {
+                int[] regs = registers.get(slave);
+                regs[0] = inputs.get(slave)[pending.get(slave)];
+                regs[1] |= 0x8000;
+                pending.put(slave, -1);
+            }
+        }
+
+        @Override
+        public int open(final String path, final int flags) {
+            opens++;
+            return 3;
+        }
+
+        @Override
+        public int close(final int fd) {
+            closes++;
+            return 0;
+        }
+
+        @Override
+        public int ioctl(final int fd, final int cmd, final int arg) {
+            if (cmd != I2CDevice.I2C_SLAVE || !inputs.containsKey(arg)) {
+                return -1;
+            }
+            selects++;
+            slave = arg;
+            return 0;
+        }
+
+        @Override
+        public int write(final int fd, final byte[] buffer, final int count) {
+            if (broken) {
+                return -1;
+            }
+            int pointer = buffer[0] & 0x03;
+            pointers.put(slave, pointer);
+            if (count == 3) {
+                int value = ((buffer[1] & 0xFF) << 8) | (buffer[2] & 0xFF);
+                int[] regs = registers.get(slave);
+                regs[pointer] = value;
+                if (pointer == ADS1015.ADS1015_REG_POINTER_CONFIG) {
+                    configWrites++;
+                    int channel = (value >> 12) & 0x03;
+                    regs[1] &= 0x7FFF;
+                    pending.put(slave, channel);
+                    if ((value & 0x0100) == 0) {
+                        finish();
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public int read(final int fd, final byte[] buffer, final int count) {
+            reads++;
+            if (pointers.get(slave) == ADS1015.ADS1015_REG_POINTER_CONFIG) {
+                finish();
+            }
+            int value = registers.get(slave)[pointers.get(slave)];
+            buffer[0] = (byte) (value >> 8);
+            buffer[1] = (byte) value;
+            return count;
+        }
+
+        @Override
+        public long memcpy(final int[] dst, final short[] src, final long n) {
+            return 0;
+        }
+
+        @Override
+        public int memcpy(final int[] dst, final short[] src, final int n) {
+            return 0;
+        }
+
+        @Override
+        public int pipe(final int[] fds) {
+            return 0;
+        }
+
+        @Override
+        public int tcdrain(final int fd) {
+            return 0;
+        }
+
+        @Override
+        public int fcntl(final int fd, final int cmd, final int arg) {
+            return 0;
+        }
+
+        @Override
+        public long write(final int fd, final byte[] buffer, final long count) {
+            return write(fd, buffer, (int) count);
+        }
+
+        @Override
+        public long read(final int fd, final byte[] buffer, final long count) {
+            return read(fd, buffer, (int) count);
+        }
+
+        @Override
+        public int select(final int n, final int[] read, final int[] write,
+                final int[] error, final timeval timeout) {
+            return 0;
+        }
+
+        @Override
+        public int poll(final int[] fds, final int nfds, final int timeout) {
+            return 0;
+        }
+
+        @Override
+        public int tcflush(final int fd, final int qs) {
+            return 0;
+        }
+
+        @Override
+        public void perror(final String msg) {
+        }
+
+        @Override
+        public int tcsendbreak(final int fd, final int duration) {
+            return 0;
+        }
+    }
+
+    private FakeLib lib;
+
+    @Before
+    public void setUp() {
+        lib = new FakeLib();
+        // 1V, 2V, 3V and 0V at +/- 4.096V full scale
+        lib.addDevice(ADDRESS, 8000, 16000, 24000, 0);
+        lib.addDevice(OTHER, 4000, 4000, 4000, 4000);
+        I2CBus.setLibrary(lib);
+    }
+
+    @After
+    public void tearDown() {
+        I2CBus.setLibrary(null);
+    }
+
+    @Test
+    public void busStaysOpenBetweenReads() {
+        ADS1115 ads = new ADS1115(1, ADDRESS);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1000, ads.readValue(0), 0.01);
+        }
+        assertEquals(2000, ads.readValue(1), 0.01);
+        assertEquals(1, lib.opens);
+        assertEquals(0, lib.closes);
+        assertEquals(1, lib.selects);
+        assertEquals(11, lib.configWrites);
+    }
+
+    @Test
+    public void devicesShareTheBus() {
+        ADS1115 first = new ADS1115(1, ADDRESS);
+        ADS1115 second = new ADS1115(1, OTHER);
+        assertEquals(3000, first.readValue(2), 0.01);
+        assertEquals(500, second.readValue(0), 0.01);
+        assertEquals(3000, first.readValue(2), 0.01);
+        assertEquals(1, lib.opens);
+        assertEquals(3, lib.selects);
+    }
+
+    @Test
+    public void readsChannelsRoundRobin() {
+        ADS1115 ads = new ADS1115(1, ADDRESS);
+        float[] values = new float[4];
+        assertTrue(ads.readValues(new int[]{0, 1, 2, 3}, values));
+        assertEquals(1000, values[0], 0.01);
+        assertEquals(2000, values[1], 0.01);
+        assertEquals(3000, values[2], 0.01);
+        assertEquals(0, values[3], 0.01);
+        assertEquals(4, lib.configWrites);
+    }
+
+    @Test
+    public void continuousModeOnlyConfiguresOnce() {
+        ADS1115 ads = new ADS1115(1, ADDRESS);
+        ads.setMode(ADS1015.Mode.CONTINUOUS);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(2000, ads.readValue(1), 0.01);
+        }
+        assertEquals(1, lib.configWrites);
+        // The pointer stays on the conversion register
+        assertEquals(5, lib.reads);
+
+        assertEquals(1000, ads.readValue(0), 0.01);
+        assertEquals(2, lib.configWrites);
+    }
+
+    @Test
+    public void readySignalReplacesPolling() {
+        ADS1115 ads = new ADS1115(1, ADDRESS);
+        final int[] checks = {0};
+        ads.setReadySignal(new ADS1015.ReadySignal() {
+            @Override
+            public boolean isReady() {
+                checks[0]++;
+                lib.finish();
+                return true;
+            }
+        });
+        assertEquals(1000, ads.readValue(0), 0.01);
+        assertEquals(1, checks[0]);
+        // Only the conversion register was read
+        assertEquals(1, lib.reads);
+    }
+
+    @Test
+    public void failedWriteReopensTheBus() {
+        ADS1115 ads = new ADS1115(1, ADDRESS);
+        assertEquals(1000, ads.readValue(0), 0.01);
+        lib.broken = true;
+        assertEquals(-1, ads.readValue(0), 0.01);
+        assertEquals(1, lib.closes);
+        assertFalse(I2CBus.get(1).isOpen());
+
+        lib.broken = false;
+        assertEquals(1000, ads.readValue(0), 0.01);
+        assertEquals(2, lib.opens);
+    }
+}
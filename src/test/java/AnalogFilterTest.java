@@ -0,0 +1,84 @@
+import com.sb.elsinore.inputs.AnalogFilter;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Filtering bursts of analog samples.
+ */
+public class AnalogFilterTest {
+
+    @Test
+    public void medianIgnoresASpike() {
+        AnalogFilter filter = new AnalogFilter(5, true,
+                AnalogFilter.Smoothing.NONE);
+        assertEquals(2.0, filter.update(2.0, 2.1, 9.0, 1.9, 2.0), 0.0001);
+        assertTrue(filter.getNoise() < 0.2);
+
+        AnalogFilter mean = new AnalogFilter(5, false,
+                AnalogFilter.Smoothing.NONE);
+        assertEquals(3.4, mean.update(2.0, 2.1, 9.0, 1.9, 2.0), 0.0001);
+    }
+
+    @Test
+    public void readsABurstFromTheSource() throws Exception {
+        final int[] reads = {0};
+        AnalogFilter filter = new AnalogFilter(4, false,
+                AnalogFilter.Smoothing.NONE);
+        filter.update(new AnalogFilter.Source() {
+            @Override
+            public double read() {
+                reads[0]++;
+                return reads[0];
+            }
+        });
+        assertEquals(4, reads[0]);
+        assertEquals(2.5, filter.getValue(), 0.0001);
+    }
+
+    @Test
+    public void emaMovesPartWay() {
+        AnalogFilter filter = new AnalogFilter(1, false,
+                AnalogFilter.Smoothing.EMA);
+        filter.setAlpha(0.5);
+        assertEquals(10, filter.update(10), 0.0001);
+        assertEquals(15, filter.update(20), 0.0001);
+    }
+
+    @Test
+    public void kalmanSettlesOnTheSignal() {
+        AnalogFilter filter = new AnalogFilter(8, false,
+                AnalogFilter.Smoothing.KALMAN);
+        Random random = new Random(42);
+        double[] burst = new double[8];
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < burst.length; j++) {
+                burst[j] = 1.5 + random.nextGaussian() * 0.1;
+            }
+            filter.update(burst);
+        }
+        assertEquals(1.5, filter.getValue(), 0.02);
+        assertEquals(0.1, filter.getNoise(), 0.05);
+    }
+
+    @Test
+    public void parsesTheConfiguration() {
+        AnalogFilter filter = AnalogFilter.parse("16", "median, kalman");
+        assertEquals(16, filter.getSamples());
+        assertTrue(filter.isMedian());
+        assertEquals(AnalogFilter.Smoothing.KALMAN, filter.getSmoothing());
+        assertEquals("median,kalman", filter.getSpec());
+
+        filter = AnalogFilter.parse(null, null);
+        assertEquals(AnalogFilter.DEFAULT_SAMPLES, filter.getSamples());
+        assertTrue(filter.isMedian());
+
+        filter = AnalogFilter.parse("1", "none");
+        assertFalse(filter.isMedian());
+        assertEquals("none", filter.getSpec());
+    }
+}
@@ -0,0 +1,180 @@
+import com.sb.elsinore.ConfigWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Background writes of the configuration file.
+ */
+public class ConfigWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a version number, counting up each write.
+     */
+    private class CountingSource implements ConfigWriter.Source {
+        private int written = 0;
+        private boolean ready = true;
+        private volatile boolean broken = false;
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public synchronized void write(final OutputStream out)
+                throws IOException {
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            if (broken) {
+                throw new IOException("Disk full");
+            }
+            written++;
+            out.write(Integer.toString(written)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        synchronized int writes() {
+            return written;
+        }
+    }
+
+    private File file;
+    private CountingSource source;
+    private ConfigWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "elsinore.cfg");
+        source = new CountingSource();
+    }
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    private String read(final File target) throws IOException {
+        return new String(Files.readAllBytes(target.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void burstOfEditsIsOneWrite() throws Exception {
+        writer = new ConfigWriter(source, 100, 5000, 3);
+        for (int i = 0; i < 10; i++) {
+            writer.markDirty();
+        }
+        writer.markDirty();
+        assertEquals(0, source.writes());
+
+        for (int i = 0; i < 100 && source.writes() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+        assertEquals(1, source.writes());
+        assertEquals("partial1", read(file));
+        assertEquals(11, writer.getRequests());
+        assertEquals(1, writer.getWrites());
+        assertFalse(writer.isDirty());
+    }
+
+    @Test
+    public void steadyEditsAreStillWritten() throws Exception {
+        writer = new ConfigWriter(source, 200, 300, 3);
+        long end = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < end) {
+            writer.markDirty();
+            Thread.sleep(50);
+        }
+        assertTrue(source.writes() >= 2);
+    }
+
+    @Test
+    public void keepsTheLastFewVersions() throws Exception {
+        writer = new ConfigWriter(source, 60000, 60000, 2);
+        for (int i = 0; i < 4; i++) {
+            writer.markDirty();
+            assertTrue(writer.flush());
+        }
+        assertEquals("partial4", read(file));
+        assertEquals("partial3", read(ConfigWriter.getBackup(file, 1)));
+        assertEquals("partial2", read(ConfigWriter.getBackup(file, 2)));
+        assertFalse(ConfigWriter.getBackup(file, 3).exists());
+        // Nothing changed, nothing written
+        assertFalse(writer.flush());
+    }
+
+    @Test
+    public void failedWriteLeavesTheOldFile() throws Exception {
+        writer = new ConfigWriter(source, 60000, 60000, 2);
+        writer.markDirty();
+        assertTrue(writer.flush());
+
+        source.broken = true;
+        writer.markDirty();
+        assertFalse(writer.flush());
+        assertEquals("partial1", read(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertFalse(ConfigWriter.getBackup(file, 1).exists());
+
+        // The change is kept for the next try
+        assertTrue(writer.isDirty());
+        source.broken = false;
+        assertTrue(writer.flush());
+        assertEquals("partial2", read(file));
+    }
+
+    @Test
+    public void failedWriteIsTriedAgain() throws Exception {
+        writer = new ConfigWriter(source, 50, 50, 2);
+        source.broken = true;
+        writer.markDirty();
+        Thread.sleep(300);
+        assertEquals(0, writer.getWrites());
+        assertTrue(writer.isDirty());
+
+        // No more edits, the retry writes it
+        source.broken = false;
+        for (int i = 0; i < 150 && writer.getWrites() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, writer.getWrites());
+        assertFalse(writer.isDirty());
+        assertEquals("partial1", read(file));
+    }
+
+    @Test
+    public void waitsUntilReady() throws Exception {
+        writer = new ConfigWriter(source, 60000, 60000, 2);
+        source.ready = false;
+        writer.markDirty();
+        assertFalse(writer.flush());
+        assertFalse(file.exists());
+
+        source.ready = true;
+        assertTrue(writer.flush());
+        assertTrue(file.exists());
+    }
+}
@@ -0,0 +1,172 @@
+import com.sb.elsinore.config.Config;
+import com.sb.elsinore.config.ConfigXmlReader;
+import com.sb.elsinore.config.ConfigXmlWriter;
+import com.sb.elsinore.config.DeviceConfig;
+import com.sb.elsinore.config.GeneralConfig;
+import com.sb.elsinore.config.I2CConfig;
+import com.sb.elsinore.config.OutputConfig;
+import com.sb.elsinore.config.PidConfig;
+import com.sb.elsinore.config.SwitchConfig;
+import com.sb.elsinore.config.TimerConfig;
+import com.sb.elsinore.config.TriggerConfig;
+import com.sb.elsinore.config.VolumeConfig;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reading configuration files in one pass.
+ */
+public class ConfigXmlReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static Config read(final String xml) throws Exception {
+        return ConfigXmlReader.read(new ByteArrayInputStream(
+                xml.getBytes(UTF8)));
+    }
+
+    private static Config roundTrip(final Config config) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigXmlWriter.write(config, out);
+        return ConfigXmlReader.read(
+                new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws Exception {
+        OutputConfig heat = new OutputConfig("GPIO1_17", new BigDecimal("2"),
+                new BigDecimal("10"), new BigDecimal("0.5"),
+                new BigDecimal("1"), new BigDecimal("0"), true);
+        PidConfig pid = new PidConfig(new BigDecimal("50"),
+                new BigDecimal("5"), new BigDecimal("152"), "auto", heat,
+                null, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO,
+                "GPIO0_7", true);
+        Map<BigDecimal, BigDecimal> points = new TreeMap<>();
+        points.put(new BigDecimal("1"), new BigDecimal("100"));
+        points.put(new BigDecimal("2"), new BigDecimal("200"));
+        VolumeConfig volume = new VolumeConfig("Litres", "", null, null,
+                true, 16, "median", new I2CConfig("ADS1015", 1, 72, 2,
+                        "continuous", "GPIO1_16"), points);
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("waitTimeMins", "10");
+        values.put("notes", "Rest");
+        DeviceConfig mash = new DeviceConfig("Mash", "28-0000012345",
+                1, "200", true, "0.5", false, 1, pid, volume,
+                Collections.singletonList(
+                        new TriggerConfig(0, "Wait", values)));
+        GeneralConfig general = new GeneralConfig("Home Brewery", true, "C",
+                true, 0.2, 6000, "localhost", 4304, true, true, "key", 42);
+
+        Config config = roundTrip(Config.EMPTY.withGeneral(general)
+                .withDevices(Collections.singletonList(mash))
+                .withTimers(Arrays.asList(new TimerConfig("Boil", 0, 60)))
+                .withSwitches(Arrays.asList(
+                        new SwitchConfig("Pump", "GPIO1_18", 2, true))));
+
+        assertEquals("Home Brewery", config.general.breweryName);
+        assertTrue(config.general.pageLock);
+        assertEquals("C", config.general.scale);
+        assertEquals(6000, config.general.recorderTime);
+        assertEquals(Integer.valueOf(4304), config.general.owfsPort);
+        assertEquals("key", config.general.cosmApiKey);
+        assertEquals(Integer.valueOf(42), config.general.cosmFeedId);
+
+        DeviceConfig device = config.getDevice("Mash");
+        assertEquals("28-0000012345", device.probe);
+        assertEquals(1, device.position);
+        assertTrue(device.cutoffEnabled);
+        assertEquals("GPIO1_17", device.pid.heat.gpio);
+        assertTrue(device.pid.heat.invert);
+        assertEquals(0, new BigDecimal("0.5").compareTo(
+                device.pid.heat.integral));
+        assertNull(device.pid.cool);
+        assertEquals("GPIO0_7", device.pid.auxGpio);
+        assertTrue(device.pid.auxInvert);
+        assertEquals("auto", device.pid.mode);
+
+        assertEquals("Litres", device.volume.unit);
+        assertTrue(device.volume.spline);
+        assertEquals(2, device.volume.points.size());
+        assertEquals(72, device.volume.i2c.address);
+        assertEquals(2, device.volume.i2c.channel);
+        assertEquals("continuous", device.volume.i2c.mode);
+
+        assertEquals(1, device.triggers.size());
+        assertEquals("Wait", device.triggers.get(0).type);
+        assertEquals("Rest", device.triggers.get(0).get("notes", ""));
+
+        assertEquals(60, config.timers.get(0).target);
+        assertEquals("Pump", config.switches.get(0).name);
+        assertEquals("GPIO1_18", config.switches.get(0).gpio);
+        assertTrue(config.switches.get(0).invert);
+    }
+
+    @Test
+    public void readsOlderFiles() throws Exception {
+        Config config = read("<?xml version=\"1.0\"?>\n"
+                + "<elsinore>\n"
+                + "  <general>\n"
+                + "    <pachube>old-key</pachube>\n"
+                + "    <pachube_feed>7</pachube_feed>\n"
+                + "    <owfs_server>localhost</owfs_server>\n"
+                + "  </general>\n"
+                + "  <device id=\"Kettle\">\n"
+                + "    <probe>28-0000054321</probe>\n"
+                + "    <gpio>GPIO0_8</gpio>\n"
+                + "    <cycle_time>3</cycle_time>\n"
+                + "    <position>oops</position>\n"
+                + "    <I2C><Number>i2c-1</Number><Address>0x48</Address>"
+                + "<Type>ADS1115</Type><Channel>3</Channel></I2C>\n"
+                + "  </device>\n"
+                + "  <switches>\n"
+                + "    <switch name=\"_Hot_Pump\">GPIO1_19</switch>\n"
+                + "  </switches>\n"
+                + "</elsinore>\n");
+
+        assertEquals("old-key", config.general.cosmApiKey);
+        assertEquals(Integer.valueOf(7), config.general.cosmFeedId);
+        // A server without a port isn't used
+        assertNull(config.general.owfsServer);
+        assertEquals("F", config.general.scale);
+
+        DeviceConfig kettle = config.getDevice("Kettle");
+        assertNotNull(kettle.pid);
+        assertEquals("GPIO0_8", kettle.pid.heat.gpio);
+        assertEquals(0, new BigDecimal("3").compareTo(
+                kettle.pid.heat.cycleTime));
+        assertEquals(-1, kettle.position);
+        assertEquals(1, kettle.volume.i2c.number);
+        assertEquals(0x48, kettle.volume.i2c.address);
+        assertEquals(3, kettle.volume.i2c.channel);
+        assertTrue(kettle.triggers.isEmpty());
+
+        assertEquals("Hot Pump", config.switches.get(0).name);
+        assertEquals("GPIO1_19", config.switches.get(0).gpio);
+        assertFalse(config.switches.get(0).invert);
+    }
+
+    @Test
+    public void probeWithoutOutputsHasNoPid() throws Exception {
+        Config config = read("<elsinore><device id=\"HLT\">"
+                + "<probe>28-0000011111</probe><gpio></gpio>"
+                + "</device></elsinore>");
+        assertNull(config.getDevice("HLT").pid);
+        assertNull(config.getDevice("HLT").volume);
+        assertTrue(config.timers.isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+import com.sb.elsinore.Temp;
+import com.sb.elsinore.Timer;
+import com.sb.elsinore.config.Config;
+import com.sb.elsinore.config.ConfigXmlWriter;
+import com.sb.elsinore.config.DeviceConfig;
+import com.sb.elsinore.config.TimerConfig;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writing configuration snapshots and reading them back.
+ */
+public class ConfigXmlWriterTest {
+
+    private static Document write(final Config config) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigXmlWriter.write(config, out);
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static String text(final Element parent, final String name) {
+        return parent.getElementsByTagName(name).item(0).getTextContent();
+    }
+
+    @Test
+    public void writesDevicesAndTimers() throws Exception {
+        Temp mash = new Temp("Mash", "28-config-test");
+        mash.setPosition(2);
+        mash.setCalibration("1.5");
+        Timer boil = new Timer("Boil");
+        boil.setPosition(1);
+        boil.setTarget("60");
+
+        Config config = Config.EMPTY
+                .withDevices(Collections.singletonList(
+                        DeviceConfig.of(mash, null)))
+                .withTimers(Arrays.asList(TimerConfig.of(boil)));
+        Document doc = write(config);
+
+        Element root = doc.getDocumentElement();
+        assertEquals("elsinore", root.getTagName());
+        assertEquals("F", text(root, "scale"));
+
+        NodeList devices = root.getElementsByTagName("device");
+        assertEquals(1, devices.getLength());
+        Element device = (Element) devices.item(0);
+        assertEquals("Mash", device.getAttribute("id"));
+        assertEquals("28-config-test", text(device, "probe"));
+        assertEquals("2", text(device, "position"));
+        assertEquals(0, device.getElementsByTagName("duty_cycle").getLength());
+
+        NodeList timers = root.getElementsByTagName("timer");
+        assertEquals(1, timers.getLength());
+        Element timer = (Element) timers.item(0);
+        assertEquals("Boil", timer.getAttribute("id"));
+        assertEquals("1", timer.getAttribute("position"));
+    }
+
+    @Test
+    public void emptyListsAreStillWritten() throws Exception {
+        Element root = write(Config.EMPTY).getDocumentElement();
+        assertEquals(1, root.getElementsByTagName("timers").getLength());
+        assertEquals(0, root.getElementsByTagName("timer").getLength());
+        assertEquals(1, root.getElementsByTagName("switches").getLength());
+    }
+
+    @Test
+    public void withDeviceLeavesTheOldSnapshotAlone() {
+        Temp mash = new Temp("Mash", "28-config-test");
+        Config before = Config.EMPTY.withDevices(
+                Collections.singletonList(DeviceConfig.of(mash, null)));
+
+        mash.setPosition(5);
+        Config after = before.withDevice(DeviceConfig.of(mash, null));
+
+        assertEquals(-1, before.getDevice("Mash").position);
+        assertEquals(5, after.getDevice("Mash").position);
+        assertEquals(1, after.devices.size());
+
+        Temp hlt = new Temp("HLT", "28-config-hlt");
+        Config added = after.withDevice(DeviceConfig.of(hlt, null));
+        assertEquals(2, added.devices.size());
+        assertNull(after.getDevice("HLT"));
+    }
+}
@@ -0,0 +1,122 @@
+import com.sb.elsinore.DeviceRegistry;
+import com.sb.elsinore.LaunchControl;
+import com.sb.elsinore.Temp;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Finding devices by name and address without searching the list.
+ */
+public class DeviceRegistryTest {
+
+    /**
+     * A device with a name and a second key.
+     */
+    private static final class Device {
+        private String name;
+        private final String address;
+
+        Device(final String name, final String address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+
+    private static DeviceRegistry<Device> registry() {
+        return new DeviceRegistry<>(new DeviceRegistry.Keys<Device>() {
+            @Override
+            public Collection<String> keysOf(final Device device) {
+                return Arrays.asList(device.name, device.address);
+            }
+        });
+    }
+
+    @Test
+    public void findsByAnyKeyIgnoringCase() {
+        DeviceRegistry<Device> devices = registry();
+        Device mash = new Device("Mash", "28-01");
+        Device hlt = new Device("HLT", null);
+        devices.add(mash);
+        devices.add(hlt);
+
+        assertSame(mash, devices.find("mash"));
+        assertSame(mash, devices.find("28-01"));
+        assertSame(hlt, devices.find("hlt"));
+        assertNull(devices.find("Boil"));
+        assertNull(devices.find(null));
+
+        devices.remove(mash);
+        assertNull(devices.find("Mash"));
+        assertNull(devices.find("28-01"));
+        assertEquals(1, devices.size());
+    }
+
+    @Test
+    public void firstDeviceWinsASharedKey() {
+        DeviceRegistry<Device> devices = registry();
+        Device first = new Device("Kettle", "28-01");
+        Device second = new Device("Boil", "28-01");
+        devices.add(first);
+        devices.add(second);
+        assertSame(first, devices.find("28-01"));
+
+        devices.remove(first);
+        assertSame(second, devices.find("28-01"));
+    }
+
+    @Test
+    public void renameAndSortKeepTheIndex() {
+        DeviceRegistry<Device> devices = registry();
+        Device b = new Device("B", null);
+        Device a = new Device("A", null);
+        devices.add(b);
+        devices.add(a);
+        Iterator<Device> before = devices.iterator();
+
+        b.name = "C";
+        devices.reindex();
+        assertNull(devices.find("B"));
+        assertSame(b, devices.find("C"));
+
+        devices.sort(new Comparator<Device>() {
+            @Override
+            public int compare(final Device x, final Device y) {
+                return x.name.compareTo(y.name);
+            }
+        });
+        assertSame(a, devices.get(0));
+        assertSame(b, devices.find("c"));
+        // Iterators carry on over the list they started with
+        assertSame(b, before.next());
+        assertSame(a, before.next());
+        assertFalse(before.hasNext());
+    }
+
+    @Test
+    public void probesAreFoundByEitherAddress() {
+        Temp temp = new Temp("Registry Test", "28-0000012345ab");
+        LaunchControl.tempList.add(temp);
+        try {
+            assertTrue(LaunchControl.probeExists("28-0000012345ab"));
+            assertTrue(LaunchControl.probeExists("28.AB4523010000"));
+            assertSame(temp, LaunchControl.findTemp("registry_test"));
+
+            temp.setName("Renamed Test");
+            assertNull(LaunchControl.findTemp("Registry_Test"));
+            assertSame(temp, LaunchControl.findTemp("Renamed_Test"));
+        } finally {
+            LaunchControl.tempList.remove(temp);
+        }
+        assertFalse(LaunchControl.probeExists("28-0000012345ab"));
+    }
+}
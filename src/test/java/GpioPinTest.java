@@ -0,0 +1,188 @@
+import com.sb.elsinore.devices.GpioPin;
+import com.sb.elsinore.devices.OutputDevice;
+import com.sb.elsinore.devices.OutputScheduler;
+import jGPIO.InvalidGPIOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Shared output pins, against fake pins that count what's done to them.
+ */
+public class GpioPinTest {
+
+    /**
+     * A pin that records every write.
+     */
+    private static class FakeChannel implements GpioPin.Channel {
+        private final String name;
+        private final List<String> log;
+        private boolean value = false;
+        private int reads = 0;
+        private boolean closed = false;
+        private boolean broken = false;
+
+        FakeChannel(final String name, final List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void write(final boolean on) throws IOException {
+            if (broken) {
+                throw new IOException("Broken");
+            }
+            log.add(name + "=" + on);
+            value = on;
+        }
+
+        @Override
+        public boolean read() throws IOException {
+            reads++;
+            return value;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private final List<String> writes = new ArrayList<>();
+    private final Map<String, FakeChannel> channels = new HashMap<>();
+    private int opens = 0;
+
+    @Before
+    public void setUp() {
+        GpioPin.setOpener(new GpioPin.Opener() {
+            @Override
+            public GpioPin.Channel open(final String name) {
+                opens++;
+                FakeChannel channel = new FakeChannel(name, writes);
+                channels.put(name, channel);
+                return channel;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        GpioPin.setOpener(null);
+    }
+
+    @Test
+    public void unchangedWritesAreSkipped() throws InvalidGPIOException {
+        GpioPin pin = GpioPin.open("GPIO1_1");
+        long skipped = GpioPin.getSkipped();
+        assertTrue(pin.set(true));
+        assertFalse(pin.set(true));
+        assertFalse(pin.set(true));
+        assertTrue(pin.set(false));
+        assertEquals(2, writes.size());
+        assertEquals(skipped + 2, GpioPin.getSkipped());
+        // The state is known without reading the pin
+        assertFalse(pin.get());
+        assertEquals(0, channels.get("GPIO1_1").reads);
+    }
+
+    @Test
+    public void readPicksUpOutsideChanges() throws InvalidGPIOException {
+        GpioPin pin = GpioPin.open("GPIO1_2");
+        pin.set(false);
+        channels.get("GPIO1_2").value = true;
+        assertFalse(pin.get());
+        assertTrue(pin.read());
+        // So setting it off again isn't skipped
+        assertTrue(pin.set(false));
+        assertFalse(channels.get("GPIO1_2").value);
+    }
+
+    @Test
+    public void pinsAreSharedUntilTheLastClose()
+            throws InvalidGPIOException {
+        GpioPin first = GpioPin.open("GPIO1_3");
+        GpioPin second = GpioPin.open("GPIO1_3");
+        assertSame(first, second);
+        assertEquals(1, opens);
+
+        first.close();
+        assertFalse(channels.get("GPIO1_3").closed);
+        second.close();
+        assertTrue(channels.get("GPIO1_3").closed);
+
+        GpioPin.open("GPIO1_3");
+        assertEquals(2, opens);
+    }
+
+    @Test
+    public void batchWritesTheLastValueOnce() throws InvalidGPIOException {
+        GpioPin first = GpioPin.open("GPIO1_4");
+        GpioPin second = GpioPin.open("GPIO1_5");
+        try (GpioPin.Batch batch = GpioPin.startBatch()) {
+            first.set(true);
+            second.set(true);
+            try (GpioPin.Batch inner = GpioPin.startBatch()) {
+                first.set(false);
+            }
+            first.set(true);
+            assertTrue(writes.isEmpty());
+        }
+        assertEquals("[GPIO1_4=true, GPIO1_5=true]", writes.toString());
+    }
+
+    @Test
+    public void batchReportsFailedPins() throws InvalidGPIOException {
+        GpioPin good = GpioPin.open("GPIO1_6");
+        GpioPin bad = GpioPin.open("GPIO1_7");
+        channels.get("GPIO1_7").broken = true;
+        GpioPin.Batch batch = GpioPin.startBatch();
+        bad.set(true);
+        good.set(true);
+        try {
+            batch.close();
+            fail("The failed write wasn't thrown");
+        } catch (RuntimeException e) {
+            assertSame(e, batch.getFailure(bad));
+        }
+        assertNull(batch.getFailure(good));
+        assertEquals("[GPIO1_6=true]", writes.toString());
+        // Not in a batch any more
+        good.set(false);
+        assertEquals(2, writes.size());
+    }
+
+    @Test
+    public void schedulerWritesEdgesTogether() throws InvalidGPIOException {
+        OutputScheduler scheduler = new OutputScheduler();
+        OutputDevice first = new OutputDevice("first", "GPIO1_8", 1);
+        OutputDevice second = new OutputDevice("second", "GPIO1_9", 1);
+        channels.get("GPIO1_9").broken = true;
+        scheduler.getDevices().add(first);
+        scheduler.getDevices().add(second);
+        first.setDuty(50);
+        second.setDuty(50);
+        writes.clear();
+
+        assertEquals(500, scheduler.poll(0));
+        assertEquals("[GPIO1_8=true]", writes.toString());
+        assertFalse(first.isFailed());
+        assertTrue(second.isFailed());
+
+        // The device that failed is left out
+        assertEquals(1000, scheduler.poll(500));
+        assertEquals("[GPIO1_8=true, GPIO1_8=false]", writes.toString());
+    }
+}
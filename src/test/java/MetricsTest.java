@@ -0,0 +1,116 @@
+import com.sb.elsinore.metrics.Collector;
+import com.sb.elsinore.metrics.Counter;
+import com.sb.elsinore.metrics.Histogram;
+import com.sb.elsinore.metrics.Metrics;
+import com.sb.elsinore.metrics.TextFormat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recording metrics and writing them for Prometheus.
+ */
+public class MetricsTest {
+
+    private static String text(final Collector collector) {
+        StringBuilder out = new StringBuilder();
+        collector.collect(new TextFormat(out));
+        return out.toString();
+    }
+
+    @Test
+    public void countersAreWrittenByLabel() {
+        Counter counter = new Counter("test_reads_total", "Reads.", "probe");
+        counter.labels("28-01").inc();
+        counter.labels("28-01").inc(2);
+        counter.labels("a \"quoted\"\\name").inc();
+
+        String text = text(counter);
+        assertTrue(text.startsWith("# HELP test_reads_total Reads.\n"
+                + "# TYPE test_reads_total counter\n"));
+        assertTrue(text.contains("test_reads_total{probe=\"28-01\"} 3\n"));
+        assertTrue(text.contains(
+                "test_reads_total{probe=\"a \\\"quoted\\\"\\\\name\"} 1\n"));
+        assertEquals(3, counter.labels("28-01").get());
+    }
+
+    @Test
+    public void unlabelledCounterStartsAtZero() {
+        Counter counter = new Counter("test_writes_total", "Writes.");
+        assertTrue(text(counter).contains("test_writes_total 0\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfLabels() {
+        new Counter("test_bad_total", "Bad.", "probe").labels();
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        Histogram histogram = new Histogram("test_read_seconds", "Reads.",
+                new double[] {0.01, 0.1, 1});
+        histogram.observe(0.005);
+        histogram.observe(0.01);
+        histogram.observe(0.5);
+        histogram.observe(3);
+
+        String text = text(histogram);
+        assertTrue(text.contains("# TYPE test_read_seconds histogram\n"));
+        assertTrue(text.contains("test_read_seconds_bucket{le=\"0.01\"} 2\n"));
+        assertTrue(text.contains("test_read_seconds_bucket{le=\"0.1\"} 2\n"));
+        assertTrue(text.contains("test_read_seconds_bucket{le=\"1\"} 3\n"));
+        assertTrue(text.contains("test_read_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("test_read_seconds_count 4\n"));
+        assertEquals(3.515, histogram.labels().getSum(), 1e-9);
+    }
+
+    @Test
+    public void labelledHistogramAddsTheBucketLabel() {
+        Histogram histogram = new Histogram("test_http_seconds", "Requests.",
+                Histogram.LATENCY, "endpoint");
+        histogram.labels("/getstatus").observe(0.002);
+
+        String text = text(histogram);
+        assertTrue(text.contains(
+                "test_http_seconds_bucket{endpoint=\"/getstatus\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains(
+                "test_http_seconds_count{endpoint=\"/getstatus\"} 1\n"));
+    }
+
+    @Test
+    public void removedChildrenStopBeingWritten() {
+        Counter counter = new Counter("test_errors_total", "Errors.", "probe");
+        Histogram histogram = new Histogram("test_probe_seconds", "Reads.",
+                new double[] {0.1}, "probe");
+        Counter.Child errors = counter.labels("28-01");
+        errors.inc();
+        counter.labels("28-02").inc();
+        histogram.labels("28-01").observe(0.05);
+
+        counter.remove("28-01");
+        histogram.remove("28-01");
+        errors.inc();
+        String text = text(counter);
+        assertFalse(text.contains("28-01"));
+        assertTrue(text.contains("test_errors_total{probe=\"28-02\"} 1\n"));
+        assertFalse(text(histogram).contains("28-01"));
+
+        // Asking again starts a new count
+        assertEquals(0, counter.labels("28-01").get());
+    }
+
+    @Test
+    public void scrapeIncludesRegisteredMetrics() {
+        Counter counter = Metrics.counter("test_scraped_total", "Scraped.");
+        counter.inc();
+        try {
+            String text = Metrics.scrape();
+            assertTrue(text.contains("test_scraped_total 1\n"));
+            assertTrue(text.contains("# TYPE jvm_threads_current gauge\n"));
+        } finally {
+            Metrics.unregister("test_scraped_total");
+        }
+    }
+}
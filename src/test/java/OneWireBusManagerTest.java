@@ -0,0 +1,107 @@
+import com.sb.elsinore.OneWireBusManager;
+import com.sb.elsinore.Temp;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bulk reads against a simulated /sys/bus/w1/devices tree.
+ */
+public class OneWireBusManagerTest {
+
+    private static final String MASH = "28-000000000001";
+    private static final String HLT = "28-000000000002";
+    private static final String OLD = "28-000000000003";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File devices;
+    private OneWireBusManager manager;
+
+    @Before
+    public void createTree() throws IOException {
+        devices = folder.getRoot();
+        // A bus with bulk reads and a bus without
+        write("w1_bus_master1/w1_master_slaves", MASH + "\n" + HLT + "\n");
+        write("w1_bus_master1/therm_bulk_read", "0\n");
+        write("w1_bus_master2/w1_master_slaves", OLD + "\n");
+        write(MASH + "/temperature", "65250\n");
+        write(HLT + "/temperature", "-1500\n");
+        write(OLD + "/w1_slave", "");
+        manager = new OneWireBusManager(devices, null);
+        manager.discover();
+    }
+
+    @Test
+    public void readsEveryProbeOnTheBus() throws IOException {
+        Temp mash = new Temp("Mash", MASH);
+        Temp hlt = new Temp("HLT", HLT);
+        assertTrue(manager.register(mash));
+        assertTrue(manager.register(hlt));
+
+        manager.readAll();
+
+        assertEquals(65.25, mash.getTempCValue(), 0.0001);
+        assertEquals(-1.5, hlt.getTempCValue(), 0.0001);
+        assertEquals(1, mash.getHistory().size());
+        assertEquals("trigger", read("w1_bus_master1/therm_bulk_read"));
+
+        write(MASH + "/temperature", "66000\n");
+        manager.readAll();
+        assertEquals(66.0, mash.getTempCValue(), 0.0001);
+        assertEquals(2, mash.getHistory().size());
+    }
+
+    @Test
+    public void busWithoutBulkReadIsNotManaged() {
+        assertFalse(manager.register(new Temp("Old", OLD)));
+    }
+
+    @Test
+    public void badReadingIsAnError() throws IOException {
+        Temp mash = new Temp("Mash", MASH);
+        assertTrue(manager.register(mash));
+        write(MASH + "/temperature", "garbage\n");
+
+        manager.readAll();
+
+        assertNotNull(mash.currentError);
+        assertEquals(0, mash.getHistory().size());
+    }
+
+    @Test
+    public void unregisteredProbeIsNotRead() throws IOException {
+        Temp mash = new Temp("Mash", MASH);
+        assertTrue(manager.register(mash));
+        manager.unregister(mash);
+
+        manager.readAll();
+
+        assertEquals(0, mash.getHistory().size());
+    }
+
+    private void write(final String path, final String content)
+            throws IOException {
+        File file = new File(devices, path);
+        file.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private String read(final String path) throws IOException {
+        return new String(java.nio.file.Files.readAllBytes(
+                new File(devices, path).toPath())).trim();
+    }
+}
@@ -0,0 +1,184 @@
+import com.sb.elsinore.devices.CompressorDevice;
+import com.sb.elsinore.devices.OutputDevice;
+import com.sb.elsinore.devices.OutputScheduler;
+import jGPIO.InvalidGPIOException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time proportioned outputs driven at absolute edges.
+ */
+public class OutputSchedulerTest {
+
+    /**
+     * An output without a pin that remembers what it was set to.
+     */
+    private static class RecordingDevice extends OutputDevice {
+        private final List<Boolean> values = new ArrayList<>();
+
+        RecordingDevice(final double cycleTimeSeconds) {
+            super("test", null, cycleTimeSeconds);
+        }
+
+        @Override
+        protected void setValue(final boolean value) {
+            values.add(value);
+        }
+
+        boolean isOn() {
+            return !values.isEmpty() && values.get(values.size() - 1);
+        }
+    }
+
+    @Test
+    public void edgesStayOnTheCycleWhenLate() throws InvalidGPIOException {
+        RecordingDevice device = new RecordingDevice(1);
+        device.setDuty(50);
+
+        assertEquals(500, device.poll(0));
+        assertTrue(device.isOn());
+        // Woken 30ms late for the off edge
+        assertEquals(1000, device.poll(530));
+        assertFalse(device.isOn());
+        // and 10ms late for the next cycle, which still ends on time
+        assertEquals(1500, device.poll(1010));
+        assertTrue(device.isOn());
+        assertEquals(2000, device.poll(1500));
+        assertFalse(device.isOn());
+    }
+
+    @Test
+    public void dutyChangesWaitForTheNextCycle() throws InvalidGPIOException {
+        RecordingDevice device = new RecordingDevice(1);
+        device.setDuty(50);
+        device.poll(0);
+
+        device.setDuty(80);
+        assertEquals(500, device.poll(200));
+        assertTrue(device.isOn());
+        device.poll(500);
+        assertFalse(device.isOn());
+
+        assertEquals(1800, device.poll(1000));
+        assertTrue(device.isOn());
+    }
+
+    @Test
+    public void reportsTheAchievedDuty() throws InvalidGPIOException {
+        RecordingDevice device = new RecordingDevice(1);
+        device.setDuty(50);
+        device.poll(0);
+        // The off edge is applied 100ms late
+        device.poll(600);
+        device.poll(1000);
+        assertEquals(60, device.getAchievedDuty(), 0.001);
+        assertEquals(50, device.getRequestedDuty(), 0.001);
+
+        device.poll(1500);
+        device.poll(2000);
+        assertEquals(50, device.getAchievedDuty(), 0.001);
+    }
+
+    @Test
+    public void fullAndZeroDuty() throws InvalidGPIOException {
+        RecordingDevice device = new RecordingDevice(1);
+        device.setDuty(100);
+        assertEquals(1000, device.poll(0));
+        assertEquals(2000, device.poll(1000));
+        assertTrue(device.isOn());
+        // Never switched off between full cycles
+        assertEquals(1, device.values.size());
+
+        device.setDuty(0);
+        assertEquals(Long.MAX_VALUE, device.poll(2000));
+        assertFalse(device.isOn());
+        assertEquals(0, device.getAchievedDuty(), 0.001);
+    }
+
+    @Test
+    public void turnOffIsImmediate() throws InvalidGPIOException {
+        RecordingDevice device = new RecordingDevice(1);
+        device.setDuty(50);
+        device.poll(0);
+        device.turnOff();
+        assertFalse(device.isOn());
+        assertEquals(Long.MAX_VALUE, device.poll(100));
+    }
+
+    @Test
+    public void failedDeviceIsLeftOff() {
+        OutputScheduler scheduler = new OutputScheduler();
+        RecordingDevice device = new RecordingDevice(1) {
+            @Override
+            public synchronized long poll(final long now)
+                    throws InvalidGPIOException {
+                throw new InvalidGPIOException("No pin");
+            }
+        };
+        scheduler.getDevices().add(device);
+        device.setDuty(50);
+        assertEquals(Long.MAX_VALUE, scheduler.poll(0));
+        assertTrue(device.isFailed());
+        assertFalse(device.isOn());
+
+        device.setDuty(50);
+        assertEquals(0, device.getRequestedDuty(), 0.001);
+    }
+
+    @Test
+    public void schedulerWaitsForTheEarliestEdge()
+            throws InvalidGPIOException {
+        OutputScheduler scheduler = new OutputScheduler();
+        RecordingDevice slow = new RecordingDevice(10);
+        RecordingDevice fast = new RecordingDevice(1);
+        scheduler.getDevices().add(slow);
+        scheduler.getDevices().add(fast);
+        slow.setDuty(50);
+        fast.setDuty(25);
+        assertEquals(250, scheduler.poll(0));
+        assertEquals(1000, scheduler.poll(250));
+    }
+
+    @Test
+    public void idleDeviceStartsStraightAway() throws Exception {
+        OutputScheduler scheduler = new OutputScheduler();
+        RecordingDevice device = new RecordingDevice(1);
+        scheduler.add(device);
+        try {
+            device.setDuty(100);
+            for (int i = 0; i < 50 && !device.isOn(); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(device.isOn());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void compressorRestsBetweenRuns() throws InvalidGPIOException {
+        CompressorDevice compressor = new CompressorDevice("cooler", null, 1) {
+            @Override
+            protected void setValue(final boolean value) {
+            }
+        };
+        compressor.setDelay(1);
+        compressor.setDuty(100);
+        compressor.poll(OutputScheduler.now());
+        assertEquals(100, compressor.getRequestedDuty(), 0.001);
+        compressor.turnOff();
+
+        // Asked to start again straight away, it stays off
+        compressor.setDuty(100);
+        long now = OutputScheduler.now();
+        assertEquals(now + 1000, compressor.poll(now));
+        compressor.poll(now + 1000);
+        assertEquals(0, compressor.getAchievedDuty(), 0.001);
+    }
+}
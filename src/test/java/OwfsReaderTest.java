@@ -0,0 +1,185 @@
+import com.sb.elsinore.OwfsReader;
+import org.junit.Before;
+import org.junit.Test;
+import org.owfs.jowfsclient.OwfsConnection;
+import org.owfs.jowfsclient.OwfsConnectionConfig;
+import org.owfs.jowfsclient.OwfsException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The OWFS reader against a fake owserver.
+ */
+public class OwfsReaderTest {
+
+    /**
+     * An in memory owserver that counts the requests it gets.
+     */
+    private static class FakeOwserver implements OwfsConnection {
+        private final Map<String, String> values = new HashMap<>();
+        private boolean down = false;
+        private int exists = 0;
+        private int reads = 0;
+        private int disconnects = 0;
+
+        @Override
+        public void setConfiguration(final OwfsConnectionConfig config) {
+        }
+
+        @Override
+        public void disconnect() {
+            disconnects++;
+        }
+
+        @Override
+        public String read(final String path) throws IOException,
+                OwfsException {
+            checkUp();
+            reads++;
+            String value = values.get(path);
+            if (value == null) {
+                throw new OwfsException("Error -1", -1);
+            }
+            return value;
+        }
+
+        @Override
+        public void write(final String path, final String value) {
+            values.put(path, value);
+        }
+
+        @Override
+        public Boolean exists(final String path) throws IOException {
+            checkUp();
+            exists++;
+            return values.containsKey(path);
+        }
+
+        @Override
+        public List<String> listDirectoryAll(final String path) {
+            return listDirectory(path);
+        }
+
+        @Override
+        public List<String> listDirectory(final String path) {
+            return new ArrayList<>(values.keySet());
+        }
+
+        private void checkUp() throws IOException {
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+        }
+    }
+
+    private FakeOwserver server;
+    private int connects;
+    private OwfsReader reader;
+
+    @Before
+    public void setUp() {
+        server = new FakeOwserver();
+        server.values.put("/28.000000000001/temperature", " 65.25");
+        server.values.put("/26.000000000001/volt.A", "3.1");
+        connects = 0;
+        reader = new OwfsReader(new OwfsReader.ConnectionFactory() {
+            @Override
+            public OwfsConnection connect() throws IOException {
+                connects++;
+                if (server.down) {
+                    throw new IOException("Connection refused");
+                }
+                return server;
+            }
+        }, 60 * 1000, 60 * 1000);
+    }
+
+    @Test
+    public void readsAreBatchedAndExistenceIsCached() throws Exception {
+        assertEquals("65.25", reader.read("/28.000000000001/temperature"));
+        assertEquals("3.1", reader.read("/26.000000000001/volt.A"));
+        assertEquals(2, server.exists);
+        assertEquals(2, server.reads);
+
+        // Fresh values come from the batch
+        reader.readAll();
+        reader.readAll();
+        assertEquals(2, server.exists);
+        assertEquals(6, server.reads);
+
+        server.values.put("/28.000000000001/temperature", "66");
+        reader.readAll();
+        assertEquals("66", reader.read("/28.000000000001/temperature"));
+        assertEquals(8, server.reads);
+    }
+
+    @Test
+    public void batchedValueKeepsItsReadTime() throws Exception {
+        assertEquals(0, reader.getReadTime("/28.000000000001/temperature"));
+        long before = System.currentTimeMillis();
+        reader.read("/28.000000000001/temperature");
+        long readTime = reader.getReadTime("/28.000000000001/temperature");
+        assertTrue(readTime >= before);
+        assertTrue(readTime <= System.currentTimeMillis());
+
+        Thread.sleep(20);
+        reader.read("/28.000000000001/temperature");
+        assertEquals(1, server.reads);
+        assertEquals(readTime,
+                reader.getReadTime("/28.000000000001/temperature"));
+        reader.read("/28.000000000001/temperature", 0);
+        assertTrue(reader.getReadTime("/28.000000000001/temperature")
+                > readTime);
+    }
+
+    @Test
+    public void missingPathIsEmpty() throws Exception {
+        assertEquals("", reader.read("/28.000000000009/temperature", 0));
+        assertEquals("", reader.read("/28.000000000009/temperature", 0));
+        assertEquals(1, server.exists);
+        assertEquals(0, server.reads);
+    }
+
+    @Test
+    public void reconnectsAreCoalescedAndBackedOff() throws Exception {
+        reader.read("/28.000000000001/temperature");
+        assertEquals(1, connects);
+
+        server.down = true;
+        try {
+            reader.read("/28.000000000001/temperature", 0);
+            fail("Expected the read to fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, server.disconnects);
+
+        // Everyone else waits for the backoff rather than reconnecting
+        for (int i = 0; i < 10; i++) {
+            reader.requestReconnect();
+            reader.readAll();
+            try {
+                reader.read("/26.000000000001/volt.A", 0);
+                fail("Expected the read to fail");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        assertEquals(1, connects);
+        assertEquals(1, server.disconnects);
+
+        // Until it's forced
+        server.down = false;
+        reader.connect();
+        assertEquals(2, connects);
+        assertEquals("3.1", reader.read("/26.000000000001/volt.A", 0));
+    }
+}
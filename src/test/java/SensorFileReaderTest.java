@@ -0,0 +1,67 @@
+import com.sb.elsinore.SensorFileReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parsing the kernel temperature files.
+ */
+public class SensorFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsW1Slave() throws IOException {
+        File file = write("72 01 4b 46 7f ff 0e 10 57 : crc=57 YES\n"
+                + "72 01 4b 46 7f ff 0e 10 57 t=23125\n");
+        SensorFileReader reader = new SensorFileReader(file.getPath());
+        assertEquals(23125, reader.read());
+
+        // The same reader sees the file change
+        write("ff ff 4b 46 7f ff 01 10 21 : crc=21 YES\n"
+                + "ff ff 4b 46 7f ff 01 10 21 t=-1062\n");
+        assertEquals(-1062, reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void badCrcIsFlagged() throws IOException {
+        File file = write("72 01 4b 46 7f ff 0e 10 57 : crc=00 NO\n"
+                + "72 01 4b 46 7f ff 0e 10 57 t=23125\n");
+        SensorFileReader reader = new SensorFileReader(file.getPath());
+        assertEquals(SensorFileReader.BAD_CRC, reader.read());
+
+        write("");
+        assertEquals(SensorFileReader.BAD_CRC, reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void readsPlainValue() throws IOException {
+        File file = write("45000\n");
+        SensorFileReader reader = new SensorFileReader(file.getPath());
+        assertEquals(45000, reader.read());
+        reader.close();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void garbageIsNotANumber() throws IOException {
+        File file = write("garbage\n");
+        new SensorFileReader(file.getPath()).read();
+    }
+
+    private File write(final String content) throws IOException {
+        File file = new File(folder.getRoot(), "w1_slave");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,122 @@
+import com.sb.elsinore.Startup;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starting devices in parallel with a timeout.
+ */
+public class StartupTest {
+
+    @Test
+    public void tasksRunTogether() {
+        Startup startup = new Startup(5000);
+        final CountDownLatch both = new CountDownLatch(2);
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        for (String name : new String[] {"device/Mash", "device/HLT"}) {
+            tasks.put(name, new Runnable() {
+                @Override
+                public void run() {
+                    both.countDown();
+                    try {
+                        // Only finishes if the other one is running too
+                        both.await(2, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        List<String> late = startup.runInParallel("devices", tasks);
+
+        assertTrue(late.isEmpty());
+        assertEquals(0, both.getCount());
+        Map<String, Long> timings = startup.getTimings();
+        assertTrue(timings.containsKey("devices/device/Mash"));
+        assertTrue(timings.containsKey("devices/device/HLT"));
+        assertTrue(timings.containsKey("devices"));
+        assertTrue(timings.get("devices") < 2000);
+    }
+
+    @Test
+    public void slowTaskIsLeftRunning() throws Exception {
+        Startup startup = new Startup(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("device/Slow", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finished.countDown();
+            }
+        });
+        tasks.put("device/Fast", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        List<String> late = startup.runInParallel("devices", tasks);
+
+        assertEquals(1, late.size());
+        assertEquals("device/Slow", late.get(0));
+        assertTrue(startup.isPending("device/Slow"));
+        assertFalse(startup.isPending("device/Fast"));
+
+        // It attaches whenever it does finish
+        release.countDown();
+        assertTrue(finished.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && startup.isPending("device/Slow"); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(startup.isPending("device/Slow"));
+        assertTrue(startup.getTimings().containsKey("devices/device/Slow"));
+    }
+
+    @Test
+    public void failedTaskDoesNotStopTheRest() {
+        Startup startup = new Startup(1000);
+        final boolean[] ran = new boolean[1];
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("switch/Broken", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("No GPIO");
+            }
+        });
+        tasks.put("switch/Pump", new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        });
+
+        assertTrue(startup.runInParallel("devices", tasks).isEmpty());
+        assertTrue(ran[0]);
+
+        startup.run("scan", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        assertFalse(startup.isComplete());
+        startup.complete();
+        assertTrue(startup.isComplete());
+        assertTrue(startup.getTimings().containsKey("scan"));
+        assertTrue(startup.getTimings().containsKey("total"));
+    }
+}
@@ -0,0 +1,78 @@
+import com.sb.elsinore.StatusSnapshot;
+import org.json.simple.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Rebuilding only the parts of the status that changed.
+ */
+public class StatusSnapshotTest {
+
+    /**
+     * Counts the builds of a fragment.
+     */
+    private static final class CountingBuilder
+            implements StatusSnapshot.Builder {
+        private final String name;
+        private int builds = 0;
+
+        CountingBuilder(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String build() {
+            builds++;
+            return "{\"name\":\"" + name + "\",\"build\":" + builds + "}";
+        }
+    }
+
+    @Test
+    public void unchangedFragmentIsReused() {
+        StatusSnapshot.Fragment fragment = new StatusSnapshot.Fragment();
+        CountingBuilder builder = new CountingBuilder("Mash");
+
+        Object first = fragment.get(builder);
+        assertSame(first, fragment.get(builder));
+        assertEquals(1, builder.builds);
+
+        fragment.changed();
+        fragment.get(builder);
+        assertEquals(2, builder.builds);
+    }
+
+    @Test
+    public void onlyTheChangedVesselIsRebuilt() {
+        StatusSnapshot.Fragment mash = new StatusSnapshot.Fragment();
+        StatusSnapshot.Fragment hlt = new StatusSnapshot.Fragment();
+        CountingBuilder mashBuilder = new CountingBuilder("Mash");
+        CountingBuilder hltBuilder = new CountingBuilder("HLT");
+        mash.get(mashBuilder);
+        hlt.get(hltBuilder);
+
+        hlt.changed();
+        mash.get(mashBuilder);
+        hlt.get(hltBuilder);
+        assertEquals(1, mashBuilder.builds);
+        assertEquals(2, hltBuilder.builds);
+
+        // A change that isn't tied to a vessel rebuilds them all
+        StatusSnapshot.publish();
+        mash.get(mashBuilder);
+        hlt.get(hltBuilder);
+        assertEquals(2, mashBuilder.builds);
+        assertEquals(3, hltBuilder.builds);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fragmentIsWrittenAsItIs() {
+        StatusSnapshot.Fragment fragment = new StatusSnapshot.Fragment();
+        JSONArray vessels = new JSONArray();
+        vessels.add(fragment.get(new CountingBuilder("Mash")));
+        assertEquals("[{\"name\":\"Mash\",\"build\":1}]",
+                vessels.toJSONString());
+    }
+}
@@ -0,0 +1,75 @@
+import com.sb.elsinore.StatusStream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Limiting the number of open status streams.
+ */
+public class StatusStreamTest {
+
+    @After
+    public void resetLimit() {
+        StatusStream.setMaxStreams(StatusStream.DEFAULT_MAX_STREAMS);
+    }
+
+    @Test
+    public void closingFreesTheSlot() {
+        StatusStream.setMaxStreams(StatusStream.getOpenStreams() + 1);
+        StatusStream stream = StatusStream.open();
+        assertNotNull(stream);
+        assertNull(StatusStream.open());
+
+        stream.close();
+        stream.close();
+        stream = StatusStream.open();
+        assertNotNull(stream);
+        stream.close();
+    }
+
+    @Test
+    public void concurrentOpensNeverPassTheLimit() throws Exception {
+        final int base = StatusStream.getOpenStreams();
+        StatusStream.setMaxStreams(base + 4);
+        final List<StatusStream> opened =
+                Collections.synchronizedList(new ArrayList<StatusStream>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    StatusStream stream = StatusStream.open();
+                    if (stream != null) {
+                        opened.add(stream);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(4, opened.size());
+        assertEquals(base + 4, StatusStream.getOpenStreams());
+        for (StatusStream stream : opened) {
+            stream.close();
+        }
+        assertEquals(base, StatusStream.getOpenStreams());
+    }
+}
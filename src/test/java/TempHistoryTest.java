@@ -0,0 +1,128 @@
+import com.sb.elsinore.TempHistory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The running mean, variance and slope of a probe's latest readings.
+ */
+public class TempHistoryTest {
+
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Work the statistics out the long way from the latest readings.
+     */
+    private static double[] bruteForce(final List<Long> times,
+            final List<Double> values, final int count) {
+        int n = Math.min(count, values.size());
+        int start = values.size() - n;
+        double mean = 0;
+        for (int i = start; i < values.size(); i++) {
+            mean += values.get(i);
+        }
+        mean /= n;
+        double variance = 0;
+        double meanT = 0;
+        for (int i = start; i < values.size(); i++) {
+            variance += (values.get(i) - mean) * (values.get(i) - mean);
+            meanT += minutes(times, start, i);
+        }
+        variance /= n;
+        meanT /= n;
+        double covariance = 0;
+        double varianceT = 0;
+        for (int i = start; i < values.size(); i++) {
+            double t = minutes(times, start, i) - meanT;
+            covariance += t * (values.get(i) - mean);
+            varianceT += t * t;
+        }
+        double slope = varianceT == 0 ? 0 : covariance / varianceT;
+        return new double[] {mean, variance, slope};
+    }
+
+    /**
+     * Minutes since the first reading used, small enough to stay precise.
+     */
+    private static double minutes(final List<Long> times, final int start,
+            final int i) {
+        return (times.get(i) - times.get(start)) / 60000.0;
+    }
+
+    @Test
+    public void matchesTheLongWayAcrossWrapsAndRebases() {
+        TempHistory history = new TempHistory(8);
+        List<Long> times = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        long time = 1400000000000L;
+        // Enough readings to wrap the ring and rebase the sums several times
+        for (int i = 0; i < 50; i++) {
+            time += 500 + (i % 3) * 100;
+            double value = 150 + i * 0.25 + Math.sin(i) * 3;
+            history.add(time, value);
+            times.add(time);
+            values.add(value);
+
+            for (int count : new int[] {1, 2, 5, 8}) {
+                double[] expected = bruteForce(times, values, count);
+                assertEquals(expected[0], history.getMean(count), DELTA);
+                assertEquals(expected[1], history.getVariance(count), 1e-6);
+                if (Math.min(count, values.size()) >= 2) {
+                    assertEquals(expected[2], history.getSlope(count), 1e-6);
+                }
+            }
+        }
+        assertEquals(8, history.size());
+        assertEquals(values.get(49), history.getLatest(), 0);
+        assertEquals(time, history.getLatestTime());
+    }
+
+    @Test
+    public void countLargerThanTheReadingsUsesThemAll() {
+        TempHistory history = new TempHistory(10);
+        history.add(0, 10);
+        history.add(1000, 20);
+        history.add(2000, 30);
+        assertEquals(20, history.getMean(100), DELTA);
+        assertEquals(20, history.getMean(), DELTA);
+        assertEquals(200.0 / 3, history.getVariance(100), DELTA);
+        // 10 degrees a second
+        assertEquals(600, history.getSlope(100), DELTA);
+    }
+
+    @Test
+    public void emptyHistory() {
+        TempHistory history = new TempHistory(4);
+        assertTrue(Double.isNaN(history.getMean()));
+        assertTrue(Double.isNaN(history.getVariance()));
+        assertTrue(Double.isNaN(history.getLatest()));
+        assertTrue(Double.isNaN(history.getMeanSince(0)));
+        assertEquals(0, history.getSlope(), 0);
+
+        history.add(1000, 5);
+        history.clear();
+        assertEquals(0, history.size());
+        assertTrue(Double.isNaN(history.getMean()));
+        history.add(2000, 7);
+        assertEquals(7, history.getMean(), DELTA);
+    }
+
+    @Test
+    public void meanSinceATime() {
+        TempHistory history = new TempHistory(120);
+        for (int i = 0; i <= 20; i++) {
+            history.add(500L * i, i);
+        }
+        // The last five seconds at 500ms is the latest ten readings
+        assertEquals(10, history.countSince(10000 - 5000));
+        assertEquals(15.5, history.getMeanSince(10000 - 5000), DELTA);
+        assertEquals(21, history.countSince(-1));
+        // Nothing that recent, fall back to the latest reading
+        assertEquals(0, history.countSince(20000));
+        assertEquals(20, history.getMeanSince(20000), DELTA);
+    }
+}
@@ -0,0 +1,130 @@
+import com.sb.elsinore.LaunchControl;
+import com.sb.elsinore.Temp;
+import com.sb.elsinore.TriggerControl;
+import com.sb.elsinore.triggers.TemperatureTrigger;
+import com.sb.elsinore.triggers.TriggerInterface;
+import com.sb.elsinore.triggers.WaitTrigger;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stepping through triggers as the scheduler would, tick by tick.
+ */
+public class TriggerControlTest {
+
+    private TriggerControl control;
+    private Temp mash;
+
+    @Before
+    public void setUp() {
+        control = new TriggerControl();
+        mash = new Temp("Mash", "28-trigger-test");
+        LaunchControl.tempList.add(mash);
+    }
+
+    @After
+    public void tearDown() {
+        LaunchControl.tempList.remove(mash);
+    }
+
+    private TemperatureTrigger increaseTo(final int position,
+            final String target) {
+        JSONObject parameters = new JSONObject();
+        parameters.put("method", "Infusion");
+        parameters.put("stepType", "Mash");
+        parameters.put("tempprobe", "Mash");
+        parameters.put("mode", TemperatureTrigger.INCREASE);
+        parameters.put("targetTemperature", target);
+        parameters.put("exitTemperature", target);
+        return new TemperatureTrigger(position, parameters);
+    }
+
+    @Test
+    public void waitStepsFireAtTheirDeadline() {
+        control.addTrigger(new WaitTrigger(0, 0, 2));
+        control.addTrigger(new WaitTrigger(1, 0, 1));
+        assertTrue(control.activateTrigger(0));
+
+        assertTrue(control.checkTriggers(1000));
+        assertEquals(0, control.getCurrentTrigger().getPosition());
+        assertTrue(control.checkTriggers(2999));
+        assertEquals(0, control.getCurrentTrigger().getPosition());
+
+        // The next step starts in the same tick
+        assertTrue(control.checkTriggers(3000));
+        assertEquals(1, control.getCurrentTrigger().getPosition());
+        assertTrue(control.checkTriggers(3999));
+        assertEquals(1, control.getCurrentTrigger().getPosition());
+
+        assertTrue(control.checkTriggers(4000));
+        assertNull(control.getCurrentTrigger());
+    }
+
+    @Test
+    public void temperatureStepFiresOnTheReading() {
+        TriggerInterface heat = increaseTo(0, "65");
+        control.addTrigger(heat);
+        control.addTrigger(new WaitTrigger(1, 10, 0));
+        mash.updateTemp(60, null);
+        assertTrue(control.activateTrigger(0));
+
+        control.checkTriggers(1000);
+        control.checkTriggers(60000);
+        assertTrue(heat.isActive());
+
+        mash.updateTemp(64, null);
+        control.checkTriggers(60100);
+        assertTrue(heat.isActive());
+
+        mash.updateTemp(65.5, null);
+        control.checkTriggers(60200);
+        assertFalse(heat.isActive());
+        assertEquals(1, control.getCurrentTrigger().getPosition());
+    }
+
+    @Test
+    public void deactivatedStepStopsWatchingTheProbe() {
+        TriggerInterface heat = increaseTo(0, "65");
+        control.addTrigger(heat);
+        mash.updateTemp(60, null);
+        assertTrue(control.activateTrigger(0));
+        control.checkTriggers(1000);
+
+        control.deactivateTrigger(-1);
+        control.checkTriggers(1100);
+        mash.updateTemp(70, null);
+        control.checkTriggers(1200);
+        assertNull(control.getCurrentTrigger());
+    }
+
+    @Test
+    public void reactivatingRestartsTheStep() {
+        WaitTrigger wait = new WaitTrigger(0, 0, 2);
+        control.addTrigger(wait);
+        assertTrue(control.activateTrigger(0));
+        control.checkTriggers(1000);
+
+        assertTrue(control.activateTrigger(0));
+        control.checkTriggers(2500);
+        control.checkTriggers(3000);
+        assertTrue(wait.isActive());
+        control.checkTriggers(4500);
+        assertFalse(wait.isActive());
+    }
+
+    @Test
+    public void shutdownStopsTheTask() {
+        control.addTrigger(new WaitTrigger(0, 0, 2));
+        assertTrue(control.activateTrigger(0));
+        assertTrue(control.checkTriggers(1000));
+        control.setShutdownFlag(true);
+        assertFalse(control.checkTriggers(1100));
+    }
+}
@@ -0,0 +1,92 @@
+import com.sb.elsinore.VolumeCalibration;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Converting sensor readings to volumes.
+ */
+public class VolumeCalibrationTest {
+
+    private final Map<BigDecimal, BigDecimal> points = new HashMap<>();
+
+    private void point(final String volume, final String reading) {
+        points.put(new BigDecimal(volume), new BigDecimal(reading));
+    }
+
+    @Test
+    public void interpolatesLinearly() {
+        point("0", "1.0");
+        point("10", "2.0");
+        point("30", "3.0");
+        VolumeCalibration calibration = VolumeCalibration.compile(points, false);
+
+        assertEquals(3, calibration.size());
+        assertEquals(10, calibration.getVolume(2.0), 0.0001);
+        assertEquals(5, calibration.getVolume(1.5), 0.0001);
+        assertEquals(20, calibration.getVolume(2.5), 0.0001);
+        // Extrapolated along the end segments
+        assertEquals(40, calibration.getVolume(3.5), 0.0001);
+        assertEquals(-5, calibration.getVolume(0.5), 0.0001);
+    }
+
+    @Test
+    public void fallingReadings() {
+        point("0", "3.0");
+        point("10", "2.0");
+        point("20", "1.0");
+        VolumeCalibration calibration = VolumeCalibration.compile(points, false);
+
+        assertEquals(15, calibration.getVolume(1.5), 0.0001);
+        assertEquals(0, calibration.getVolume(3.0), 0.0001);
+    }
+
+    @Test
+    public void outOfOrderPointIsRejected() {
+        point("0", "1.0");
+        point("10", "2.0");
+        point("20", "5.0");
+        point("30", "3.0");
+        point("40", "4.0");
+        VolumeCalibration calibration = VolumeCalibration.compile(points, false);
+
+        assertEquals(1, calibration.getRejected());
+        assertEquals(4, calibration.size());
+        assertEquals(20, calibration.getVolume(2.5), 0.0001);
+    }
+
+    @Test
+    public void splineIsMonotoneAndHitsThePoints() {
+        point("0", "1.0");
+        point("5", "2.0");
+        point("20", "3.0");
+        point("21", "4.0");
+        VolumeCalibration calibration = VolumeCalibration.compile(points, true);
+
+        assertTrue(calibration.isSpline());
+        assertEquals(5, calibration.getVolume(2.0), 0.0001);
+        assertEquals(20, calibration.getVolume(3.0), 0.0001);
+        double previous = calibration.getVolume(1.0);
+        for (double reading = 1.01; reading <= 4.0; reading += 0.01) {
+            double volume = calibration.getVolume(reading);
+            assertTrue(volume >= previous);
+            previous = volume;
+        }
+    }
+
+    @Test
+    public void needsTwoPoints() {
+        assertNull(VolumeCalibration.compile(null, false));
+        point("0", "1.0");
+        assertNull(VolumeCalibration.compile(points, false));
+        point("10", "2.0");
+        assertFalse(VolumeCalibration.compile(points, true).isSpline());
+    }
+}
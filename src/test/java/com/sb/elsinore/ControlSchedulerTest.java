@@ -0,0 +1,197 @@
+package com.sb.elsinore;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Running tasks phase by phase on the tick, driven by hand.
+ */
+public class ControlSchedulerTest {
+
+    private static final long TICK = 100;
+
+    private final ControlScheduler scheduler = new ControlScheduler(TICK, 4);
+    private final long start = System.currentTimeMillis();
+
+    @After
+    public void stop() {
+        scheduler.stop();
+    }
+
+    /**
+     * Records its name when it runs.
+     */
+    private static ControlScheduler.Task recording(final List<String> runs,
+            final String name) {
+        return new ControlScheduler.Task() {
+            @Override
+            public boolean run(final long now) {
+                runs.add(name);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Counts its runs.
+     */
+    private static ControlScheduler.Task counting(final AtomicInteger runs,
+            final boolean keep) {
+        return new ControlScheduler.Task() {
+            @Override
+            public boolean run(final long now) {
+                runs.incrementAndGet();
+                return keep;
+            }
+        };
+    }
+
+    @Test
+    public void phasesRunInOrder() {
+        List<String> runs = Collections.synchronizedList(
+                new ArrayList<String>());
+        scheduler.add("actuate", ControlScheduler.Phase.ACTUATE, TICK,
+                recording(runs, "actuate"));
+        scheduler.add("control", ControlScheduler.Phase.CONTROL, TICK,
+                recording(runs, "control"));
+        scheduler.add("sample", ControlScheduler.Phase.SAMPLE, TICK,
+                recording(runs, "sample"));
+
+        scheduler.tick(start);
+        assertEquals(Arrays.asList("sample", "control", "actuate"), runs);
+        assertEquals(1, scheduler.getTicks());
+    }
+
+    @Test
+    public void periodIsRoundedUpToWholeTicks() {
+        AtomicInteger runs = new AtomicInteger();
+        ControlScheduler.Registration registration = scheduler.add("control",
+                ControlScheduler.Phase.CONTROL, 250, counting(runs, true));
+        assertEquals(300, registration.getPeriod());
+        assertEquals(TICK, scheduler.add("fast", ControlScheduler.Phase.CONTROL,
+                0, counting(new AtomicInteger(), true)).getPeriod());
+
+        // Runs on ticks 0, 3 and 6
+        for (int i = 0; i <= 7; i++) {
+            scheduler.tick(start + i * TICK);
+        }
+        assertEquals(3, runs.get());
+    }
+
+    @Test
+    public void cancelledTasksStopRunning() {
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        AtomicInteger doneRuns = new AtomicInteger();
+        ControlScheduler.Registration cancelled = scheduler.add("cancelled",
+                ControlScheduler.Phase.CONTROL, TICK,
+                counting(cancelledRuns, true));
+        ControlScheduler.Registration done = scheduler.add("done",
+                ControlScheduler.Phase.CONTROL, TICK,
+                counting(doneRuns, false));
+
+        cancelled.cancel();
+        for (int i = 0; i < 3; i++) {
+            scheduler.tick(start + i * TICK);
+        }
+        assertEquals(0, cancelledRuns.get());
+        assertEquals(1, doneRuns.get());
+        assertTrue(done.isCancelled());
+        assertTrue(scheduler.getRegistrations().isEmpty());
+    }
+
+    @Test
+    public void slowTaskAndLateClockAreOverruns() {
+        ControlScheduler.Registration slow = scheduler.add("slow",
+                ControlScheduler.Phase.CONTROL, TICK,
+                new ControlScheduler.Task() {
+                    @Override
+                    public boolean run(final long now) throws Exception {
+                        Thread.sleep(TICK + 50);
+                        return true;
+                    }
+                });
+
+        long now = System.currentTimeMillis();
+        scheduler.tick(now);
+        assertEquals(1, slow.getOverruns());
+        assertEquals(1, scheduler.getTaskOverruns());
+        // The tick took longer than a tick
+        assertEquals(1, scheduler.getTickOverruns());
+
+        slow.cancel();
+        // The next tick came three ticks later
+        scheduler.tick(now + 3 * TICK);
+        assertEquals(2, scheduler.getTickOverruns());
+        assertEquals(1, scheduler.getTaskOverruns());
+    }
+
+    @Test
+    public void sampleStillRunningIsSkipped() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        ControlScheduler.Registration sample = scheduler.add("probe",
+                ControlScheduler.Phase.SAMPLE, TICK,
+                new ControlScheduler.Task() {
+                    @Override
+                    public boolean run(final long now) throws Exception {
+                        runs.incrementAndGet();
+                        release.await();
+                        return true;
+                    }
+                });
+        final List<String> controls = Collections.synchronizedList(
+                new ArrayList<String>());
+        scheduler.add("control", ControlScheduler.Phase.CONTROL, TICK,
+                recording(controls, "control"));
+
+        // The control loop doesn't wait for the slow read
+        scheduler.tick(start);
+        assertEquals(1, controls.size());
+        scheduler.tick(start + TICK);
+        assertEquals(2, controls.size());
+        assertEquals(1, runs.get());
+        assertEquals(1, sample.getOverruns());
+
+        // Started again once it's done
+        release.countDown();
+        for (int i = 2; i < 50 && runs.get() < 2; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            scheduler.tick(start + i * TICK);
+        }
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void samplersFollowTheSampleTasks() {
+        assertEquals(1, scheduler.getSamplers());
+        List<ControlScheduler.Registration> samples = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            samples.add(scheduler.add("probe" + i,
+                    ControlScheduler.Phase.SAMPLE, TICK,
+                    counting(new AtomicInteger(), true)));
+        }
+        // Capped at the limit
+        assertEquals(4, scheduler.getSamplers());
+        scheduler.setMaxSamplers(8);
+        assertEquals(6, scheduler.getSamplers());
+
+        for (int i = 0; i < 4; i++) {
+            samples.get(i).cancel();
+        }
+        scheduler.tick(start);
+        assertEquals(2, scheduler.getSamplers());
+        assertFalse(samples.get(4).isCancelled());
+    }
+}
@@ -0,0 +1,124 @@
+package com.sb.elsinore.timeseries;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encoding samples with delta-of-delta timestamps and XORed values.
+ */
+public class BlockTest {
+
+    private static SeriesData roundTrip(final long[] timestamps,
+            final double[] values) throws IOException {
+        Block block = new Block();
+        for (int i = 0; i < timestamps.length; i++) {
+            block.append(timestamps[i], values[i]);
+        }
+        ByteBuffer buffer = block.toByteBuffer();
+        SeriesReader.BlockInfo info =
+                SeriesReader.parseHeader(buffer.duplicate(), 0);
+        assertEquals(timestamps.length, info.getCount());
+        assertEquals(timestamps[0], info.getFirstTimestamp());
+        assertEquals(timestamps[timestamps.length - 1],
+                info.getLastTimestamp());
+        assertTrue(buffer.remaining() <= Block.maxSize(timestamps.length));
+
+        byte[] payload = new byte[buffer.remaining() - Block.HEADER_SIZE];
+        buffer.position(Block.HEADER_SIZE);
+        buffer.get(payload);
+        SeriesData data = new SeriesData();
+        Block.decode(payload, info.getCount(), data);
+        return data;
+    }
+
+    private static void assertSame(final long[] timestamps,
+            final double[] values, final SeriesData data) {
+        assertEquals(timestamps.length, data.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], data.getTimestamp(i));
+            // Compare the bits, so NaN and -0.0 have to survive as well
+            assertEquals(Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(data.getValue(i)));
+        }
+    }
+
+    @Test
+    public void bitsRoundTrip() throws IOException {
+        BitOutput out = new BitOutput(1);
+        out.writeBit(true);
+        out.writeBits(0x5, 3);
+        out.writeBits(-1L, 64);
+        out.writeBit(false);
+        out.writeBits(Long.MIN_VALUE, 64);
+        out.writeBits(0x2A, 7);
+        assertEquals(1 + 3 + 64 + 1 + 64 + 7, out.bitLength());
+
+        BitInput in = new BitInput(out.toByteArray());
+        assertTrue(in.readBit());
+        assertEquals(0x5, in.readBits(3));
+        assertEquals(-1L, in.readBits(64));
+        assertFalse(in.readBit());
+        assertEquals(Long.MIN_VALUE, in.readBits(64));
+        assertEquals(0x2A, in.readBits(7));
+    }
+
+    @Test(expected = IOException.class)
+    public void readingPastTheEndFails() throws IOException {
+        BitOutput out = new BitOutput();
+        out.writeBits(0xFF, 8);
+        BitInput in = new BitInput(out.toByteArray());
+        in.readBits(8);
+        in.readBit();
+    }
+
+    @Test
+    public void regularSamplesRoundTrip() throws IOException {
+        long[] timestamps = new long[100];
+        double[] values = new double[100];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1400000000000L + 5000L * i;
+            values[i] = 65 + (i % 7) * 0.0625;
+        }
+        assertSame(timestamps, values, roundTrip(timestamps, values));
+    }
+
+    @Test
+    public void everyDeltaOfDeltaWidthRoundTrips() throws IOException {
+        // Repeated deltas, then negative and positive jumps that need
+        // each of the 7, 9, 12 and 64 bit encodings, and equal timestamps
+        long[] timestamps = {0, 1000, 2000, 3000, 3010, 3020, 3020, 3020,
+            3200, 3210, 5000, 5001, 100000, 100001, 100002,
+            Long.MAX_VALUE / 2};
+        double[] values = new double[timestamps.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        assertSame(timestamps, values, roundTrip(timestamps, values));
+    }
+
+    @Test
+    public void specialValuesRoundTrip() throws IOException {
+        double[] values = {0.0, -0.0, 0.0, Double.NaN, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, -Double.MAX_VALUE, 1.0, 1.0, 1.0, -273.15,
+            Double.longBitsToDouble(0x7ff8000000000001L)};
+        long[] timestamps = new long[values.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1000L * i;
+        }
+        assertSame(timestamps, values, roundTrip(timestamps, values));
+    }
+
+    @Test
+    public void singleSampleRoundTrips() throws IOException {
+        long[] timestamps = {-5};
+        double[] values = {Double.NaN};
+        assertSame(timestamps, values, roundTrip(timestamps, values));
+    }
+}
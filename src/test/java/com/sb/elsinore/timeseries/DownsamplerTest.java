@@ -0,0 +1,108 @@
+package com.sb.elsinore.timeseries;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reducing a series to a number of points for graphing.
+ */
+public class DownsamplerTest {
+
+    /**
+     * A flat series a second apart with a spike up and a dip down.
+     */
+    private static SeriesData flatWithSpikes(final int size) {
+        SeriesData data = new SeriesData(size);
+        for (int i = 0; i < size; i++) {
+            double value = 20;
+            if (i == size / 3) {
+                value = 90;
+            } else if (i == 2 * size / 3) {
+                value = -10;
+            }
+            data.add(1000L * i, value);
+        }
+        return data;
+    }
+
+    private static boolean contains(final SeriesData data, final long time,
+            final double value) {
+        for (int i = 0; i < data.size(); i++) {
+            if (data.getTimestamp(i) == time && data.getValue(i) == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertInOrder(final SeriesData data) {
+        for (int i = 1; i < data.size(); i++) {
+            assertTrue(data.getTimestamp(i) >= data.getTimestamp(i - 1));
+        }
+    }
+
+    @Test
+    public void smallSeriesIsLeftAlone() {
+        SeriesData data = flatWithSpikes(10);
+        assertSame(data, Downsampler.downsample(data, 10,
+                Downsampler.Mode.LTTB));
+        assertSame(data, Downsampler.downsample(data, 0,
+                Downsampler.Mode.MINMAX));
+    }
+
+    @Test
+    public void lttbKeepsTheEndsAndTheSpikes() {
+        SeriesData data = flatWithSpikes(1000);
+        SeriesData sampled = Downsampler.downsample(data, 50,
+                Downsampler.Mode.LTTB);
+
+        assertEquals(50, sampled.size());
+        assertEquals(0, sampled.getTimestamp(0));
+        assertEquals(999000, sampled.getTimestamp(49));
+        assertTrue(contains(sampled, 333000, 90));
+        assertTrue(contains(sampled, 666000, -10));
+        assertInOrder(sampled);
+    }
+
+    @Test
+    public void minMaxKeepsTheExtremesOfEachBucket() {
+        SeriesData data = new SeriesData();
+        for (int i = 0; i < 100; i++) {
+            data.add(1000L * i, Math.sin(i / 3.0) * i);
+        }
+        int maxPoints = 20;
+        SeriesData sampled = Downsampler.downsample(data, maxPoints,
+                Downsampler.Mode.MINMAX);
+        assertTrue(sampled.size() <= maxPoints);
+        assertInOrder(sampled);
+
+        // Every bucket of 10 samples gives its own min and max
+        for (int bucket = 0; bucket < maxPoints / 2; bucket++) {
+            int min = bucket * 10;
+            int max = bucket * 10;
+            for (int i = bucket * 10; i < bucket * 10 + 10; i++) {
+                if (data.getValue(i) < data.getValue(min)) {
+                    min = i;
+                }
+                if (data.getValue(i) > data.getValue(max)) {
+                    max = i;
+                }
+            }
+            assertTrue(contains(sampled, data.getTimestamp(min),
+                    data.getValue(min)));
+            assertTrue(contains(sampled, data.getTimestamp(max),
+                    data.getValue(max)));
+        }
+    }
+
+    @Test
+    public void unknownModeIsLttb() {
+        assertEquals(Downsampler.Mode.MINMAX,
+                Downsampler.Mode.parse("minmax"));
+        assertEquals(Downsampler.Mode.LTTB, Downsampler.Mode.parse("bogus"));
+        assertEquals(Downsampler.Mode.LTTB, Downsampler.Mode.parse(null));
+    }
+}
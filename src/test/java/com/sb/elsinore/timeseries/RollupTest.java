@@ -0,0 +1,177 @@
+package com.sb.elsinore.timeseries;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Aggregating the raw samples into the coarser tiers.
+ */
+public class RollupTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void bucketsKeepMinMaxMeanAndCount() throws IOException {
+        File directory = folder.newFolder("graph");
+        RollupStore rollups = new RollupStore(directory);
+        // Minute 0: 1..6 every 10s, minute 1: 10 and 20, minute 2: 7
+        for (int i = 0; i < 6; i++) {
+            rollups.append("temp", i * 10000L, i + 1);
+        }
+        rollups.append("temp", MINUTE + 5000, 10);
+        rollups.append("temp", MINUTE + 55000, 20);
+        rollups.append("temp", 2 * MINUTE + 1, 7);
+
+        // The open bucket is read from memory
+        SeriesData means = rollups.read("temp", RollupTier.ONE_MINUTE,
+                0, Long.MAX_VALUE, Downsampler.Mode.LTTB);
+        assertEquals(3, means.size());
+        assertEquals(0, means.getTimestamp(0));
+        assertEquals(3.5, means.getValue(0), 1e-9);
+        assertEquals(MINUTE, means.getTimestamp(1));
+        assertEquals(15, means.getValue(1), 1e-9);
+        assertEquals(2 * MINUTE, means.getTimestamp(2));
+        assertEquals(7, means.getValue(2), 1e-9);
+
+        SeriesData minMax = rollups.read("temp", RollupTier.ONE_MINUTE,
+                0, MINUTE, Downsampler.Mode.MINMAX);
+        assertEquals(4, minMax.size());
+        assertEquals(1, minMax.getValue(0), 0);
+        assertEquals(6, minMax.getValue(1), 0);
+        assertEquals(10, minMax.getValue(2), 0);
+        assertEquals(20, minMax.getValue(3), 0);
+
+        // Everything is in one fifteen minute bucket
+        SeriesData quarter = rollups.read("temp",
+                RollupTier.FIFTEEN_MINUTES, 0, Long.MAX_VALUE,
+                Downsampler.Mode.LTTB);
+        assertEquals(1, quarter.size());
+        assertEquals((21 + 30 + 7) / 9.0, quarter.getValue(0), 1e-9);
+        rollups.close();
+
+        // One record per complete bucket, the open one is kept aside
+        List<Rollup> minutes = records(directory, RollupTier.ONE_MINUTE);
+        assertEquals(2, minutes.size());
+        assertEquals(6, minutes.get(0).getCount());
+        assertEquals(6, minutes.get(0).getLast(), 0);
+        assertEquals(2, minutes.get(1).getCount());
+        assertEquals(20, minutes.get(1).getLast(), 0);
+        assertEquals(0, records(directory, RollupTier.ONE_HOUR).size());
+
+        // It's still read, from the open bucket file
+        means = new RollupStore(directory).read("temp",
+                RollupTier.ONE_MINUTE, 0, Long.MAX_VALUE,
+                Downsampler.Mode.LTTB);
+        assertEquals(3, means.size());
+        assertEquals(7, means.getValue(2), 1e-9);
+    }
+
+    /**
+     * Read the complete buckets of a tier straight from its file.
+     */
+    private static List<Rollup> records(final File directory,
+            final RollupTier tier) throws IOException {
+        File file = RollupStore.getFile(directory, tier, "temp");
+        List<Rollup> buckets = new ArrayList<>();
+        if (!file.exists()) {
+            return buckets;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        assertEquals(0, bytes.remaining() % RollupFile.SIZE);
+        while (bytes.hasRemaining()) {
+            Rollup bucket = new Rollup(tier);
+            bucket.readRecord(bytes);
+            bytes.getInt();
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+
+    @Test
+    public void restartCarriesOnWithTheOpenBucket() throws IOException {
+        File directory = folder.newFolder("graph");
+        long hour = 1000 * 3600 * 1000L;
+        RollupStore first = new RollupStore(directory);
+        for (int i = 0; i < 10; i++) {
+            first.append("temp", hour + i * 1000L, 10);
+        }
+        first.close();
+
+        RollupStore second = new RollupStore(directory);
+        for (int i = 10; i < 20; i++) {
+            second.append("temp", hour + i * 1000L, 20);
+        }
+        SeriesData means = second.read("temp", RollupTier.ONE_HOUR, 0,
+                Long.MAX_VALUE, Downsampler.Mode.LTTB);
+        assertEquals(1, means.size());
+        assertEquals(hour, means.getTimestamp(0));
+        assertEquals(15, means.getValue(0), 1e-9);
+        assertEquals(2, second.read("temp", RollupTier.ONE_HOUR, 0,
+                Long.MAX_VALUE, Downsampler.Mode.MINMAX).size());
+
+        // The next hour completes it, written once with every sample
+        second.append("temp", 2 * hour, 30);
+        second.close();
+        List<Rollup> hours = records(directory, RollupTier.ONE_HOUR);
+        assertEquals(1, hours.size());
+        assertEquals(hour, hours.get(0).getStart());
+        assertEquals(20, hours.get(0).getCount());
+        assertEquals(15, hours.get(0).getMean(), 1e-9);
+    }
+
+    @Test
+    public void crashAfterTheBucketIsWrittenDoesNotWriteItAgain()
+            throws IOException {
+        File directory = folder.newFolder("graph");
+        RollupStore crashed = new RollupStore(directory);
+        crashed.append("temp", 1000, 1);
+        crashed.sync();
+        // Completes minute 0, but the open buckets aren't saved again
+        crashed.append("temp", MINUTE + 1000, 2);
+        crashed.sync();
+        crashed.append("temp", 2 * MINUTE + 1000, 3);
+
+        // The saved copy still has minute 1 open, it's on disk already
+        RollupStore reopened = new RollupStore(directory);
+        reopened.append("temp", 3 * MINUTE, 4);
+        reopened.close();
+        List<Rollup> minutes = records(directory, RollupTier.ONE_MINUTE);
+        assertEquals(2, minutes.size());
+        assertEquals(0, minutes.get(0).getStart());
+        assertEquals(MINUTE, minutes.get(1).getStart());
+    }
+
+    @Test
+    public void bucketsStartOnTheirWidth() {
+        assertEquals(0, RollupTier.ONE_MINUTE.bucketStart(59999));
+        assertEquals(MINUTE, RollupTier.ONE_MINUTE.bucketStart(MINUTE));
+        assertEquals(-MINUTE, RollupTier.ONE_MINUTE.bucketStart(-1));
+        assertEquals(15 * MINUTE,
+                RollupTier.FIFTEEN_MINUTES.bucketStart(29 * MINUTE));
+    }
+
+    @Test
+    public void tierForResolution() {
+        assertNull(RollupTier.forResolution(59999));
+        assertEquals(RollupTier.ONE_MINUTE,
+                RollupTier.forResolution(MINUTE));
+        assertEquals(RollupTier.FIFTEEN_MINUTES,
+                RollupTier.forResolution(59 * MINUTE));
+        assertEquals(RollupTier.ONE_HOUR,
+                RollupTier.forResolution(24 * 60 * MINUTE));
+    }
+}
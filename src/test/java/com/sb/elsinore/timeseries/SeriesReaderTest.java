@@ -0,0 +1,120 @@
+package com.sb.elsinore.timeseries;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Finding and reading the blocks of a series file.
+ */
+public class SeriesReaderTest {
+
+    private static final int BLOCK_SIZE = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SeriesReader.BlockInfo block(final long first,
+            final long last) {
+        return new SeriesReader.BlockInfo(0, 1, first, last, 0, 0);
+    }
+
+    /**
+     * Write 40 samples, a second apart, 5 full blocks.
+     */
+    private File writeSeries() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        try (SeriesWriter writer = new SeriesWriter(file, BLOCK_SIZE)) {
+            for (int i = 0; i < 5 * BLOCK_SIZE; i++) {
+                writer.append(1000L * i, i);
+            }
+        }
+        return file;
+    }
+
+    private static void assertRange(final SeriesData data, final int from,
+            final int to) {
+        assertEquals(to - from + 1, data.size());
+        for (int i = 0; i < data.size(); i++) {
+            assertEquals(1000L * (from + i), data.getTimestamp(i));
+            assertEquals(from + i, data.getValue(i), 0);
+        }
+    }
+
+    @Test
+    public void firstBlockFindsTheBlockHoldingTheTimestamp() {
+        List<SeriesReader.BlockInfo> index = new ArrayList<>();
+        index.add(block(0, 90));
+        index.add(block(100, 190));
+        index.add(block(200, 290));
+
+        assertEquals(0, SeriesReader.firstBlock(index, Long.MIN_VALUE));
+        assertEquals(0, SeriesReader.firstBlock(index, 90));
+        // Between two blocks, the next one
+        assertEquals(1, SeriesReader.firstBlock(index, 95));
+        assertEquals(1, SeriesReader.firstBlock(index, 190));
+        assertEquals(2, SeriesReader.firstBlock(index, 191));
+        assertEquals(3, SeriesReader.firstBlock(index, 291));
+        assertEquals(0, SeriesReader.firstBlock(
+                new ArrayList<SeriesReader.BlockInfo>(), 5));
+    }
+
+    @Test
+    public void rangeAcrossBlockBoundaries() throws IOException {
+        File file = writeSeries();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            List<SeriesReader.BlockInfo> index =
+                    SeriesReader.scan(channel, Long.MAX_VALUE);
+            assertEquals(5, index.size());
+
+            // Starts in the second block, ends in the fourth
+            SeriesData data = new SeriesData();
+            SeriesReader.read(file, channel, index, 13000, 27000, data);
+            assertRange(data, 13, 27);
+
+            // Exactly one block
+            data = new SeriesData();
+            SeriesReader.read(file, channel, index, 8000, 15000, data);
+            assertRange(data, 8, 15);
+
+            // The last sample of one block and the first of the next
+            data = new SeriesData();
+            SeriesReader.read(file, channel, index, 7000, 8000, data);
+            assertRange(data, 7, 8);
+        }
+    }
+
+    @Test
+    public void rangeOutsideTheSeriesIsEmpty() throws IOException {
+        File file = writeSeries();
+        SeriesData data = new SeriesData();
+        SeriesReader.read(file, Long.MAX_VALUE, 50000, 60000, data);
+        assertEquals(0, data.size());
+        SeriesReader.read(file, Long.MAX_VALUE, -5000, -1, data);
+        assertEquals(0, data.size());
+    }
+
+    @Test
+    public void writerReadsFullAndOpenBlocksTogether() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        try (SeriesWriter writer = new SeriesWriter(file, BLOCK_SIZE)) {
+            for (int i = 0; i < 2 * BLOCK_SIZE + 3; i++) {
+                writer.append(1000L * i, i);
+            }
+            SeriesData data = new SeriesData();
+            writer.read(6000, 17000, data);
+            assertRange(data, 6, 17);
+            assertEquals(0, writer.getFirstTimestamp());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.sb.elsinore.timeseries;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recovering a series file after a crash or a torn write.
+ */
+public class SeriesWriterTest {
+
+    private static final int BLOCK_SIZE = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void append(final SeriesWriter writer, final int from,
+            final int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writer.append(1000L * i, i * 0.5);
+        }
+    }
+
+    private static SeriesData readAll(final SeriesWriter writer)
+            throws IOException {
+        SeriesData data = new SeriesData();
+        writer.read(Long.MIN_VALUE, Long.MAX_VALUE, data);
+        return data;
+    }
+
+    private static void assertSamples(final SeriesData data, final int count) {
+        assertEquals(count, data.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(1000L * i, data.getTimestamp(i));
+            assertEquals(i * 0.5, data.getValue(i), 0);
+        }
+    }
+
+    /**
+     * Overwrite part of a file, as a torn write would leave it.
+     */
+    private static void scribble(final File file, final long position,
+            final int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            for (int i = 0; i < length; i++) {
+                raf.write(0x5A);
+            }
+        }
+    }
+
+    @Test
+    public void syncedOpenBlockSurvivesACrash() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        SeriesWriter crashed = new SeriesWriter(file, BLOCK_SIZE);
+        append(crashed, 0, 11);
+        crashed.flush(true);
+        // Never closed, the series file only has the full block
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            assertEquals(1, SeriesReader.scan(raf.getChannel(),
+                    Long.MAX_VALUE).size());
+        }
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), 11);
+            assertFalse(PendingBlockFile.fileFor(file).exists());
+        }
+    }
+
+    @Test
+    public void tornFlushKeepsTheSyncedCopy() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        SeriesWriter crashed = new SeriesWriter(file, BLOCK_SIZE);
+        append(crashed, 0, 5);
+        crashed.flush(true);
+        append(crashed, 5, 7);
+        crashed.flush(false);
+
+        // The unsynced samples are the last frame, tear it
+        File pending = PendingBlockFile.fileFor(file);
+        scribble(pending, pending.length() - 4, 4);
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), 5);
+        }
+    }
+
+    @Test
+    public void flushAppendsOnlyTheNewSamples() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        try (SeriesWriter writer = new SeriesWriter(file, BLOCK_SIZE)) {
+            append(writer, 0, 5);
+            writer.flush(true);
+            File pending = PendingBlockFile.fileFor(file);
+            long before = pending.length();
+
+            append(writer, 5, 6);
+            writer.flush(true);
+            // A frame of one sample, the first sample is two raw longs
+            assertEquals(before + Block.HEADER_SIZE + 16, pending.length());
+            // Nothing new, nothing written
+            writer.flush(true);
+            assertEquals(before + Block.HEADER_SIZE + 16, pending.length());
+
+            // The full block goes to the series file and empties it
+            append(writer, 6, BLOCK_SIZE);
+            assertEquals(0, pending.length());
+            append(writer, BLOCK_SIZE, BLOCK_SIZE + 1);
+            writer.flush(true);
+        }
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), BLOCK_SIZE + 1);
+        }
+    }
+
+    @Test
+    public void crashAfterFlushesRecoversEveryFrame() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        SeriesWriter crashed = new SeriesWriter(file, BLOCK_SIZE);
+        append(crashed, 0, BLOCK_SIZE);
+        for (int i = BLOCK_SIZE; i < BLOCK_SIZE + 6; i += 2) {
+            append(crashed, i, i + 2);
+            crashed.flush(true);
+        }
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), BLOCK_SIZE + 6);
+        }
+    }
+
+    @Test
+    public void copyOfAFullBlockIsNotReadTwice() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        SeriesWriter crashed = new SeriesWriter(file, BLOCK_SIZE);
+        append(crashed, 0, 5);
+        crashed.flush(true);
+        // Fills the block, which goes to the series file
+        append(crashed, 5, BLOCK_SIZE);
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), BLOCK_SIZE);
+        }
+    }
+
+    @Test
+    public void tornTrailingBlockIsTruncated() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        try (SeriesWriter writer = new SeriesWriter(file, BLOCK_SIZE)) {
+            append(writer, 0, 2 * BLOCK_SIZE);
+        }
+        long firstEnd;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            firstEnd = SeriesReader.scan(raf.getChannel(), Long.MAX_VALUE)
+                    .get(0).getEnd();
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), BLOCK_SIZE);
+            assertEquals(firstEnd, file.length());
+            // New samples go after the good block
+            append(reopened, BLOCK_SIZE, BLOCK_SIZE + 2);
+            assertSamples(readAll(reopened), BLOCK_SIZE + 2);
+        }
+    }
+
+    @Test
+    public void corruptTrailingPayloadFailsItsCrc() throws IOException {
+        File file = folder.newFile("temp.tsdb");
+        try (SeriesWriter writer = new SeriesWriter(file, BLOCK_SIZE)) {
+            append(writer, 0, 2 * BLOCK_SIZE);
+        }
+        scribble(file, file.length() - 2, 1);
+
+        try (SeriesWriter reopened = new SeriesWriter(file, BLOCK_SIZE)) {
+            assertSamples(readAll(reopened), BLOCK_SIZE);
+        }
+    }
+
+    @Test
+    public void storeReadsTheOpenBlockOfAnUncleanSeries() throws IOException {
+        File directory = folder.newFolder("graph");
+        TimeSeriesStore crashed = new TimeSeriesStore(directory, 0, false);
+        for (int i = 0; i < 11; i++) {
+            crashed.append("temp", 1000L * i, i * 0.5);
+        }
+        crashed.sync();
+
+        TimeSeriesStore reader = new TimeSeriesStore(directory, 0, false);
+        assertTrue(PendingBlockFile.fileFor(reader.getFile("temp")).exists());
+        // Less than a block, so all of it is in the pending block file
+        assertSamples(reader.read("temp", Long.MIN_VALUE, Long.MAX_VALUE), 11);
+    }
+}